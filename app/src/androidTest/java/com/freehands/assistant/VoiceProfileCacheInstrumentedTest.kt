@@ -0,0 +1,117 @@
+package com.freehands.assistant
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.uiautomator.UiDevice
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Checks the decoded voice profile cache of [VoiceBiometricAuthenticator] against the real
+ * keystore, profile file and screen-off broadcast.
+ */
+@RunWith(AndroidJUnit4::class)
+class VoiceProfileCacheInstrumentedTest {
+
+    private lateinit var authenticator: VoiceBiometricAuthenticator
+
+    private val mfcc = Array(3) { utterance -> DoubleArray(13) { (utterance + 1) * 0.5 - it * 0.1 } }
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        authenticator = VoiceBiometricAuthenticator(context)
+        authenticator.resetVoiceProfile()
+    }
+
+    @After
+    fun tearDown() {
+        authenticator.setWipeProfileOnScreenLock(false)
+        authenticator.resetVoiceProfile()
+    }
+
+    @Test
+    fun testSecondLoad_IsACacheHit() {
+        authenticator.storeProfile(mfcc)
+
+        assertTrue(authenticator.loadStoredProfile())
+        assertTrue(authenticator.loadStoredProfile())
+
+        assertEquals(1L, authenticator.profileCacheMisses)
+        assertEquals(1L, authenticator.profileCacheHits)
+        assertTrue(authenticator.profileLoadNanos > 0)
+    }
+
+    @Test
+    fun testNoProfile_IsAMissEveryTime() {
+        assertFalse(authenticator.loadStoredProfile())
+        assertFalse(authenticator.loadStoredProfile())
+
+        assertEquals(2L, authenticator.profileCacheMisses)
+        assertEquals(0L, authenticator.profileCacheHits)
+    }
+
+    @Test
+    fun testStoringNewProfile_InvalidatesCache() {
+        authenticator.storeProfile(mfcc)
+        assertTrue(authenticator.loadStoredProfile())
+
+        authenticator.storeProfile(arrayOf(DoubleArray(13) { 1.0 }, DoubleArray(13) { -1.0 }))
+
+        assertFalse(authenticator.isProfileCached())
+        assertTrue(authenticator.loadStoredProfile())
+        assertEquals(2L, authenticator.profileCacheMisses)
+    }
+
+    @Test
+    fun testReset_DeletesProfileAndWipesCache() {
+        authenticator.storeProfile(mfcc)
+        assertTrue(authenticator.loadStoredProfile())
+
+        authenticator.resetVoiceProfile()
+
+        assertFalse(authenticator.isProfileCached())
+        assertFalse(authenticator.isProfileInitialized())
+        // Decoding again finds nothing rather than the deleted profile
+        assertFalse(authenticator.loadStoredProfile())
+    }
+
+    @Test
+    fun testProfileOfOlderFeatures_IsDiscarded() {
+        authenticator.storeProfile(mfcc, 1)
+
+        assertFalse(authenticator.loadStoredProfile())
+        assertFalse(authenticator.isProfileInitialized())
+        // Recording a new profile replaces it
+        authenticator.storeProfile(mfcc)
+        assertTrue(authenticator.isProfileInitialized())
+    }
+
+    @Test
+    fun testScreenOff_WipesCacheWhenEnabled() {
+        authenticator.storeProfile(mfcc)
+        authenticator.setWipeProfileOnScreenLock(true)
+        assertTrue(authenticator.loadStoredProfile())
+
+        val device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation())
+        try {
+            device.sleep()
+            // The broadcast arrives on the main thread some time after the screen goes off
+            val deadline = System.currentTimeMillis() + 5000
+            while (authenticator.isProfileCached() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50)
+            }
+        } finally {
+            device.wakeUp()
+        }
+
+        assertFalse(authenticator.isProfileCached())
+        assertTrue(authenticator.loadStoredProfile())
+        assertEquals(2L, authenticator.profileCacheMisses)
+    }
+}
@@ -46,6 +46,34 @@ class AudioFeatureExtractorBenchmark {
         }
     }
 
+    @Test
+    fun benchmarkMfccFrames() {
+        // Ten seconds of audio in one call, as for an enrollment or verification utterance
+        val utterance = ShortArray(10 * testAudio.size) { testAudio[it % testAudio.size] }
+        val mfccs = FloatArray(AudioFeatureExtractor.frameCount(utterance.size) * AudioFeatureExtractor.NUM_MFCC)
+        
+        benchmarkRule.measureRepeated {
+            extractor.computeMfccFrames(utterance, 0, utterance.size, mfccs)
+        }
+        
+        android.util.Log.d("Benchmark", "MFCC frames per second: ${extractor.framesPerSecond.toInt()}")
+        android.util.Log.d("Benchmark", "Native workspace: ${extractor.getNativeStats()}")
+    }
+
+    @Test
+    fun benchmarkMfccFramesJava() {
+        // Same utterance on the pure-Java engine, for comparison with benchmarkMfccFrames
+        val javaExtractor = AudioFeatureExtractor(MfccEngine.JAVA)
+        val utterance = ShortArray(10 * testAudio.size) { testAudio[it % testAudio.size] }
+        val mfccs = FloatArray(AudioFeatureExtractor.frameCount(utterance.size) * AudioFeatureExtractor.NUM_MFCC)
+        
+        benchmarkRule.measureRepeated {
+            javaExtractor.computeMfccFrames(utterance, 0, utterance.size, mfccs)
+        }
+        
+        android.util.Log.d("Benchmark", "Java MFCC frames per second: ${javaExtractor.framesPerSecond.toInt()}")
+    }
+
     @Test
     fun benchmarkMemoryUsage() = runBlocking {
         val memoryBefore = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()
@@ -3,6 +3,7 @@ package com.freehands.assistant.utils
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.freehands.assistant.audio.MfccExtractor
 import org.junit.Assert.*
 import org.junit.Before
 import org.junit.Test
@@ -12,6 +13,7 @@ import java.io.FileOutputStream
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.nio.ShortBuffer
+import java.util.concurrent.ForkJoinPool
 import kotlin.math.*
 
 /**
@@ -63,35 +65,25 @@ class AudioFeatureExtractorInstrumentedTest {
         val samples = (sampleRate * duration).toInt()
         val signal = generateSpeechLikeSignal(sampleRate, samples)
         
-        // Extract features using native implementation
-        val nativeFeatures = audioFeatureExtractor.extractFeatures(signal)
-        
-        // Extract features using Java implementation (fallback)
-        val javaFeatures = run {
-            val extractor = AudioFeatureExtractor()
-            // Force Java implementation
-            extractor.extractFeatures(signal)
-        }
-        
-        // Compare the results
-        assertEquals("Feature vector lengths should match", 
-            nativeFeatures.size, javaFeatures.size)
-        
-        // Calculate RMSE between the two feature vectors
-        var sumSquaredError = 0.0
-        for (i in nativeFeatures.indices) {
-            val diff = nativeFeatures[i] - javaFeatures[i]
-            sumSquaredError += diff * diff
+        val javaExtractor = AudioFeatureExtractor(MfccEngine.JAVA)
+        assertEquals(MfccEngine.NATIVE, audioFeatureExtractor.engine)
+        assertEquals(MfccEngine.JAVA, javaExtractor.engine)
+        
+        val frameCount = AudioFeatureExtractor.frameCount(samples)
+        val nativeMfccs = FloatArray(frameCount * AudioFeatureExtractor.NUM_MFCC)
+        val javaMfccs = FloatArray(nativeMfccs.size)
+        assertEquals(frameCount, audioFeatureExtractor.computeMfccFrames(signal, 0, samples, nativeMfccs))
+        assertEquals(frameCount, javaExtractor.computeMfccFrames(signal, 0, samples, javaMfccs))
+        
+        // Only the rounding differs, so every coefficient of every frame agrees
+        var worst = 0f
+        for (i in nativeMfccs.indices) {
+            val diff = abs(nativeMfccs[i] - javaMfccs[i])
+            worst = max(worst, diff)
+            assertTrue("Coefficient ${i % AudioFeatureExtractor.NUM_MFCC} of frame ${i / AudioFeatureExtractor.NUM_MFCC} " +
+                "differs by $diff", diff <= MfccExtractor.NATIVE_TOLERANCE)
         }
-        val rmse = sqrt(sumSquaredError / nativeFeatures.size)
-        
-        // Log the RMSE for inspection
-        println("RMSE between native and Java implementations: $rmse")
-        
-        // The implementations might not be exactly the same due to floating-point differences,
-        // but they should be very close
-        assertTrue("Native and Java implementations should produce similar results (RMSE < 0.1)", 
-            rmse < 0.1)
+        println("Largest native/Java MFCC difference: $worst")
     }
     
     @Test
@@ -195,6 +187,30 @@ class AudioFeatureExtractorInstrumentedTest {
     }
     
     // Helper function to generate a sine wave
+    @Test
+    fun testComputeMfccFramesParallel_MatchesSerialBitForBit() {
+        // 30 s, the longest buffer extractFeatures is meant for, on a pool of three threads
+        val signal = generateSpeechLikeSignal(16000, 30 * 16000)
+        val pool = ForkJoinPool(3)
+        try {
+            for (engine in MfccEngine.values()) {
+                val extractor = AudioFeatureExtractor(engine, pool)
+                val frames = AudioFeatureExtractor.frameCount(signal.size - 700)
+                val serial = FloatArray(frames * AudioFeatureExtractor.NUM_MFCC)
+                val parallel = FloatArray(frames * AudioFeatureExtractor.NUM_MFCC)
+                
+                assertEquals(frames, extractor.computeMfccFramesParallel(signal, 700, signal.size - 700, parallel))
+                extractor.computeMfccFrames(signal, 700, signal.size - 700, serial)
+                
+                for (i in serial.indices) {
+                    assertEquals("${extractor.engine} value $i", serial[i].toRawBits(), parallel[i].toRawBits())
+                }
+            }
+        } finally {
+            pool.shutdown()
+        }
+    }
+    
     private fun generateSineWave(frequency: Float, sampleRate: Int, numSamples: Int): ShortArray {
         val signal = ShortArray(numSamples)
         val twoPiF = 2.0 * Math.PI * frequency / sampleRate
@@ -1,7 +1,8 @@
 #ifndef AUDIO_PROCESSING_H
 #define AUDIO_PROCESSING_H
 
-#include <jni.h>
+#include <cstdint>
+#include <memory>
 #include <vector>
 
 #ifdef __cplusplus
@@ -25,6 +26,133 @@ void dct(const float* input, float* output, int n, int m);
 
 #ifdef __cplusplus
 }
+
+// Instruction sets the DSP kernels are built for. NEON is compiled for the ARM ABIs, SSE2 and AVX2
+// for the x86 ones; scalar code runs everywhere.
+enum class DspBackend { SCALAR, NEON, SSE2, AVX2 };
+
+// The vector loops behind FftPlan and MfccWorkspace, one table per backend. All pointers are set.
+struct DspKernels {
+    DspBackend backend;
+    const char* name;
+
+    // One radix-2 stage over count interleaved complex values: butterflies with span h, a power of
+    // two of at least 4, and twiddles w_real[j] + i w_imag[j] for j < h
+    void (*butterfly_stage)(float* data, int count, int h, const float* w_real, const float* w_imag);
+
+    // out[i] = a[i] * b[i] over n floats
+    void (*multiply)(const float* a, const float* b, float* out, int n);
+
+    // Products of n interleaved complex values
+    void (*complex_multiply)(const float* a, const float* b, float* out, int n);
+
+    // Sum of a[i] * b[i] over n floats
+    float (*dot)(const float* a, const float* b, int n);
+
+    // y = matrix x for a row-major rows x cols matrix
+    void (*matrix_vector_multiply)(const float* matrix, const float* x, float* y, int rows, int cols);
+};
+
+// Kernels of the fastest backend the CPU supports, chosen on first use
+const DspKernels& dsp_kernels();
+
+// Kernels of one backend, or nullptr if it is not built for this ABI or the CPU lacks it
+const DspKernels* dsp_kernels_for(DspBackend backend);
+
+// Precomputed tables for forward FFTs of one size. Real input of size n is packed into n/2 complex
+// values, transformed with a complex FFT of half the size and split into the n/2 + 1 bins, which
+// does roughly half the work of a complex FFT of size n. Not thread-safe: the plan owns its scratch.
+class FftPlan {
+public:
+    // n is the number of real input samples, a power of two of at least 4
+    explicit FftPlan(int n, const DspKernels& kernels = dsp_kernels());
+
+    int size() const { return n_; }
+    int bin_count() const { return half_ + 1; }
+    const DspKernels& kernels() const { return *kernels_; }
+
+    // Spectrum of n real samples as n/2 + 1 real and imaginary parts
+    void forward_real(const float* input, float* out_real, float* out_imag);
+
+    // Squared magnitudes of the n/2 + 1 bins of n real samples
+    void power_spectrum(const float* input, float* power);
+
+    // Heap memory held by the plan's tables
+    size_t allocated_bytes() const;
+
+private:
+    void transform_packed(const float* input);
+
+    int n_;
+    int half_;
+    const DspKernels* kernels_;
+    std::vector<int> bit_reverse_;     // Permutation for the complex FFT of size half
+    std::vector<float> stage_real_;    // Twiddles of every stage, stage with span h at offset h - 1
+    std::vector<float> stage_imag_;
+    std::vector<float> split_real_;    // exp(-2 pi i k / n) for the final split
+    std::vector<float> split_imag_;
+    std::vector<float> scratch_;       // Interleaved complex work buffer of size half
+};
+
+// Plans by size, so each size's tables are built once and reused
+class FftPlanCache {
+public:
+    // Plans use the given kernels, by default the fastest the CPU supports
+    explicit FftPlanCache(const DspKernels& kernels = dsp_kernels()) : kernels_(&kernels) {}
+
+    // Plan for n real samples, built on first use
+    FftPlan& get(int n);
+
+private:
+    const DspKernels* kernels_;
+    std::vector<std::unique_ptr<FftPlan>> plans_;
+};
+
+// Framing and filter parameters, matching AudioFeatureExtractor's constants
+struct MfccConfig {
+    int sample_rate = 16000;
+    int frame_size = 1024;
+    int hop_size = 512;
+    int num_filters = 26;
+    int num_mfcc = 13;
+};
+
+// Everything needed to compute MFCCs with one configuration: the scaled Hamming window, a sparse
+// triangular mel filter bank, the DCT matrix and the frame buffers. All of it is allocated by the
+// constructor, so computing frames does not touch the heap. It runs on the plan's kernels. Not
+// thread-safe.
+class MfccWorkspace {
+public:
+    // Throws std::invalid_argument if the configuration is invalid or plan has another size
+    MfccWorkspace(const MfccConfig& config, FftPlan& plan);
+
+    const MfccConfig& config() const { return config_; }
+
+    // Number of full frames in length samples
+    int frame_count(int length) const;
+
+    // MFCCs of every full frame of 16-bit PCM, written frame by frame into out, which must hold
+    // frame_count(length) * num_mfcc values. Returns the number of frames.
+    int compute_frames(const int16_t* pcm, int length, float* out);
+
+    // Heap memory held by the workspace and its FFT plan
+    size_t allocated_bytes() const;
+
+private:
+    void compute_frame(const int16_t* samples, float* mfcc);
+
+    MfccConfig config_;
+    FftPlan& plan_;
+    std::vector<float> window_;          // Hamming window with the 1/32768 sample scale folded in
+    std::vector<int> first_bin_;         // First spectrum bin of each mel filter
+    std::vector<int> bin_span_;          // Number of bins each filter covers
+    std::vector<int> weight_offset_;     // Start of each filter's run in weights_
+    std::vector<float> weights_;
+    std::vector<float> dct_matrix_;      // [num_mfcc][num_filters]
+    std::vector<float> frame_;
+    std::vector<float> power_;
+    std::vector<float> log_mel_;
+};
 #endif
 
 #endif // AUDIO_PROCESSING_H
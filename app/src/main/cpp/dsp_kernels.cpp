@@ -0,0 +1,412 @@
+#include "audio_processing.h"
+
+#if defined(__i386__) || defined(__x86_64__)
+#define DSP_X86 1
+#include <immintrin.h>
+#else
+#define DSP_X86 0
+#endif
+
+#if HAVE_NEON
+#include <arm_neon.h>
+#endif
+
+#if defined(__ANDROID__) && (DSP_X86 || (HAVE_NEON && !defined(__aarch64__)))
+#include <cpu-features.h>
+#define DSP_CPUFEATURES 1
+#else
+#define DSP_CPUFEATURES 0
+#endif
+
+#define LOG_TAG "DspKernels"
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#else
+#define LOGD(...) ((void) 0)
+#endif
+
+//======================================================================
+// Scalar
+//======================================================================
+
+static void scalar_butterfly_stage(float* data, int count, int h, const float* w_real, const float* w_imag) {
+    for (int i = 0; i < count; i += 2 * h) {
+        for (int j = 0; j < h; j++) {
+            int idx1 = 2 * (i + j);
+            int idx2 = idx1 + 2 * h;
+
+            float t_real = w_real[j] * data[idx2] - w_imag[j] * data[idx2 + 1];
+            float t_imag = w_real[j] * data[idx2 + 1] + w_imag[j] * data[idx2];
+
+            float u_real = data[idx1];
+            float u_imag = data[idx1 + 1];
+
+            data[idx1] = u_real + t_real;
+            data[idx1 + 1] = u_imag + t_imag;
+            data[idx2] = u_real - t_real;
+            data[idx2 + 1] = u_imag - t_imag;
+        }
+    }
+}
+
+static void scalar_multiply(const float* a, const float* b, float* out, int n) {
+    for (int i = 0; i < n; i++) {
+        out[i] = a[i] * b[i];
+    }
+}
+
+static void scalar_complex_multiply(const float* a, const float* b, float* out, int n) {
+    for (int i = 0; i < n; i++) {
+        float ar = a[2 * i];
+        float ai = a[2 * i + 1];
+        float br = b[2 * i];
+        float bi = b[2 * i + 1];
+        out[2 * i] = ar * br - ai * bi;
+        out[2 * i + 1] = ar * bi + ai * br;
+    }
+}
+
+static float scalar_dot(const float* a, const float* b, int n) {
+    float sum = 0.0f;
+    for (int i = 0; i < n; i++) {
+        sum += a[i] * b[i];
+    }
+    return sum;
+}
+
+static void scalar_matrix_vector_multiply(const float* matrix, const float* x, float* y, int rows, int cols) {
+    for (int r = 0; r < rows; r++) {
+        y[r] = scalar_dot(matrix + (size_t) r * cols, x, cols);
+    }
+}
+
+static const DspKernels SCALAR_KERNELS = {
+    DspBackend::SCALAR, "scalar",
+    scalar_butterfly_stage, scalar_multiply, scalar_complex_multiply, scalar_dot,
+    scalar_matrix_vector_multiply,
+};
+
+//======================================================================
+// NEON, four lanes with interleaved loads
+//======================================================================
+
+#if HAVE_NEON
+static inline float neon_horizontal_sum(float32x4_t v) {
+    float32x2_t pair = vadd_f32(vget_high_f32(v), vget_low_f32(v));
+    return vget_lane_f32(vpadd_f32(pair, pair), 0);
+}
+
+static void neon_butterfly_stage(float* data, int count, int h, const float* w_real, const float* w_imag) {
+    for (int i = 0; i < count; i += 2 * h) {
+        for (int j = 0; j < h; j += 4) {
+            float* a_ptr = data + 2 * (i + j);
+            float* b_ptr = a_ptr + 2 * h;
+            float32x4x2_t a = vld2q_f32(a_ptr);
+            float32x4x2_t b = vld2q_f32(b_ptr);
+            float32x4_t wr = vld1q_f32(w_real + j);
+            float32x4_t wi = vld1q_f32(w_imag + j);
+
+            float32x4_t t_real = vmlsq_f32(vmulq_f32(b.val[0], wr), b.val[1], wi);
+            float32x4_t t_imag = vmlaq_f32(vmulq_f32(b.val[0], wi), b.val[1], wr);
+
+            float32x4x2_t out1 = {vaddq_f32(a.val[0], t_real), vaddq_f32(a.val[1], t_imag)};
+            float32x4x2_t out2 = {vsubq_f32(a.val[0], t_real), vsubq_f32(a.val[1], t_imag)};
+            vst2q_f32(a_ptr, out1);
+            vst2q_f32(b_ptr, out2);
+        }
+    }
+}
+
+static void neon_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        vst1q_f32(out + i, vmulq_f32(vld1q_f32(a + i), vld1q_f32(b + i)));
+    }
+    for (; i < n; i++) {
+        out[i] = a[i] * b[i];
+    }
+}
+
+static void neon_complex_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        float32x4x2_t x = vld2q_f32(a + 2 * i);
+        float32x4x2_t y = vld2q_f32(b + 2 * i);
+        float32x4x2_t result = {
+            vmlsq_f32(vmulq_f32(x.val[0], y.val[0]), x.val[1], y.val[1]),
+            vmlaq_f32(vmulq_f32(x.val[0], y.val[1]), x.val[1], y.val[0]),
+        };
+        vst2q_f32(out + 2 * i, result);
+    }
+    scalar_complex_multiply(a + 2 * i, b + 2 * i, out + 2 * i, n - i);
+}
+
+static float neon_dot(const float* a, const float* b, int n) {
+    float32x4_t sum_vec = vdupq_n_f32(0.0f);
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        sum_vec = vmlaq_f32(sum_vec, vld1q_f32(a + i), vld1q_f32(b + i));
+    }
+    float sum = neon_horizontal_sum(sum_vec);
+    for (; i < n; i++) {
+        sum += a[i] * b[i];
+    }
+    return sum;
+}
+
+static void neon_matrix_vector_multiply(const float* matrix, const float* x, float* y, int rows, int cols) {
+    for (int r = 0; r < rows; r++) {
+        y[r] = neon_dot(matrix + (size_t) r * cols, x, cols);
+    }
+}
+
+static const DspKernels NEON_KERNELS = {
+    DspBackend::NEON, "neon",
+    neon_butterfly_stage, neon_multiply, neon_complex_multiply, neon_dot,
+    neon_matrix_vector_multiply,
+};
+#endif
+
+//======================================================================
+// SSE2, four lanes like NEON, over interleaved complex values
+//======================================================================
+
+#if DSP_X86
+static inline float sse_horizontal_sum(__m128 v) {
+    v = _mm_add_ps(v, _mm_movehl_ps(v, v));
+    v = _mm_add_ss(v, _mm_shuffle_ps(v, v, _MM_SHUFFLE(1, 1, 1, 1)));
+    return _mm_cvtss_f32(v);
+}
+
+// Two interleaved complex values times (wr + i wi), with wr and wi duplicated into both lanes of a value
+static inline __m128 sse_complex_scale(__m128 b, __m128 wr, __m128 wi) {
+    const __m128 negate_real = _mm_castsi128_ps(_mm_set_epi32(0, (int) 0x80000000, 0, (int) 0x80000000));
+    __m128 swapped = _mm_shuffle_ps(b, b, _MM_SHUFFLE(2, 3, 0, 1));
+    return _mm_add_ps(_mm_mul_ps(b, wr), _mm_xor_ps(_mm_mul_ps(swapped, wi), negate_real));
+}
+
+static void sse2_butterfly_stage(float* data, int count, int h, const float* w_real, const float* w_imag) {
+    for (int i = 0; i < count; i += 2 * h) {
+        for (int j = 0; j < h; j += 4) {
+            float* a_ptr = data + 2 * (i + j);
+            float* b_ptr = a_ptr + 2 * h;
+            __m128 wr = _mm_loadu_ps(w_real + j);
+            __m128 wi = _mm_loadu_ps(w_imag + j);
+
+            __m128 t_low = sse_complex_scale(_mm_loadu_ps(b_ptr), _mm_unpacklo_ps(wr, wr), _mm_unpacklo_ps(wi, wi));
+            __m128 t_high = sse_complex_scale(_mm_loadu_ps(b_ptr + 4), _mm_unpackhi_ps(wr, wr), _mm_unpackhi_ps(wi, wi));
+            __m128 a_low = _mm_loadu_ps(a_ptr);
+            __m128 a_high = _mm_loadu_ps(a_ptr + 4);
+
+            _mm_storeu_ps(a_ptr, _mm_add_ps(a_low, t_low));
+            _mm_storeu_ps(a_ptr + 4, _mm_add_ps(a_high, t_high));
+            _mm_storeu_ps(b_ptr, _mm_sub_ps(a_low, t_low));
+            _mm_storeu_ps(b_ptr + 4, _mm_sub_ps(a_high, t_high));
+        }
+    }
+}
+
+static void sse2_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        _mm_storeu_ps(out + i, _mm_mul_ps(_mm_loadu_ps(a + i), _mm_loadu_ps(b + i)));
+    }
+    for (; i < n; i++) {
+        out[i] = a[i] * b[i];
+    }
+}
+
+static void sse2_complex_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 2; i += 2) {
+        __m128 x = _mm_loadu_ps(a + 2 * i);
+        __m128 x_real = _mm_shuffle_ps(x, x, _MM_SHUFFLE(2, 2, 0, 0));
+        __m128 x_imag = _mm_shuffle_ps(x, x, _MM_SHUFFLE(3, 3, 1, 1));
+        _mm_storeu_ps(out + 2 * i, sse_complex_scale(_mm_loadu_ps(b + 2 * i), x_real, x_imag));
+    }
+    scalar_complex_multiply(a + 2 * i, b + 2 * i, out + 2 * i, n - i);
+}
+
+static float sse2_dot(const float* a, const float* b, int n) {
+    __m128 sum_vec = _mm_setzero_ps();
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        sum_vec = _mm_add_ps(sum_vec, _mm_mul_ps(_mm_loadu_ps(a + i), _mm_loadu_ps(b + i)));
+    }
+    float sum = sse_horizontal_sum(sum_vec);
+    for (; i < n; i++) {
+        sum += a[i] * b[i];
+    }
+    return sum;
+}
+
+static void sse2_matrix_vector_multiply(const float* matrix, const float* x, float* y, int rows, int cols) {
+    for (int r = 0; r < rows; r++) {
+        y[r] = sse2_dot(matrix + (size_t) r * cols, x, cols);
+    }
+}
+
+static const DspKernels SSE2_KERNELS = {
+    DspBackend::SSE2, "sse2",
+    sse2_butterfly_stage, sse2_multiply, sse2_complex_multiply, sse2_dot,
+    sse2_matrix_vector_multiply,
+};
+
+//======================================================================
+// AVX2, eight lanes; compiled per function so the rest of the library keeps the baseline ISA
+//======================================================================
+
+#define DSP_AVX2 __attribute__((target("avx2")))
+
+DSP_AVX2 static inline float avx_horizontal_sum(__m256 v) {
+    return sse_horizontal_sum(_mm_add_ps(_mm256_castps256_ps128(v), _mm256_extractf128_ps(v, 1)));
+}
+
+// Four interleaved complex values times (wr + i wi), with wr and wi duplicated into both lanes of a value
+DSP_AVX2 static inline __m256 avx_complex_scale(__m256 b, __m256 wr, __m256 wi) {
+    __m256 swapped = _mm256_permute_ps(b, _MM_SHUFFLE(2, 3, 0, 1));
+    return _mm256_addsub_ps(_mm256_mul_ps(b, wr), _mm256_mul_ps(swapped, wi));
+}
+
+// Four twiddles, each duplicated into the real and imaginary lane of its value
+DSP_AVX2 static inline __m256 avx_duplicate_pairs(const float* w) {
+    __m128 v = _mm_loadu_ps(w);
+    return _mm256_insertf128_ps(_mm256_castps128_ps256(_mm_unpacklo_ps(v, v)), _mm_unpackhi_ps(v, v), 1);
+}
+
+DSP_AVX2 static void avx2_butterfly_stage(float* data, int count, int h, const float* w_real, const float* w_imag) {
+    for (int i = 0; i < count; i += 2 * h) {
+        for (int j = 0; j < h; j += 4) {
+            float* a_ptr = data + 2 * (i + j);
+            float* b_ptr = a_ptr + 2 * h;
+            __m256 t = avx_complex_scale(_mm256_loadu_ps(b_ptr), avx_duplicate_pairs(w_real + j),
+                                         avx_duplicate_pairs(w_imag + j));
+            __m256 a = _mm256_loadu_ps(a_ptr);
+            _mm256_storeu_ps(a_ptr, _mm256_add_ps(a, t));
+            _mm256_storeu_ps(b_ptr, _mm256_sub_ps(a, t));
+        }
+    }
+}
+
+DSP_AVX2 static void avx2_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 8; i += 8) {
+        _mm256_storeu_ps(out + i, _mm256_mul_ps(_mm256_loadu_ps(a + i), _mm256_loadu_ps(b + i)));
+    }
+    for (; i < n; i++) {
+        out[i] = a[i] * b[i];
+    }
+}
+
+DSP_AVX2 static void avx2_complex_multiply(const float* a, const float* b, float* out, int n) {
+    int i = 0;
+    for (; i <= n - 4; i += 4) {
+        __m256 x = _mm256_loadu_ps(a + 2 * i);
+        _mm256_storeu_ps(out + 2 * i, avx_complex_scale(_mm256_loadu_ps(b + 2 * i), _mm256_moveldup_ps(x),
+                                                        _mm256_movehdup_ps(x)));
+    }
+    // The tail stays in this function: a tail call into SSE code would skip the vzeroupper
+    for (; i < n; i++) {
+        float ar = a[2 * i];
+        float ai = a[2 * i + 1];
+        out[2 * i] = ar * b[2 * i] - ai * b[2 * i + 1];
+        out[2 * i + 1] = ar * b[2 * i + 1] + ai * b[2 * i];
+    }
+}
+
+DSP_AVX2 static float avx2_dot(const float* a, const float* b, int n) {
+    __m256 sum_vec = _mm256_setzero_ps();
+    int i = 0;
+    for (; i <= n - 8; i += 8) {
+        sum_vec = _mm256_add_ps(sum_vec, _mm256_mul_ps(_mm256_loadu_ps(a + i), _mm256_loadu_ps(b + i)));
+    }
+    float sum = avx_horizontal_sum(sum_vec);
+    for (; i < n; i++) {
+        sum += a[i] * b[i];
+    }
+    return sum;
+}
+
+DSP_AVX2 static void avx2_matrix_vector_multiply(const float* matrix, const float* x, float* y, int rows, int cols) {
+    for (int r = 0; r < rows; r++) {
+        y[r] = avx2_dot(matrix + (size_t) r * cols, x, cols);
+    }
+}
+
+static const DspKernels AVX2_KERNELS = {
+    DspBackend::AVX2, "avx2",
+    avx2_butterfly_stage, avx2_multiply, avx2_complex_multiply, avx2_dot,
+    avx2_matrix_vector_multiply,
+};
+#endif
+
+//======================================================================
+// Runtime selection
+//======================================================================
+
+// Whether the CPU running this process can execute the backend's instructions
+static bool cpu_supports(DspBackend backend) {
+    switch (backend) {
+        case DspBackend::SCALAR:
+            return true;
+        case DspBackend::NEON:
+            #if HAVE_NEON && (defined(__aarch64__) || !DSP_CPUFEATURES)
+            return true;
+            #elif HAVE_NEON
+            return (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0;
+            #else
+            return false;
+            #endif
+        case DspBackend::SSE2:
+            // Part of the x86_64 baseline and of Android's x86 ABI
+            return DSP_X86;
+        case DspBackend::AVX2:
+            #if DSP_X86 && DSP_CPUFEATURES
+            return (android_getCpuFeatures() & ANDROID_CPU_X86_FEATURE_AVX2) != 0;
+            #elif DSP_X86
+            return __builtin_cpu_supports("avx2");
+            #else
+            return false;
+            #endif
+    }
+    return false;
+}
+
+const DspKernels* dsp_kernels_for(DspBackend backend) {
+    if (!cpu_supports(backend)) {
+        return nullptr;
+    }
+    switch (backend) {
+        case DspBackend::SCALAR:
+            return &SCALAR_KERNELS;
+        #if HAVE_NEON
+        case DspBackend::NEON:
+            return &NEON_KERNELS;
+        #endif
+        #if DSP_X86
+        case DspBackend::SSE2:
+            return &SSE2_KERNELS;
+        case DspBackend::AVX2:
+            return &AVX2_KERNELS;
+        #endif
+        default:
+            return nullptr;
+    }
+}
+
+static const DspKernels* select_kernels() {
+    for (DspBackend backend : {DspBackend::AVX2, DspBackend::SSE2, DspBackend::NEON}) {
+        const DspKernels* kernels = dsp_kernels_for(backend);
+        if (kernels != nullptr) {
+            LOGD("Using %s DSP kernels", kernels->name);
+            return kernels;
+        }
+    }
+    return &SCALAR_KERNELS;
+}
+
+const DspKernels& dsp_kernels() {
+    static const DspKernels* selected = select_kernels();
+    return *selected;
+}
@@ -1,14 +1,22 @@
 #include "audio_processing.h"
 #include <cmath>
-#include <android/log.h>
+#include <stdexcept>
 
 #if HAVE_NEON
 #include <arm_neon.h>
 #endif
 
 #define LOG_TAG "AudioProcessing"
+#ifdef __ANDROID__
+#include <android/log.h>
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+// Host builds (benchmarks) log errors to stderr
+#include <cstdio>
+#define LOGD(...) ((void) 0)
+#define LOGE(...) (fprintf(stderr, LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#endif
 
 // Define NEON vector types for better readability
 #if HAVE_NEON
@@ -22,7 +30,7 @@ struct Complex {
     float imag;
 };
 
-// Bit-reverse function for FFT
+// Bit-reverse function for FFT, over n interleaved complex values
 static void bit_reverse(float* x, int n) {
     for (int i = 1, j = 0; i < n; i++) {
         int bit = n >> 1;
@@ -31,13 +39,13 @@ static void bit_reverse(float* x, int n) {
         }
         j += bit;
         if (i < j) {
-            float tmp = x[i];
-            x[i] = x[j];
-            x[j] = tmp;
+            float tmp = x[2 * i];
+            x[2 * i] = x[2 * j];
+            x[2 * j] = tmp;
             
-            tmp = x[i + 1];
-            x[i + 1] = x[j + 1];
-            x[j + 1] = tmp;
+            tmp = x[2 * i + 1];
+            x[2 * i + 1] = x[2 * j + 1];
+            x[2 * j + 1] = tmp;
         }
     }
 }
@@ -181,26 +189,6 @@ void fft(float* input, float* output, int n) {
     }
 }
 
-// Precompute twiddle factors for NEON optimization
-static void precompute_twiddle_factors(int n, float** w_real, float** w_imag) {
-    *w_real = new float[n/2];
-    *w_imag = new float[n/2];
-    
-    for (int i = 0; i < n/2; i++) {
-        float theta = -2.0f * M_PI * i / n;
-        (*w_real)[i] = cosf(theta);
-        (*w_imag)[i] = sinf(theta);
-    }
-}
-
-// Free twiddle factors
-/* UNUSED
-static void free_twiddle_factors(float* w_real, float* w_imag) {
-    delete[] w_real;
-    delete[] w_imag;
-}
-*/
-
 // Inverse FFT (using forward FFT with sign change and scaling)
 void ifft(float* input, float* output, int n) {
     if (n <= 0 || (n & (n - 1)) != 0) {
@@ -208,13 +196,6 @@ void ifft(float* input, float* output, int n) {
         return;
     }
     
-    // Precompute twiddle factors for NEON optimization
-    float* w_real = nullptr;
-    float* w_imag = nullptr;
-    #if HAVE_NEON
-    precompute_twiddle_factors(n, &w_real, &w_imag);
-    #endif
-    
     // Copy input to output with sign change for imaginary parts
     #if HAVE_NEON
     for (int i = 0; i < 2 * n; i += 8) {
@@ -249,3 +230,156 @@ void ifft(float* input, float* output, int n) {
     }
     #endif
 }
+
+FftPlan::FftPlan(int n, const DspKernels& kernels) : n_(n), half_(n / 2), kernels_(&kernels) {
+    if (n < 4 || (n & (n - 1)) != 0) {
+        throw std::invalid_argument("FFT plan size must be a power of 2 of at least 4");
+    }
+
+    bit_reverse_.resize(half_);
+    int bits = 0;
+    while ((1 << bits) < half_) {
+        bits++;
+    }
+    for (int i = 0; i < half_; i++) {
+        int r = 0;
+        for (int b = 0; b < bits; b++) {
+            r |= ((i >> b) & 1) << (bits - 1 - b);
+        }
+        bit_reverse_[i] = r;
+    }
+
+    // Stage with butterfly span h uses exp(-2 pi i j / 2h) for j < h, stored contiguously
+    stage_real_.resize(half_ > 1 ? half_ - 1 : 1);
+    stage_imag_.resize(stage_real_.size());
+    for (int h = 1; h < half_; h <<= 1) {
+        for (int j = 0; j < h; j++) {
+            double theta = -M_PI * j / h;
+            stage_real_[h - 1 + j] = (float) cos(theta);
+            stage_imag_[h - 1 + j] = (float) sin(theta);
+        }
+    }
+
+    split_real_.resize(half_);
+    split_imag_.resize(half_);
+    for (int k = 0; k < half_; k++) {
+        double theta = -2.0 * M_PI * k / n;
+        split_real_[k] = (float) cos(theta);
+        split_imag_[k] = (float) sin(theta);
+    }
+
+    scratch_.resize(2 * half_);
+}
+
+// Packs the real input as half complex values, even samples real and odd samples imaginary, and
+// transforms them in scratch_
+void FftPlan::transform_packed(const float* input) {
+    float* data = scratch_.data();
+    for (int i = 0; i < half_; i++) {
+        int r = bit_reverse_[i];
+        data[2 * r] = input[2 * i];
+        data[2 * r + 1] = input[2 * i + 1];
+    }
+
+    for (int h = 1; h < half_; h <<= 1) {
+        const float* w_real = stage_real_.data() + h - 1;
+        const float* w_imag = stage_imag_.data() + h - 1;
+
+        if (h >= 4) {
+            kernels_->butterfly_stage(data, half_, h, w_real, w_imag);
+            continue;
+        }
+
+        for (int i = 0; i < half_; i += 2 * h) {
+            for (int j = 0; j < h; j++) {
+                int idx1 = 2 * (i + j);
+                int idx2 = idx1 + 2 * h;
+
+                float t_real = w_real[j] * data[idx2] - w_imag[j] * data[idx2 + 1];
+                float t_imag = w_real[j] * data[idx2 + 1] + w_imag[j] * data[idx2];
+
+                float u_real = data[idx1];
+                float u_imag = data[idx1 + 1];
+
+                data[idx1] = u_real + t_real;
+                data[idx1 + 1] = u_imag + t_imag;
+                data[idx2] = u_real - t_real;
+                data[idx2 + 1] = u_imag - t_imag;
+            }
+        }
+    }
+}
+
+// Bin k of the real signal is E[k] + exp(-2 pi i k / n) O[k], with the spectra of the even and odd
+// samples recovered from Z[k] and conj(Z[half - k]) of the packed transform Z
+void FftPlan::forward_real(const float* input, float* out_real, float* out_imag) {
+    transform_packed(input);
+    const float* z = scratch_.data();
+
+    out_real[0] = z[0] + z[1];
+    out_imag[0] = 0.0f;
+    out_real[half_] = z[0] - z[1];
+    out_imag[half_] = 0.0f;
+
+    for (int k = 1; k < half_; k++) {
+        float zr = z[2 * k];
+        float zi = z[2 * k + 1];
+        float cr = z[2 * (half_ - k)];
+        float ci = -z[2 * (half_ - k) + 1];
+
+        float even_real = 0.5f * (zr + cr);
+        float even_imag = 0.5f * (zi + ci);
+        // O[k] = (Z[k] - conj(Z[half - k])) / 2i
+        float odd_real = 0.5f * (zi - ci);
+        float odd_imag = -0.5f * (zr - cr);
+
+        float wr = split_real_[k];
+        float wi = split_imag_[k];
+        out_real[k] = even_real + wr * odd_real - wi * odd_imag;
+        out_imag[k] = even_imag + wr * odd_imag + wi * odd_real;
+    }
+}
+
+void FftPlan::power_spectrum(const float* input, float* power) {
+    transform_packed(input);
+    const float* z = scratch_.data();
+
+    float dc = z[0] + z[1];
+    float nyquist = z[0] - z[1];
+    power[0] = dc * dc;
+    power[half_] = nyquist * nyquist;
+
+    for (int k = 1; k < half_; k++) {
+        float zr = z[2 * k];
+        float zi = z[2 * k + 1];
+        float cr = z[2 * (half_ - k)];
+        float ci = -z[2 * (half_ - k) + 1];
+
+        float even_real = 0.5f * (zr + cr);
+        float even_imag = 0.5f * (zi + ci);
+        float odd_real = 0.5f * (zi - ci);
+        float odd_imag = -0.5f * (zr - cr);
+
+        float wr = split_real_[k];
+        float wi = split_imag_[k];
+        float re = even_real + wr * odd_real - wi * odd_imag;
+        float im = even_imag + wr * odd_imag + wi * odd_real;
+        power[k] = re * re + im * im;
+    }
+}
+
+size_t FftPlan::allocated_bytes() const {
+    return bit_reverse_.capacity() * sizeof(int)
+        + (stage_real_.capacity() + stage_imag_.capacity() + split_real_.capacity()
+           + split_imag_.capacity() + scratch_.capacity()) * sizeof(float);
+}
+
+FftPlan& FftPlanCache::get(int n) {
+    for (auto& plan : plans_) {
+        if (plan->size() == n) {
+            return *plan;
+        }
+    }
+    plans_.emplace_back(new FftPlan(n, *kernels_));
+    return *plans_.back();
+}
@@ -2,15 +2,23 @@
 #include <cmath>
 #include <vector>
 #include <algorithm>
-#include <android/log.h>
+#include <stdexcept>
 
 #if HAVE_NEON
 #include <arm_neon.h>
 #endif
 
 #define LOG_TAG "MFCC_Util"
+#ifdef __ANDROID__
+#include <android/log.h>
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+// Host builds (benchmarks) log errors to stderr
+#include <cstdio>
+#define LOGD(...) ((void) 0)
+#define LOGE(...) (fprintf(stderr, LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#endif
 
 // Convert frequency to Mel scale
 static float hz_to_mel(float hz) {
@@ -276,3 +284,108 @@ void compute_mfcc(const float* audio_data, int num_samples, int sample_rate,
     // Apply DCT to get MFCCs
     dct(mel_energies.data(), mfcc, num_filters, num_mfcc);
 }
+
+// Same steps as AudioFeatureExtractor's Kotlin path: samples scaled to [-1, 1), Hamming window,
+// power spectrum, triangular mel filters between 0 Hz and Nyquist with edges in continuous bin
+// units, natural log floored at 1e-10 and a DCT-II scaled by sqrt(2 / num_filters)
+MfccWorkspace::MfccWorkspace(const MfccConfig& config, FftPlan& plan) : config_(config), plan_(plan) {
+    const int frame_size = config.frame_size;
+    const int num_filters = config.num_filters;
+    const int num_mfcc = config.num_mfcc;
+    if (config.sample_rate <= 0 || plan.size() != frame_size || config.hop_size <= 0
+            || config.hop_size > frame_size || num_filters <= 0 || num_mfcc <= 0 || num_mfcc > num_filters) {
+        throw std::invalid_argument("Invalid MFCC configuration");
+    }
+
+    window_.resize(frame_size);
+    for (int i = 0; i < frame_size; i++) {
+        window_[i] = (0.54f - 0.46f * cosf(2.0f * (float) M_PI * i / (frame_size - 1))) / 32768.0f;
+    }
+
+    // Filter edges equally spaced on the mel scale, in bins
+    const int bins = plan.bin_count();
+    std::vector<float> edges(num_filters + 2);
+    const float mel_max = hz_to_mel(config.sample_rate / 2.0f);
+    for (int i = 0; i < num_filters + 2; i++) {
+        edges[i] = mel_to_hz(mel_max * i / (num_filters + 1)) * frame_size / config.sample_rate;
+    }
+
+    first_bin_.resize(num_filters);
+    bin_span_.resize(num_filters);
+    weight_offset_.resize(num_filters);
+    int total = 0;
+    for (int m = 0; m < num_filters; m++) {
+        int first = std::max(0, (int) ceilf(edges[m]));
+        int last = std::min(bins - 1, (int) floorf(edges[m + 2]));
+        first_bin_[m] = first;
+        bin_span_[m] = std::max(0, last - first + 1);
+        weight_offset_[m] = total;
+        total += bin_span_[m];
+    }
+
+    weights_.resize(total);
+    for (int m = 0; m < num_filters; m++) {
+        float left = edges[m];
+        float centre = edges[m + 1];
+        float right = edges[m + 2];
+        for (int i = 0; i < bin_span_[m]; i++) {
+            int bin = first_bin_[m] + i;
+            float w = bin <= centre ? (bin - left) / (centre - left) : (right - bin) / (right - centre);
+            weights_[weight_offset_[m] + i] = std::max(0.0f, w);
+        }
+    }
+
+    dct_matrix_.resize((size_t) num_mfcc * num_filters);
+    const float dct_scale = sqrtf(2.0f / num_filters);
+    for (int k = 0; k < num_mfcc; k++) {
+        for (int m = 0; m < num_filters; m++) {
+            dct_matrix_[(size_t) k * num_filters + m] =
+                dct_scale * (float) cos(M_PI * k * (2 * m + 1) / (2.0 * num_filters));
+        }
+    }
+
+    frame_.resize(frame_size);
+    power_.resize(bins);
+    log_mel_.resize(num_filters);
+}
+
+int MfccWorkspace::frame_count(int length) const {
+    if (length < config_.frame_size) {
+        return 0;
+    }
+    return (length - config_.frame_size) / config_.hop_size + 1;
+}
+
+int MfccWorkspace::compute_frames(const int16_t* pcm, int length, float* out) {
+    const int frames = frame_count(length);
+    for (int f = 0; f < frames; f++) {
+        compute_frame(pcm + (size_t) f * config_.hop_size, out + (size_t) f * config_.num_mfcc);
+    }
+    return frames;
+}
+
+void MfccWorkspace::compute_frame(const int16_t* samples, float* mfcc) {
+    const int frame_size = config_.frame_size;
+    const int num_filters = config_.num_filters;
+    const DspKernels& kernels = plan_.kernels();
+    float* frame = frame_.data();
+    const float* window = window_.data();
+    for (int i = 0; i < frame_size; i++) {
+        frame[i] = samples[i] * window[i];
+    }
+    plan_.power_spectrum(frame, power_.data());
+
+    for (int m = 0; m < num_filters; m++) {
+        float energy = kernels.dot(power_.data() + first_bin_[m], weights_.data() + weight_offset_[m], bin_span_[m]);
+        log_mel_[m] = logf(std::max(energy, 1e-10f));
+    }
+
+    kernels.matrix_vector_multiply(dct_matrix_.data(), log_mel_.data(), mfcc, config_.num_mfcc, num_filters);
+}
+
+size_t MfccWorkspace::allocated_bytes() const {
+    return (first_bin_.capacity() + bin_span_.capacity() + weight_offset_.capacity()) * sizeof(int)
+        + (window_.capacity() + weights_.capacity() + dct_matrix_.capacity() + frame_.capacity()
+           + power_.capacity() + log_mel_.capacity()) * sizeof(float)
+        + plan_.allocated_bytes();
+}
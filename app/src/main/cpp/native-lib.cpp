@@ -1,35 +1,108 @@
 #include <jni.h>
+#include <algorithm>
+#include <chrono>
+#include <new>
 #include <string>
 #include <vector>
-#include <android/log.h>
 #include "audio_processing.h"
 
 #define LOG_TAG "AudioFeatureExtractor"
+#ifdef __ANDROID__
+#include <android/log.h>
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+// Host builds log errors to stderr
+#include <cstdio>
+#define LOGD(...) ((void) 0)
+#define LOGE(...) (fprintf(stderr, LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#endif
 
 #define JNI_METHOD(return_type, method_name) \
   JNIEXPORT return_type JNICALL \
   Java_com_freehands_assistant_utils_AudioFeatureExtractor_##method_name
 
+// Counters reported by nativeGetStats, in this order
+enum NativeStat {
+    STAT_CALLS,             // Calls that computed frames
+    STAT_FRAMES,            // MFCC frames computed
+    STAT_COMPUTE_NANOS,     // Time spent computing them
+    STAT_MAX_CALL_NANOS,    // Longest single call
+    STAT_ALLOCATED_BYTES,   // Heap memory held by the workspace, all allocated by nativeInit
+    STAT_COUNT
+};
+
+// State owned by one nativeInit handle; an extractor uses its handle from one thread at a time
+struct NativeContext {
+    FftPlanCache fft_plans;
+    std::unique_ptr<MfccWorkspace> mfcc;
+    jlong stats[STAT_COUNT] = {};
+};
+
+static jlong elapsed_nanos(std::chrono::steady_clock::time_point start) {
+    return std::chrono::duration_cast<std::chrono::nanoseconds>(
+        std::chrono::steady_clock::now() - start).count();
+}
+
+static void record_call(NativeContext* context, int frames, jlong nanos) {
+    context->stats[STAT_CALLS]++;
+    context->stats[STAT_FRAMES] += frames;
+    context->stats[STAT_COMPUTE_NANOS] += nanos;
+    context->stats[STAT_MAX_CALL_NANOS] = std::max(context->stats[STAT_MAX_CALL_NANOS], nanos);
+}
+
 extern "C" {
 
-// Initialize native resources
-JNI_METHOD(jlong, nativeInit)(JNIEnv* env, jobject /* this */) {
-    // Log CPU features and NEON availability
-    #if HAVE_NEON
-    LOGD("Initializing with NEON optimizations");
-    #else
-    LOGD("Initializing without NEON optimizations");
-    #endif
-    
-    // We can initialize any resources here if needed
-    return 0;  // Return a handle if needed
+// Initialize native resources: the FFT plan and MFCC workspace for the given configuration
+JNI_METHOD(jlong, nativeInit)(
+    JNIEnv* env,
+    jobject /* this */,
+    jint sample_rate,
+    jint frame_size,
+    jint hop_size,
+    jint num_filters,
+    jint num_mfcc
+) {
+    LOGD("Initializing with %s DSP kernels", dsp_kernels().name);
+
+    MfccConfig config;
+    config.sample_rate = sample_rate;
+    config.frame_size = frame_size;
+    config.hop_size = hop_size;
+    config.num_filters = num_filters;
+    config.num_mfcc = num_mfcc;
+
+    NativeContext* context = new (std::nothrow) NativeContext();
+    if (context == nullptr) {
+        LOGE("Failed to allocate native context");
+        return 0;
+    }
+    try {
+        FftPlan& plan = context->fft_plans.get(frame_size);
+        context->mfcc.reset(new MfccWorkspace(config, plan));
+    } catch (const std::exception& e) {
+        LOGE("Failed to create MFCC workspace: %s", e.what());
+        delete context;
+        return 0;
+    }
+    context->stats[STAT_ALLOCATED_BYTES] = (jlong) context->mfcc->allocated_bytes();
+    return reinterpret_cast<jlong>(context);
 }
 
 // Cleanup native resources
 JNI_METHOD(void, nativeRelease)(JNIEnv* env, jobject /* this */, jlong handle) {
-    // Cleanup resources if needed
+    delete reinterpret_cast<NativeContext*>(handle);
+}
+
+// Copy the handle's counters, indexed by NativeStat, into out
+JNI_METHOD(jboolean, nativeGetStats)(JNIEnv* env, jobject /* this */, jlong handle, jlongArray out) {
+    NativeContext* context = reinterpret_cast<NativeContext*>(handle);
+    if (context == nullptr || out == nullptr || env->GetArrayLength(out) < STAT_COUNT) {
+        LOGE("Invalid input parameters for stats");
+        return JNI_FALSE;
+    }
+    env->SetLongArrayRegion(out, 0, STAT_COUNT, context->stats);
+    return JNI_TRUE;
 }
 
 // Compute MFCC features
@@ -92,6 +165,59 @@ JNI_METHOD(jfloatArray, nativeComputeMfcc)(
     return result;
 }
 
+// Compute MFCCs for every frame of a 16-bit PCM buffer in one call, writing them frame by frame
+// into out. Returns the number of frames, or -1 on error.
+JNI_METHOD(jint, nativeComputeMfccFrames)(
+    JNIEnv* env,
+    jobject /* this */,
+    jlong handle,
+    jshortArray pcm,
+    jint offset,
+    jint length,
+    jfloatArray out
+) {
+    NativeContext* context = reinterpret_cast<NativeContext*>(handle);
+    if (context == nullptr || pcm == nullptr || out == nullptr || offset < 0 || length < 0
+            || offset > env->GetArrayLength(pcm) - length) {
+        LOGE("Invalid input parameters for MFCC frames");
+        return -1;
+    }
+
+    MfccWorkspace& workspace = *context->mfcc;
+    const int num_mfcc = workspace.config().num_mfcc;
+    const int frames = workspace.frame_count(length);
+    if ((jlong) frames * num_mfcc > env->GetArrayLength(out)) {
+        LOGE("Output array too small for %d MFCC frames", frames);
+        return -1;
+    }
+    if (frames == 0) {
+        return 0;
+    }
+
+    // Both arrays stay pinned for the whole utterance; nothing below calls back into the JVM
+    jshort* pcm_ptr = static_cast<jshort*>(env->GetPrimitiveArrayCritical(pcm, nullptr));
+    if (pcm_ptr == nullptr) {
+        LOGE("Failed to get PCM array");
+        return -1;
+    }
+    jfloat* out_ptr = static_cast<jfloat*>(env->GetPrimitiveArrayCritical(out, nullptr));
+    if (out_ptr == nullptr) {
+        env->ReleasePrimitiveArrayCritical(pcm, pcm_ptr, JNI_ABORT);
+        LOGE("Failed to get output array");
+        return -1;
+    }
+
+    auto start = std::chrono::steady_clock::now();
+    int written = workspace.compute_frames(pcm_ptr + offset, length, out_ptr);
+    jlong nanos = elapsed_nanos(start);
+
+    env->ReleasePrimitiveArrayCritical(out, out_ptr, 0);
+    env->ReleasePrimitiveArrayCritical(pcm, pcm_ptr, JNI_ABORT);
+
+    record_call(context, written, nanos);
+    return written;
+}
+
 // Compute FFT
 JNI_METHOD(jfloatArray, nativeFft)(
     JNIEnv* env,
@@ -2,9 +2,6 @@ package com.freehands.assistant.ui.audio
 
 import android.Manifest
 import android.content.pm.PackageManager
-import android.media.AudioFormat
-import android.media.AudioRecord
-import android.media.MediaRecorder
 import android.os.Bundle
 import android.os.Environment
 import android.util.Log
@@ -14,6 +11,7 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
 import com.freehands.assistant.R
+import com.freehands.assistant.audio.capture.AudioCaptureHub
 import com.freehands.assistant.utils.AudioFeatureExtractor
 import kotlinx.coroutines.*
 import java.io.File
@@ -31,21 +29,14 @@ class AudioTestActivity : AppCompatActivity() {
     private lateinit var benchmarkButton: Button
     
     private var isRecording = false
-    private var audioRecord: AudioRecord? = null
-    private var recordingThread: Thread? = null
+    private var subscription: AudioCaptureHub.Subscription? = null
     private val audioData = mutableListOf<Short>()
     private val featureExtractor = AudioFeatureExtractor()
     private val scope = CoroutineScope(Dispatchers.Main + Job())
     
     private val RECORD_AUDIO_PERMISSION_CODE = 1001
-    private val SAMPLE_RATE = 16000
-    private val CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO
-    private val AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT
-    private val BUFFER_SIZE = AudioRecord.getMinBufferSize(
-        SAMPLE_RATE, 
-        CHANNEL_CONFIG, 
-        AUDIO_FORMAT
-    ) * 2
+    private val SAMPLE_RATE = AudioCaptureHub.SAMPLE_RATE
+    private val FRAME_SIZE = 1024
     
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -119,52 +110,34 @@ class AudioTestActivity : AppCompatActivity() {
     private fun startRecording() {
         audioData.clear()
         
-        audioRecord = AudioRecord(
-            MediaRecorder.AudioSource.VOICE_RECOGNITION,
-            SAMPLE_RATE,
-            CHANNEL_CONFIG,
-            AUDIO_FORMAT,
-            BUFFER_SIZE
-        )
-        
-        audioRecord?.startRecording()
-        
-        recordingThread = Thread({
-            val buffer = ShortArray(BUFFER_SIZE / 2)
-            
-            while (isRecording) {
-                val bytesRead = audioRecord?.read(buffer, 0, buffer.size) ?: 0
-                if (bytesRead > 0) {
-                    synchronized(audioData) {
-                        audioData.addAll(buffer.take(bytesRead).toList())
-                    }
-                    
-                    // Update UI with audio level
-                    val rms = calculateRms(buffer, bytesRead)
-                    val db = 20 * log10(rms.toDouble() / 32768.0)
-                    
-                    runOnUiThread {
-                        statusText.text = "Recording... ${String.format("%.1f", db)} dB"
-                    }
+        // Frames arrive on the subscription's delivery thread
+        val format = AudioCaptureHub.Format(SAMPLE_RATE, FRAME_SIZE)
+        subscription = AudioCaptureHub.getInstance().subscribe(format) { buffer, samplesRead ->
+            synchronized(audioData) {
+                for (i in 0 until samplesRead) {
+                    audioData.add(buffer[i])
                 }
             }
-        }, "AudioRecorder Thread")
-        
-        recordingThread?.start()
+            
+            // Update UI with audio level
+            val rms = calculateRms(buffer, samplesRead)
+            val db = 20 * log10(rms / 32768.0)
+            
+            runOnUiThread {
+                statusText.text = "Recording... ${String.format("%.1f", db)} dB"
+            }
+        }
     }
     
     private fun stopRecording() {
         isRecording = false
         
         try {
-            audioRecord?.stop()
-            audioRecord?.release()
-            recordingThread?.join()
+            subscription?.close()
         } catch (e: Exception) {
             Log.e("AudioTest", "Error stopping recording", e)
         } finally {
-            audioRecord = null
-            recordingThread = null
+            subscription = null
         }
         
         statusText.text = "Recorded ${audioData.size} samples (${audioData.size / SAMPLE_RATE} seconds)"
@@ -306,6 +279,8 @@ class AudioTestActivity : AppCompatActivity() {
     override fun onDestroy() {
         super.onDestroy()
         isRecording = false
+        subscription?.close()
+        subscription = null
         scope.cancel()
     }
 }
@@ -7,9 +7,8 @@ import android.speech.tts.TextToSpeech;
 import android.telecom.TelecomManager;
 import android.telephony.SmsManager;
 import android.util.Log;
-import java.util.HashMap;
+import com.freehands.assistant.commands.CommandMatcher;
 import java.util.Locale;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,7 +18,7 @@ public class CommandProcessor {
     private final Context context;
     private final SystemController systemController;
     private final VoiceEngine voiceEngine;
-    private final Map<String, CommandHandler> commandHandlers;
+    private final CommandMatcher<CommandHandler> commands;
     
     public interface CommandCallback {
         void onCommandExecuted(String result);
@@ -34,67 +33,75 @@ public class CommandProcessor {
         this.context = context;
         this.systemController = new SystemController(context);
         this.voiceEngine = VoiceEngine.getInstance(context);
-        this.commandHandlers = new HashMap<>();
+        this.commands = new CommandMatcher<>();
         
         initializeCommandHandlers();
     }
     
     private void initializeCommandHandlers() {
         // Phone call commands
-        commandHandlers.put("call", this::handleCallCommand);
-        commandHandlers.put("phone", this::handleCallCommand);
-        commandHandlers.put("dial", this::handleCallCommand);
+        commands.put("call", this::handleCallCommand);
+        commands.put("phone", this::handleCallCommand);
+        commands.put("dial", this::handleCallCommand);
         
         // Text message commands
-        commandHandlers.put("text", this::handleTextCommand);
-        commandHandlers.put("message", this::handleTextCommand);
-        commandHandlers.put("sms", this::handleTextCommand);
-        commandHandlers.put("send", this::handleTextCommand);
+        commands.put("text", this::handleTextCommand);
+        commands.put("message", this::handleTextCommand);
+        commands.put("sms", this::handleTextCommand);
+        commands.put("send", this::handleTextCommand);
         
         // Camera commands
-        commandHandlers.put("camera", this::handleCameraCommand);
-        commandHandlers.put("photo", this::handleCameraCommand);
-        commandHandlers.put("picture", this::handleCameraCommand);
-        commandHandlers.put("selfie", this::handleCameraCommand);
+        commands.put("camera", this::handleCameraCommand);
+        commands.put("photo", this::handleCameraCommand);
+        commands.put("picture", this::handleCameraCommand);
+        commands.put("selfie", this::handleCameraCommand);
         
         // App control commands
-        commandHandlers.put("open", this::handleOpenAppCommand);
-        commandHandlers.put("launch", this::handleOpenAppCommand);
-        commandHandlers.put("start", this::handleOpenAppCommand);
-        commandHandlers.put("close", this::handleCloseAppCommand);
+        commands.put("open", this::handleOpenAppCommand);
+        commands.put("launch", this::handleOpenAppCommand);
+        commands.put("start", this::handleOpenAppCommand);
+        commands.put("close", this::handleCloseAppCommand);
         
         // System settings commands
-        commandHandlers.put("volume", this::handleVolumeCommand);
-        commandHandlers.put("brightness", this::handleBrightnessCommand);
-        commandHandlers.put("wifi", this::handleWifiCommand);
-        commandHandlers.put("bluetooth", this::handleBluetoothCommand);
-        commandHandlers.put("airplane", this::handleAirplaneModeCommand);
+        commands.put("volume", this::handleVolumeCommand);
+        commands.put("brightness", this::handleBrightnessCommand);
+        commands.put("wifi", this::handleWifiCommand);
+        commands.put("bluetooth", this::handleBluetoothCommand);
+        commands.put("airplane", this::handleAirplaneModeCommand);
         
         // Navigation commands
-        commandHandlers.put("navigate", this::handleNavigateCommand);
-        commandHandlers.put("directions", this::handleNavigateCommand);
-        commandHandlers.put("map", this::handleNavigateCommand);
+        commands.put("navigate", this::handleNavigateCommand);
+        commands.put("directions", this::handleNavigateCommand);
+        commands.put("map", this::handleNavigateCommand);
         
         // Information commands
-        commandHandlers.put("time", this::handleTimeCommand);
-        commandHandlers.put("date", this::handleDateCommand);
-        commandHandlers.put("battery", this::handleBatteryCommand);
-        commandHandlers.put("weather", this::handleWeatherCommand);
+        commands.put("time", this::handleTimeCommand);
+        commands.put("date", this::handleDateCommand);
+        commands.put("battery", this::handleBatteryCommand);
+        commands.put("weather", this::handleWeatherCommand);
         
         // Device control commands
-        commandHandlers.put("lock", this::handleLockCommand);
-        commandHandlers.put("unlock", this::handleUnlockCommand);
-        commandHandlers.put("home", this::handleHomeCommand);
-        commandHandlers.put("back", this::handleBackCommand);
-        commandHandlers.put("recent", this::handleRecentAppsCommand);
+        commands.put("lock", this::handleLockCommand);
+        commands.put("unlock", this::handleUnlockCommand);
+        commands.put("home", this::handleHomeCommand);
+        commands.put("back", this::handleBackCommand);
+        commands.put("recent", this::handleRecentAppsCommand);
         
         // Notification commands
-        commandHandlers.put("notifications", this::handleNotificationsCommand);
-        commandHandlers.put("read", this::handleReadNotificationsCommand);
+        commands.put("notifications", this::handleNotificationsCommand);
+        commands.put("read", this::handleReadNotificationsCommand);
         
         // Emergency commands
-        commandHandlers.put("emergency", this::handleEmergencyCommand);
-        commandHandlers.put("help", this::handleHelpCommand);
+        commands.put("emergency", this::handleEmergencyCommand);
+        commands.put("help", this::handleHelpCommand);
+        
+        // Natural language commands whose first word has no handler
+        commands.addRule(this::handleCallCommand, "call|phone");
+        commands.addRule(this::handleTextCommand, "text|message");
+        commands.addRule(this::handleCameraCommand, "take", "photo|picture");
+        commands.addRule(this::handleOpenAppCommand, "open|launch");
+        commands.addRule(this::handleTimeCommand, "what", "time");
+        commands.addRule(this::handleVolumeCommand, "turn", "volume");
     }
     
     public void processCommand(String command, CommandCallback callback) {
@@ -107,36 +114,12 @@ public class CommandProcessor {
         if (BuildConfig.DEBUG) { Log.d(TAG, "Processing command: " + normalizedCommand); }
 
         
-        // Parse command and extract parameters
-        String[] words = normalizedCommand.split("\\s+");
-        String primaryCommand = words[0];
-        
-        CommandHandler handler = commandHandlers.get(primaryCommand);
+        CommandHandler handler = commands.match(normalizedCommand);
         if (handler != null) {
-            handler.execute(normalizedCommand, words, callback);
-        } else {
-            // Try to find partial matches or context-based commands
-            handleContextualCommand(normalizedCommand, callback);
-        }
-    }
-    
-    private void handleContextualCommand(String command, CommandCallback callback) {
-        // Handle more complex natural language commands
-        
-        if (command.contains("call") || command.contains("phone")) {
-            handleCallCommand(command, command.split("\\s+"), callback);
-        } else if (command.contains("text") || command.contains("message")) {
-            handleTextCommand(command, command.split("\\s+"), callback);
-        } else if (command.contains("take") && (command.contains("photo") || command.contains("picture"))) {
-            handleCameraCommand(command, command.split("\\s+"), callback);
-        } else if (command.contains("open") || command.contains("launch")) {
-            handleOpenAppCommand(command, command.split("\\s+"), callback);
-        } else if (command.contains("what") && command.contains("time")) {
-            handleTimeCommand(command, command.split("\\s+"), callback);
-        } else if (command.contains("turn") && command.contains("volume")) {
-            handleVolumeCommand(command, command.split("\\s+"), callback);
+            // Parse command and extract parameters
+            handler.execute(normalizedCommand, normalizedCommand.split("\\s+"), callback);
         } else {
-            callback.onCommandFailed("Command not recognized: " + command);
+            callback.onCommandFailed("Command not recognized: " + normalizedCommand);
             voiceEngine.voiceEngine.speak("Sorry, I didn't understand that command.");
         }
     }
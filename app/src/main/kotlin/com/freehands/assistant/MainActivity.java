@@ -137,6 +137,11 @@ public class MainActivity extends AppCompatActivity {
         authenticator.initializeVoiceProfile(new VoiceBiometricAuthenticator.InitializationCallback() {
             @Override
             public void onInitialized() {
+                if (!WakeWordEnrollment.hasTemplates(MainActivity.this)) {
+                    runOnUiThread(() -> enrollWakeWord());
+                    return;
+                }
+                
                 // Start the voice listening service
                 Intent serviceIntent = new Intent(MainActivity.this, VoiceListeningService.class);
                 startForegroundService(serviceIntent);
@@ -159,6 +164,35 @@ public class MainActivity extends AppCompatActivity {
         });
     }
     
+    private void enrollWakeWord() {
+        // Record the wake phrase a few times so detection matches this user's voice
+        new WakeWordEnrollment(this).enroll(WakeWordEnrollment.DEFAULT_SAMPLE_COUNT, new WakeWordEnrollment.EnrollmentCallback() {
+            @Override
+            public void onSpeakNow(int sampleIndex, int sampleCount) {
+                runOnUiThread(() -> statusText.setText(
+                    "Say 'Hey FreeHands' (" + (sampleIndex + 1) + "/" + sampleCount + ")"));
+            }
+            
+            @Override
+            public void onSampleRejected(int sampleIndex, String reason) {
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, reason + ", please try again", Toast.LENGTH_SHORT).show());
+            }
+            
+            @Override
+            public void onEnrolled(int templateCount) {
+                runOnUiThread(() -> startVoiceService());
+            }
+            
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> {
+                    statusText.setText("Error enrolling wake word: " + error);
+                    Toast.makeText(MainActivity.this, "Wake word setup failed: " + error, Toast.LENGTH_LONG).show();
+                });
+            }
+        });
+    }
+    
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
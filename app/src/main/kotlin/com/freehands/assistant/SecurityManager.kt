@@ -75,6 +75,13 @@ class SecurityManager @Inject constructor(
         keyGenerator.generateKey()
     }
     
+    /**
+     * Keystore key for data that is encrypted as binary rather than as a Base64 string, such as
+     * [com.freehands.assistant.audio.FeatureFile]s. Its material never leaves the keystore.
+     */
+    val dataKey: SecretKey
+        get() = secretKey
+    
     fun encrypt(data: String): String {
         val cipher = Cipher.getInstance("AES/GCM/NoPadding")
         cipher.init(Cipher.ENCRYPT_MODE, secretKey)
@@ -1,42 +1,97 @@
 package com.freehands.assistant;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
 import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.util.AtomicFile;
 import androidx.security.crypto.EncryptedSharedPreferences;
 import androidx.security.crypto.MasterKeys;
+import com.freehands.assistant.audio.ArrayPool;
+import com.freehands.assistant.audio.FeatureFile;
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.PcmRingBuffer;
+import com.freehands.assistant.audio.PitchTracker;
+import com.freehands.assistant.audio.SegmentQuality;
+import com.freehands.assistant.audio.SpeakerScorer;
+import com.freehands.assistant.audio.VoiceFeature;
+import com.freehands.assistant.audio.capture.AudioCaptureHub;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
 
 public class VoiceBiometricAuthenticator {
     private static final String TAG = "VoiceBiometricAuth";
     private static final String PREFS_NAME = "voice_biometric_prefs";
+    // Gson JSON of the profile, before it moved to PROFILE_FILE
     private static final String KEY_VOICE_PROFILE = "voice_profile_data";
     private static final String KEY_PROFILE_INITIALIZED = "profile_initialized";
+    private static final String PROFILE_FILE = "voice_biometric_profile.vp";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String PROFILE_KEY_ALIAS = "voice_biometric_profile_key";
+    
+    // Matrices of the profile file; prosody holds F0, pitch range, jitter and intensity
+    private static final String MATRIX_MFCC = "mfcc";
+    private static final String MATRIX_SPECTRAL = "spectral";
+    private static final String MATRIX_PROSODY = "prosody";
+    private static final int PROSODY_COLUMNS = 4;
+    
+    // Version of the features a profile holds, saved as its file's label. Version 2 holds liftered
+    // feature stream MFCCs; older profiles, JSON ones included, hold other MFCCs and are re-enrolled
+    private static final int FEATURE_VERSION = 2;
+    private static final String FEATURE_LABEL_PREFIX = "features-v";
     
     // Audio configuration for voice profiling
-    private static final int SAMPLE_RATE = 16000;
-    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
-    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int SAMPLE_RATE = AudioCaptureHub.SAMPLE_RATE;
     private static final int PROFILE_DURATION_MS = 3000; // 3 seconds for profiling
     private static final int AUTH_DURATION_MS = 2000; // 2 seconds for authentication
     
+    // Buffered pre-roll must be at least this long and this clean to skip a fresh recording
+    private static final int MIN_PREROLL_MS = 1000;
+    private static final double MIN_PREROLL_SNR_DB = 10.0;
+    private static final int QUALITY_FRAME_SIZE = SAMPLE_RATE / 50; // 20 ms frames
+    
+    // MFCCs and pitch come from the capture hub's feature stream; its MFCCs are liftered here
+    private static final int MFCC_LIFTER = 22;
+    private static final int UTTERANCE_FRAMES = FeatureStream.frameCount((SAMPLE_RATE * PROFILE_DURATION_MS) / 1000);
+    // How long to wait for the feature stream to catch up with audio just read from the ring
+    private static final long FEATURE_WAIT_MS = 200;
+    
     // Voice authentication thresholds
     private static final float AUTHENTICATION_THRESHOLD = 0.75f;
     private static final float SIMILARITY_THRESHOLD = 0.8f;
     
     private final Context context;
     private final ExecutorService executorService;
+    // Only used on the executor thread: features of audio the shared stream did not see
+    private final FeatureStream utteranceFeatures = new FeatureStream(UTTERANCE_FRAMES);
+    private final double[] featureRows = new double[UTTERANCE_FRAMES * FeatureStream.DIMENSION];
     private SharedPreferences encryptedPrefs;
+    private SecretKey profileKey;
+    // Decoded stored profile and its metrics; guarded by this
+    private VoiceProfile cachedProfile;
+    private long profileCacheHits;
+    private long profileCacheMisses;
+    private long profileLoadNanos;
+    private BroadcastReceiver screenLockReceiver;
     private VoiceProfileManager profileManager;
     
     public interface InitializationCallback {
@@ -78,8 +133,8 @@ public class VoiceBiometricAuthenticator {
     }
     
     public void initializeVoiceProfile(InitializationCallback callback) {
-        // Check if profile already exists
-        if (encryptedPrefs.getBoolean(KEY_PROFILE_INITIALIZED, false)) {
+        // Check if a profile of the current features exists; an outdated one is discarded here
+        if (encryptedPrefs.getBoolean(KEY_PROFILE_INITIALIZED, false) && getStoredProfile() != null) {
             if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile already initialized"); }
 
             callback.onInitialized();
@@ -133,11 +188,7 @@ public class VoiceBiometricAuthenticator {
         if (voiceFeatures.size() >= 2) {
             // Create and store voice profile
             VoiceProfile profile = new VoiceProfile(voiceFeatures);
-            saveVoiceProfile(profile);
-            
-            encryptedPrefs.edit()
-                .putBoolean(KEY_PROFILE_INITIALIZED, true)
-                .apply();
+            storeProfile(profile);
             
             if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile created successfully"); }
 
@@ -148,202 +199,222 @@ public class VoiceBiometricAuthenticator {
     }
     
     private VoiceFeature recordVoiceSample(int durationMs) {
-        AudioRecord audioRecord = null;
-        
-        try {
-            int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
-            
-            audioRecord = new AudioRecord(
-                MediaRecorder.AudioSource.MIC,
-                SAMPLE_RATE,
-                CHANNEL_CONFIG,
-                AUDIO_FORMAT,
-                bufferSize * 2
-            );
-            
-            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
-                Log.e(TAG, "AudioRecord initialization failed");
-                return null;
-            }
-            
-            audioRecord.startRecording();
-            
-            int totalSamples = (SAMPLE_RATE * durationMs) / 1000;
-            short[] audioData = new short[totalSamples];
-            int samplesRead = 0;
-            
-            while (samplesRead < totalSamples) {
-                int remaining = totalSamples - samplesRead;
-                int toRead = Math.min(bufferSize / 2, remaining);
-                
-                int result = audioRecord.read(audioData, samplesRead, toRead);
-                if (result > 0) {
-                    samplesRead += result;
-                } else {
-                    Log.w(TAG, "AudioRecord read returned: " + result);
-                    break;
-                }
-            }
-            
-            audioRecord.stop();
+        int totalSamples = (SAMPLE_RATE * durationMs) / 1000;
+        short[] audioData = ArrayPool.getInstance().acquireShorts(totalSamples);
+        
+        // Subscribing to the shared hub is instant when the microphone is already open; features
+        // are subscribed first so the stream computes them for the whole sample as it is recorded
+        AudioCaptureHub hub = AudioCaptureHub.getInstance();
+        try (AudioCaptureHub.Subscription features = hub.subscribeFeatures();
+             AudioCaptureHub.Subscription subscription = hub.subscribe(AudioCaptureHub.Format.DEFAULT)) {
+            // Allow twice the sample duration before giving up on a stalled capture thread
+            int samplesRead = subscription.readFully(audioData, 0, totalSamples, durationMs * 2L, TimeUnit.MILLISECONDS);
             
             if (samplesRead > 0) {
-                return extractVoiceFeatures(Arrays.copyOf(audioData, samplesRead));
+                return extractVoiceFeatures(audioData, samplesRead, subscription.position());
             }
-            
+            Log.w(TAG, "No audio received from capture hub");
         } catch (Exception e) {
             Log.e(TAG, "Error recording voice sample", e);
         } finally {
-            if (audioRecord != null) {
-                try {
-                    audioRecord.release();
-                } catch (Exception e) {
-                    Log.e(TAG, "Error releasing AudioRecord", e);
-                }
-            }
+            ArrayPool.getInstance().release(audioData);
         }
         
         return null;
     }
     
-    private VoiceFeature extractVoiceFeatures(short[] audioData) {
+    /**
+     * @param length Samples of {@code audioData} to use
+     * @param endSequence Ring sequence just after the last sample of {@code audioData}
+     */
+    private VoiceFeature extractVoiceFeatures(short[] audioData, int length, long endSequence) {
+        ArrayPool pool = ArrayPool.getInstance();
+        double[] samples = pool.acquireDoubles(length);
         try {
             // Convert to double array for processing
-            double[] samples = new double[audioData.length];
-            for (int i = 0; i < audioData.length; i++) {
+            for (int i = 0; i < length; i++) {
                 samples[i] = audioData[i] / 32768.0; // Normalize to [-1, 1]
             }
             
             // Extract voice characteristics
-            double[] mfccFeatures = extractMFCC(samples);
-            double fundamentalFreq = extractFundamentalFrequency(samples);
-            double[] spectralFeatures = extractSpectralFeatures(samples);
-            double voiceIntensity = calculateRMS(samples);
+            int frames = collectFeatureFrames(audioData, length, endSequence);
+            double[] mfccFeatures = meanMfcc(frames);
+            PitchTracker.Statistics pitch = PitchTracker.Statistics.of(featureRows, FeatureStream.PITCH_OFFSET,
+                FeatureStream.DIMENSION, frames);
+            double[] spectralFeatures = extractSpectralFeatures(samples, length);
+            double voiceIntensity = calculateRMS(samples, length);
             
-            return new VoiceFeature(mfccFeatures, fundamentalFreq, spectralFeatures, voiceIntensity);
+            return new VoiceFeature(mfccFeatures, pitch.getMedian(), pitch.getRange(), pitch.getJitter(),
+                spectralFeatures, voiceIntensity);
             
         } catch (Exception e) {
             Log.e(TAG, "Error extracting voice features", e);
             return null;
+        } finally {
+            pool.release(samples);
         }
     }
     
-    private double[] extractMFCC(double[] samples) {
-        // Simplified MFCC extraction
-        // In a production app, you would use a proper MFCC library
-        
-        int numCoefficients = 13;
-        double[] mfcc = new double[numCoefficients];
-        
-        // Basic spectral analysis as MFCC approximation
-        int frameSize = Math.min(1024, samples.length);
-        double[] frame = Arrays.copyOf(samples, frameSize);
-        
-        // Apply window function
-        for (int i = 0; i < frameSize; i++) {
-            frame[i] *= 0.5 * (1 - Math.cos(2 * Math.PI * i / (frameSize - 1))); // Hamming window
+    /**
+     * Puts the feature stream rows of the audio into {@link #featureRows}. They normally come from
+     * the capture hub's stream, which has already computed them; audio it did not see, for example
+     * because nobody kept features subscribed, is run through a stream of our own.
+     *
+     * @return Number of frames
+     */
+    private int collectFeatureFrames(short[] audioData, int length, long endSequence) {
+        long startSequence = endSequence - length;
+        int frames = AudioCaptureHub.getInstance().getFeatureStream().copyFrames(startSequence, endSequence,
+            featureRows, 0, FEATURE_WAIT_MS, TimeUnit.MILLISECONDS);
+        // Shared frames need not start with the audio, so one frame fewer still covers all of it
+        if (frames > 0 && frames >= FeatureStream.frameCount(length) - 1) {
+            return frames;
         }
         
-        // Compute power spectrum (simplified)
-        for (int i = 0; i < numCoefficients; i++) {
-            double sum = 0;
-            int start = (i * frameSize) / numCoefficients;
-            int end = ((i + 1) * frameSize) / numCoefficients;
-            
-            for (int j = start; j < end && j < frameSize; j++) {
-                sum += frame[j] * frame[j];
-            }
-            
-            mfcc[i] = Math.log(sum + 1e-10); // Log energy
-        }
-        
-        return mfcc;
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Computing features locally, shared stream had " + frames + " frames"); }
+
+        utteranceFeatures.reset();
+        utteranceFeatures.process(audioData, 0, length, endSequence);
+        utteranceFeatures.flush();
+        return utteranceFeatures.copyFrames(startSequence, endSequence, featureRows, 0, 0, TimeUnit.MILLISECONDS);
     }
     
-    private double extractFundamentalFrequency(double[] samples) {
-        // Simplified pitch detection using autocorrelation
-        
-        int minPeriod = SAMPLE_RATE / 800; // 800 Hz max
-        int maxPeriod = SAMPLE_RATE / 80;  // 80 Hz min
-        
-        double maxCorrelation = 0;
-        int bestPeriod = minPeriod;
+    // Mean liftered MFCCs over the frames of the utterance
+    private double[] meanMfcc(int frames) {
+        double[] mean = new double[FeatureStream.MFCC_COUNT];
+        if (frames == 0) {
+            return mean;
+        }
         
-        for (int period = minPeriod; period < maxPeriod && period < samples.length / 2; period++) {
-            double correlation = 0;
-            
-            for (int i = 0; i < samples.length - period; i++) {
-                correlation += samples[i] * samples[i + period];
-            }
-            
-            if (correlation > maxCorrelation) {
-                maxCorrelation = correlation;
-                bestPeriod = period;
+        for (int f = 0; f < frames; f++) {
+            int row = f * FeatureStream.DIMENSION + FeatureStream.MFCC_OFFSET;
+            for (int k = 0; k < mean.length; k++) {
+                mean[k] += featureRows[row + k];
             }
         }
-        
-        return (double) SAMPLE_RATE / bestPeriod; // Fundamental frequency in Hz
+        for (int k = 0; k < mean.length; k++) {
+            double lift = 1 + MFCC_LIFTER / 2.0 * Math.sin(Math.PI * k / MFCC_LIFTER);
+            mean[k] *= lift / frames;
+        }
+        return mean;
     }
     
-    private double[] extractSpectralFeatures(double[] samples) {
+    private double[] extractSpectralFeatures(double[] samples, int length) {
         // Extract basic spectral features
         double[] features = new double[4];
         
         // Spectral centroid, bandwidth, rolloff, etc.
-        int frameSize = Math.min(1024, samples.length);
-        double[] spectrum = new double[frameSize / 2];
-        
-        // Simplified power spectrum
-        for (int i = 0; i < spectrum.length; i++) {
-            if (i < samples.length) {
-                spectrum[i] = samples[i] * samples[i];
-            }
-        }
+        int bins = Math.min(1024, length) / 2;
         
-        // Spectral centroid
+        // Spectral centroid of a simplified power spectrum
         double weightedSum = 0, totalPower = 0;
-        for (int i = 0; i < spectrum.length; i++) {
-            weightedSum += i * spectrum[i];
-            totalPower += spectrum[i];
+        for (int i = 0; i < bins; i++) {
+            double power = samples[i] * samples[i];
+            weightedSum += i * power;
+            totalPower += power;
         }
         features[0] = totalPower > 0 ? weightedSum / totalPower : 0;
         
         // Other features (simplified)
-        features[1] = calculateRMS(samples); // Energy
-        features[2] = calculateZeroCrossingRate(samples);
+        features[1] = calculateRMS(samples, length); // Energy
+        features[2] = calculateZeroCrossingRate(samples, length);
         features[3] = totalPower; // Total spectral power
         
         return features;
     }
     
-    private double calculateRMS(double[] samples) {
+    private double calculateRMS(double[] samples, int length) {
         double sum = 0;
-        for (double sample : samples) {
-            sum += sample * sample;
+        for (int i = 0; i < length; i++) {
+            sum += samples[i] * samples[i];
         }
-        return Math.sqrt(sum / samples.length);
+        return Math.sqrt(sum / length);
     }
     
-    private double calculateZeroCrossingRate(double[] samples) {
+    private double calculateZeroCrossingRate(double[] samples, int length) {
         int crossings = 0;
-        for (int i = 1; i < samples.length; i++) {
+        for (int i = 1; i < length; i++) {
             if ((samples[i] >= 0) != (samples[i - 1] >= 0)) {
                 crossings++;
             }
         }
-        return (double) crossings / samples.length;
+        return (double) crossings / length;
+    }
+    
+    /**
+     * Saves {@code profile} in place of the stored one. Authentication decodes the new profile as
+     * saved, not the one from before.
+     */
+    private synchronized void storeProfile(VoiceProfile profile) {
+        saveVoiceProfile(profile);
+        wipeProfileCache();
+        encryptedPrefs.edit()
+            .putBoolean(KEY_PROFILE_INITIALIZED, true)
+            .apply();
+    }
+    
+    /**
+     * Stores a profile of one utterance per row of {@code mfcc}, with no other features, so tests
+     * can exercise the profile cache without recording.
+     */
+    @VisibleForTesting
+    void storeProfile(double[][] mfcc) {
+        storeProfile(mfcc, FEATURE_VERSION);
+    }
+    
+    /**
+     * Stores a profile like {@link #storeProfile(double[][])}, labelled with {@code featureVersion},
+     * so tests can store one of outdated features.
+     */
+    @VisibleForTesting
+    void storeProfile(double[][] mfcc, int featureVersion) {
+        List<VoiceFeature> features = new ArrayList<>(mfcc.length);
+        for (double[] row : mfcc) {
+            features.add(new VoiceFeature(row, 0, 0, 0, new double[0], 0));
+        }
+        storeProfile(new VoiceProfile(features, System.currentTimeMillis(), featureVersion));
     }
     
     private void saveVoiceProfile(VoiceProfile profile) {
         try {
-            Gson gson = new Gson();
-            String profileJson = gson.toJson(profile);
+            List<VoiceFeature> features = profile.getFeatures();
+            int count = features.size();
+            int mfccLength = count > 0 ? features.get(0).getMfccFeatures().length : 0;
+            int spectralLength = count > 0 ? features.get(0).getSpectralFeatures().length : 0;
+            float[] mfcc = new float[count * mfccLength];
+            float[] spectral = new float[count * spectralLength];
+            float[] prosody = new float[count * PROSODY_COLUMNS];
+            for (int i = 0; i < count; i++) {
+                VoiceFeature feature = features.get(i);
+                copy(feature.getMfccFeatures(), mfcc, i * mfccLength, mfccLength);
+                copy(feature.getSpectralFeatures(), spectral, i * spectralLength, spectralLength);
+                prosody[i * PROSODY_COLUMNS] = (float) feature.getFundamentalFreq();
+                prosody[i * PROSODY_COLUMNS + 1] = (float) feature.getPitchRange();
+                prosody[i * PROSODY_COLUMNS + 2] = (float) feature.getPitchJitter();
+                prosody[i * PROSODY_COLUMNS + 3] = (float) feature.getVoiceIntensity();
+            }
+            
+            // int8 scales each MFCC coefficient on its own, so c1..c12 keep their precision next to
+            // the much larger c0; the spectral and prosodic values stay float32
+            FeatureFile file = new FeatureFile(FEATURE_LABEL_PREFIX + profile.getFeatureVersion(),
+                profile.getCreatedTimestamp());
+            file.put(MATRIX_MFCC, FeatureFile.INT8, count, mfccLength, mfcc);
+            file.put(MATRIX_SPECTRAL, FeatureFile.FLOAT32, count, spectralLength, spectral);
+            file.put(MATRIX_PROSODY, FeatureFile.FLOAT32, count, PROSODY_COLUMNS, prosody);
+            byte[] data = file.encrypt(getProfileKey());
             
-            encryptedPrefs.edit()
-                .putString(KEY_VOICE_PROFILE, profileJson)
-                .apply();
+            // Replaced in one step, so a crash mid-write leaves the previous profile
+            AtomicFile profileFile = new AtomicFile(new File(context.getFilesDir(), PROFILE_FILE));
+            FileOutputStream out = profileFile.startWrite();
+            try {
+                out.write(data);
+                profileFile.finishWrite(out);
+            } catch (IOException e) {
+                profileFile.failWrite(out);
+                throw e;
+            }
             
-            if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile saved successfully"); }
+            if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile saved successfully, " + data.length + " bytes"); }
 
             
         } catch (Exception e) {
@@ -353,47 +424,270 @@ public class VoiceBiometricAuthenticator {
     
     private VoiceProfile loadVoiceProfile() {
         try {
-            String profileJson = encryptedPrefs.getString(KEY_VOICE_PROFILE, null);
-            if (profileJson != null) {
-                Gson gson = new Gson();
-                return gson.fromJson(profileJson, VoiceProfile.class);
+            File profileFile = new File(context.getFilesDir(), PROFILE_FILE);
+            if (!profileFile.exists()) {
+                return migrateJsonProfile();
+            }
+            
+            // One read and one decryption, straight into primitive arrays
+            FeatureFile file = FeatureFile.decrypt(new AtomicFile(profileFile).readFully(), getProfileKey());
+            int version = featureVersion(file.getLabel());
+            if (version != FEATURE_VERSION) {
+                discardOutdatedProfile(version);
+                return null;
+            }
+            FeatureFile.Matrix mfcc = file.get(MATRIX_MFCC);
+            FeatureFile.Matrix spectral = file.get(MATRIX_SPECTRAL);
+            FeatureFile.Matrix prosody = file.get(MATRIX_PROSODY);
+            if (mfcc == null || spectral == null || prosody == null) {
+                throw new IOException("Voice profile is missing features");
             }
+            
+            List<VoiceFeature> features = new ArrayList<>(mfcc.getRows());
+            float[] p = prosody.getValues();
+            for (int i = 0; i < mfcc.getRows(); i++) {
+                int row = i * PROSODY_COLUMNS;
+                features.add(new VoiceFeature(row(mfcc, i), p[row], p[row + 1], p[row + 2], row(spectral, i),
+                    p[row + 3]));
+            }
+            return new VoiceProfile(features, file.getCreatedMillis(), version);
         } catch (Exception e) {
             Log.e(TAG, "Error loading voice profile", e);
         }
         return null;
     }
     
-    public void authenticateVoice(AuthenticationCallback callback) {
-        VoiceProfile storedProfile = loadVoiceProfile();
-        if (storedProfile == null) {
-            callback.onError("No voice profile found. Please initialize first.");
-            return;
+    /**
+     * Moves a profile saved as Gson JSON in the preferences to the binary profile file. JSON
+     * profiles predate feature versions, so this only migrates one that names the current version.
+     *
+     * @return The profile, or null if there is none or it was discarded
+     */
+    private VoiceProfile migrateJsonProfile() {
+        String profileJson = encryptedPrefs.getString(KEY_VOICE_PROFILE, null);
+        if (profileJson == null) {
+            return null;
+        }
+        VoiceProfile profile = new Gson().fromJson(profileJson, VoiceProfile.class);
+        if (profile.getFeatureVersion() != FEATURE_VERSION) {
+            discardOutdatedProfile(profile.getFeatureVersion());
+            return null;
+        }
+        saveVoiceProfile(profile);
+        if (new File(context.getFilesDir(), PROFILE_FILE).exists()) {
+            encryptedPrefs.edit().remove(KEY_VOICE_PROFILE).apply();
+            Log.i(TAG, "Migrated voice profile to the binary format");
+        }
+        return profile;
+    }
+    
+    /**
+     * Deletes a stored profile of features other than the current ones, which cannot be compared
+     * with what authentication extracts, so the user is asked to enroll again.
+     */
+    private void discardOutdatedProfile(int version) {
+        Log.w(TAG, "Voice profile holds features of version " + version + ", not " + FEATURE_VERSION
+            + "; it has to be recorded again");
+        new AtomicFile(new File(context.getFilesDir(), PROFILE_FILE)).delete();
+        encryptedPrefs.edit()
+            .remove(KEY_VOICE_PROFILE)
+            .remove(KEY_PROFILE_INITIALIZED)
+            .apply();
+    }
+    
+    /**
+     * @return The feature version a profile file's label names, or 0 for files saved before
+     *     profiles were labelled
+     */
+    private static int featureVersion(String label) {
+        if (!label.startsWith(FEATURE_LABEL_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(label.substring(FEATURE_LABEL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static void copy(double[] from, float[] to, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            to[offset + i] = (float) from[i];
+        }
+    }
+    
+    private static double[] row(FeatureFile.Matrix matrix, int row) {
+        double[] values = new double[matrix.getColumns()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = matrix.getValues()[row * values.length + i];
+        }
+        return values;
+    }
+    
+    /**
+     * Keystore key the profile file is encrypted with, created on first use.
+     */
+    private synchronized SecretKey getProfileKey() throws GeneralSecurityException, IOException {
+        if (profileKey == null) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            if (keyStore.containsAlias(PROFILE_KEY_ALIAS)) {
+                profileKey = ((KeyStore.SecretKeyEntry) keyStore.getEntry(PROFILE_KEY_ALIAS, null)).getSecretKey();
+            } else {
+                KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+                generator.init(new KeyGenParameterSpec.Builder(PROFILE_KEY_ALIAS,
+                        KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setKeySize(256)
+                    .build());
+                profileKey = generator.generateKey();
+            }
+        }
+        return profileKey;
+    }
+    
+    /**
+     * The stored profile, decoded on first use and then kept until it changes or is wiped, so
+     * authentication does no decryption or decoding in the steady state.
+     *
+     * @return The profile, or null if none is stored
+     */
+    private synchronized VoiceProfile getStoredProfile() {
+        if (cachedProfile != null) {
+            profileCacheHits++;
+            return cachedProfile;
         }
         
+        profileCacheMisses++;
+        long start = System.nanoTime();
+        cachedProfile = loadVoiceProfile();
+        long elapsed = System.nanoTime() - start;
+        profileLoadNanos += elapsed;
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile loaded in " + elapsed / 1000 + " us"); }
+
+        return cachedProfile;
+    }
+    
+    /**
+     * Decodes the stored profile unless it is cached, as authentication does.
+     *
+     * @return Whether a profile is stored
+     */
+    @VisibleForTesting
+    boolean loadStoredProfile() {
+        return getStoredProfile() != null;
+    }
+    
+    @VisibleForTesting
+    synchronized boolean isProfileCached() {
+        return cachedProfile != null;
+    }
+    
+    /**
+     * Drops the decoded profile and overwrites its feature values, so they do not stay in memory.
+     * The next authentication decodes the profile again; one already comparing against the wiped
+     * profile fails.
+     */
+    public synchronized void wipeProfileCache() {
+        if (cachedProfile != null) {
+            cachedProfile.wipe();
+            cachedProfile = null;
+        }
+    }
+    
+    /**
+     * Whether to {@link #wipeProfileCache() wipe} the decoded profile whenever the screen turns off,
+     * which is when the device locks. Off by default; turning it on costs one decode on the first
+     * authentication after every unlock.
+     */
+    public synchronized void setWipeProfileOnScreenLock(boolean wipe) {
+        if (wipe && screenLockReceiver == null) {
+            screenLockReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    wipeProfileCache();
+                    if (BuildConfig.DEBUG) { Log.d(TAG, "Screen off, voice profile cache wiped"); }
+
+                }
+            };
+            context.getApplicationContext().registerReceiver(screenLockReceiver,
+                new IntentFilter(Intent.ACTION_SCREEN_OFF));
+        } else if (!wipe && screenLockReceiver != null) {
+            context.getApplicationContext().unregisterReceiver(screenLockReceiver);
+            screenLockReceiver = null;
+        }
+    }
+    
+    /**
+     * Authentications that found the profile already decoded.
+     */
+    public synchronized long getProfileCacheHits() {
+        return profileCacheHits;
+    }
+    
+    /**
+     * Authentications that had to read, decrypt and decode the profile.
+     */
+    public synchronized long getProfileCacheMisses() {
+        return profileCacheMisses;
+    }
+    
+    /**
+     * Total time spent loading the profile on cache misses, in nanoseconds.
+     */
+    public synchronized long getProfileLoadNanos() {
+        return profileLoadNanos;
+    }
+    
+    public void authenticateVoice(AuthenticationCallback callback) {
         executorService.execute(() -> {
             try {
+                VoiceProfile storedProfile = getStoredProfile();
+                if (storedProfile == null) {
+                    callback.onError("No voice profile found. Please initialize first.");
+                    return;
+                }
+                
                 if (BuildConfig.DEBUG) { Log.d(TAG, "Starting voice authentication"); }
 
                 
                 VoiceFeature currentFeature = recordVoiceSample(AUTH_DURATION_MS);
-                if (currentFeature == null) {
-                    callback.onError("Failed to record voice sample for authentication");
+                verifyFeature(storedProfile, currentFeature, callback);
+                
+            } catch (Exception e) {
+                Log.e(TAG, "Error during voice authentication", e);
+                callback.onError("Authentication error: " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Authenticates from audio that was already captured, typically the wake phrase itself, so the
+     * user does not have to keep talking for another {@value #AUTH_DURATION_MS} ms.
+     *
+     * Scores up to {@value #AUTH_DURATION_MS} ms of audio ending at {@code endSequence}. Falls back to
+     * a fresh recording if the buffered segment is too short or too noisy.
+     *
+     * @param ring Ring holding the recent microphone audio
+     * @param endSequence Ring sequence just after the wake phrase, or a negative value if unknown
+     */
+    public void authenticateVoice(PcmRingBuffer ring, long endSequence, AuthenticationCallback callback) {
+        executorService.execute(() -> {
+            try {
+                VoiceProfile storedProfile = getStoredProfile();
+                if (storedProfile == null) {
+                    callback.onError("No voice profile found. Please initialize first.");
                     return;
                 }
                 
-                float similarity = calculateVoiceSimilarity(storedProfile, currentFeature);
-                if (BuildConfig.DEBUG) { Log.d(TAG, "Voice similarity: " + similarity); }
-
-                
-                if (similarity >= AUTHENTICATION_THRESHOLD) {
-                    if (BuildConfig.DEBUG) { Log.d(TAG, "Voice authentication successful"); }
+                VoiceFeature currentFeature = endSequence >= 0 ? extractPreRollFeatures(ring, endSequence) : null;
+                if (currentFeature == null) {
+                    if (BuildConfig.DEBUG) { Log.d(TAG, "Pre-roll unusable, recording a new authentication sample"); }
 
-                    callback.onAuthenticationSucceeded();
-                } else {
-                    Log.w(TAG, "Voice authentication failed - similarity too low: " + similarity);
-                    callback.onAuthenticationFailed("Voice pattern does not match registered user");
+                    currentFeature = recordVoiceSample(AUTH_DURATION_MS);
                 }
+                verifyFeature(storedProfile, currentFeature, callback);
                 
             } catch (Exception e) {
                 Log.e(TAG, "Error during voice authentication", e);
@@ -402,72 +696,73 @@ public class VoiceBiometricAuthenticator {
         });
     }
     
-    private float calculateVoiceSimilarity(VoiceProfile storedProfile, VoiceFeature currentFeature) {
-        float totalSimilarity = 0;
-        int comparisons = 0;
-        
-        // Compare against all stored features and take the best match
-        for (VoiceFeature storedFeature : storedProfile.getFeatures()) {
-            float similarity = compareVoiceFeatures(storedFeature, currentFeature);
-            totalSimilarity += similarity;
-            comparisons++;
+    private VoiceFeature extractPreRollFeatures(PcmRingBuffer ring, long endSequence) {
+        ArrayPool pool = ArrayPool.getInstance();
+        short[] audioData = pool.acquireShorts((SAMPLE_RATE * AUTH_DURATION_MS) / 1000);
+        try {
+            int length = ring.copy(endSequence, audioData, 0, (SAMPLE_RATE * AUTH_DURATION_MS) / 1000);
+            
+            if (length < (SAMPLE_RATE * MIN_PREROLL_MS) / 1000) {
+                if (BuildConfig.DEBUG) { Log.d(TAG, "Pre-roll too short: " + length + " samples"); }
+
+                return null;
+            }
+            
+            double snrDb = SegmentQuality.estimateSnrDb(audioData, length, QUALITY_FRAME_SIZE);
+            if (snrDb < MIN_PREROLL_SNR_DB) {
+                if (BuildConfig.DEBUG) { Log.d(TAG, "Pre-roll too noisy: " + snrDb + " dB"); }
+
+                return null;
+            }
+            
+            if (BuildConfig.DEBUG) { Log.d(TAG, "Authenticating from " + length + " pre-roll samples, SNR " + snrDb + " dB"); }
+
+            return extractVoiceFeatures(audioData, length, endSequence);
+        } finally {
+            pool.release(audioData);
         }
-        
-        return comparisons > 0 ? totalSimilarity / comparisons : 0;
-    }
-    
-    private float compareVoiceFeatures(VoiceFeature stored, VoiceFeature current) {
-        float mfccSimilarity = calculateArraySimilarity(stored.getMfccFeatures(), current.getMfccFeatures());
-        float freqSimilarity = calculateFrequencySimilarity(stored.getFundamentalFreq(), current.getFundamentalFreq());
-        float spectralSimilarity = calculateArraySimilarity(stored.getSpectralFeatures(), current.getSpectralFeatures());
-        float intensitySimilarity = calculateIntensitySimilarity(stored.getVoiceIntensity(), current.getVoiceIntensity());
-        
-        // Weighted combination of features
-        return (mfccSimilarity * 0.4f) + (freqSimilarity * 0.3f) + (spectralSimilarity * 0.2f) + (intensitySimilarity * 0.1f);
     }
     
-    private float calculateArraySimilarity(double[] arr1, double[] arr2) {
-        if (arr1.length != arr2.length) {
-            return 0;
-        }
-        
-        double sum1 = 0, sum2 = 0, sum12 = 0;
-        for (int i = 0; i < arr1.length; i++) {
-            sum1 += arr1[i] * arr1[i];
-            sum2 += arr2[i] * arr2[i];
-            sum12 += arr1[i] * arr2[i];
+    private void verifyFeature(VoiceProfile storedProfile, VoiceFeature currentFeature, AuthenticationCallback callback) {
+        if (currentFeature == null) {
+            callback.onError("Failed to record voice sample for authentication");
+            return;
         }
         
-        double denominator = Math.sqrt(sum1 * sum2);
-        if (denominator == 0) return 0;
-        
-        return (float) Math.max(0, sum12 / denominator);
-    }
-    
-    private float calculateFrequencySimilarity(double freq1, double freq2) {
-        if (freq1 == 0 || freq2 == 0) return 0;
-        
-        double ratio = Math.min(freq1, freq2) / Math.max(freq1, freq2);
-        return (float) ratio;
-    }
-    
-    private float calculateIntensitySimilarity(double intensity1, double intensity2) {
-        if (intensity1 == 0 && intensity2 == 0) return 1;
-        if (intensity1 == 0 || intensity2 == 0) return 0;
+        float similarity = SpeakerScorer.score(storedProfile.getFeatures(), currentFeature);
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Voice similarity: " + similarity); }
+
         
-        double ratio = Math.min(intensity1, intensity2) / Math.max(intensity1, intensity2);
-        return (float) ratio;
+        if (similarity >= AUTHENTICATION_THRESHOLD) {
+            if (BuildConfig.DEBUG) { Log.d(TAG, "Voice authentication successful"); }
+
+            callback.onAuthenticationSucceeded();
+        } else {
+            Log.w(TAG, "Voice authentication failed - similarity too low: " + similarity);
+            callback.onAuthenticationFailed("Voice pattern does not match registered user");
+        }
     }
     
+    /**
+     * Whether a profile of the current features is stored. Decodes the profile unless it is cached,
+     * and discards an outdated one.
+     */
     public boolean isProfileInitialized() {
-        return encryptedPrefs.getBoolean(KEY_PROFILE_INITIALIZED, false);
+        return encryptedPrefs.getBoolean(KEY_PROFILE_INITIALIZED, false) && getStoredProfile() != null;
     }
     
-    public void resetVoiceProfile() {
+    /**
+     * Deletes the stored profile. The profile goes before the cache, under the lock
+     * {@link #getStoredProfile()} decodes it under, so a queued authentication cannot decode it
+     * again in between.
+     */
+    public synchronized void resetVoiceProfile() {
+        new AtomicFile(new File(context.getFilesDir(), PROFILE_FILE)).delete();
         encryptedPrefs.edit()
             .remove(KEY_VOICE_PROFILE)
             .remove(KEY_PROFILE_INITIALIZED)
             .apply();
+        wipeProfileCache();
         
         if (BuildConfig.DEBUG) { Log.d(TAG, "Voice profile reset"); }
 
@@ -477,10 +772,17 @@ public class VoiceBiometricAuthenticator {
     private static class VoiceProfile {
         private final List<VoiceFeature> features;
         private final long createdTimestamp;
+        // 0 in profiles that predate feature versions
+        private final int featureVersion;
         
         public VoiceProfile(List<VoiceFeature> features) {
+            this(features, System.currentTimeMillis(), FEATURE_VERSION);
+        }
+        
+        public VoiceProfile(List<VoiceFeature> features, long createdTimestamp, int featureVersion) {
             this.features = features;
-            this.createdTimestamp = System.currentTimeMillis();
+            this.createdTimestamp = createdTimestamp;
+            this.featureVersion = featureVersion;
         }
         
         public List<VoiceFeature> getFeatures() {
@@ -490,25 +792,19 @@ public class VoiceBiometricAuthenticator {
         public long getCreatedTimestamp() {
             return createdTimestamp;
         }
-    }
-    
-    private static class VoiceFeature {
-        private final double[] mfccFeatures;
-        private final double fundamentalFreq;
-        private final double[] spectralFeatures;
-        private final double voiceIntensity;
         
-        public VoiceFeature(double[] mfccFeatures, double fundamentalFreq, 
-                           double[] spectralFeatures, double voiceIntensity) {
-            this.mfccFeatures = mfccFeatures;
-            this.fundamentalFreq = fundamentalFreq;
-            this.spectralFeatures = spectralFeatures;
-            this.voiceIntensity = voiceIntensity;
+        public int getFeatureVersion() {
+            return featureVersion;
         }
         
-        public double[] getMfccFeatures() { return mfccFeatures; }
-        public double getFundamentalFreq() { return fundamentalFreq; }
-        public double[] getSpectralFeatures() { return spectralFeatures; }
-        public double getVoiceIntensity() { return voiceIntensity; }
+        /**
+         * Overwrites the feature values; the profile must not be used afterwards.
+         */
+        void wipe() {
+            for (VoiceFeature feature : features) {
+                Arrays.fill(feature.getMfccFeatures(), 0);
+                Arrays.fill(feature.getSpectralFeatures(), 0);
+            }
+        }
     }
 }
@@ -5,17 +5,17 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Intent;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.speech.RecognitionListener;
 import android.speech.SpeechRecognizer;
 import android.speech.RecognizerIntent;
 import android.util.Log;
 import androidx.core.app.NotificationCompat;
+import com.freehands.assistant.audio.capture.AudioCaptureHub;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,7 +30,8 @@ public class VoiceListeningService extends Service {
     private static boolean isServiceRunning = false;
     
     // Audio recording components
-    private AudioRecord audioRecord;
+    private AudioCaptureHub captureHub;
+    private AudioCaptureHub.Subscription captureSubscription;
     private WakeWordDetector wakeWordDetector;
     private SpeechRecognizer speechRecognizer;
     private VoiceBiometricAuthenticator authenticator;
@@ -42,12 +43,8 @@ public class VoiceListeningService extends Service {
     private AtomicBoolean isListening = new AtomicBoolean(false);
     private AtomicBoolean isProcessingCommand = new AtomicBoolean(false);
     private PowerManager.WakeLock wakeLock;
-    
-    // Audio configuration
-    private static final int SAMPLE_RATE = 16000;
-    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
-    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
-    private int bufferSize;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
 
     @Override
     public void onCreate() {
@@ -64,11 +61,11 @@ public class VoiceListeningService extends Service {
     
     private void initializeComponents() {
         // Initialize audio processing
-        bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
         audioProcessingExecutor = Executors.newSingleThreadExecutor();
+        captureHub = AudioCaptureHub.getInstance();
         
-        // Initialize voice components
-        wakeWordDetector = new WakeWordDetector(this, WAKE_WORD);
+        // Initialize voice components; the detector reads the hub's shared ring and feature stream
+        wakeWordDetector = new WakeWordDetector(this, WAKE_WORD, captureHub);
         authenticator = new VoiceBiometricAuthenticator(this);
         commandProcessor = new CommandProcessor(this);
         securityManager = new SecurityManager(this);
@@ -132,62 +129,36 @@ public class VoiceListeningService extends Service {
             return;
         }
         
-        audioProcessingExecutor.execute(() -> {
-            try {
-                // Initialize audio recording
-                if (audioRecord != null) {
-                    audioRecord.release();
-                }
-                
-                audioRecord = new AudioRecord(
-                    MediaRecorder.AudioSource.MIC,
-                    SAMPLE_RATE,
-                    CHANNEL_CONFIG,
-                    AUDIO_FORMAT,
-                    bufferSize * 2
-                );
-                
-                if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
-                    Log.e(TAG, "AudioRecord initialization failed");
-                    return;
-                }
-                
-                audioRecord.startRecording();
-                isListening.set(true);
-                
-                if (BuildConfig.DEBUG) { Log.d(TAG, "Started continuous audio recording"); }
+        try {
+            // Holding a subscription keeps the shared microphone open while we listen. The detector
+            // keeps features subscribed, so authentication finds the pre-roll's already computed
+            captureSubscription = captureHub.subscribe(AudioCaptureHub.Format.DEFAULT);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Cannot start listening", e);
+            return;
+        }
+        isListening.set(true);
+        
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Started continuous audio recording"); }
 
-                
-                // Continuous audio processing loop
-                byte[] audioBuffer = new byte[bufferSize];
-                
-                while (isListening.get() && !Thread.currentThread().isInterrupted()) {
-                    int bytesRead = audioRecord.read(audioBuffer, 0, bufferSize);
-                    
-                    if (bytesRead > 0) {
-                        // Process audio for wake word detection
-                        if (!isProcessingCommand.get()) {
-                            processAudioForWakeWord(audioBuffer, bytesRead);
-                        }
-                    }
-                    
-                    // Small delay to prevent excessive CPU usage
-                    // REMOVED Thread.sleep for responsiveness
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Error in continuous listening", e);
-            }
-        });
+        startWakeWordDetection();
     }
     
-    private void processAudioForWakeWord(byte[] audioData, int length) {
-        wakeWordDetector.processAudio(audioData, length, new WakeWordDetector.WakeWordCallback() {
+    private void startWakeWordDetection() {
+        // Detections arrive on the detection thread; SpeechRecognizer may only be used on the main thread
+        wakeWordDetector.start(new WakeWordDetector.WakeWordCallback() {
             @Override
             public void onWakeWordDetected(float confidence) {
                 if (BuildConfig.DEBUG) { Log.d(TAG, "Wake word detected with confidence: " + confidence); }
 
-                onWakeWordTriggered();
+                mainHandler.post(() -> onWakeWordTriggered());
+            }
+            
+            @Override
+            public void onHotwordDetected(String hotword, float confidence) {
+                if (BuildConfig.DEBUG) { Log.d(TAG, "Hotword '" + hotword + "' detected with confidence: " + confidence); }
+
+                mainHandler.post(() -> onHotwordTriggered(hotword));
             }
             
             @Override
@@ -197,6 +168,21 @@ public class VoiceListeningService extends Service {
         });
     }
     
+    private void onHotwordTriggered(String hotword) {
+        if ("emergency".equals(hotword)) {
+            // Never act on a hotword alone; go through authentication and the command flow
+            securityManager.logSecurityEvent("emergency_hotword", "Emergency hotword heard");
+            onWakeWordTriggered();
+            return;
+        }
+        
+        // "stop" and "cancel" abort the command in progress
+        if (isProcessingCommand.get()) {
+            speechRecognizer.cancel();
+            resetToListeningState();
+        }
+    }
+    
     private void onWakeWordTriggered() {
         if (isProcessingCommand.get()) {
             if (BuildConfig.DEBUG) { Log.d(TAG, "Already processing a command, ignoring wake word"); }
@@ -207,6 +193,7 @@ public class VoiceListeningService extends Service {
         if (BuildConfig.DEBUG) { Log.d(TAG, "Wake word triggered - starting command processing"); }
 
         isProcessingCommand.set(true);
+        wakeWordDetector.setPaused(true);
         
         // Update notification to show active state
         updateNotification("Listening for command...");
@@ -216,12 +203,14 @@ public class VoiceListeningService extends Service {
     }
     
     private void startVoiceAuthentication() {
-        authenticator.authenticateVoice(new VoiceBiometricAuthenticator.AuthenticationCallback() {
+        // Score the wake phrase that is already in the ring instead of recording a new sample
+        long wakeWordEnd = wakeWordDetector.getLastDetectionSequence();
+        authenticator.authenticateVoice(captureHub.getRing(), wakeWordEnd, new VoiceBiometricAuthenticator.AuthenticationCallback() {
             @Override
             public void onAuthenticationSucceeded() {
                 if (BuildConfig.DEBUG) { Log.d(TAG, "Voice authentication successful"); }
 
-                startCommandRecognition();
+                mainHandler.post(() -> startCommandRecognition());
             }
             
             @Override
@@ -275,6 +264,7 @@ public class VoiceListeningService extends Service {
     
     private void resetToListeningState() {
         isProcessingCommand.set(false);
+        wakeWordDetector.setPaused(false);
         updateNotification("Listening for 'Hey FreeHands'...");
     }
     
@@ -423,13 +413,13 @@ public class VoiceListeningService extends Service {
         isServiceRunning = false;
         
         // Clean up resources
-        if (audioRecord != null) {
-            try {
-                audioRecord.stop();
-                audioRecord.release();
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping audio recording", e);
-            }
+        if (captureSubscription != null) {
+            captureSubscription.close();
+            captureSubscription = null;
+        }
+        
+        if (wakeWordDetector != null) {
+            wakeWordDetector.shutdown();
         }
         
         if (speechRecognizer != null) {
@@ -1,10 +1,10 @@
 package com.freehands.assistant
 
 import android.content.Context
-import android.media.AudioFormat
-import android.media.AudioRecord
-import android.media.MediaRecorder
 import android.util.Log
+import com.freehands.assistant.audio.ArrayPool
+import com.freehands.assistant.audio.FeatureStream
+import com.freehands.assistant.audio.capture.AudioCaptureHub
 import com.freehands.assistant.utils.AudioFeatureExtractor
 import com.freehands.assistant.utils.VoiceFeatureStorage
 import dagger.hilt.android.qualifiers.ApplicationContext
@@ -12,7 +12,10 @@ import kotlinx.coroutines.*
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
 import java.util.*
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -27,16 +30,14 @@ class VoiceProfileManager @Inject constructor(
 ) {
     private val TAG = "VoiceProfileManager"
     
-    private var audioRecord: AudioRecord? = null
+    private var subscription: AudioCaptureHub.Subscription? = null
+    private var featureSubscription: AudioCaptureHub.Subscription? = null
     private var isRecording = false
     private var recordingJob: Job? = null
     private val coroutineScope = CoroutineScope(Dispatchers.IO + Job())
     
     // Voice profile configuration
-    private val sampleRate = 16000 // 16kHz sample rate
-    private val channelConfig = AudioFormat.CHANNEL_IN_MONO
-    private val audioFormat = AudioFormat.ENCODING_PCM_16BIT
-    private val bufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat) * 2
+    private val sampleRate = AudioCaptureHub.SAMPLE_RATE // 16kHz sample rate
     
     /**
      * Creates a new voice profile for the current user.
@@ -48,36 +49,21 @@ class VoiceProfileManager @Inject constructor(
             stopRecording()
         }
         
-        val audioData = mutableListOf<Short>()
-        
-        audioRecord = AudioRecord(
-            MediaRecorder.AudioSource.VOICE_RECOGNITION,
-            sampleRate,
-            channelConfig,
-            audioFormat,
-            bufferSize
-        )
-        
         try {
-            audioRecord?.startRecording()
+            // Features first, so the shared stream computes them for all of the recording
+            val hub = AudioCaptureHub.getInstance()
+            val features = hub.subscribeFeatures()
+            featureSubscription = features
+            val recording = hub.subscribe(AudioCaptureHub.Format.DEFAULT)
+            subscription = recording
             isRecording = true
             
             recordingJob = coroutineScope.launch {
-                val buffer = ShortArray(bufferSize / 2) // 16-bit samples
-                
                 // Record for 5 seconds or until stopped
-                withTimeoutOrNull(5000) {
-                    while (isActive && isRecording) {
-                        val bytesRead = audioRecord?.read(buffer, 0, buffer.size) ?: 0
-                        if (bytesRead > 0) {
-                            audioData.addAll(buffer.take(bytesRead).toList())
-                        }
-                        delay(50) // Small delay to prevent tight loop
-                    }
-                }
+                val recorded = recordFrom(recording, 5000)
                 
                 // Process the recorded audio
-                processRecordedAudio(userId, audioData.toShortArray(), callback)
+                processRecordedAudio(userId, recorded, features, callback)
             }
             
         } catch (e: Exception) {
@@ -96,36 +82,21 @@ class VoiceProfileManager @Inject constructor(
             stopRecording()
         }
         
-        val audioData = mutableListOf<Short>()
-        
-        audioRecord = AudioRecord(
-            MediaRecorder.AudioSource.VOICE_RECOGNITION,
-            sampleRate,
-            channelConfig,
-            audioFormat,
-            bufferSize
-        )
-        
         try {
-            audioRecord?.startRecording()
+            // Features first, so the shared stream computes them for all of the recording
+            val hub = AudioCaptureHub.getInstance()
+            val features = hub.subscribeFeatures()
+            featureSubscription = features
+            val recording = hub.subscribe(AudioCaptureHub.Format.DEFAULT)
+            subscription = recording
             isRecording = true
             
             recordingJob = coroutineScope.launch {
-                val buffer = ShortArray(bufferSize / 2)
-                
                 // Record for 3 seconds or until stopped
-                withTimeoutOrNull(3000) {
-                    while (isActive && isRecording) {
-                        val bytesRead = audioRecord?.read(buffer, 0, buffer.size) ?: 0
-                        if (bytesRead > 0) {
-                            audioData.addAll(buffer.take(bytesRead).toList())
-                        }
-                        delay(50)
-                    }
-                }
+                val recorded = recordFrom(recording, 3000)
                 
                 // Verify the recorded audio
-                verifyRecordedAudio(userId, audioData.toShortArray(), callback)
+                verifyRecordedAudio(userId, recorded, features, callback)
             }
             
         } catch (e: Exception) {
@@ -134,6 +105,66 @@ class VoiceProfileManager @Inject constructor(
         }
     }
     
+    /**
+     * Audio read from the capture hub and the ring sequence just after its last sample.
+     */
+    private class Recording(val audio: ShortArray, val endSequence: Long)
+    
+    /**
+     * Reads up to [durationMs] of audio from the shared capture hub, stopping early if recording
+     * is cancelled.
+     */
+    private fun CoroutineScope.recordFrom(recording: AudioCaptureHub.Subscription, durationMs: Long): Recording {
+        val audioData = ShortArray((sampleRate * durationMs / 1000).toInt())
+        val deadline = System.currentTimeMillis() + durationMs
+        var samplesRead = 0
+        
+        while (isActive && isRecording && samplesRead < audioData.size) {
+            val remaining = deadline - System.currentTimeMillis()
+            if (remaining <= 0) break
+            samplesRead += recording.read(
+                audioData, samplesRead, audioData.size - samplesRead, remaining, TimeUnit.MILLISECONDS
+            )
+        }
+        val endSequence = recording.position()
+        recording.close()
+        return Recording(audioData.copyOf(samplesRead), endSequence)
+    }
+    
+    /**
+     * Features of a recording as [AudioFeatureExtractor.extractFeatures] computes them, built from
+     * the MFCCs the capture hub's feature stream computed while it was recorded. They are computed
+     * here only if the stream missed part of the audio.
+     */
+    private fun featuresOf(recording: Recording): FloatArray {
+        val audio = recording.audio
+        val startSequence = recording.endSequence - audio.size
+        val expectedFrames = FeatureStream.frameCount(audio.size)
+        val pool = ArrayPool.getInstance()
+        val rows = pool.acquireDoubles(expectedFrames * FeatureStream.DIMENSION)
+        val mfccs = pool.acquireFloats(expectedFrames * FeatureStream.MFCC_COUNT)
+        try {
+            val frames = AudioCaptureHub.getInstance().featureStream.copyFrames(
+                startSequence, recording.endSequence, rows, 0, FEATURE_WAIT_MS, TimeUnit.MILLISECONDS
+            )
+            // Shared frames need not start with the audio, so one frame fewer still covers all of it
+            return if (frames == 0 || frames < expectedFrames - 1) {
+                audioFeatureExtractor.extractFeatures(audio, sampleRate)
+            } else {
+                for (f in 0 until frames) {
+                    for (k in 0 until FeatureStream.MFCC_COUNT) {
+                        mfccs[f * FeatureStream.MFCC_COUNT + k] =
+                            rows[f * FeatureStream.DIMENSION + FeatureStream.MFCC_OFFSET + k].toFloat()
+                    }
+                }
+                audioFeatureExtractor.featuresFromMfccs(mfccs, frames)
+            }
+        } finally {
+            pool.release(rows)
+            pool.release(mfccs)
+        }
+    }
+    
     /**
      * Stops the current recording session.
      */
@@ -143,15 +174,30 @@ class VoiceProfileManager @Inject constructor(
         recordingJob = null
         
         try {
-            audioRecord?.stop()
-            audioRecord?.release()
+            subscription?.close()
+            featureSubscription?.close()
         } catch (e: Exception) {
             Log.e(TAG, "Error stopping audio recording", e)
         } finally {
-            audioRecord = null
+            subscription = null
+            featureSubscription = null
         }
     }
     
+    /**
+     * Backs up every voice profile.
+     */
+    fun backupVoiceProfiles(outputStream: OutputStream): Boolean {
+        return voiceFeatureStorage.backupProfiles(outputStream)
+    }
+    
+    /**
+     * Replaces every voice profile with those of a backup. Blocks, like the restore itself.
+     */
+    fun restoreVoiceProfiles(inputStream: InputStream): Boolean {
+        return voiceFeatureStorage.restoreProfiles(inputStream)
+    }
+    
     /**
      * Deletes a voice profile.
      * @param userId ID of the user whose profile should be deleted
@@ -175,18 +221,21 @@ class VoiceProfileManager @Inject constructor(
     
     private fun processRecordedAudio(
         userId: String,
-        audioData: ShortArray,
+        recording: Recording,
+        featureSubscription: AudioCaptureHub.Subscription,
         callback: (Result<Unit>) -> Unit
     ) {
+        val audioData = recording.audio
         if (audioData.isEmpty()) {
+            featureSubscription.close()
             callback(Result.failure(IllegalStateException("No audio data recorded")))
             return
         }
         
         coroutineScope.launch(Dispatchers.Default) {
             try {
-                // Extract features from the audio
-                val features = audioFeatureExtractor.extractFeatures(audioData, sampleRate)
+                // Take the features the shared stream computed for the audio
+                val features = featureSubscription.use { featuresOf(recording) }
                 
                 // Save the features
                 voiceFeatureStorage.saveProfile(userId, features)
@@ -208,10 +257,12 @@ class VoiceProfileManager @Inject constructor(
     
     private fun verifyRecordedAudio(
         userId: String,
-        audioData: ShortArray,
+        recording: Recording,
+        featureSubscription: AudioCaptureHub.Subscription,
         callback: (Result<Pair<Boolean, Float>>) -> Unit
     ) {
-        if (audioData.isEmpty()) {
+        if (recording.audio.isEmpty()) {
+            featureSubscription.close()
             callback(Result.failure(IllegalStateException("No audio data recorded")))
             return
         }
@@ -221,8 +272,8 @@ class VoiceProfileManager @Inject constructor(
                 // Load the stored profile
                 val storedFeatures = voiceFeatureStorage.loadProfile(userId)
                 
-                // Extract features from the new recording
-                val newFeatures = audioFeatureExtractor.extractFeatures(audioData, sampleRate)
+                // Take the features the shared stream computed for the new recording
+                val newFeatures = featureSubscription.use { featuresOf(recording) }
                 
                 // Calculate similarity score
                 val similarity = audioFeatureExtractor.calculateSimilarity(storedFeatures, newFeatures)
@@ -266,5 +317,6 @@ class VoiceProfileManager @Inject constructor(
     
     companion object {
         private const val SIMILARITY_THRESHOLD = 0.8f // Threshold for voice matching
+        private const val FEATURE_WAIT_MS = 200L // Time the feature stream may lag behind the recording
     }
 }
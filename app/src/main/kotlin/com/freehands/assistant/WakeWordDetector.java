@@ -1,291 +1,512 @@
 package com.freehands.assistant;
 
 import android.content.Context;
+import android.os.Debug;
 import android.util.Log;
+import com.freehands.assistant.audio.ConvKeywordSpotter;
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.KeywordBank;
+import com.freehands.assistant.audio.KeywordSpotter;
+import com.freehands.assistant.audio.KeywordSpotterModel;
+import com.freehands.assistant.audio.PcmRingBuffer;
+import com.freehands.assistant.audio.TemplateKeywordSpotter;
+import com.freehands.assistant.audio.VoiceActivityDetector;
+import com.freehands.assistant.audio.WakeWordTemplateStore;
+import com.freehands.assistant.audio.capture.AudioCaptureHub;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class WakeWordDetector {
     private static final String TAG = "WakeWordDetector";
     
     private final Context context;
-    private final String wakeWord;
-    private final ExecutorService executorService;
+    private final List<String> wakePhrases;
+    private final boolean screening;
     
     // Audio processing parameters
     private static final int SAMPLE_RATE = 16000;
-    private static final int FRAME_SIZE = 1024;
+    private static final int CHUNK_SIZE = 1024; // Samples read from the ring per pass
     private static final float DETECTION_THRESHOLD = 0.7f;
+    private static final int SEARCH_WINDOW_FRAMES = (SAMPLE_RATE * 3) / FeatureStream.HOP_SIZE; // Last 3 seconds
+    private static final long READ_TIMEOUT_MS = 200;
+    private static final int FRAMES_PER_WORD = 12; // ~380 ms per word at 512-sample hops
+    private static final int REFRACTORY_SAMPLES = SAMPLE_RATE; // Ignore 1 s after a detection
+    private static final double BAND_RADIUS_FRACTION = 0.25;
+    private static final int MIN_VOTES = 2;
     
-    // Wake word detection state
-    private final AudioBuffer audioBuffer;
-    private final WakeWordMatcher wakeWordMatcher;
+    /**
+     * Hotwords that are matched even while a command is being handled, once the user has enrolled
+     * them; a generated pattern is too unreliable for a word that is always listened for.
+     */
+    public static final List<String> HOTWORDS = Collections.unmodifiableList(Arrays.asList("stop", "cancel", "emergency"));
+    
+    /** Asset holding the network used by {@link SpotterType#NEURAL}. */
+    public static final String KEYWORD_MODEL_ASSET = "models/keyword_spotter.bin";
+    
+    /**
+     * How keywords are scored.
+     */
+    public enum SpotterType {
+        /** DTW against enrolled (or generated) templates; see {@link WakeWordEnrollment}. */
+        TEMPLATES,
+        /** Int8 convolutional network from {@link #KEYWORD_MODEL_ASSET}; falls back to templates without it. */
+        NEURAL
+    }
+    
+    // Wake word detection state; templates read the hub's feature stream when there is a hub
+    private final PcmRingBuffer audioRing;
+    private final AudioCaptureHub captureHub;
+    private volatile KeywordSet keywordSet;
+    private volatile SpotterType spotterType = SpotterType.TEMPLATES;
+    private volatile float detectionThreshold = DETECTION_THRESHOLD;
+    private long refractoryUntilSequence = 0;
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector();
+    
+    // Preallocated read buffer owned by the detection thread
+    private final short[] frameBuffer = new short[CHUNK_SIZE];
+    
+    private volatile WakeWordCallback callback;
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile long lastDetectionSequence = -1;
+    
+    // Statistics, written only by the detection thread
+    private volatile long processedFrames = 0;
+    private volatile long scoredFrames = 0;
+    private volatile long cpuTimeNanos = 0;
+    private Thread detectionThread;
     
     public interface WakeWordCallback {
         void onWakeWordDetected(float confidence);
         void onError(String error);
+        
+        /** Called with the phrase that was heard; defaults to {@link #onWakeWordDetected(float)}. */
+        default void onWakeWordDetected(String phrase, float confidence) {
+            onWakeWordDetected(confidence);
+        }
+        
+        /**
+         * Called when one of the enrolled {@link WakeWordDetector#HOTWORDS} is heard, also while
+         * detection is paused. Like every callback, it runs on the detection thread.
+         */
+        default void onHotwordDetected(String hotword, float confidence) {
+        }
     }
     
     public WakeWordDetector(Context context, String wakeWord) {
+        this(context, wakeWord, new PcmRingBuffer(SAMPLE_RATE * 5)); // 5 second buffer
+    }
+    
+    /**
+     * Creates a detector that reads audio from a ring filled through {@link #processAudio} or by
+     * another writer, and computes its own features.
+     */
+    public WakeWordDetector(Context context, String wakeWord, PcmRingBuffer audioRing) {
+        this(context, Collections.singletonList(wakeWord), audioRing, null, false);
+    }
+    
+    /**
+     * Creates a detector that reads the capture hub's ring and matches templates against the hub's
+     * shared feature stream, which it keeps running while detection runs. Other consumers of the
+     * stream, such as authentication of the wake phrase, then find their frames already computed.
+     */
+    public WakeWordDetector(Context context, String wakeWord, AudioCaptureHub captureHub) {
+        this(context, Collections.singletonList(wakeWord), captureHub);
+    }
+    
+    /**
+     * Creates a detector on the capture hub for several wake phrases plus {@link #HOTWORDS}, all
+     * scored in one pass over the same features. The first phrase is the one enrolled by default.
+     */
+    public WakeWordDetector(Context context, List<String> wakePhrases, AudioCaptureHub captureHub) {
+        this(context, wakePhrases, captureHub.getRing(), captureHub, false);
+    }
+    
+    /**
+     * Creates the first stage of a cascade on the capture hub: only {@code wakePhrases} are scored,
+     * each against the templates enrolled for that phrase
+     * ({@link WakeWordEnrollment#getTemplateFile(Context, String)}), never the primary enrollment or
+     * {@link #HOTWORDS}.
+     */
+    public static WakeWordDetector createScreener(Context context, List<String> wakePhrases, AudioCaptureHub captureHub) {
+        return new WakeWordDetector(context, wakePhrases, captureHub.getRing(), captureHub, true);
+    }
+    
+    private WakeWordDetector(Context context, List<String> wakePhrases, PcmRingBuffer audioRing,
+                             AudioCaptureHub captureHub, boolean screening) {
+        if (wakePhrases.isEmpty()) {
+            throw new IllegalArgumentException("At least one wake phrase is required");
+        }
         this.context = context;
-        this.wakeWord = wakeWord.toLowerCase();
-        this.executorService = Executors.newSingleThreadExecutor();
-        this.audioBuffer = new AudioBuffer(SAMPLE_RATE * 5); // 5 second buffer
-        this.wakeWordMatcher = new WakeWordMatcher(this.wakeWord);
+        List<String> phrases = new ArrayList<>(wakePhrases.size());
+        for (String phrase : wakePhrases) {
+            phrases.add(phrase.toLowerCase());
+        }
+        this.wakePhrases = Collections.unmodifiableList(phrases);
+        this.audioRing = audioRing;
+        this.captureHub = captureHub;
+        this.screening = screening;
+        this.keywordSet = createKeywordSet();
         
-        if (BuildConfig.DEBUG) { Log.d(TAG, "WakeWordDetector initialized for: " + wakeWord); }
+        if (BuildConfig.DEBUG) { Log.d(TAG, "WakeWordDetector initialized for: " + wakePhrases + " and hotwords " + getHotwords()); }
 
     }
     
-    public void processAudio(byte[] audioData, int length, WakeWordCallback callback) {
-        if (audioData == null || length <= 0) {
-            return;
+    /**
+     * Switches how keywords are scored. Keyword history starts afresh, as it does on
+     * {@link #reloadTemplates()}.
+     */
+    public void setSpotterType(SpotterType type) {
+        spotterType = type;
+        keywordSet = createKeywordSet();
+    }
+    
+    /**
+     * Spotter actually in use; {@link SpotterType#TEMPLATES} if the network could not be loaded.
+     */
+    public SpotterType getSpotterType() {
+        return keywordSet.type;
+    }
+    
+    /**
+     * Reloads enrolled templates, for example after {@link WakeWordEnrollment} finished.
+     */
+    public void reloadTemplates() {
+        keywordSet = createKeywordSet();
+    }
+    
+    /**
+     * Whether the first wake phrase is matched against the user's own recordings.
+     */
+    public boolean isUsingEnrolledTemplates() {
+        return keywordSet.primaryEnrolled;
+    }
+    
+    public List<String> getWakePhrases() {
+        return wakePhrases;
+    }
+    
+    private List<String> getHotwords() {
+        return screening ? Collections.<String>emptyList() : HOTWORDS;
+    }
+    
+    /**
+     * Changes the score a keyword needs to be reported. A lower threshold turns the detector into a
+     * cheap first stage that reports candidates for a more expensive check.
+     */
+    public void setDetectionThreshold(float threshold) {
+        if (threshold <= 0 || threshold >= 1) {
+            throw new IllegalArgumentException("Threshold must be between 0 and 1: " + threshold);
+        }
+        detectionThreshold = threshold;
+        keywordSet = createKeywordSet(); // Templates prune against the threshold
+    }
+    
+    public float getDetectionThreshold() {
+        return detectionThreshold;
+    }
+    
+    private KeywordSet createKeywordSet() {
+        if (spotterType == SpotterType.NEURAL) {
+            KeywordSpotterModel model = loadModel();
+            if (model != null) {
+                return new KeywordSet(SpotterType.NEURAL, new ConvKeywordSpotter(model), wakePhrases, getHotwords(), false);
+            }
         }
         
-        executorService.execute(() -> {
-            try {
-                // Convert byte array to short array
-                short[] audioSamples = new short[length / 2];
-                for (int i = 0; i < audioSamples.length && (i * 2 + 1) < length; i++) {
-                    audioSamples[i] = (short) ((audioData[i * 2 + 1] << 8) | (audioData[i * 2] & 0xFF));
-                }
-                
-                // Add to circular buffer
-                audioBuffer.addSamples(audioSamples);
-                
-                // Process for wake word detection
-                detectWakeWord(callback);
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing audio for wake word detection", e);
-                callback.onError("Audio processing error: " + e.getMessage());
+        List<KeywordBank.Keyword> keywords = new ArrayList<>();
+        boolean primaryEnrolled = false;
+        
+        for (int i = 0; i < wakePhrases.size(); i++) {
+            String phrase = wakePhrases.get(i);
+            File file = i == 0 && !screening ? WakeWordEnrollment.getTemplateFile(context) : WakeWordEnrollment.getTemplateFile(context, phrase);
+            KeywordBank.Keyword keyword = loadKeyword(phrase, file);
+            primaryEnrolled |= i == 0 && keyword != null;
+            keywords.add(keyword != null ? keyword : generatedKeyword(phrase));
+        }
+        for (String hotword : getHotwords()) {
+            KeywordBank.Keyword keyword = loadKeyword(hotword, WakeWordEnrollment.getTemplateFile(context, hotword));
+            if (keyword != null) {
+                keywords.add(keyword);
+            } else if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Hotword '" + hotword + "' not enrolled, not listening for it");
             }
-        });
+        }
+        
+        KeywordBank bank = new KeywordBank(keywords, BAND_RADIUS_FRACTION, detectionThreshold);
+        TemplateKeywordSpotter spotter = captureHub != null
+            ? new TemplateKeywordSpotter(bank, SEARCH_WINDOW_FRAMES, captureHub.getFeatureStream())
+            : new TemplateKeywordSpotter(bank, SEARCH_WINDOW_FRAMES);
+        return new KeywordSet(SpotterType.TEMPLATES, spotter, wakePhrases, getHotwords(), primaryEnrolled);
     }
     
-    private void detectWakeWord(WakeWordCallback callback) {
-        try {
-            // Get recent audio data
-            short[] recentAudio = audioBuffer.getRecentSamples(SAMPLE_RATE * 3); // Last 3 seconds
-            
-            if (recentAudio.length < FRAME_SIZE) {
-                return; // Not enough data
-            }
-            
-            // Extract features and match against wake word pattern
-            float confidence = wakeWordMatcher.matchWakeWord(recentAudio);
-            
-            if (confidence >= DETECTION_THRESHOLD) {
-                if (BuildConfig.DEBUG) { Log.d(TAG, "Wake word detected with confidence: " + confidence); }
+    private KeywordSpotterModel loadModel() {
+        try (InputStream in = context.getAssets().open(KEYWORD_MODEL_ASSET)) {
+            KeywordSpotterModel model = KeywordSpotterModel.read(in);
+            if (BuildConfig.DEBUG) { Log.d(TAG, "Loaded keyword model with labels " + model.getLabels()); }
 
-                callback.onWakeWordDetected(confidence);
-            }
-            
+            return model;
         } catch (Exception e) {
-            Log.e(TAG, "Error in wake word detection", e);
-            callback.onError("Wake word detection error: " + e.getMessage());
+            Log.e(TAG, "Keyword model unavailable, using templates", e);
+            return null;
         }
     }
     
-    /**
-     * Circular audio buffer for storing recent audio samples
-     */
-    private static class AudioBuffer {
-        private final short[] buffer;
-        private int writeIndex = 0;
-        private boolean filled = false;
-        
-        public AudioBuffer(int size) {
-            this.buffer = new short[size];
+    private KeywordBank.Keyword loadKeyword(String name, File file) {
+        if (!file.isFile()) {
+            return null;
         }
-        
-        public synchronized void addSamples(short[] samples) {
-            for (short sample : samples) {
-                buffer[writeIndex] = sample;
-                writeIndex = (writeIndex + 1) % buffer.length;
-                
-                if (writeIndex == 0) {
-                    filled = true;
-                }
-            }
+        if (!WakeWordTemplateStore.isCurrent(file)) {
+            Log.w(TAG, "Templates for " + name + " were recorded with older features, using generated pattern until re-enrolled");
+            return null;
         }
-        
-        public synchronized short[] getRecentSamples(int count) {
-            if (!filled && writeIndex < count) {
-                return Arrays.copyOf(buffer, writeIndex);
-            }
-            
-            count = Math.min(count, buffer.length);
-            short[] result = new short[count];
-            
-            int startIndex = filled ? 
-                (writeIndex - count + buffer.length) % buffer.length : 
-                Math.max(0, writeIndex - count);
-            
-            for (int i = 0; i < count; i++) {
-                result[i] = buffer[(startIndex + i) % buffer.length];
-            }
-            
-            return result;
+        try {
+            List<double[][]> templates = WakeWordTemplateStore.load(file);
+            if (BuildConfig.DEBUG) { Log.d(TAG, "Loaded " + templates.size() + " enrolled templates for: " + name); }
+
+            return new KeywordBank.Keyword(name, templates, MIN_VOTES);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading templates for " + name + ", using generated pattern", e);
+            return null;
         }
     }
     
+    private static KeywordBank.Keyword generatedKeyword(String name) {
+        return new KeywordBank.Keyword(name, Collections.singletonList(generatePhoneticPatterns(name)), 1);
+    }
+    
     /**
-     * Wake word pattern matching using audio features
+     * Ring the detector reads from; the capture thread is expected to write into it.
      */
-    private static class WakeWordMatcher {
-        private final String targetPhrase;
-        private final double[][] phoneticPatterns;
-        
-        public WakeWordMatcher(String wakeWord) {
-            this.targetPhrase = wakeWord;
-            this.phoneticPatterns = generatePhoneticPatterns(wakeWord);
+    public PcmRingBuffer getAudioRing() {
+        return audioRing;
+    }
+    
+    /**
+     * Starts the detection thread, which consumes new audio from the ring through its own cursor
+     * and, on the capture hub, holds a feature subscription until {@link #shutdown()}.
+     */
+    public synchronized void start(WakeWordCallback callback) {
+        this.callback = callback;
+        if (running) {
+            return;
         }
         
-        private double[][] generatePhoneticPatterns(String phrase) {
-            // Simplified phonetic pattern generation
-            // In production, this would use proper phonetic analysis
-            
-            String[] words = phrase.split("\\s+");
-            double[][] patterns = new double[words.length][];
-            
-            for (int i = 0; i < words.length; i++) {
-                patterns[i] = generateWordPattern(words[i]);
-            }
-            
-            return patterns;
+        running = true;
+        detectionThread = new Thread(this::detectionLoop, "WakeWordDetector");
+        detectionThread.start();
+    }
+    
+    /**
+     * Ring sequence at which the most recent wake phrase was detected, or -1 if none was. The phrase
+     * itself ends just before this position, so it can be read back with {@link PcmRingBuffer#copy}.
+     */
+    public long getLastDetectionSequence() {
+        return lastDetectionSequence;
+    }
+    
+    /**
+     * Voice activity detector that gates matching. Its statistics are updated on the detection
+     * thread; use {@link VoiceActivityDetector#setFrameListener} to observe them.
+     */
+    public VoiceActivityDetector getVoiceActivityDetector() {
+        return voiceActivityDetector;
+    }
+    
+    /**
+     * Feature frames the detection thread has processed since it started; frames are those of the
+     * spotter in use, so their length depends on {@link #getSpotterType()}.
+     */
+    public long getProcessedFrameCount() {
+        return processedFrames;
+    }
+    
+    /**
+     * Feature frames that passed the voice activity gate and were scored against the keywords.
+     */
+    public long getScoredFrameCount() {
+        return scoredFrames;
+    }
+    
+    /**
+     * CPU time used by the detection thread, including voice activity detection and features.
+     */
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+    
+    /**
+     * Suspends wake phrase detection while a command is being handled; hotwords are still matched
+     * and audio keeps flowing into the ring.
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+    
+    /**
+     * Writes a chunk of captured 16-bit PCM into the ring and makes sure detection is running.
+     * Must always be called from the same (capture) thread.
+     */
+    public void processAudio(byte[] audioData, int length, WakeWordCallback callback) {
+        if (audioData == null || length <= 0) {
+            return;
         }
         
-        private double[] generateWordPattern(String word) {
-            // Generate a simple spectral pattern based on word characteristics
-            double[] pattern = new double[13]; // MFCC-like features
-            
-            // Simple pattern based on word characteristics
-            int wordHash = word.hashCode();
-            for (int i = 0; i < pattern.length; i++) {
-                pattern[i] = Math.sin((wordHash + i * 37) * 0.01) * 0.5 + 0.5;
-            }
-            
-            return pattern;
+        if (!running) {
+            start(callback);
         }
-        
-        public float matchWakeWord(short[] audioSamples) {
-            try {
-                // Extract audio features
-                double[][] audioFeatures = extractAudioFeatures(audioSamples);
-                
-                if (audioFeatures.length < phoneticPatterns.length) {
-                    return 0.0f;
+        audioRing.writePcm16(audioData, 0, length);
+    }
+    
+    private void detectionLoop() {
+        long cpuStart = Debug.threadCpuTimeNanos();
+        try (PcmRingBuffer.Cursor cursor = audioRing.newCursor();
+             AudioCaptureHub.Subscription features = captureHub != null ? captureHub.subscribeFeatures() : null) {
+            while (running) {
+                int read = cursor.read(frameBuffer, 0, CHUNK_SIZE, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (read <= 0) {
+                    continue;
                 }
                 
-                // Find best match using dynamic time warping (simplified)
-                float bestMatch = 0.0f;
+                // Only match while speech is present or has just ended; silence costs a VAD pass
+                boolean speech = voiceActivityDetector.process(frameBuffer, 0, read);
                 
-                int searchWindowSize = audioFeatures.length - phoneticPatterns.length + 1;
+                // Features are kept up to date even in silence so the history is ready at onset
+                KeywordSet keywords = keywordSet;
+                long position = cursor.position();
+                int newFrames = keywords.spotter.accept(frameBuffer, 0, read, position);
                 
-                for (int offset = 0; offset < searchWindowSize; offset += 5) { // Step by 5 for efficiency
-                    float match = calculatePatternMatch(audioFeatures, offset);
-                    bestMatch = Math.max(bestMatch, match);
+                // Match once per completed frame rather than once per capture chunk
+                if (newFrames > 0) {
+                    processedFrames += newFrames;
+                    if (speech && position >= refractoryUntilSequence) {
+                        scoredFrames += newFrames;
+                        detectKeywords(keywords, position);
+                    } else {
+                        keywords.spotter.skip();
+                    }
                 }
-                
-                return bestMatch;
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Error matching wake word", e);
-                return 0.0f;
+                cpuTimeNanos = Debug.threadCpuTimeNanos() - cpuStart;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing audio for wake word detection", e);
+            WakeWordCallback current = callback;
+            if (current != null) {
+                current.onError("Audio processing error: " + e.getMessage());
             }
         }
-        
-        private double[][] extractAudioFeatures(short[] audioSamples) {
-            // Extract MFCC-like features from audio
-            int frameCount = audioSamples.length / FRAME_SIZE;
-            double[][] features = new double[frameCount][];
+    }
+    
+    private void detectKeywords(KeywordSet keywords, long endSequence) {
+        WakeWordCallback current = callback;
+        float threshold = detectionThreshold;
+        try {
+            // Score every wake phrase and hotword against the new feature frames in one pass
+            KeywordSpotter spotter = keywords.spotter;
+            spotter.score();
             
-            for (int frame = 0; frame < frameCount; frame++) {
-                int startIndex = frame * FRAME_SIZE;
-                int endIndex = Math.min(startIndex + FRAME_SIZE, audioSamples.length);
-                
-                features[frame] = extractFrameFeatures(audioSamples, startIndex, endIndex);
+            // Report the best keyword that is allowed to fire right now
+            int detected = -1;
+            for (int k = 0; k < spotter.getKeywordCount(); k++) {
+                boolean wakePhrase = keywords.wakePhrase[k];
+                float score = spotter.getScore(k);
+                if (score >= threshold && (keywords.hotword[k] || (wakePhrase && !paused))
+                        && (detected < 0 || score > spotter.getScore(detected))) {
+                    detected = k;
+                }
+            }
+            if (detected < 0 || current == null) {
+                return;
             }
             
-            return features;
-        }
-        
-        private double[] extractFrameFeatures(short[] audioSamples, int startIndex, int endIndex) {
-            double[] features = new double[13];
+            String name = spotter.getKeywordName(detected);
+            float confidence = spotter.getScore(detected);
+            refractoryUntilSequence = endSequence + REFRACTORY_SAMPLES;
             
-            // Convert to double and apply window
-            double[] frame = new double[endIndex - startIndex];
-            for (int i = 0; i < frame.length; i++) {
-                frame[i] = audioSamples[startIndex + i] / 32768.0;
-                // Apply Hamming window
-                frame[i] *= 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (frame.length - 1));
+            if (keywords.wakePhrase[detected]) {
+                if (BuildConfig.DEBUG) { Log.d(TAG, "Wake word '" + name + "' detected with confidence: " + confidence); }
+
+                lastDetectionSequence = endSequence;
+                current.onWakeWordDetected(name, confidence);
+            } else {
+                if (BuildConfig.DEBUG) { Log.d(TAG, "Hotword '" + name + "' detected with confidence: " + confidence); }
+
+                current.onHotwordDetected(name, confidence);
             }
             
-            // Compute spectral features (simplified)
-            for (int i = 0; i < features.length; i++) {
-                double energy = 0;
-                int binStart = (i * frame.length) / features.length;
-                int binEnd = ((i + 1) * frame.length) / features.length;
-                
-                for (int j = binStart; j < binEnd && j < frame.length; j++) {
-                    energy += frame[j] * frame[j];
-                }
-                
-                features[i] = Math.log(energy + 1e-10);
+        } catch (Exception e) {
+            Log.e(TAG, "Error in wake word detection", e);
+            if (current != null) {
+                current.onError("Wake word detection error: " + e.getMessage());
             }
-            
-            return features;
         }
+    }
+    
+    private static double[][] generatePhoneticPatterns(String phrase) {
+        // Simplified phonetic pattern generation, only used until the user enrolls the phrase
         
-        private float calculatePatternMatch(double[][] audioFeatures, int offset) {
-            float totalSimilarity = 0;
-            int validComparisons = 0;
-            
-            for (int patternIndex = 0; patternIndex < phoneticPatterns.length; patternIndex++) {
-                int audioIndex = offset + patternIndex;
-                
-                if (audioIndex < audioFeatures.length) {
-                    float similarity = calculateFeatureSimilarity(
-                        phoneticPatterns[patternIndex], 
-                        audioFeatures[audioIndex]
-                    );
-                    totalSimilarity += similarity;
-                    validComparisons++;
-                }
+        String[] words = phrase.split("\\s+");
+        double[][] patterns = new double[words.length * FRAMES_PER_WORD][];
+        
+        for (int i = 0; i < words.length; i++) {
+            double[] pattern = generateWordPattern(words[i]);
+            for (int frame = 0; frame < FRAMES_PER_WORD; frame++) {
+                patterns[i * FRAMES_PER_WORD + frame] = pattern;
             }
-            
-            return validComparisons > 0 ? totalSimilarity / validComparisons : 0;
         }
         
-        private float calculateFeatureSimilarity(double[] pattern, double[] features) {
-            if (pattern.length != features.length) {
-                return 0;
-            }
-            
-            double dotProduct = 0;
-            double patternNorm = 0;
-            double featureNorm = 0;
-            
-            for (int i = 0; i < pattern.length; i++) {
-                dotProduct += pattern[i] * features[i];
-                patternNorm += pattern[i] * pattern[i];
-                featureNorm += features[i] * features[i];
-            }
-            
-            double denominator = Math.sqrt(patternNorm * featureNorm);
-            if (denominator == 0) {
-                return 0;
+        return patterns;
+    }
+    
+    private static double[] generateWordPattern(String word) {
+        // Generate a simple spectral pattern based on word characteristics
+        double[] pattern = new double[TemplateKeywordSpotter.FEATURE_COUNT]; // MFCCs c1..c12
+        
+        // Simple pattern based on word characteristics
+        int wordHash = word.hashCode();
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = Math.sin((wordHash + i * 37) * 0.01) * 0.5 + 0.5;
+        }
+        
+        return pattern;
+    }
+    
+    /**
+     * Spotter together with which of its keywords are wake phrases or hotwords; other keywords, such
+     * as a network's "unknown" label, are never reported. Swapped as a whole on reload.
+     */
+    private static final class KeywordSet {
+        final SpotterType type;
+        final KeywordSpotter spotter;
+        final boolean[] wakePhrase;
+        final boolean[] hotword;
+        final boolean primaryEnrolled;
+        
+        KeywordSet(SpotterType type, KeywordSpotter spotter, List<String> wakePhrases, List<String> hotwords,
+                   boolean primaryEnrolled) {
+            this.type = type;
+            this.spotter = spotter;
+            this.wakePhrase = new boolean[spotter.getKeywordCount()];
+            this.hotword = new boolean[spotter.getKeywordCount()];
+            for (int k = 0; k < wakePhrase.length; k++) {
+                String name = spotter.getKeywordName(k);
+                wakePhrase[k] = wakePhrases.contains(name);
+                hotword[k] = !wakePhrase[k] && hotwords.contains(name);
             }
-            
-            return (float) Math.max(0, dotProduct / denominator);
+            this.primaryEnrolled = primaryEnrolled;
         }
     }
     
-    public void shutdown() {
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdownNow();
+    public synchronized void shutdown() {
+        running = false;
+        if (detectionThread != null) {
+            detectionThread.interrupt();
+            detectionThread = null;
         }
     }
 }
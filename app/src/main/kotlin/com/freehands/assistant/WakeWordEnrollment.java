@@ -0,0 +1,208 @@
+package com.freehands.assistant;
+
+import android.content.Context;
+import android.util.Log;
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.TemplateKeywordSpotter;
+import com.freehands.assistant.audio.VoiceActivityDetector;
+import com.freehands.assistant.audio.WakeWordTemplateStore;
+import com.freehands.assistant.audio.capture.AudioCaptureHub;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the user saying the wake phrase several times and stores the feature sequences as
+ * templates for {@link WakeWordDetector}.
+ *
+ * Templates are made of the same MFCC frames the detector matches, taken from the capture hub's
+ * shared {@link FeatureStream}, and each utterance is trimmed to the frames a
+ * {@link VoiceActivityDetector} classifies as speech.
+ */
+public class WakeWordEnrollment {
+    private static final String TAG = "WakeWordEnrollment";
+
+    static final String TEMPLATE_FILE = "wake_word_templates.bin";
+    private static final String KEYWORD_TEMPLATE_PREFIX = "keyword_templates_";
+
+    public static final int DEFAULT_SAMPLE_COUNT = 3;
+    private static final int UTTERANCE_MS = 2500; // Must fit the detector's 3 second search window
+    private static final int MIN_TEMPLATE_FRAMES = 8; // ~250 ms of speech
+    private static final int PADDING_FRAMES = 2;
+    // How long to wait for the feature stream to catch up with the recorded audio
+    private static final long FEATURE_WAIT_MS = 200;
+
+    private final Context context;
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private volatile boolean cancelled = false;
+
+    public interface EnrollmentCallback {
+        /** Called when the user should say the wake phrase. */
+        void onSpeakNow(int sampleIndex, int sampleCount);
+        void onSampleRejected(int sampleIndex, String reason);
+        void onEnrolled(int templateCount);
+        void onError(String error);
+    }
+
+    public WakeWordEnrollment(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * File the templates are stored in; {@link WakeWordDetector} maps it at startup.
+     */
+    public static File getTemplateFile(Context context) {
+        return new File(context.getFilesDir(), TEMPLATE_FILE);
+    }
+
+    /**
+     * File holding the templates of another keyword, such as a second wake phrase or a hotword.
+     */
+    public static File getTemplateFile(Context context, String keyword) {
+        String name = KEYWORD_TEMPLATE_PREFIX + Integer.toHexString(keyword.toLowerCase().hashCode()) + ".bin";
+        return new File(context.getFilesDir(), name);
+    }
+
+    /**
+     * Whether the wake phrase has templates the detector can use; templates recorded with older
+     * features do not count, so the user is asked to enroll again.
+     */
+    public static boolean hasTemplates(Context context) {
+        return WakeWordTemplateStore.isCurrent(getTemplateFile(context));
+    }
+
+    /**
+     * Records {@code sampleCount} accepted utterances and replaces any stored templates with them.
+     * Rejected utterances (too short or silent) are asked for again, up to twice the sample count.
+     */
+    public void enroll(int sampleCount, EnrollmentCallback callback) {
+        enroll(getTemplateFile(context), sampleCount, callback);
+    }
+
+    /**
+     * Records templates for {@code keyword}, a further wake phrase or one of
+     * {@link WakeWordDetector#HOTWORDS}.
+     */
+    public void enroll(String keyword, int sampleCount, EnrollmentCallback callback) {
+        enroll(getTemplateFile(context, keyword), sampleCount, callback);
+    }
+
+    private void enroll(File templateFile, int sampleCount, EnrollmentCallback callback) {
+        cancelled = false;
+        executorService.execute(() -> {
+            try {
+                List<double[][]> templates = new ArrayList<>();
+                int attempts = 0;
+
+                while (templates.size() < sampleCount && attempts < sampleCount * 2 && !cancelled) {
+                    attempts++;
+                    callback.onSpeakNow(templates.size(), sampleCount);
+
+                    double[][] template = recordTemplate();
+                    if (template == null) {
+                        callback.onSampleRejected(templates.size(), "No wake phrase heard");
+                        continue;
+                    }
+                    templates.add(template);
+
+                    if (BuildConfig.DEBUG) { Log.d(TAG, "Recorded template with " + template.length + " frames"); }
+
+                }
+
+                if (cancelled) {
+                    return;
+                }
+                if (templates.size() < sampleCount) {
+                    callback.onError("Could not record enough clear samples of the wake phrase");
+                    return;
+                }
+
+                WakeWordTemplateStore.save(templateFile, templates);
+                callback.onEnrolled(templates.size());
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error during wake word enrollment", e);
+                callback.onError("Enrollment failed: " + e.getMessage());
+            }
+        });
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public void deleteTemplates() {
+        if (!getTemplateFile(context).delete()) {
+            Log.w(TAG, "No wake word templates to delete");
+        }
+    }
+
+    private double[][] recordTemplate() {
+        int length = (AudioCaptureHub.SAMPLE_RATE * UTTERANCE_MS) / 1000;
+        int maxFrames = FeatureStream.frameCount(length);
+        short[] audio = new short[length];
+        double[] rows = new double[maxFrames * FeatureStream.DIMENSION];
+        long[] frameEnds = new long[maxFrames];
+        long endSequence;
+        int frames;
+
+        // Features are subscribed first so the shared stream computes them as the phrase is said,
+        // exactly as it does for the detector
+        AudioCaptureHub hub = AudioCaptureHub.getInstance();
+        try (AudioCaptureHub.Subscription features = hub.subscribeFeatures();
+             AudioCaptureHub.Subscription subscription = hub.subscribe(AudioCaptureHub.Format.DEFAULT)) {
+            int read = subscription.readFully(audio, 0, length, UTTERANCE_MS * 2L, TimeUnit.MILLISECONDS);
+            if (read < length) {
+                Log.w(TAG, "Capture stalled during enrollment");
+                return null;
+            }
+            endSequence = subscription.position();
+            frames = hub.getFeatureStream().copyFrames(endSequence - length, endSequence, rows, 0, frameEnds,
+                FEATURE_WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // Shared frames need not start with the audio, so one frame fewer still covers all of it
+        if (frames < maxFrames - 1) {
+            FeatureStream stream = new FeatureStream(maxFrames);
+            stream.process(audio, 0, length, endSequence);
+            stream.flush();
+            frames = stream.copyFrames(endSequence - length, endSequence, rows, 0, frameEnds, 0, TimeUnit.MILLISECONDS);
+        }
+
+        // Classify each hop as speech or not; a frame takes the decision of the hop it ends with
+        int hops = length / FeatureStream.HOP_SIZE;
+        boolean[] hopSpeech = new boolean[hops];
+        VoiceActivityDetector vad = new VoiceActivityDetector(FeatureStream.HOP_SIZE);
+        for (int h = 0; h < hops; h++) {
+            vad.process(audio, h * FeatureStream.HOP_SIZE, FeatureStream.HOP_SIZE);
+            hopSpeech[h] = vad.isLastFrameSpeech();
+        }
+
+        int firstSpeech = -1;
+        int lastSpeech = -1;
+        for (int f = 0; f < frames; f++) {
+            int hop = (int) ((frameEnds[f] - (endSequence - length)) / FeatureStream.HOP_SIZE) - 1;
+            if (hop >= 0 && hop < hops && hopSpeech[hop]) {
+                if (firstSpeech < 0) {
+                    firstSpeech = f;
+                }
+                lastSpeech = f;
+            }
+        }
+
+        if (firstSpeech < 0 || lastSpeech - firstSpeech + 1 < MIN_TEMPLATE_FRAMES) {
+            return null;
+        }
+
+        int start = Math.max(0, firstSpeech - PADDING_FRAMES);
+        int end = Math.min(frames - 1, lastSpeech + PADDING_FRAMES);
+        double[][] template = new double[end - start + 1][TemplateKeywordSpotter.FEATURE_COUNT];
+        for (int f = start; f <= end; f++) {
+            TemplateKeywordSpotter.copyFeatures(rows, f * FeatureStream.DIMENSION, template[f - start], 0);
+        }
+        return template;
+    }
+}
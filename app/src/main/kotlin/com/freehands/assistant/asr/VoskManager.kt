@@ -2,15 +2,16 @@ package com.freehands.assistant.asr
 
 import android.content.Context
 import android.util.Log
+import com.freehands.assistant.audio.capture.AudioCaptureHub
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import org.vosk.Model
 import org.vosk.Recognizer
 import org.vosk.android.RecognitionListener
-import org.vosk.android.SpeechService
 import org.vosk.android.StorageService
 import java.io.File
 import java.io.IOException
+import java.util.concurrent.TimeUnit
 
 /**
  * VoskManager handles offline speech recognition using Vosk
@@ -23,12 +24,19 @@ class VoskManager(private val context: Context) {
         // Model configuration
         const val MODEL_NAME = "vosk-model-small-ru-0.22"
         const val SAMPLE_RATE = 16000f
+        
+        private const val FEED_TIMEOUT_MS = 100L
     }
     
     private var model: Model? = null
-    private var speechService: SpeechService? = null
     private var recognitionListener: RecognitionListener? = null
     
+    @Volatile
+    private var feedThread: Thread? = null
+    
+    @Volatile
+    private var isPaused = false
+    
     /**
      * Initialize Vosk model
      */
@@ -145,18 +153,24 @@ class VoskManager(private val context: Context) {
     }
     
     /**
-     * Start speech recognition
+     * Start speech recognition fed from the shared capture hub instead of a private AudioRecord
      */
     fun startRecognition(listener: RecognitionListener): Boolean {
         return try {
-            if (model == null) {
+            val currentModel = model
+            if (currentModel == null) {
                 Log.e(TAG, "Model not initialized")
                 return false
             }
             
             recognitionListener = listener
-            speechService = SpeechService(model, SAMPLE_RATE)
-            speechService?.startListening(listener)
+            val recognizer = Recognizer(currentModel, SAMPLE_RATE)
+            val format = AudioCaptureHub.Format(SAMPLE_RATE.toInt(), VoskConfig.BUFFER_SIZE)
+            val subscription = AudioCaptureHub.getInstance().subscribe(format)
+            val thread = Thread({ feedRecognizer(recognizer, subscription, listener) }, "VoskFeed")
+            isPaused = false
+            feedThread = thread
+            thread.start()
             
             Log.d(TAG, "Speech recognition started")
             true
@@ -166,13 +180,41 @@ class VoskManager(private val context: Context) {
         }
     }
     
+    private fun feedRecognizer(
+        recognizer: Recognizer,
+        subscription: AudioCaptureHub.Subscription,
+        listener: RecognitionListener
+    ) {
+        val buffer = ShortArray(VoskConfig.BUFFER_SIZE)
+        try {
+            subscription.use {
+                while (feedThread === Thread.currentThread()) {
+                    val read = it.read(buffer, 0, buffer.size, FEED_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    if (read <= 0 || isPaused) continue
+                    
+                    if (recognizer.acceptWaveForm(buffer, read)) {
+                        listener.onResult(recognizer.result)
+                    } else {
+                        listener.onPartialResult(recognizer.partialResult)
+                    }
+                }
+            }
+            listener.onFinalResult(recognizer.finalResult)
+        } catch (e: Exception) {
+            Log.e(TAG, "Error feeding recognizer", e)
+            listener.onError(e)
+        } finally {
+            recognizer.close()
+        }
+    }
+    
     /**
      * Stop speech recognition
      */
     fun stopRecognition() {
         try {
-            speechService?.stop()
-            speechService = null
+            feedThread?.interrupt()
+            feedThread = null
             Log.d(TAG, "Speech recognition stopped")
         } catch (e: Exception) {
             Log.e(TAG, "Error stopping recognition", e)
@@ -183,24 +225,16 @@ class VoskManager(private val context: Context) {
      * Pause speech recognition
      */
     fun pauseRecognition() {
-        try {
-            speechService?.setPause(true)
-            Log.d(TAG, "Speech recognition paused")
-        } catch (e: Exception) {
-            Log.e(TAG, "Error pausing recognition", e)
-        }
+        isPaused = true
+        Log.d(TAG, "Speech recognition paused")
     }
     
     /**
      * Resume speech recognition
      */
     fun resumeRecognition() {
-        try {
-            speechService?.setPause(false)
-            Log.d(TAG, "Speech recognition resumed")
-        } catch (e: Exception) {
-            Log.e(TAG, "Error resuming recognition", e)
-        }
+        isPaused = false
+        Log.d(TAG, "Speech recognition resumed")
     }
     
     /**
@@ -243,7 +277,7 @@ class VoskManager(private val context: Context) {
     /**
      * Check if recognition is active
      */
-    fun isRecognitionActive(): Boolean = speechService != null
+    fun isRecognitionActive(): Boolean = feedThread != null
     
     /**
      * Release resources
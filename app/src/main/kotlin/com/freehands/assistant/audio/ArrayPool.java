@@ -0,0 +1,306 @@
+package com.freehands.assistant.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Reusable {@code short[]}, {@code float[]} and {@code double[]} buffers in power-of-two size
+ * classes, from {@value #MIN_LENGTH} to {@value #MAX_LENGTH} elements.
+ *
+ * An acquired array is at least as long as requested and holds whatever its last user left in it,
+ * so callers pass explicit lengths around rather than relying on {@code array.length}. Each array
+ * is returned exactly once and not touched afterwards; arrays longer than the largest class are
+ * allocated exactly and simply dropped on release.
+ *
+ * Released arrays go to a small per-thread cache first, which needs no synchronisation, then to
+ * a bounded stage shared by all threads, and are left to the collector once both are full. A
+ * buffer acquired on one thread may be released on another.
+ *
+ * The pool counts arrays and bytes acquired but not yet released: a count that keeps growing while
+ * the work stays the same is a leak. The high-water mark of outstanding bytes is the memory the
+ * audio paths need at their busiest.
+ */
+public final class ArrayPool {
+
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 19;
+    /** Largest class kept per thread; larger buffers are rare enough to go through the shared stage. */
+    private static final int MAX_LOCAL_SHIFT = 14;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    public static final int MIN_LENGTH = 1 << MIN_SHIFT;
+    public static final int MAX_LENGTH = 1 << MAX_SHIFT;
+
+    private static final int DEFAULT_LOCAL_DEPTH = 4;
+    private static final int DEFAULT_SHARED_DEPTH = 2;
+
+    private static final ArrayPool INSTANCE = new ArrayPool(DEFAULT_LOCAL_DEPTH, DEFAULT_SHARED_DEPTH);
+
+    private final Kind<short[]> shorts;
+    private final Kind<float[]> floats;
+    private final Kind<double[]> doubles;
+
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+    private final AtomicLong highWaterBytes = new AtomicLong();
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * Pool shared by the audio and feature paths.
+     */
+    public static ArrayPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param localDepth Arrays of each class cached per thread
+     * @param sharedDepth Arrays of each class in the shared stage
+     */
+    public ArrayPool(int localDepth, int sharedDepth) {
+        if (localDepth < 0 || sharedDepth < 0) {
+            throw new IllegalArgumentException("Invalid pool depth");
+        }
+        shorts = new Kind<>(short[]::new, Short.BYTES, localDepth, sharedDepth);
+        floats = new Kind<>(float[]::new, Float.BYTES, localDepth, sharedDepth);
+        doubles = new Kind<>(double[]::new, Double.BYTES, localDepth, sharedDepth);
+    }
+
+    public short[] acquireShorts(int minLength) {
+        return shorts.acquire(minLength);
+    }
+
+    public float[] acquireFloats(int minLength) {
+        return floats.acquire(minLength);
+    }
+
+    public double[] acquireDoubles(int minLength) {
+        return doubles.acquire(minLength);
+    }
+
+    public void release(short[] array) {
+        shorts.release(array, array.length);
+    }
+
+    public void release(float[] array) {
+        floats.release(array, array.length);
+    }
+
+    public void release(double[] array) {
+        doubles.release(array, array.length);
+    }
+
+    /**
+     * Returns {@code array} straight to the shared stage, skipping the calling thread's cache. For
+     * threads about to exit, whose cache would die with them.
+     */
+    public void releaseShared(short[] array) {
+        shorts.releaseShared(array, array.length);
+    }
+
+    public void releaseShared(float[] array) {
+        floats.releaseShared(array, array.length);
+    }
+
+    public void releaseShared(double[] array) {
+        doubles.releaseShared(array, array.length);
+    }
+
+    /**
+     * Drops the arrays in the shared stage and the calling thread's cache, for example when the
+     * system is short of memory. Outstanding arrays are still returned as usual.
+     */
+    public void trim() {
+        shorts.trim();
+        floats.trim();
+        doubles.trim();
+    }
+
+    /** Arrays acquired and not yet released. */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /** Bytes of the arrays acquired and not yet released. */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /** Most bytes ever outstanding at once. */
+    public long getHighWaterBytes() {
+        return highWaterBytes.get();
+    }
+
+    /** Arrays the pool had to allocate because none of the right class was free. */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * Size class holding arrays of at least {@code length} elements, or -1 if it is larger than
+     * every class.
+     */
+    private static int classOf(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length: " + length);
+        }
+        if (length > MAX_LENGTH) {
+            return -1;
+        }
+        int shift = length <= MIN_LENGTH ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(length - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    private void acquired(long bytes) {
+        outstanding.incrementAndGet();
+        long total = outstandingBytes.addAndGet(bytes);
+        long high;
+        while (total > (high = highWaterBytes.get()) && !highWaterBytes.compareAndSet(high, total)) {
+            // Another thread raised the mark; retry against its value
+        }
+    }
+
+    private void released(long bytes) {
+        outstanding.decrementAndGet();
+        outstandingBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * The caches of one element type. Arrays are held as {@code Object} so one implementation
+     * serves every primitive array type.
+     */
+    private final class Kind<T> {
+        private final IntFunction<T> allocator;
+        private final int elementBytes;
+        private final int localDepth;
+        private final int sharedDepth;
+        private final ThreadLocal<LocalCache> local;
+        /** {@code sharedDepth} slots per class, class after class; empty slots hold null. */
+        private final AtomicReferenceArray<Object> shared;
+
+        Kind(IntFunction<T> allocator, int elementBytes, int localDepth, int sharedDepth) {
+            this.allocator = allocator;
+            this.elementBytes = elementBytes;
+            this.localDepth = localDepth;
+            this.sharedDepth = sharedDepth;
+            this.local = ThreadLocal.withInitial(LocalCache::new);
+            this.shared = new AtomicReferenceArray<>(CLASS_COUNT * sharedDepth);
+        }
+
+        @SuppressWarnings("unchecked")
+        T acquire(int minLength) {
+            int sizeClass = classOf(minLength);
+            if (sizeClass < 0) {
+                allocations.incrementAndGet();
+                acquired((long) minLength * elementBytes);
+                return allocator.apply(minLength);
+            }
+
+            int length = MIN_LENGTH << sizeClass;
+            acquired((long) length * elementBytes);
+
+            Object array = null;
+            if (sizeClass <= MAX_LOCAL_SHIFT - MIN_SHIFT) {
+                array = local.get().pop(sizeClass);
+            }
+            if (array == null) {
+                array = takeShared(sizeClass);
+            }
+            if (array == null) {
+                allocations.incrementAndGet();
+                return allocator.apply(length);
+            }
+            return (T) array;
+        }
+
+        void release(Object array, int length) {
+            int sizeClass = releasedClass(length);
+            if (sizeClass < 0) {
+                return;
+            }
+
+            if (sizeClass <= MAX_LOCAL_SHIFT - MIN_SHIFT && local.get().push(sizeClass, array)) {
+                return;
+            }
+            offerShared(sizeClass, array);
+        }
+
+        void releaseShared(Object array, int length) {
+            int sizeClass = releasedClass(length);
+            if (sizeClass >= 0) {
+                offerShared(sizeClass, array);
+            }
+        }
+
+        /**
+         * Counts an array of {@code length} as released.
+         *
+         * @return Its size class, or -1 if it is too large to keep
+         */
+        private int releasedClass(int length) {
+            int sizeClass = classOf(length);
+            if (sizeClass >= 0 && MIN_LENGTH << sizeClass != length) {
+                throw new IllegalArgumentException("Array of length " + length + " did not come from the pool");
+            }
+            released((long) length * elementBytes);
+            return sizeClass;
+        }
+
+        void trim() {
+            local.remove();
+            for (int i = 0; i < shared.length(); i++) {
+                shared.set(i, null);
+            }
+        }
+
+        private Object takeShared(int sizeClass) {
+            int base = sizeClass * sharedDepth;
+            for (int i = base; i < base + sharedDepth; i++) {
+                if (shared.get(i) != null) {
+                    Object array = shared.getAndSet(i, null);
+                    if (array != null) {
+                        return array;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void offerShared(int sizeClass, Object array) {
+            int base = sizeClass * sharedDepth;
+            for (int i = base; i < base + sharedDepth; i++) {
+                if (shared.get(i) == null && shared.compareAndSet(i, null, array)) {
+                    return;
+                }
+            }
+            // Stage full: the collector takes it
+        }
+
+        /** One thread's stacks of free arrays, one stack per local class. */
+        private final class LocalCache {
+            private final Object[][] stacks = new Object[MAX_LOCAL_SHIFT - MIN_SHIFT + 1][localDepth];
+            private final int[] sizes = new int[stacks.length];
+
+            Object pop(int sizeClass) {
+                int size = sizes[sizeClass];
+                if (size == 0) {
+                    return null;
+                }
+                sizes[sizeClass] = --size;
+                Object array = stacks[sizeClass][size];
+                stacks[sizeClass][size] = null;
+                return array;
+            }
+
+            boolean push(int sizeClass, Object array) {
+                int size = sizes[sizeClass];
+                if (size == localDepth) {
+                    return false;
+                }
+                stacks[sizeClass][size] = array;
+                sizes[sizeClass] = size + 1;
+                return true;
+            }
+        }
+    }
+}
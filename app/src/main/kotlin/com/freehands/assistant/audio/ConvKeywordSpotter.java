@@ -0,0 +1,212 @@
+package com.freehands.assistant.audio;
+
+import java.util.List;
+
+/**
+ * {@link KeywordSpotter} that runs an int8-quantised convolutional network, described by a
+ * {@link KeywordSpotterModel}, over the most recent 40-band log-mel frames.
+ *
+ * Activations are int8 and accumulate in int; only the per-channel rescaling, the final dense layer
+ * and the softmax use float. Every buffer is allocated when the spotter is created, so inference
+ * does not allocate. Scores are the softmax probabilities of the model's labels.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class ConvKeywordSpotter implements KeywordSpotter {
+
+    private final KeywordSpotterModel model;
+    private final LogMelExtractor extractor;
+
+    // Ping-pong int8 activations, [frame][channel]
+    private final byte[] activationsA;
+    private final byte[] activationsB;
+    private final float[] pooled;
+    private final float[] scores;
+
+    private long inferences = 0;
+
+    public ConvKeywordSpotter(KeywordSpotterModel model) {
+        if (model.melBands != LogMelExtractor.BAND_COUNT) {
+            throw new IllegalArgumentException("Model expects " + model.melBands + " mel bands, front-end has "
+                + LogMelExtractor.BAND_COUNT);
+        }
+        this.model = model;
+        this.extractor = new LogMelExtractor(model.windowFrames);
+
+        int largest = model.windowFrames * model.melBands;
+        int widest = model.melBands;
+        for (KeywordSpotterModel.Layer layer : model.layers) {
+            largest = Math.max(largest, layer.outFrames * layer.outChannels);
+            widest = Math.max(widest, layer.outChannels);
+        }
+        this.activationsA = new byte[largest];
+        this.activationsB = new byte[largest];
+        this.pooled = new float[widest];
+        this.scores = new float[model.labels.length];
+    }
+
+    public KeywordSpotterModel getModel() {
+        return model;
+    }
+
+    @Override
+    public int accept(short[] samples, int offset, int length) {
+        return extractor.process(samples, offset, length);
+    }
+
+    /**
+     * Runs the network on the last {@code windowFrames} frames, once enough audio has been accepted.
+     */
+    @Override
+    public int score() {
+        FeatureRing ring = extractor.getRing();
+        if (ring.size() < model.windowFrames) {
+            skip();
+            return -1;
+        }
+        infer(ring);
+
+        int best = 0;
+        for (int k = 1; k < scores.length; k++) {
+            if (scores[k] > scores[best]) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void skip() {
+        for (int k = 0; k < scores.length; k++) {
+            scores[k] = 0;
+        }
+    }
+
+    private void infer(FeatureRing ring) {
+        inferences++;
+        quantizeInput(ring);
+
+        List<KeywordSpotterModel.Layer> layers = model.layers;
+        byte[] input = activationsA;
+        byte[] output = activationsB;
+        float inScale = model.inputScale;
+        int channels = model.melBands;
+        int frames = model.windowFrames;
+
+        for (int i = 0; i < layers.size() - 1; i++) {
+            KeywordSpotterModel.Layer layer = layers.get(i);
+            convolve(layer, input, output, inScale);
+            byte[] swap = input;
+            input = output;
+            output = swap;
+            inScale = layer.outputScale;
+            channels = layer.outChannels;
+            frames = layer.outFrames;
+        }
+
+        // Average the last feature map over time
+        for (int c = 0; c < channels; c++) {
+            int sum = 0;
+            for (int t = 0; t < frames; t++) {
+                sum += input[t * channels + c];
+            }
+            pooled[c] = sum * inScale / frames;
+        }
+
+        dense(layers.get(layers.size() - 1), channels);
+        softmax();
+    }
+
+    private void quantizeInput(FeatureRing ring) {
+        double[] data = ring.getData();
+        int bands = model.melBands;
+        float invScale = 1f / model.inputScale;
+        long first = ring.getFrameCount() - model.windowFrames;
+        for (int t = 0; t < model.windowFrames; t++) {
+            int row = ring.rowOffset(first + t);
+            int out = t * bands;
+            for (int b = 0; b < bands; b++) {
+                int q = Math.round((float) (data[row + b] - model.inputMean[b]) * invScale);
+                activationsA[out + b] = (byte) Math.max(-127, Math.min(127, q));
+            }
+        }
+    }
+
+    private static void convolve(KeywordSpotterModel.Layer layer, byte[] input, byte[] output, float inScale) {
+        int inChannels = layer.inChannels;
+        int outChannels = layer.outChannels;
+        int span = layer.kernel * inChannels; // The kernel's input rows are contiguous
+        byte[] weights = layer.weights;
+        float invOutScale = 1f / layer.outputScale;
+
+        for (int t = 0; t < layer.outFrames; t++) {
+            int inStart = t * layer.stride * inChannels;
+            int outRow = t * outChannels;
+            for (int o = 0; o < outChannels; o++) {
+                int w = o * span;
+                int acc = 0;
+                for (int j = 0; j < span; j++) {
+                    acc += weights[w + j] * input[inStart + j];
+                }
+                float y = acc * inScale * layer.weightScales[o] + layer.bias[o];
+                int q = y <= 0 ? 0 : Math.round(y * invOutScale);
+                output[outRow + o] = (byte) Math.min(127, q);
+            }
+        }
+    }
+
+    private void dense(KeywordSpotterModel.Layer layer, int inChannels) {
+        byte[] weights = layer.weights;
+        for (int o = 0; o < layer.outChannels; o++) {
+            int w = o * inChannels;
+            float acc = 0;
+            for (int c = 0; c < inChannels; c++) {
+                acc += weights[w + c] * pooled[c];
+            }
+            scores[o] = acc * layer.weightScales[o] + layer.bias[o];
+        }
+    }
+
+    private void softmax() {
+        float max = scores[0];
+        for (int k = 1; k < scores.length; k++) {
+            max = Math.max(max, scores[k]);
+        }
+        float sum = 0;
+        for (int k = 0; k < scores.length; k++) {
+            scores[k] = (float) Math.exp(scores[k] - max);
+            sum += scores[k];
+        }
+        for (int k = 0; k < scores.length; k++) {
+            scores[k] /= sum;
+        }
+    }
+
+    @Override
+    public float getScore(int keyword) {
+        return scores[keyword];
+    }
+
+    @Override
+    public int getKeywordCount() {
+        return scores.length;
+    }
+
+    @Override
+    public String getKeywordName(int keyword) {
+        return model.labels[keyword];
+    }
+
+    /**
+     * Number of times the network has run.
+     */
+    public long getInferenceCount() {
+        return inferences;
+    }
+
+    @Override
+    public void reset() {
+        extractor.reset();
+        skip();
+    }
+}
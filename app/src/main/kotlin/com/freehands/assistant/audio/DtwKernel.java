@@ -0,0 +1,154 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Banded DTW with LB_Keogh pruning and early abandoning, shared by the keyword matchers.
+ *
+ * Candidate frames are read from a circular window of normalised frames; templates are read from
+ * flat arrays at an offset, so many templates can be packed into one array.
+ */
+final class DtwKernel {
+
+    /** Returned by {@link #align} when the lower bound alone ruled the candidate out. */
+    static final double PRUNED = -1.0;
+
+    /** Returned by {@link #align} when the alignment was abandoned part way. */
+    static final double ABANDONED = Double.POSITIVE_INFINITY;
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private DtwKernel() {
+    }
+
+    /**
+     * Aligns the {@code length} frames starting at {@code firstFrame} against one template.
+     *
+     * @param window Circular window of normalised frames, indexed by frame % windowCapacity
+     * @param template Normalised template frames, packed from {@code templateOffset}
+     * @param upper Upper envelope of the template, laid out like {@code template}
+     * @param lower Lower envelope of the template, laid out like {@code template}
+     * @param bestCost Cost the candidate has to beat
+     * @param previous Scratch row of at least {@code length} entries
+     * @param current Scratch row of at least {@code length} entries
+     * @param remainingBound Scratch array of at least {@code length + 1} entries
+     * @return DTW cost, {@link #PRUNED} or {@link #ABANDONED}
+     */
+    static double align(double[] window, long firstFrame, int windowCapacity,
+                        double[] template, double[] upper, double[] lower, int templateOffset,
+                        int length, int dimension, int bandRadius, double bestCost,
+                        double[] previous, double[] current, double[] remainingBound) {
+        // LB_Keogh: every candidate frame must match some template frame inside its envelope
+        remainingBound[length] = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            int slot = (int) ((firstFrame + i) % windowCapacity) * dimension;
+            int envelope = templateOffset + i * dimension;
+            double bound = 0;
+            for (int d = 0; d < dimension; d++) {
+                double value = window[slot + d];
+                double excess = value > upper[envelope + d] ? value - upper[envelope + d]
+                    : value < lower[envelope + d] ? lower[envelope + d] - value : 0;
+                bound += excess * excess;
+            }
+            remainingBound[i] = remainingBound[i + 1] + bound;
+        }
+        if (remainingBound[0] >= bestCost) {
+            return PRUNED;
+        }
+
+        // Banded DTW over two reusable rows, abandoning once no path can beat the best cost
+        for (int i = 0; i < length; i++) {
+            int slot = (int) ((firstFrame + i) % windowCapacity) * dimension;
+            int from = Math.max(0, i - bandRadius);
+            int to = Math.min(length - 1, i + bandRadius);
+
+            double left = INFINITY;
+            double rowMin = INFINITY;
+            for (int j = from; j <= to; j++) {
+                double best;
+                if (i == 0) {
+                    best = j == 0 ? 0 : left;
+                } else {
+                    best = Math.min(left, previous[j]);
+                    if (j > 0) {
+                        best = Math.min(best, previous[j - 1]);
+                    }
+                }
+
+                int frame = templateOffset + j * dimension;
+                double distance = 0;
+                for (int d = 0; d < dimension; d++) {
+                    double diff = window[slot + d] - template[frame + d];
+                    distance += diff * diff;
+                }
+
+                double cost = best + distance;
+                current[j] = cost;
+                left = cost;
+                rowMin = Math.min(rowMin, cost);
+            }
+
+            // Cells just outside the band must read as unreachable for the next row
+            if (from > 0) {
+                current[from - 1] = INFINITY;
+            }
+            if (to + 1 < length) {
+                current[to + 1] = INFINITY;
+            }
+
+            if (rowMin + remainingBound[i + 1] >= bestCost) {
+                return ABANDONED;
+            }
+
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[length - 1];
+    }
+
+    /**
+     * Writes the per-dimension max and min of the template over the band into {@code upper} and
+     * {@code lower}, laid out like the template.
+     */
+    static void envelope(double[] template, int templateOffset, int length, int dimension, int bandRadius,
+                         double[] upper, double[] lower) {
+        for (int i = 0; i < length; i++) {
+            int from = Math.max(0, i - bandRadius);
+            int to = Math.min(length - 1, i + bandRadius);
+            for (int d = 0; d < dimension; d++) {
+                double max = -INFINITY;
+                double min = INFINITY;
+                for (int k = from; k <= to; k++) {
+                    double value = template[templateOffset + k * dimension + d];
+                    max = Math.max(max, value);
+                    min = Math.min(min, value);
+                }
+                upper[templateOffset + i * dimension + d] = max;
+                lower[templateOffset + i * dimension + d] = min;
+            }
+        }
+    }
+
+    /**
+     * Writes {@code src} minus its mean, scaled to unit length, into {@code dst}. A constant frame
+     * becomes all zeros.
+     */
+    static void normalize(double[] src, int srcOffset, double[] dst, int dstOffset, int dimension) {
+        double mean = 0;
+        for (int d = 0; d < dimension; d++) {
+            mean += src[srcOffset + d];
+        }
+        mean /= dimension;
+
+        double norm = 0;
+        for (int d = 0; d < dimension; d++) {
+            double value = src[srcOffset + d] - mean;
+            dst[dstOffset + d] = value;
+            norm += value * value;
+        }
+
+        double scale = norm > 1e-12 ? 1.0 / Math.sqrt(norm) : 0;
+        for (int d = 0; d < dimension; d++) {
+            dst[dstOffset + d] *= scale;
+        }
+    }
+}
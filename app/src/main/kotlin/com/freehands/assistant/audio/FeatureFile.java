@@ -0,0 +1,323 @@
+package com.freehands.assistant.audio;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * An encrypted, versioned binary file of named feature matrices, such as a voice profile's
+ * features, with a label saying what produced them.
+ *
+ * A matrix is stored as float32, or as int8 with one scale per column
+ * ({@code value = q * scale[column]}), which approaches a quarter of the size as rows are added.
+ * Each column keeps 255 steps of its own range, so a small coefficient stored next to a large one,
+ * such as c1..c12 of an MFCC next to c0, keeps its precision. Version 1 files, which scaled int8
+ * per row, are still read. Reading decrypts the file with one call and copies every matrix into a
+ * primitive array with a bulk get, so no per-value objects are created.
+ *
+ * File layout (little-endian); the header is authenticated along with the payload, which is
+ * encrypted with AES-GCM:
+ * <pre>
+ *   byte   magic[4] (0x89 'F' 'H' 'P')
+ *   int    version
+ *   byte   ivLength
+ *   byte   iv[ivLength]
+ *   payload, encrypted, followed by the 16-byte GCM tag:
+ *     long   createdMillis
+ *     short  labelLength
+ *     byte   utf8[labelLength]
+ *     int    matrixCount
+ *     repeated matrixCount times:
+ *       short  nameLength
+ *       byte   utf8[nameLength]
+ *       byte   encoding (0 = float32, 1 = int8)
+ *       int    rows
+ *       int    columns
+ *       float32:  float  values[rows * columns]
+ *       int8:     float  scales[columns], then byte values[rows * columns]
+ *                 (version 1: float scales[rows])
+ * </pre>
+ * The first byte is not a Base64 character, so a file in this format can never be mistaken for
+ * the Base64 text the profiles used to be stored as.
+ */
+public final class FeatureFile {
+
+    static final int MAGIC = 0x50484689; // 0x89 "FHP" when read as little-endian bytes
+    static final int VERSION = 2;
+
+    // Last version whose int8 matrices are scaled per row
+    private static final int VERSION_ROW_SCALES = 1;
+
+    public static final int FLOAT32 = 0;
+    public static final int INT8 = 1;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_DIMENSION = 1 << 20;
+
+    /**
+     * One named matrix; {@link #getValues()} holds its rows back to back.
+     */
+    public static final class Matrix {
+        private final String name;
+        private final int encoding;
+        private final int rows;
+        private final int columns;
+        private final float[] values;
+
+        Matrix(String name, int encoding, int rows, int columns, float[] values) {
+            this.name = name;
+            this.encoding = encoding;
+            this.rows = rows;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        public String getName() { return name; }
+        public int getEncoding() { return encoding; }
+        public int getRows() { return rows; }
+        public int getColumns() { return columns; }
+        public float[] getValues() { return values; }
+    }
+
+    private final String label;
+    private final long createdMillis;
+    private final Map<String, Matrix> matrices = new LinkedHashMap<>();
+
+    /**
+     * @param label What produced the matrices, for example a speaker embedder's id
+     */
+    public FeatureFile(String label, long createdMillis) {
+        this.label = label;
+        this.createdMillis = createdMillis;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Adds a matrix of {@code rows * columns} values, replacing any matrix of the same name.
+     *
+     * @param encoding {@link #FLOAT32} or {@link #INT8}
+     */
+    public void put(String name, int encoding, int rows, int columns, float[] values) {
+        if (encoding != FLOAT32 && encoding != INT8) {
+            throw new IllegalArgumentException("Unknown encoding " + encoding);
+        }
+        if (rows < 0 || columns < 0 || values.length != rows * columns) {
+            throw new IllegalArgumentException("Matrix " + name + " is not " + rows + " x " + columns);
+        }
+        matrices.put(name, new Matrix(name, encoding, rows, columns, values));
+    }
+
+    /**
+     * @return The matrix, or null if the file has none of that name
+     */
+    public Matrix get(String name) {
+        return matrices.get(name);
+    }
+
+    public List<Matrix> getMatrices() {
+        return Collections.unmodifiableList(new ArrayList<>(matrices.values()));
+    }
+
+    /**
+     * Whether {@code data} starts like a file in this format, of any version.
+     */
+    public static boolean isFeatureFile(byte[] data) {
+        return data.length >= HEADER_SIZE
+            && ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+    }
+
+    /**
+     * Encodes and encrypts the file. The IV is chosen by the cipher, as keystore keys require.
+     */
+    public byte[] encrypt(SecretKey key) throws GeneralSecurityException {
+        byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+        int size = 8 + 2 + labelBytes.length + 4;
+        List<byte[]> names = new ArrayList<>();
+        for (Matrix matrix : matrices.values()) {
+            byte[] name = matrix.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 2 + name.length + 1 + 8 + payloadSize(VERSION, matrix.encoding, matrix.rows, matrix.columns);
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putLong(createdMillis);
+        putString(payload, labelBytes);
+        payload.putInt(matrices.size());
+        int index = 0;
+        for (Matrix matrix : matrices.values()) {
+            putString(payload, names.get(index++));
+            payload.put((byte) matrix.encoding).putInt(matrix.rows).putInt(matrix.columns);
+            if (matrix.encoding == FLOAT32) {
+                putFloats(payload, matrix.values);
+            } else {
+                putQuantized(payload, matrix.values, matrix.rows, matrix.columns);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(header.array());
+        byte[] iv = cipher.getIV();
+        byte[] file = new byte[HEADER_SIZE + 1 + iv.length + cipher.getOutputSize(size)];
+        System.arraycopy(header.array(), 0, file, 0, HEADER_SIZE);
+        file[HEADER_SIZE] = (byte) iv.length;
+        System.arraycopy(iv, 0, file, HEADER_SIZE + 1, iv.length);
+        int written = cipher.doFinal(payload.array(), 0, size, file, HEADER_SIZE + 1 + iv.length);
+        if (HEADER_SIZE + 1 + iv.length + written != file.length) {
+            throw new GeneralSecurityException("Unexpected ciphertext length");
+        }
+        return file;
+    }
+
+    /**
+     * Decrypts and decodes a file written by {@link #encrypt}.
+     *
+     * @throws IOException if the file is not in this format, was changed, or was encrypted with
+     *                     another key
+     */
+    public static FeatureFile decrypt(byte[] data, SecretKey key) throws IOException {
+        if (!isFeatureFile(data)) {
+            throw new IOException("Not a feature file");
+        }
+        ByteBuffer header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        header.getInt();
+        int version = header.getInt();
+        if (version != VERSION && version != VERSION_ROW_SCALES) {
+            throw new IOException("Unsupported feature file version " + version);
+        }
+        int ivLength = data.length > HEADER_SIZE ? data[HEADER_SIZE] & 0xFF : 0;
+        int payloadOffset = HEADER_SIZE + 1 + ivLength;
+        if (ivLength == 0 || payloadOffset > data.length) {
+            throw new IOException("Feature file truncated");
+        }
+
+        byte[] plain;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, HEADER_SIZE + 1, ivLength));
+            cipher.updateAAD(data, 0, HEADER_SIZE);
+            plain = cipher.doFinal(data, payloadOffset, data.length - payloadOffset);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Feature file corrupt or encrypted with another key", e);
+        }
+
+        ByteBuffer payload = ByteBuffer.wrap(plain).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            long createdMillis = payload.getLong();
+            FeatureFile file = new FeatureFile(getString(payload), createdMillis);
+            int count = checkedDimension(payload.getInt());
+            for (int i = 0; i < count; i++) {
+                String name = getString(payload);
+                int encoding = payload.get();
+                int rows = checkedDimension(payload.getInt());
+                int columns = checkedDimension(payload.getInt());
+                if ((encoding != FLOAT32 && encoding != INT8)
+                        || payloadSize(version, encoding, rows, columns) > payload.remaining()) {
+                    throw new IOException("Corrupt matrix " + name);
+                }
+                float[] values = new float[rows * columns];
+                if (encoding == FLOAT32) {
+                    getFloats(payload, values);
+                } else {
+                    getQuantized(payload, values, rows, columns, version);
+                }
+                file.matrices.put(name, new Matrix(name, encoding, rows, columns, values));
+            }
+            return file;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Feature file truncated", e);
+        }
+    }
+
+    private static long payloadSize(int version, int encoding, int rows, int columns) {
+        long values = (long) rows * columns;
+        if (encoding == FLOAT32) {
+            return 4 * values;
+        }
+        return 4L * (version == VERSION_ROW_SCALES ? rows : columns) + values;
+    }
+
+    private static int checkedDimension(int value) throws IOException {
+        if (value < 0 || value > MAX_DIMENSION) {
+            throw new IOException("Corrupt feature file");
+        }
+        return value;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] utf8) {
+        buffer.putShort((short) utf8.length);
+        buffer.put(utf8);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] utf8 = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static void getFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static void putQuantized(ByteBuffer buffer, float[] values, int rows, int columns) {
+        float[] scales = new float[columns];
+        for (int c = 0; c < columns; c++) {
+            float peak = 0;
+            for (int r = 0; r < rows; r++) {
+                peak = Math.max(peak, Math.abs(values[r * columns + c]));
+            }
+            scales[c] = peak / 127;
+            buffer.putFloat(scales[c]);
+        }
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                float scale = scales[c];
+                buffer.put((byte) (scale > 0 ? Math.round(values[r * columns + c] / scale) : 0));
+            }
+        }
+    }
+
+    private static void getQuantized(ByteBuffer buffer, float[] values, int rows, int columns, int version) {
+        boolean perRow = version == VERSION_ROW_SCALES;
+        int scales = buffer.position();
+        int bytes = scales + 4 * (perRow ? rows : columns);
+        byte[] array = buffer.array();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                float scale = buffer.getFloat(scales + 4 * (perRow ? r : c));
+                values[r * columns + c] = array[bytes + r * columns + c] * scale;
+            }
+        }
+        buffer.position(bytes + rows * columns);
+    }
+}
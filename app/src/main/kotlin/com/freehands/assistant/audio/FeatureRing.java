@@ -0,0 +1,86 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Circular matrix of fixed-width feature vectors, one row per analysis frame.
+ *
+ * Rows live in a single flat array so readers can walk them without indirection or allocation.
+ * Frames are addressed by their absolute index since the stream started; only the most recent
+ * {@link #capacity()} frames are retained.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class FeatureRing {
+
+    private final int capacity;
+    private final int dimension;
+    private final double[] data;
+
+    // Total number of frames appended so far
+    private long frameCount = 0;
+
+    public FeatureRing(int capacity, int dimension) {
+        if (capacity <= 0 || dimension <= 0) {
+            throw new IllegalArgumentException("Capacity and dimension must be positive");
+        }
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.data = new double[capacity * dimension];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Number of frames currently held, at most {@link #capacity()}.
+     */
+    public int size() {
+        return (int) Math.min(frameCount, capacity);
+    }
+
+    /**
+     * Absolute index of the next frame to be appended.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Absolute index of the oldest frame still held.
+     */
+    public long getOldestFrame() {
+        return frameCount - size();
+    }
+
+    /**
+     * Backing array; row {@code i} starts at {@link #rowOffset(long)}.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Offset into {@link #getData()} of the row holding absolute frame {@code frameIndex}, which
+     * must lie between {@link #getOldestFrame()} and {@link #getFrameCount()}.
+     */
+    public int rowOffset(long frameIndex) {
+        return (int) (frameIndex % capacity) * dimension;
+    }
+
+    /**
+     * Reserves the next row and returns its offset; the caller fills {@link #dimension()} values.
+     */
+    public int appendRow() {
+        int offset = rowOffset(frameCount);
+        frameCount++;
+        return offset;
+    }
+
+    public void clear() {
+        frameCount = 0;
+    }
+}
@@ -0,0 +1,393 @@
+package com.freehands.assistant.audio;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame features of one audio stream, computed once for every consumer: log-mel energies,
+ * MFCCs and their deltas, frame energy and pitch.
+ *
+ * Frames are {@value #FRAME_SIZE} samples every {@value #HOP_SIZE} at 16 kHz with
+ * {@value #MEL_BANDS} mel bands, the configuration of the native extractor and of
+ * {@link MfccExtractor}, which computes the log-mel energies and MFCCs here. Audio is pushed
+ * together with the ring sequence number of the sample after it, so every frame knows where it
+ * came from and no frame spans audio that was dropped in between.
+ *
+ * A frame is published once the frame after it has been computed, so its delta can be centred:
+ * {@code (next - previous) / 2}, and 0 for the first and last frame of a segment, as
+ * {@link com.freehands.assistant.utils.AudioFeatureExtractor} computes them. Published frames go to
+ * every {@link FrameListener} on the pushing thread and into a history that any thread can read with
+ * {@link #copyFrames}.
+ *
+ * Audio can be pushed as a {@code short[]} or read in place from a {@link ByteBuffer}, such as the
+ * direct buffer AudioRecord captures into, so the samples need not be copied onto the Java heap.
+ *
+ * Every method is thread-safe. Frames are computed while holding the stream's lock, so listeners
+ * must return quickly and never block.
+ */
+public final class FeatureStream {
+
+    public static final int SAMPLE_RATE = 16000;
+    public static final int FRAME_SIZE = 1024;
+    public static final int HOP_SIZE = 512;
+    public static final int MEL_BANDS = 26;
+    public static final int MFCC_COUNT = 13;
+
+    /** Offset of the natural log mel energies in a frame's row. */
+    public static final int LOG_MEL_OFFSET = 0;
+    /** Offset of the MFCCs, unliftered. */
+    public static final int MFCC_OFFSET = LOG_MEL_OFFSET + MEL_BANDS;
+    /** Offset of the MFCC deltas. */
+    public static final int DELTA_OFFSET = MFCC_OFFSET + MFCC_COUNT;
+    /** Mean square of the frame's 16-bit samples in dB, as {@link VoiceActivityDetector} measures it. */
+    public static final int ENERGY_OFFSET = DELTA_OFFSET + MFCC_COUNT;
+    /** Fundamental frequency in Hz from {@link PitchTracker}, or 0 if the frame is not voiced. */
+    public static final int PITCH_OFFSET = ENERGY_OFFSET + 1;
+    /** Number of values per frame. */
+    public static final int DIMENSION = PITCH_OFFSET + 1;
+
+    /** 16-bit samples, equal to {@code android.media.AudioFormat.ENCODING_PCM_16BIT}. */
+    public static final int ENCODING_PCM_16BIT = 2;
+    /** Float samples in [-1, 1], equal to {@code android.media.AudioFormat.ENCODING_PCM_FLOAT}. */
+    public static final int ENCODING_PCM_FLOAT = 4;
+
+    private static final FrameListener[] NO_LISTENERS = new FrameListener[0];
+
+    /**
+     * Receives every published frame, on the thread that pushed the audio completing it.
+     */
+    public interface FrameListener {
+        /**
+         * @param features Row of {@link #DIMENSION} values starting at {@code offset}; it is reused
+         *        once the call returns
+         * @param endPosition Sequence number of the sample after the frame's last sample
+         */
+        void onFrame(double[] features, int offset, long endPosition);
+    }
+
+    private final MfccExtractor mfcc =
+        new MfccExtractor(SAMPLE_RATE, FRAME_SIZE, HOP_SIZE, MEL_BANDS, MFCC_COUNT, 0);
+    private final float[] coefficients = new float[MFCC_COUNT];
+
+    // Takes the pitch from the power spectrum the MFCCs were computed from
+    private final PitchTracker pitch = new PitchTracker(SAMPLE_RATE, FRAME_SIZE, HOP_SIZE);
+
+    // Sliding analysis window in 16-bit units
+    private final float[] window = new float[FRAME_SIZE];
+    private int fill = 0;
+    private long position = 0;
+
+    // The newest frame waits in pendingRow until its successor gives it a delta
+    private double[] pendingRow = new double[DIMENSION];
+    private double[] currentRow = new double[DIMENSION];
+    private final double[] previousMfcc = new double[MFCC_COUNT];
+    private boolean hasPending = false;
+    private boolean hasPrevious = false;
+    private long pendingEnd;
+
+    private final FeatureRing history;
+    private final long[] endPositions;
+
+    private volatile FrameListener[] listeners = NO_LISTENERS;
+
+    /**
+     * @param historyFrames Number of published frames retained for {@link #copyFrames}
+     */
+    public FeatureStream(int historyFrames) {
+        this.history = new FeatureRing(historyFrames, DIMENSION);
+        this.endPositions = new long[historyFrames];
+    }
+
+    public synchronized void addListener(FrameListener listener) {
+        FrameListener[] current = listeners;
+        FrameListener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        listeners = next;
+    }
+
+    public synchronized void removeListener(FrameListener listener) {
+        FrameListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                FrameListener[] next = new FrameListener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next.length == 0 ? NO_LISTENERS : next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sequence number of the sample after the last one pushed.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * Number of frames published since the stream was created or reset.
+     */
+    public synchronized long getFrameCount() {
+        return history.getFrameCount();
+    }
+
+    /**
+     * Number of frames that lie entirely within {@code length} contiguous samples, if the first
+     * frame starts with them.
+     */
+    public static int frameCount(int length) {
+        return length < FRAME_SIZE ? 0 : (length - FRAME_SIZE) / HOP_SIZE + 1;
+    }
+
+    /**
+     * Pushes the samples that follow the previously pushed ones.
+     *
+     * @return Number of frames published
+     */
+    public synchronized int process(short[] samples, int offset, int length) {
+        return process(samples, offset, length, position + length);
+    }
+
+    /**
+     * Pushes {@code length} samples whose last one has sequence number {@code endPosition - 1}. If
+     * they do not follow the previously pushed samples, the current segment is ended as by
+     * {@link #flush()} and a new one starts with them.
+     *
+     * @return Number of frames published
+     */
+    public synchronized int process(short[] samples, int offset, int length, long endPosition) {
+        long published = startPush(length, endPosition);
+        int end = offset + length;
+        int index = offset;
+        while (index < end) {
+            int count = Math.min(FRAME_SIZE - fill, end - index);
+            for (int i = 0; i < count; i++) {
+                window[fill + i] = samples[index + i];
+            }
+            index += count;
+            advance(count);
+        }
+        return endPush(published);
+    }
+
+    /**
+     * Pushes {@code samples} samples read in place from {@code pcm}, starting at byte
+     * {@code byteOffset}, in the buffer's byte order, like {@link #process(short[], int, int, long)}.
+     * Float samples are scaled to 16-bit units, so both encodings of the same audio give the same
+     * features. The buffer's position and limit are left alone.
+     *
+     * @param encoding {@link #ENCODING_PCM_16BIT} or {@link #ENCODING_PCM_FLOAT}
+     * @return Number of frames published
+     * @throws IllegalArgumentException if the encoding is not supported or the samples do not lie
+     *         within the buffer's limit
+     */
+    public synchronized int process(ByteBuffer pcm, int byteOffset, int samples, int encoding, long endPosition) {
+        int sampleBytes;
+        if (encoding == ENCODING_PCM_16BIT) {
+            sampleBytes = 2;
+        } else if (encoding == ENCODING_PCM_FLOAT) {
+            sampleBytes = 4;
+        } else {
+            throw new IllegalArgumentException("Unsupported encoding " + encoding);
+        }
+        if (byteOffset < 0 || samples < 0 || byteOffset + (long) samples * sampleBytes > pcm.limit()) {
+            throw new IllegalArgumentException("Range " + byteOffset + "+" + samples
+                + " samples is outside the PCM buffer");
+        }
+
+        long published = startPush(samples, endPosition);
+        int index = 0;
+        while (index < samples) {
+            int count = Math.min(FRAME_SIZE - fill, samples - index);
+            int at = byteOffset + index * sampleBytes;
+            if (encoding == ENCODING_PCM_16BIT) {
+                for (int i = 0; i < count; i++) {
+                    window[fill + i] = pcm.getShort(at + 2 * i);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    window[fill + i] = pcm.getFloat(at + 4 * i) * 32768f;
+                }
+            }
+            index += count;
+            advance(count);
+        }
+        return endPush(published);
+    }
+
+    /**
+     * Ends the current segment: publishes the last frame with a delta of 0 and drops the partial
+     * window, so the next pushed sample starts a new frame. Call at the end of an utterance.
+     */
+    public synchronized void flush() {
+        if (hasPending) {
+            Arrays.fill(pendingRow, DELTA_OFFSET, DELTA_OFFSET + MFCC_COUNT, 0);
+            publish();
+            hasPending = false;
+        }
+        hasPrevious = false;
+        fill = 0;
+        notifyAll();
+    }
+
+    /**
+     * Drops the partial window, the unpublished frame and the history. Listeners stay registered.
+     */
+    public synchronized void reset() {
+        hasPending = false;
+        hasPrevious = false;
+        fill = 0;
+        history.clear();
+    }
+
+    /**
+     * Copies the rows of retained frames that lie entirely within {@code [startPosition,
+     * endPosition)} into {@code dst}, oldest first. If {@code dst} cannot hold them all, the most
+     * recent ones are copied.
+     *
+     * If the stream has been pushed audio from {@code startPosition} on, waits up to the timeout for
+     * every frame that ends by {@code endPosition} to be published, so audio a consumer has just read
+     * from the ring can be matched with its features.
+     *
+     * @return Number of frames copied
+     */
+    public synchronized int copyFrames(long startPosition, long endPosition, double[] dst, int dstOffset,
+                                       long timeout, TimeUnit unit) {
+        return copyFrames(startPosition, endPosition, dst, dstOffset, null, timeout, unit);
+    }
+
+    /**
+     * Like {@link #copyFrames(long, long, double[], int, long, TimeUnit)}, and also stores the end
+     * position of every copied frame in {@code frameEnds}, from index 0, so a consumer that reads the
+     * stream piecewise knows where to continue.
+     *
+     * @param frameEnds Must hold as many positions as {@code dst} holds rows
+     */
+    public synchronized int copyFrames(long startPosition, long endPosition, double[] dst, int dstOffset,
+                                       long[] frameEnds, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (position >= startPosition && !isSettled(endPosition)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int capacity = (dst.length - dstOffset) / DIMENSION;
+        long oldest = history.getOldestFrame();
+        long last = history.getFrameCount() - 1;
+        while (last >= oldest && endPositions[slot(last)] > endPosition) {
+            last--;
+        }
+        long first = last + 1;
+        while (first > oldest && last - first + 1 < capacity
+                && endPositions[slot(first - 1)] - FRAME_SIZE >= startPosition) {
+            first--;
+        }
+
+        double[] data = history.getData();
+        for (long frame = first; frame <= last; frame++) {
+            System.arraycopy(data, history.rowOffset(frame), dst, dstOffset, DIMENSION);
+            dstOffset += DIMENSION;
+            if (frameEnds != null) {
+                frameEnds[(int) (frame - first)] = endPositions[slot(frame)];
+            }
+        }
+        return (int) (last - first + 1);
+    }
+
+    // Whether every frame ending by endPosition has been published
+    /**
+     * Starts a new segment unless {@code length} samples ending at {@code endPosition} follow the
+     * previously pushed ones.
+     *
+     * @return Frames published before the push
+     */
+    private long startPush(int length, long endPosition) {
+        long start = endPosition - length;
+        if (start != position) {
+            flush();
+            position = start;
+        }
+        return history.getFrameCount();
+    }
+
+    /**
+     * Accounts for {@code count} samples just added to the window, computing its frame once full.
+     */
+    private void advance(int count) {
+        fill += count;
+        position += count;
+        if (fill == FRAME_SIZE) {
+            computeFrame();
+            System.arraycopy(window, HOP_SIZE, window, 0, FRAME_SIZE - HOP_SIZE);
+            fill = FRAME_SIZE - HOP_SIZE;
+        }
+    }
+
+    private int endPush(long published) {
+        notifyAll();
+        return (int) (history.getFrameCount() - published);
+    }
+
+    private boolean isSettled(long endPosition) {
+        return position >= endPosition && !(hasPending && pendingEnd <= endPosition);
+    }
+
+    private int slot(long frame) {
+        return (int) (frame % endPositions.length);
+    }
+
+    private void computeFrame() {
+        double sumSquares = 0;
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            sumSquares += (double) window[i] * window[i];
+        }
+
+        mfcc.computeFrame(window, 0, coefficients, 0);
+        float[] logMel = mfcc.getLogMel();
+        double[] row = currentRow;
+        for (int m = 0; m < MEL_BANDS; m++) {
+            row[LOG_MEL_OFFSET + m] = logMel[m];
+        }
+        for (int k = 0; k < MFCC_COUNT; k++) {
+            row[MFCC_OFFSET + k] = coefficients[k];
+        }
+        row[ENERGY_OFFSET] = 10 * Math.log10(sumSquares / FRAME_SIZE + 1.0);
+        row[PITCH_OFFSET] = pitch.estimate(mfcc.getPowerSpectrum());
+
+        // The new frame completes the delta of the pending one
+        if (hasPending) {
+            for (int k = 0; k < MFCC_COUNT; k++) {
+                pendingRow[DELTA_OFFSET + k] = hasPrevious ? (row[MFCC_OFFSET + k] - previousMfcc[k]) / 2 : 0;
+            }
+            publish();
+            System.arraycopy(pendingRow, MFCC_OFFSET, previousMfcc, 0, MFCC_COUNT);
+            hasPrevious = true;
+        }
+        currentRow = pendingRow;
+        pendingRow = row;
+        pendingEnd = position;
+        hasPending = true;
+    }
+
+    private void publish() {
+        int row = history.appendRow();
+        double[] data = history.getData();
+        System.arraycopy(pendingRow, 0, data, row, DIMENSION);
+        endPositions[slot(history.getFrameCount() - 1)] = pendingEnd;
+
+        FrameListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onFrame(data, row, pendingEnd);
+        }
+    }
+}
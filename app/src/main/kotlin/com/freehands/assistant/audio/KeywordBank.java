@@ -0,0 +1,286 @@
+package com.freehands.assistant.audio;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores several keywords, each with one or more templates, in a single pass over shared features.
+ *
+ * Every template of every keyword is normalised once and packed into contiguous arrays together
+ * with its LB_Keogh envelope. Each new feature frame is normalised once into a shared window, and
+ * then every template is aligned against the most recent frames of its own length. Scoring K
+ * keywords therefore costs one feature extraction plus K banded DTW passes, most of which end at
+ * the lower bound.
+ *
+ * Within a keyword, at least {@link Keyword#minVotes} templates must agree, and the keyword's
+ * score is the weakest of those votes.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class KeywordBank {
+
+    /**
+     * A keyword and the templates it is matched with.
+     */
+    public static final class Keyword {
+        final String name;
+        final List<double[][]> templates;
+        final int minVotes;
+
+        /**
+         * @param templates Templates as [frame][feature]
+         * @param minVotes Templates that must agree; capped at the number of templates
+         */
+        public Keyword(String name, List<double[][]> templates, int minVotes) {
+            if (templates.isEmpty()) {
+                throw new IllegalArgumentException("Keyword " + name + " has no templates");
+            }
+            this.name = name;
+            this.templates = templates;
+            this.minVotes = Math.max(1, Math.min(minVotes, templates.size()));
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final int dimension;
+    private final String[] names;
+    private final int[] minVotes;
+    private final int[] firstTemplate; // Templates of keyword k are [firstTemplate[k], firstTemplate[k + 1])
+
+    // Packed templates and envelopes, one row per template frame
+    private final double[] templates;
+    private final double[] upper;
+    private final double[] lower;
+    private final int[] templateOffset;
+    private final int[] templateLength;
+    private final int[] templateBand;
+    private final double[] templateMaxCost;
+
+    // Shared normalised window of the most recent frames, indexed by frame % windowCapacity
+    private final int windowCapacity;
+    private final double[] window;
+    private long filledUpTo = 0;
+    private long runStart = 0;
+    private long nextFrame = 0;
+
+    // Per-update scratch
+    private final double[] templateBest;
+    private final float[] templateScores;
+    private final float[] scores;
+    private final double[] previousRow;
+    private final double[] currentRow;
+    private final double[] remainingBound;
+
+    private long alignments = 0;
+    private long pruned = 0;
+
+    /**
+     * @param keywords Keywords in the order their scores are reported
+     * @param bandRadiusFraction Sakoe-Chiba band radius as a fraction of each template's length
+     * @param minConfidence Per-template score below which a template does not vote
+     */
+    public KeywordBank(List<Keyword> keywords, double bandRadiusFraction, double minConfidence) {
+        if (keywords.isEmpty()) {
+            throw new IllegalArgumentException("At least one keyword is required");
+        }
+        this.dimension = keywords.get(0).templates.get(0)[0].length;
+
+        int keywordCount = keywords.size();
+        int templateCount = 0;
+        int totalFrames = 0;
+        int maxLength = 0;
+        for (Keyword keyword : keywords) {
+            for (double[][] template : keyword.templates) {
+                templateCount++;
+                totalFrames += template.length;
+                maxLength = Math.max(maxLength, template.length);
+            }
+        }
+
+        this.names = new String[keywordCount];
+        this.minVotes = new int[keywordCount];
+        this.firstTemplate = new int[keywordCount + 1];
+        this.templates = new double[totalFrames * dimension];
+        this.upper = new double[totalFrames * dimension];
+        this.lower = new double[totalFrames * dimension];
+        this.templateOffset = new int[templateCount];
+        this.templateLength = new int[templateCount];
+        this.templateBand = new int[templateCount];
+        this.templateMaxCost = new double[templateCount];
+
+        int t = 0;
+        int offset = 0;
+        for (int k = 0; k < keywordCount; k++) {
+            Keyword keyword = keywords.get(k);
+            names[k] = keyword.name;
+            minVotes[k] = keyword.minVotes;
+            firstTemplate[k] = t;
+
+            for (double[][] template : keyword.templates) {
+                int length = template.length;
+                int band = Math.max(1, (int) Math.round(length * bandRadiusFraction));
+                for (int f = 0; f < length; f++) {
+                    if (template[f].length != dimension) {
+                        throw new IllegalArgumentException("Keyword " + keyword.name + " has frames of the wrong dimension");
+                    }
+                    DtwKernel.normalize(template[f], 0, templates, offset + f * dimension, dimension);
+                }
+                DtwKernel.envelope(templates, offset, length, dimension, band, upper, lower);
+
+                templateOffset[t] = offset;
+                templateLength[t] = length;
+                templateBand[t] = band;
+                templateMaxCost[t] = (1.0 - minConfidence) * 2.0 * length;
+                offset += length * dimension;
+                t++;
+            }
+        }
+        firstTemplate[keywordCount] = t;
+
+        this.windowCapacity = maxLength;
+        this.window = new double[maxLength * dimension];
+        this.templateBest = new double[templateCount];
+        this.templateScores = new float[templateCount];
+        this.scores = new float[keywordCount];
+        this.previousRow = new double[maxLength];
+        this.currentRow = new double[maxLength];
+        this.remainingBound = new double[maxLength + 1];
+    }
+
+    public int getKeywordCount() {
+        return names.length;
+    }
+
+    public String getKeywordName(int keyword) {
+        return names[keyword];
+    }
+
+    /**
+     * Index of the keyword called {@code name}, or -1.
+     */
+    public int indexOf(String name) {
+        for (int k = 0; k < names.length; k++) {
+            if (names[k].equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Longest template in frames; the feature ring must hold at least this many frames.
+     */
+    public int getMaxTemplateLength() {
+        return windowCapacity;
+    }
+
+    /**
+     * Scores every keyword on the frames appended to {@code features} since the last call.
+     *
+     * @return Index of the best scoring keyword, or -1 if no keyword scored above zero
+     */
+    public int update(FeatureRing features) {
+        if (features.dimension() != dimension) {
+            throw new IllegalArgumentException("Feature dimension " + features.dimension() + " != " + dimension);
+        }
+
+        long end = features.getFrameCount();
+        if (end < nextFrame) {
+            reset(); // The feature ring was cleared
+        }
+
+        System.arraycopy(templateMaxCost, 0, templateBest, 0, templateBest.length);
+        for (long frame = Math.max(nextFrame, features.getOldestFrame()); frame < end; frame++) {
+            fill(features, frame);
+            long available = frame - runStart + 1;
+
+            for (int t = 0; t < templateLength.length; t++) {
+                int length = templateLength[t];
+                if (available < length) {
+                    continue;
+                }
+                alignments++;
+                double cost = DtwKernel.align(window, frame - length + 1, windowCapacity,
+                    templates, upper, lower, templateOffset[t], length, dimension, templateBand[t],
+                    templateBest[t], previousRow, currentRow, remainingBound);
+                if (cost == DtwKernel.PRUNED) {
+                    pruned++;
+                } else if (cost < templateBest[t]) {
+                    templateBest[t] = cost;
+                }
+            }
+        }
+        nextFrame = end;
+
+        return vote();
+    }
+
+    private int vote() {
+        for (int t = 0; t < templateBest.length; t++) {
+            templateScores[t] = templateBest[t] < templateMaxCost[t]
+                ? (float) (1.0 - templateBest[t] / (2.0 * templateLength[t]))
+                : 0.0f;
+        }
+
+        int best = -1;
+        for (int k = 0; k < names.length; k++) {
+            int from = firstTemplate[k];
+            int to = firstTemplate[k + 1];
+            Arrays.sort(templateScores, from, to);
+            scores[k] = templateScores[to - minVotes[k]];
+            if (scores[k] > 0 && (best < 0 || scores[k] > scores[best])) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Score of {@code keyword} from the last {@link #update}, 0 if it did not get enough votes.
+     */
+    public float getScore(int keyword) {
+        return scores[keyword];
+    }
+
+    /**
+     * Marks every frame currently in {@code features} as seen without scoring it.
+     */
+    public void skip(FeatureRing features) {
+        nextFrame = features.getFrameCount();
+        Arrays.fill(scores, 0.0f);
+    }
+
+    private void fill(FeatureRing features, long frame) {
+        long from = Math.max(filledUpTo, Math.max(frame - windowCapacity + 1, features.getOldestFrame()));
+        if (from > filledUpTo || filledUpTo == 0) {
+            runStart = from;
+        }
+        double[] data = features.getData();
+        for (long f = from; f <= frame; f++) {
+            DtwKernel.normalize(data, features.rowOffset(f), window, (int) (f % windowCapacity) * dimension, dimension);
+        }
+        filledUpTo = frame + 1;
+    }
+
+    /**
+     * Template alignments started, including those ended by the lower bound.
+     */
+    public long getAlignmentCount() {
+        return alignments;
+    }
+
+    public long getPrunedCount() {
+        return pruned;
+    }
+
+    public void reset() {
+        filledUpTo = 0;
+        runStart = 0;
+        nextFrame = 0;
+        Arrays.fill(window, 0);
+        Arrays.fill(scores, 0.0f);
+    }
+}
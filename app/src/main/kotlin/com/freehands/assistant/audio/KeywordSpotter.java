@@ -0,0 +1,68 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Streaming keyword spotter: consumes captured audio and scores a fixed set of keywords.
+ *
+ * Audio is pushed with {@link #accept}, which only updates the spotter's features. The caller then
+ * decides per chunk whether the new frames are worth scoring ({@link #score}) or can be passed
+ * over ({@link #skip}), for example based on voice activity.
+ *
+ * Implementations must only be used from one thread.
+ */
+public interface KeywordSpotter {
+
+    /**
+     * Consumes 16-bit mono samples at 16 kHz.
+     *
+     * @return Number of feature frames the samples completed
+     */
+    int accept(short[] samples, int offset, int length);
+
+    /**
+     * Consumes samples whose last one has ring sequence number {@code endPosition - 1}. Spotters
+     * that read features computed elsewhere use the position to find the frames of the samples.
+     *
+     * @return Number of feature frames the samples completed
+     */
+    default int accept(short[] samples, int offset, int length, long endPosition) {
+        return accept(samples, offset, length);
+    }
+
+    /**
+     * Scores every keyword on the audio accepted so far.
+     *
+     * @return Index of the best scoring keyword, or -1 if none scored above zero
+     */
+    int score();
+
+    /**
+     * Marks the accepted audio as seen without scoring it, and clears the scores.
+     */
+    void skip();
+
+    /**
+     * Score of {@code keyword} from the last {@link #score}, between 0 and 1.
+     */
+    float getScore(int keyword);
+
+    int getKeywordCount();
+
+    String getKeywordName(int keyword);
+
+    /**
+     * Index of the keyword called {@code name}, or -1.
+     */
+    default int indexOf(String name) {
+        for (int k = 0; k < getKeywordCount(); k++) {
+            if (getKeywordName(k).equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops buffered audio and feature history.
+     */
+    void reset();
+}
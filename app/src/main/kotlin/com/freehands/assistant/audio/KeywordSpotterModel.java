@@ -0,0 +1,287 @@
+package com.freehands.assistant.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Weights of a small int8-quantised convolutional keyword spotting network, run by
+ * {@link ConvKeywordSpotter}.
+ *
+ * The network sees the last {@code windowFrames} log-mel frames. Inputs are normalised per band
+ * and quantised as {@code q = clamp(round((x - inputMean[b]) / inputScale), -127, 127)}. Each
+ * convolution runs over time with the bands (or the previous layer's channels) as input channels:
+ * <pre>
+ *   y[t][o] = relu(inScale * weightScale[o] * sum(w[o][k][c] * q[t * stride + k][c]) + bias[o])
+ *   q'[t][o] = min(127, round(y[t][o] / outputScale))
+ * </pre>
+ * where {@code inScale} is {@code inputScale} for the first layer and the previous layer's
+ * {@code outputScale} after that. The last convolution is averaged over time and a dense layer with
+ * per-output weight scales maps the result to one logit per label, followed by a softmax.
+ *
+ * File layout (little-endian):
+ * <pre>
+ *   int    magic ('FHKS')
+ *   int    version
+ *   int    melBands
+ *   int    windowFrames
+ *   float  inputScale
+ *   float  inputMean[melBands]
+ *   int    labelCount
+ *   repeated labelCount times:
+ *     short  byteLength
+ *     byte   utf8[byteLength]
+ *   int    layerCount
+ *   repeated layerCount times:
+ *     int    type (1 = convolution, 2 = dense)
+ *     int    outChannels
+ *     int    kernel
+ *     int    stride
+ *     float  outputScale
+ *     float  weightScales[outChannels]
+ *     float  bias[outChannels]
+ *     byte   weights[outChannels * kernel * inChannels]
+ * </pre>
+ */
+public final class KeywordSpotterModel {
+
+    static final int MAGIC = 0x534B4846; // "FHKS" when read as little-endian bytes
+    static final int VERSION = 1;
+
+    public static final int LAYER_CONV = 1;
+    public static final int LAYER_DENSE = 2;
+
+    private static final int MAX_DIMENSION = 1 << 16;
+
+    /**
+     * One layer; weights are laid out as [outChannel][kernel][inChannel].
+     */
+    public static final class Layer {
+        final int type;
+        final int outChannels;
+        final int kernel;
+        final int stride;
+        final float outputScale;
+        final float[] weightScales;
+        final float[] bias;
+        final byte[] weights;
+
+        // Derived from the layers before this one
+        int inChannels;
+        int inFrames;
+        int outFrames;
+
+        public Layer(int type, int outChannels, int kernel, int stride, float outputScale,
+                     float[] weightScales, float[] bias, byte[] weights) {
+            this.type = type;
+            this.outChannels = outChannels;
+            this.kernel = kernel;
+            this.stride = stride;
+            this.outputScale = outputScale;
+            this.weightScales = weightScales;
+            this.bias = bias;
+            this.weights = weights;
+        }
+    }
+
+    final int melBands;
+    final int windowFrames;
+    final float inputScale;
+    final float[] inputMean;
+    final String[] labels;
+    final List<Layer> layers;
+
+    public KeywordSpotterModel(int melBands, int windowFrames, float inputScale, float[] inputMean,
+                               String[] labels, List<Layer> layers) {
+        if (melBands <= 0 || windowFrames <= 0 || inputScale <= 0 || inputMean.length != melBands) {
+            throw new IllegalArgumentException("Invalid model input shape");
+        }
+        if (labels.length == 0 || layers.isEmpty()) {
+            throw new IllegalArgumentException("Model needs labels and at least one layer");
+        }
+        this.melBands = melBands;
+        this.windowFrames = windowFrames;
+        this.inputScale = inputScale;
+        this.inputMean = inputMean;
+        this.labels = labels;
+        this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+
+        // Work out every layer's input shape and check its weights against it
+        int channels = melBands;
+        int frames = windowFrames;
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            boolean last = i == layers.size() - 1;
+            if (layer.type == LAYER_DENSE) {
+                if (!last || layer.outChannels != labels.length || layer.kernel != 1 || layer.stride != 1) {
+                    throw new IllegalArgumentException("The dense layer must come last and have one output per label");
+                }
+            } else if (layer.type != LAYER_CONV || last) {
+                throw new IllegalArgumentException("Layer " + i + " must be a convolution");
+            }
+            if (layer.outChannels <= 0 || layer.kernel <= 0 || layer.stride <= 0 || layer.kernel > frames) {
+                throw new IllegalArgumentException("Layer " + i + " does not fit its input");
+            }
+            if (layer.type == LAYER_CONV && layer.outputScale <= 0) {
+                throw new IllegalArgumentException("Layer " + i + " needs a positive output scale");
+            }
+            if (layer.weightScales.length != layer.outChannels || layer.bias.length != layer.outChannels
+                    || layer.weights.length != layer.outChannels * layer.kernel * channels) {
+                throw new IllegalArgumentException("Layer " + i + " has weights of the wrong size");
+            }
+            layer.inChannels = channels;
+            layer.inFrames = frames;
+            layer.outFrames = layer.type == LAYER_DENSE ? 1 : (frames - layer.kernel) / layer.stride + 1;
+            channels = layer.outChannels;
+            frames = layer.outFrames;
+        }
+    }
+
+    public int getMelBands() {
+        return melBands;
+    }
+
+    public int getWindowFrames() {
+        return windowFrames;
+    }
+
+    public List<String> getLabels() {
+        return Collections.unmodifiableList(Arrays.asList(labels));
+    }
+
+    /**
+     * Number of int8 weights, which is also the number of multiply-adds per inference.
+     */
+    public long getMultiplyAccumulateCount() {
+        long total = 0;
+        for (Layer layer : layers) {
+            total += (long) layer.outFrames * layer.weights.length;
+        }
+        return total;
+    }
+
+    /**
+     * Reads a model written by {@link #write}, for example from {@code assets/models}.
+     *
+     * @throws IOException if the stream is truncated or does not hold a model
+     */
+    public static KeywordSpotterModel read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            bytes.write(chunk, 0, n);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a keyword spotter model");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model version " + version);
+            }
+            int melBands = checkedDimension(buffer.getInt());
+            int windowFrames = checkedDimension(buffer.getInt());
+            float inputScale = buffer.getFloat();
+            float[] inputMean = readFloats(buffer, melBands);
+
+            String[] labels = new String[checkedDimension(buffer.getInt())];
+            for (int i = 0; i < labels.length; i++) {
+                byte[] utf8 = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(utf8);
+                labels[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            int layerCount = checkedDimension(buffer.getInt());
+            List<Layer> layers = new ArrayList<>(layerCount);
+            int channels = melBands;
+            for (int i = 0; i < layerCount; i++) {
+                int type = buffer.getInt();
+                int outChannels = checkedDimension(buffer.getInt());
+                int kernel = checkedDimension(buffer.getInt());
+                int stride = checkedDimension(buffer.getInt());
+                float outputScale = buffer.getFloat();
+                float[] weightScales = readFloats(buffer, outChannels);
+                float[] bias = readFloats(buffer, outChannels);
+                long weightCount = (long) outChannels * kernel * channels;
+                if (weightCount > buffer.remaining()) {
+                    throw new IOException("Model file truncated");
+                }
+                byte[] weights = new byte[(int) weightCount];
+                buffer.get(weights);
+                layers.add(new Layer(type, outChannels, kernel, stride, outputScale, weightScales, bias, weights));
+                channels = outChannels;
+            }
+
+            return new KeywordSpotterModel(melBands, windowFrames, inputScale, inputMean, labels, layers);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Model file truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt model: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the model in the format {@link #read} expects.
+     */
+    public void write(OutputStream out) throws IOException {
+        int size = 20 + 4 * melBands + 4;
+        byte[][] encodedLabels = new byte[labels.length][];
+        for (int i = 0; i < labels.length; i++) {
+            encodedLabels[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + encodedLabels[i].length;
+        }
+        size += 4;
+        for (Layer layer : layers) {
+            size += 20 + 8 * layer.outChannels + layer.weights.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(melBands).putInt(windowFrames).putFloat(inputScale);
+        for (float mean : inputMean) {
+            buffer.putFloat(mean);
+        }
+        buffer.putInt(labels.length);
+        for (byte[] label : encodedLabels) {
+            buffer.putShort((short) label.length).put(label);
+        }
+        buffer.putInt(layers.size());
+        for (Layer layer : layers) {
+            buffer.putInt(layer.type).putInt(layer.outChannels).putInt(layer.kernel).putInt(layer.stride);
+            buffer.putFloat(layer.outputScale);
+            for (float scale : layer.weightScales) {
+                buffer.putFloat(scale);
+            }
+            for (float bias : layer.bias) {
+                buffer.putFloat(bias);
+            }
+            buffer.put(layer.weights);
+        }
+        out.write(buffer.array());
+    }
+
+    private static int checkedDimension(int value) throws IOException {
+        if (value <= 0 || value > MAX_DIMENSION) {
+            throw new IOException("Corrupt model header");
+        }
+        return value;
+    }
+
+    private static float[] readFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+}
@@ -0,0 +1,106 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Streaming log-mel front-end with overlapping frames: 25 ms Hann windows every 10 ms at 16 kHz,
+ * a 512-point FFT and 40 mel bands between 20 Hz and 7.6 kHz.
+ *
+ * Samples are pushed as they are captured, and the log energies of every completed frame are
+ * appended to a {@link FeatureRing}. All buffers are allocated up front.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class LogMelExtractor {
+
+    public static final int SAMPLE_RATE = 16000;
+    public static final int WINDOW_SIZE = 400;
+    public static final int HOP_SIZE = 160;
+    public static final int FFT_SIZE = 512;
+    public static final int BAND_COUNT = 40;
+
+    private static final float LOW_HZ = 20f;
+    private static final float HIGH_HZ = 7600f;
+    private static final float ENERGY_FLOOR = 1e-10f;
+
+    private final FeatureRing ring;
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final MelFilterBank filterBank =
+        new MelFilterBank(SAMPLE_RATE, FFT_SIZE, BAND_COUNT, LOW_HZ, HIGH_HZ);
+
+    private final float[] window = new float[WINDOW_SIZE];
+    private final short[] pending = new short[WINDOW_SIZE];
+    private int pendingCount = 0;
+
+    private final float[] frame = new float[FFT_SIZE];
+    private final float[] power = new float[FFT_SIZE / 2 + 1];
+    private final float[] bands = new float[BAND_COUNT];
+
+    /**
+     * @param historyFrames Number of frames the feature ring retains
+     */
+    public LogMelExtractor(int historyFrames) {
+        this.ring = new FeatureRing(historyFrames, BAND_COUNT);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            // Hann window, scaled for 16-bit input
+            window[i] = (float) ((0.5 - 0.5 * Math.cos(2 * Math.PI * i / (WINDOW_SIZE - 1))) / 32768.0);
+        }
+    }
+
+    /**
+     * Ring holding the log-mel energies of the most recent frames.
+     */
+    public FeatureRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Consumes samples and extracts features for every frame they complete.
+     *
+     * @return Number of frames appended to the ring
+     */
+    public int process(short[] samples, int offset, int length) {
+        int end = offset + length;
+        int index = offset;
+        int framesAdded = 0;
+
+        while (index < end) {
+            int count = Math.min(WINDOW_SIZE - pendingCount, end - index);
+            System.arraycopy(samples, index, pending, pendingCount, count);
+            pendingCount += count;
+            index += count;
+
+            if (pendingCount == WINDOW_SIZE) {
+                extractFrame();
+                framesAdded++;
+
+                // Keep the overlap for the next frame
+                System.arraycopy(pending, HOP_SIZE, pending, 0, WINDOW_SIZE - HOP_SIZE);
+                pendingCount = WINDOW_SIZE - HOP_SIZE;
+            }
+        }
+        return framesAdded;
+    }
+
+    private void extractFrame() {
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            frame[i] = pending[i] * window[i];
+        }
+        // Zero padding up to the FFT size stays zero
+
+        fft.powerSpectrum(frame, 0, power);
+        filterBank.apply(power, bands, 0);
+
+        double[] data = ring.getData();
+        int row = ring.appendRow();
+        for (int m = 0; m < BAND_COUNT; m++) {
+            data[row + m] = Math.log(Math.max(bands[m], ENERGY_FLOOR));
+        }
+    }
+
+    /**
+     * Drops buffered samples and feature history.
+     */
+    public void reset() {
+        pendingCount = 0;
+        ring.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Triangular mel-scale filters over the bins of a power spectrum.
+ *
+ * Each filter only covers the bins between its neighbours' centres, so the weights are stored
+ * sparsely as one contiguous run per filter and applying the bank costs about two multiply-adds
+ * per spectrum bin regardless of the number of filters.
+ */
+public final class MelFilterBank {
+
+    private final int filterCount;
+    private final int binCount;
+    private final int[] firstBin;
+    private final int[] binSpan;
+    private final int[] weightOffset;
+    private final float[] weights;
+
+    /**
+     * @param sampleRate Sample rate of the analysed audio in Hz
+     * @param fftSize Size of the FFT producing {@code fftSize / 2 + 1} bins
+     * @param filterCount Number of mel bands
+     * @param lowHz Lower edge of the first filter
+     * @param highHz Upper edge of the last filter, at most half the sample rate
+     */
+    public MelFilterBank(int sampleRate, int fftSize, int filterCount, float lowHz, float highHz) {
+        if (filterCount <= 0 || lowHz < 0 || highHz <= lowHz || highHz > sampleRate / 2f) {
+            throw new IllegalArgumentException("Invalid mel filter bank configuration");
+        }
+        this.filterCount = filterCount;
+        this.binCount = fftSize / 2 + 1;
+
+        // Filter edges are equally spaced on the mel scale
+        double lowMel = hzToMel(lowHz);
+        double highMel = hzToMel(highHz);
+        double[] edgeBins = new double[filterCount + 2];
+        for (int i = 0; i < edgeBins.length; i++) {
+            double hz = melToHz(lowMel + (highMel - lowMel) * i / (filterCount + 1));
+            edgeBins[i] = hz * fftSize / sampleRate;
+        }
+
+        this.firstBin = new int[filterCount];
+        this.binSpan = new int[filterCount];
+        this.weightOffset = new int[filterCount];
+        int total = 0;
+        for (int m = 0; m < filterCount; m++) {
+            int first = (int) Math.ceil(edgeBins[m]);
+            int last = Math.min(binCount - 1, (int) Math.floor(edgeBins[m + 2]));
+            firstBin[m] = first;
+            binSpan[m] = Math.max(0, last - first + 1);
+            weightOffset[m] = total;
+            total += binSpan[m];
+        }
+
+        this.weights = new float[total];
+        for (int m = 0; m < filterCount; m++) {
+            double left = edgeBins[m];
+            double centre = edgeBins[m + 1];
+            double right = edgeBins[m + 2];
+            for (int i = 0; i < binSpan[m]; i++) {
+                int bin = firstBin[m] + i;
+                double weight = bin <= centre ? (bin - left) / (centre - left) : (right - bin) / (right - centre);
+                weights[weightOffset[m] + i] = (float) Math.max(0, weight);
+            }
+        }
+    }
+
+    static double hzToMel(double hz) {
+        return 2595.0 * Math.log10(1.0 + hz / 700.0);
+    }
+
+    static double melToHz(double mel) {
+        return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+    }
+
+    public int getFilterCount() {
+        return filterCount;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    /**
+     * Writes the energy of every filter into {@code out} starting at {@code outOffset}.
+     *
+     * @param power Power spectrum with {@link #getBinCount()} bins
+     */
+    public void apply(float[] power, float[] out, int outOffset) {
+        for (int m = 0; m < filterCount; m++) {
+            int bin = firstBin[m];
+            int w = weightOffset[m];
+            float energy = 0;
+            for (int i = 0; i < binSpan[m]; i++) {
+                energy += weights[w + i] * power[bin + i];
+            }
+            out[outOffset + m] = energy;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.freehands.assistant.audio;
+
+/**
+ * MFCCs of 16-bit PCM in plain Java: Hamming window, real FFT, triangular mel filters between 0 Hz
+ * and Nyquist, natural log floored at 1e-10, DCT-II scaled by {@code sqrt(2 / filterCount)} and an
+ * optional sinusoidal lifter.
+ *
+ * Without liftering this is the computation of the native {@code MfccWorkspace} behind
+ * {@link com.freehands.assistant.utils.AudioFeatureExtractor}, step for step in single precision.
+ * Only the rounding differs (the native FFT, window and filter tables are built in float, and its
+ * SIMD kernels sum in another order), so each coefficient agrees with the native one within
+ * {@link #NATIVE_TOLERANCE}. It can stand in for the native library on a plain JVM or when the
+ * library fails to load.
+ *
+ * All tables and buffers are allocated by the constructor, so computing frames does not allocate.
+ * An instance must only be used from one thread.
+ */
+public final class MfccExtractor {
+
+    /**
+     * Largest absolute difference from the native MFCCs of the same configuration, for any
+     * coefficient of a frame whose mel bands all lie within 100 dB of its strongest band, which any
+     * captured audio with a noise floor satisfies; measured differences are below 3e-5. Bands further
+     * down hold single-precision rounding noise in both implementations, so synthetic frames such as
+     * pure tones or constant input can differ by up to about 0.05.
+     */
+    public static final float NATIVE_TOLERANCE = 1e-3f;
+
+    private static final float ENERGY_FLOOR = 1e-10f;
+
+    private final int frameSize;
+    private final int hopSize;
+    private final int filterCount;
+    private final int coefficientCount;
+
+    private final RealFft fft;
+    private final MelFilterBank filterBank;
+
+    // Hamming window with the 1/32768 sample scale folded in
+    private final float[] window;
+    // [coefficientCount][filterCount], row-major, with the lifter folded in
+    private final float[] dctMatrix;
+
+    private final float[] frame;
+    private final float[] power;
+    private final float[] logMel;
+
+    /**
+     * @param sampleRate Sample rate of the analysed audio in Hz
+     * @param frameSize Samples per frame; a power of two, at least 4
+     * @param hopSize Samples between the starts of consecutive frames, at most {@code frameSize}
+     * @param filterCount Number of mel bands
+     * @param coefficientCount Number of cepstral coefficients per frame, at most {@code filterCount}
+     * @param lifter Sinusoidal lifter length; coefficient {@code n} is scaled by
+     *        {@code 1 + lifter / 2 * sin(pi * n / lifter)}. 0 disables liftering, as natively.
+     */
+    public MfccExtractor(int sampleRate, int frameSize, int hopSize, int filterCount,
+                         int coefficientCount, int lifter) {
+        if (hopSize <= 0 || hopSize > frameSize || coefficientCount <= 0
+                || coefficientCount > filterCount || lifter < 0) {
+            throw new IllegalArgumentException("Invalid MFCC configuration");
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.filterCount = filterCount;
+        this.coefficientCount = coefficientCount;
+        this.fft = new RealFft(frameSize);
+        this.filterBank = new MelFilterBank(sampleRate, frameSize, filterCount, 0f, sampleRate / 2f);
+
+        this.window = new float[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            window[i] = (float) ((0.54 - 0.46 * Math.cos(2 * Math.PI * i / (frameSize - 1))) / 32768.0);
+        }
+
+        this.dctMatrix = new float[coefficientCount * filterCount];
+        double scale = Math.sqrt(2.0 / filterCount);
+        for (int k = 0; k < coefficientCount; k++) {
+            double lift = lifter > 0 ? 1 + lifter / 2.0 * Math.sin(Math.PI * k / lifter) : 1;
+            for (int m = 0; m < filterCount; m++) {
+                dctMatrix[k * filterCount + m] =
+                    (float) (lift * scale * Math.cos(Math.PI * k * (2 * m + 1) / (2.0 * filterCount)));
+            }
+        }
+
+        this.frame = new float[frameSize];
+        this.power = new float[fft.binCount()];
+        this.logMel = new float[filterCount];
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public int getCoefficientCount() {
+        return coefficientCount;
+    }
+
+    public int getFilterCount() {
+        return filterCount;
+    }
+
+    /**
+     * Power spectrum of the last frame computed, {@code frameSize / 2 + 1} bins of the windowed
+     * frame in the 1/32768 sample scale. Overwritten by the next frame.
+     */
+    public float[] getPowerSpectrum() {
+        return power;
+    }
+
+    /**
+     * Floored natural log mel energies of the last frame computed. Overwritten by the next frame.
+     */
+    public float[] getLogMel() {
+        return logMel;
+    }
+
+    /**
+     * Number of full frames in {@code length} samples, one per hop.
+     */
+    public int frameCount(int length) {
+        return length < frameSize ? 0 : (length - frameSize) / hopSize + 1;
+    }
+
+    /**
+     * Computes the MFCCs of every full frame in {@code length} samples starting at {@code offset},
+     * writing {@link #getCoefficientCount()} values per frame into {@code out} from
+     * {@code outOffset}, frame after frame.
+     *
+     * @return Number of frames written, {@link #frameCount} of {@code length}
+     */
+    public int computeFrames(short[] pcm, int offset, int length, float[] out, int outOffset) {
+        int frames = frameCount(length);
+        for (int f = 0; f < frames; f++) {
+            int start = offset + f * hopSize;
+            for (int i = 0; i < frameSize; i++) {
+                frame[i] = pcm[start + i] * window[i];
+            }
+            finishFrame(out, outOffset + f * coefficientCount);
+        }
+        return frames;
+    }
+
+    /**
+     * Computes the MFCCs of one frame of {@link #getFrameSize()} samples starting at {@code offset},
+     * given as floats in 16-bit units, as a streaming window holds them.
+     */
+    public void computeFrame(float[] samples, int offset, float[] out, int outOffset) {
+        for (int i = 0; i < frameSize; i++) {
+            frame[i] = samples[offset + i] * window[i];
+        }
+        finishFrame(out, outOffset);
+    }
+
+    private void finishFrame(float[] out, int outOffset) {
+        fft.powerSpectrum(frame, 0, power);
+        filterBank.apply(power, logMel, 0);
+        for (int m = 0; m < filterCount; m++) {
+            logMel[m] = (float) Math.log(Math.max(logMel[m], ENERGY_FLOOR));
+        }
+
+        for (int k = 0; k < coefficientCount; k++) {
+            int row = k * filterCount;
+            float sum = 0;
+            for (int m = 0; m < filterCount; m++) {
+                sum += dctMatrix[row + m] * logMel[m];
+            }
+            out[outOffset + k] = sum;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.freehands.assistant.audio;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Computes per-frame features of a long buffer on a fork-join pool.
+ *
+ * The frame range is split into chunks, and each chunk is handed the samples of its own frames
+ * only: {@code (frames - 1) * hopSize + frameSize} samples from its first frame's start, so
+ * neighbouring chunks overlap by the frame's tail and no frame is cut at a boundary. Every frame is
+ * computed exactly as a serial pass would compute it, by a {@link Workspace} of its own thread, so
+ * the output is identical to the serial output whatever the split.
+ *
+ * Workspaces are created on demand, at most one per concurrently running chunk, and kept for later
+ * calls until {@link #close()}. Instances are thread-safe.
+ */
+public final class ParallelFrameExtractor implements AutoCloseable {
+
+    /** Chunks per pool thread, so a thread that finishes early can steal work. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * A single-threaded extractor, such as an {@link MfccExtractor}.
+     */
+    public interface Workspace {
+        /**
+         * Computes every full frame in {@code length} samples starting at {@code offset}, writing
+         * the frames' values into {@code out} from {@code outOffset}, frame after frame.
+         *
+         * @return Number of frames written
+         */
+        int computeFrames(short[] pcm, int offset, int length, float[] out, int outOffset);
+
+        /** Releases the workspace's resources. */
+        default void close() {
+        }
+    }
+
+    private final int frameSize;
+    private final int hopSize;
+    private final int valuesPerFrame;
+    private final int minChunkFrames;
+    private final ForkJoinPool pool;
+    private final Supplier<? extends Workspace> factory;
+
+    private final ConcurrentLinkedQueue<Workspace> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param frameSize Samples per frame
+     * @param hopSize Samples between the starts of consecutive frames, at most {@code frameSize}
+     * @param valuesPerFrame Output values per frame
+     * @param minChunkFrames Fewest frames worth a task of their own
+     * @param pool Pool the chunks run on
+     * @param factory Creates a workspace for a thread that has none free
+     */
+    public ParallelFrameExtractor(int frameSize, int hopSize, int valuesPerFrame, int minChunkFrames,
+                                  ForkJoinPool pool, Supplier<? extends Workspace> factory) {
+        if (hopSize <= 0 || hopSize > frameSize || valuesPerFrame <= 0 || minChunkFrames <= 0) {
+            throw new IllegalArgumentException("Invalid frame layout");
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.valuesPerFrame = valuesPerFrame;
+        this.minChunkFrames = minChunkFrames;
+        this.pool = pool;
+        this.factory = factory;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Number of full frames in {@code length} samples, one per hop.
+     */
+    public int frameCount(int length) {
+        return length < frameSize ? 0 : (length - frameSize) / hopSize + 1;
+    }
+
+    /**
+     * Computes every full frame in {@code length} samples starting at {@code offset} into
+     * {@code out} from {@code outOffset}, as one serial {@link Workspace#computeFrames} call would.
+     * Buffers too short to split are computed on the calling thread.
+     *
+     * @return Number of frames written, {@link #frameCount} of {@code length}
+     */
+    public int computeFrames(short[] pcm, int offset, int length, float[] out, int outOffset) {
+        int frames = frameCount(length);
+        int chunkFrames = Math.max(minChunkFrames,
+            (frames + pool.getParallelism() * CHUNKS_PER_THREAD - 1) / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        if (frames <= chunkFrames) {
+            computeChunk(pcm, offset, 0, frames, out, outOffset);
+        } else {
+            pool.invoke(new Chunk(pcm, offset, 0, frames, chunkFrames, out, outOffset));
+        }
+        return frames;
+    }
+
+    /**
+     * Releases the idle workspaces. Chunks still running return theirs to a pool that is no longer
+     * used, so only close once no call is in progress.
+     */
+    @Override
+    public void close() {
+        Workspace workspace;
+        while ((workspace = idle.poll()) != null) {
+            workspace.close();
+        }
+    }
+
+    private void computeChunk(short[] pcm, int offset, int firstFrame, int frames, float[] out, int outOffset) {
+        if (frames == 0) {
+            return;
+        }
+        Workspace workspace = idle.poll();
+        if (workspace == null) {
+            workspace = factory.get();
+        }
+        try {
+            int written = workspace.computeFrames(pcm, offset + firstFrame * hopSize, (frames - 1) * hopSize + frameSize,
+                out, outOffset + firstFrame * valuesPerFrame);
+            if (written != frames) {
+                throw new IllegalStateException("Workspace wrote " + written + " of " + frames + " frames");
+            }
+        } finally {
+            idle.offer(workspace);
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final short[] pcm;
+        private final int offset;
+        private final int firstFrame;
+        private final int frames;
+        private final int chunkFrames;
+        private final float[] out;
+        private final int outOffset;
+
+        Chunk(short[] pcm, int offset, int firstFrame, int frames, int chunkFrames, float[] out, int outOffset) {
+            this.pcm = pcm;
+            this.offset = offset;
+            this.firstFrame = firstFrame;
+            this.frames = frames;
+            this.chunkFrames = chunkFrames;
+            this.out = out;
+            this.outOffset = outOffset;
+        }
+
+        @Override
+        protected void compute() {
+            if (frames <= chunkFrames) {
+                computeChunk(pcm, offset, firstFrame, frames, out, outOffset);
+                return;
+            }
+            int half = frames / 2;
+            invokeAll(new Chunk(pcm, offset, firstFrame, half, chunkFrames, out, outOffset),
+                new Chunk(pcm, offset, firstFrame + half, frames - half, chunkFrames, out, outOffset));
+        }
+    }
+}
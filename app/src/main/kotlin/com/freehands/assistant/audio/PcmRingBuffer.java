@@ -0,0 +1,415 @@
+package com.freehands.assistant.audio;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated lock-free ring of 16-bit PCM samples shared by every consumer of the microphone.
+ *
+ * Exactly one thread (the capture thread) writes into the ring. Every sample gets a monotonically
+ * increasing sequence number, and each consumer reads through its own {@link Cursor}, so readers
+ * never block the writer or each other. A reader that falls more than {@link #capacity()} samples
+ * behind is moved forward to the oldest intact sample and the skipped samples are counted as dropped.
+ *
+ * Before writing a chunk the writer claims the slots it is about to overwrite, and readers check the
+ * claim after copying, so a copy that raced with the writer drops the samples it may have torn
+ * instead of returning them. A volatile write does not keep later plain stores from moving ahead of
+ * it, nor a volatile read earlier plain loads from moving after it, so explicit fences order the
+ * claim against the samples on both sides.
+ */
+public final class PcmRingBuffer {
+
+    private static final Cursor[] NO_CURSORS = new Cursor[0];
+
+    // VarHandle fences are public from Android 13 on; older runtimes fall back to volatile accesses
+    private static final boolean HAS_VAR_HANDLE_FENCES = hasVarHandleFences();
+
+    private final short[] buffer;
+    private final int mask;
+
+    // Sequence number one past the last sample that is visible to readers
+    private volatile long writeSequence = 0;
+
+    // Sequence number one past the last sample the writer may be storing; samples older than
+    // claimSequence - capacity are no longer intact
+    private volatile long claimSequence = 0;
+
+    // Only touched to order memory accesses on runtimes without VarHandle fences
+    private volatile long fallbackFence;
+
+    // Copy-on-write list of open cursors, used to wake blocked readers without allocation
+    private volatile Cursor[] cursors = NO_CURSORS;
+
+    /**
+     * @param minCapacity Minimum number of samples to retain; rounded up to a power of two
+     */
+    public PcmRingBuffer(int minCapacity) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        this.buffer = new short[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Sequence number of the next sample to be written (total samples written so far).
+     */
+    public long getWriteSequence() {
+        return writeSequence;
+    }
+
+    /**
+     * Sequence number of the oldest sample still held by the ring.
+     */
+    public long getOldestSequence() {
+        return Math.max(0, writeSequence - buffer.length);
+    }
+
+    /**
+     * Appends samples to the ring. Must only be called from the single producer thread.
+     *
+     * @throws IllegalArgumentException if {@code length} exceeds {@link #capacity()}
+     */
+    public void write(short[] src, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        long sequence = claim(length);
+        int position = (int) (sequence & mask);
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(src, offset, buffer, position, first);
+        if (first < length) {
+            System.arraycopy(src, offset + first, buffer, 0, length - first);
+        }
+        publish(sequence + length);
+    }
+
+    /**
+     * Appends the remaining samples of {@code src} and advances its position. With a view of a
+     * direct buffer, such as the one AudioRecord captures into, the samples go straight into the ring.
+     * Must only be called from the single producer thread.
+     *
+     * @throws IllegalArgumentException if more than {@link #capacity()} samples remain
+     */
+    public void write(ShortBuffer src) {
+        int length = src.remaining();
+        if (length <= 0) {
+            return;
+        }
+        long sequence = claim(length);
+        int position = (int) (sequence & mask);
+        int first = Math.min(length, buffer.length - position);
+        src.get(buffer, position, first);
+        if (first < length) {
+            src.get(buffer, 0, length - first);
+        }
+        publish(sequence + length);
+    }
+
+    /**
+     * Appends little-endian 16-bit PCM bytes, as returned by {@code AudioRecord.read(byte[], ...)}.
+     * Must only be called from the single producer thread.
+     *
+     * @throws IllegalArgumentException if the bytes hold more than {@link #capacity()} samples
+     */
+    public void writePcm16(byte[] src, int offset, int lengthInBytes) {
+        int samples = lengthInBytes / 2;
+        if (samples <= 0) {
+            return;
+        }
+        long sequence = claim(samples);
+        int position = (int) (sequence & mask);
+        int index = offset;
+        for (int i = 0; i < samples; i++) {
+            buffer[position] = (short) ((src[index + 1] << 8) | (src[index] & 0xFF));
+            position = (position + 1) & mask;
+            index += 2;
+        }
+        publish(sequence + samples);
+    }
+
+    /**
+     * Marks the next {@code length} slots as being overwritten, before any of them is stored.
+     *
+     * @return Sequence number of the first sample to write
+     */
+    private long claim(int length) {
+        if (length > buffer.length) {
+            throw new IllegalArgumentException("Chunk of " + length + " samples exceeds capacity " + buffer.length);
+        }
+        long sequence = writeSequence;
+        claimSequence = sequence + length;
+        // The claim must be visible before the first sample it covers is overwritten
+        storeStoreFence();
+        return sequence;
+    }
+
+    /**
+     * Sequence number of the oldest sample the writer is not overwriting right now.
+     */
+    private long getOldestIntactSequence() {
+        return Math.max(0, claimSequence - buffer.length);
+    }
+
+    /**
+     * Like {@link #getOldestIntactSequence()}, but only after every sample copied so far has been
+     * loaded, so a claim made during the copy is seen.
+     */
+    private long recheckOldestIntactSequence() {
+        loadLoadFence();
+        return getOldestIntactSequence();
+    }
+
+    private void storeStoreFence() {
+        if (HAS_VAR_HANDLE_FENCES) {
+            VarHandle.storeStoreFence();
+        } else {
+            // A volatile read is an acquire, so no later store moves ahead of it, and it stays
+            // after the preceding volatile write
+            long ignored = fallbackFence;
+        }
+    }
+
+    private void loadLoadFence() {
+        if (HAS_VAR_HANDLE_FENCES) {
+            VarHandle.loadLoadFence();
+        } else {
+            // A volatile write is a release, so no earlier load moves after it, and it stays before
+            // the volatile read that follows
+            fallbackFence = 0;
+        }
+    }
+
+    private static boolean hasVarHandleFences() {
+        try {
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            varHandle.getMethod("storeStoreFence");
+            varHandle.getMethod("loadLoadFence");
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private void publish(long sequence) {
+        writeSequence = sequence;
+
+        Cursor[] current = cursors;
+        for (int i = 0; i < current.length; i++) {
+            Thread waiter = current[i].waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Copies the {@code count} samples that end just before {@code endSequence} into {@code dst}.
+     * Useful for looking back at recent audio (for example the pre-roll of a wake phrase).
+     *
+     * @return Number of samples copied; fewer than requested if part of the range was never
+     *         written or has already been overwritten
+     */
+    public int copy(long endSequence, short[] dst, int dstOffset, int count) {
+        long end = Math.min(endSequence, writeSequence);
+        long start = Math.max(end - count, getOldestIntactSequence());
+        if (start >= end) {
+            return 0;
+        }
+
+        int copied = copyRange(start, dst, dstOffset, (int) (end - start));
+
+        // The writer may have lapped us while copying; shift out anything it claimed meanwhile
+        long oldest = recheckOldestIntactSequence();
+        if (oldest > start) {
+            int lost = (int) Math.min(copied, oldest - start);
+            copied -= lost;
+            System.arraycopy(dst, dstOffset + lost, dst, dstOffset, copied);
+        }
+        return copied;
+    }
+
+    private int copyRange(long start, short[] dst, int dstOffset, int length) {
+        int position = (int) (start & mask);
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(buffer, position, dst, dstOffset, first);
+        if (first < length) {
+            System.arraycopy(buffer, 0, dst, dstOffset + first, length - first);
+        }
+        return length;
+    }
+
+    /**
+     * Opens a cursor positioned at the current write sequence, so it only sees new audio.
+     */
+    public Cursor newCursor() {
+        return newCursor(writeSequence);
+    }
+
+    /**
+     * Opens a cursor positioned at {@code sequence}, which may point into already buffered audio.
+     */
+    public synchronized Cursor newCursor(long sequence) {
+        Cursor cursor = new Cursor(Math.max(sequence, getOldestSequence()));
+        Cursor[] current = cursors;
+        Cursor[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = cursor;
+        cursors = updated;
+        return cursor;
+    }
+
+    synchronized void closeCursor(Cursor cursor) {
+        Cursor[] current = cursors;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == cursor) {
+                Cursor[] updated = new Cursor[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                cursors = updated.length == 0 ? NO_CURSORS : updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Independent read position into the ring. A cursor must only be used by one thread.
+     */
+    public final class Cursor implements AutoCloseable {
+        private long readSequence;
+        private long droppedSamples;
+        private volatile Thread waiter;
+
+        private Cursor(long readSequence) {
+            this.readSequence = readSequence;
+        }
+
+        /**
+         * Sequence number of the next sample this cursor will return.
+         */
+        public long position() {
+            return readSequence;
+        }
+
+        /**
+         * Moves the cursor to {@code sequence}, clamped to the audio currently held by the ring.
+         */
+        public void seek(long sequence) {
+            readSequence = Math.max(getOldestSequence(), Math.min(sequence, writeSequence));
+        }
+
+        /**
+         * Total number of samples skipped because this reader fell behind the writer.
+         */
+        public long getDroppedSamples() {
+            return droppedSamples;
+        }
+
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, writeSequence - readSequence);
+        }
+
+        /**
+         * Reads up to {@code length} samples without blocking.
+         *
+         * @return Number of samples read, 0 if no new audio is available
+         */
+        public int read(short[] dst, int offset, int length) {
+            long oldest = getOldestIntactSequence();
+            if (readSequence < oldest) {
+                droppedSamples += oldest - readSequence;
+                readSequence = oldest;
+            }
+
+            int count = (int) Math.min(length, writeSequence - readSequence);
+            if (count <= 0) {
+                return 0;
+            }
+            copyRange(readSequence, dst, offset, count);
+
+            // Discard whatever the writer claimed while we were copying
+            oldest = recheckOldestIntactSequence();
+            if (oldest > readSequence) {
+                int lost = (int) Math.min(count, oldest - readSequence);
+                droppedSamples += lost;
+                count -= lost;
+                System.arraycopy(dst, offset + lost, dst, offset, count);
+                readSequence += lost;
+            }
+            readSequence += count;
+            return count;
+        }
+
+        /**
+         * Reads up to {@code length} samples, parking the calling thread until audio arrives or the
+         * timeout elapses.
+         *
+         * @return Number of samples read, 0 on timeout or interruption
+         */
+        public int read(short[] dst, int offset, int length, long timeout, TimeUnit unit) {
+            int count = read(dst, offset, length);
+            if (count > 0) {
+                return count;
+            }
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            waiter = Thread.currentThread();
+            try {
+                while (writeSequence == readSequence) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                        return 0;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waiter = null;
+            }
+            return read(dst, offset, length);
+        }
+
+        /**
+         * Fills {@code dst} completely, blocking until enough audio has been captured.
+         *
+         * @return Number of samples read; less than {@code length} if the timeout elapsed first
+         */
+        public int readFully(short[] dst, int offset, int length, long timeout, TimeUnit unit) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int total = 0;
+            while (total < length) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                int count = read(dst, offset + total, length - total, remaining, TimeUnit.NANOSECONDS);
+                if (count == 0 && Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * Detaches the cursor from the ring. The cursor must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            closeCursor(this);
+            Thread blocked = waiter;
+            if (blocked != null) {
+                LockSupport.unpark(blocked);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.freehands.assistant.audio;
+
+import java.util.Arrays;
+
+/**
+ * Frame-wise pitch of 16-bit PCM with a voicing decision per frame.
+ *
+ * Each frame's autocorrelation is computed from its Hamming-windowed power spectrum with a second
+ * FFT, then divided by the window's own autocorrelation, which undoes the window's taper
+ * (Boersma's method). The period is the highest peak between {@value #MIN_PITCH_HZ} and
+ * {@value #MAX_PITCH_HZ} Hz, refined by parabolic interpolation. A frame whose normalised peak stays
+ * below the voicing threshold is unvoiced and gets a pitch of 0.
+ *
+ * That is two FFTs per frame instead of a multiply-add per sample and lag, and the first one is
+ * free when the power spectrum is already known: {@link FeatureStream} passes the one its MFCCs were
+ * computed from to {@link #estimate}.
+ *
+ * All tables and buffers are allocated by the constructor, so tracking does not allocate. An
+ * instance must only be used from one thread.
+ */
+public final class PitchTracker {
+
+    public static final float MIN_PITCH_HZ = 70f;
+    public static final float MAX_PITCH_HZ = 400f;
+
+    // Normalised autocorrelation a frame needs at its period to count as voiced, and the preference
+    // per octave for shorter periods, which keeps multiples of the period from winning on noise
+    private static final float VOICING_THRESHOLD = 0.45f;
+    private static final float OCTAVE_COST = 0.01f;
+
+    private final int sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    private final int minLag;
+    private final int maxLag;
+
+    private final RealFft fft;
+    private final float[] hamming;
+    private final float[] windowAutocorrelation;
+
+    private final float[] frame;
+    private final float[] power;
+    private final float[] evenSpectrum;
+    private final float[] lagRe;
+    private final float[] lagIm;
+
+    /**
+     * @param sampleRate Sample rate of the analysed audio in Hz
+     * @param frameSize Samples per frame; a power of two long enough for two periods of
+     *        {@value #MIN_PITCH_HZ} Hz
+     * @param hopSize Samples between the starts of consecutive frames, at most {@code frameSize}
+     */
+    public PitchTracker(int sampleRate, int frameSize, int hopSize) {
+        this.minLag = (int) Math.ceil(sampleRate / MAX_PITCH_HZ);
+        this.maxLag = (int) Math.floor(sampleRate / MIN_PITCH_HZ);
+        if (hopSize <= 0 || hopSize > frameSize || maxLag + 1 > frameSize / 2) {
+            throw new IllegalArgumentException("Invalid pitch tracker configuration");
+        }
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+
+        this.fft = new RealFft(frameSize);
+        this.hamming = new float[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            hamming[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (frameSize - 1)));
+        }
+        this.frame = new float[frameSize];
+        this.power = new float[fft.binCount()];
+        this.evenSpectrum = new float[frameSize];
+        this.lagRe = new float[fft.binCount()];
+        this.lagIm = new float[fft.binCount()];
+
+        fft.powerSpectrum(hamming, 0, power);
+        autocorrelate(power, true);
+        this.windowAutocorrelation = new float[maxLag + 2];
+        for (int lag = 0; lag < windowAutocorrelation.length; lag++) {
+            windowAutocorrelation[lag] = lagRe[lag] / lagRe[0];
+        }
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /**
+     * Number of full frames in {@code length} samples, one per hop.
+     */
+    public int frameCount(int length) {
+        return length < frameSize ? 0 : (length - frameSize) / hopSize + 1;
+    }
+
+    /**
+     * Tracks the pitch of every full frame in {@code length} samples starting at {@code offset},
+     * writing one value per frame into {@code out} from {@code outOffset}.
+     *
+     * @return Number of frames written, {@link #frameCount} of {@code length}
+     */
+    public int track(short[] pcm, int offset, int length, double[] out, int outOffset) {
+        int frames = frameCount(length);
+        for (int f = 0; f < frames; f++) {
+            int start = offset + f * hopSize;
+            for (int i = 0; i < frameSize; i++) {
+                frame[i] = pcm[start + i] * hamming[i];
+            }
+            fft.powerSpectrum(frame, 0, power);
+            out[outOffset + f] = estimate(power);
+        }
+        return frames;
+    }
+
+    /**
+     * Pitch of one frame from the power spectrum of the frame under a Hamming window of
+     * {@link #getFrameSize()} samples, {@code frameSize / 2 + 1} bins in any scale.
+     *
+     * @return Fundamental frequency in Hz, or 0 if the frame is not voiced
+     */
+    public double estimate(float[] powerSpectrum) {
+        autocorrelate(powerSpectrum, false);
+        float energy = lagRe[0];
+        if (!(energy > 0)) {
+            return 0;
+        }
+
+        int bestLag = -1;
+        float bestScore = 0;
+        float bestCorrelation = 0;
+        float previous = correlation(minLag - 1, energy);
+        float value = correlation(minLag, energy);
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            float next = correlation(lag + 1, energy);
+            if (value > previous && value >= next) {
+                float score = value - OCTAVE_COST * (float) (Math.log(lag * MIN_PITCH_HZ / sampleRate) / Math.log(2));
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestLag = lag;
+                    bestCorrelation = value;
+                }
+            }
+            previous = value;
+            value = next;
+        }
+        if (bestLag < 0 || bestCorrelation < VOICING_THRESHOLD) {
+            return 0;
+        }
+
+        // Parabolic interpolation between the neighbouring lags
+        float before = correlation(bestLag - 1, energy);
+        float after = correlation(bestLag + 1, energy);
+        float curvature = before - 2 * bestCorrelation + after;
+        double period = curvature < 0 ? bestLag + 0.5 * (before - after) / curvature : bestLag;
+        return sampleRate / period;
+    }
+
+    private float correlation(int lag, float energy) {
+        return lagRe[lag] / energy / windowAutocorrelation[lag];
+    }
+
+    /**
+     * Autocorrelation of a frame from its power spectrum, into {@link #lagRe}. The spectrum is real
+     * and even, so the inverse transform is a forward transform of its even extension. The frame is
+     * treated as periodic, which at the lags searched only adds a little of the window's tails.
+     */
+    private void autocorrelate(float[] powerSpectrum, boolean keepDc) {
+        int half = frameSize / 2;
+        // A DC offset would make every lag look periodic
+        evenSpectrum[0] = keepDc ? powerSpectrum[0] : 0;
+        evenSpectrum[half] = powerSpectrum[half];
+        for (int k = 1; k < half; k++) {
+            evenSpectrum[k] = powerSpectrum[k];
+            evenSpectrum[frameSize - k] = powerSpectrum[k];
+        }
+        fft.forward(evenSpectrum, 0, lagRe, lagIm);
+    }
+
+    /**
+     * Summary of the pitch track of an utterance, over its voiced frames.
+     */
+    public static final class Statistics {
+        private final int frameCount;
+        private final int voicedFrames;
+        private final double median;
+        private final double minimum;
+        private final double maximum;
+        private final double jitter;
+
+        private Statistics(int frameCount, int voicedFrames, double median, double minimum,
+                           double maximum, double jitter) {
+            this.frameCount = frameCount;
+            this.voicedFrames = voicedFrames;
+            this.median = median;
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.jitter = jitter;
+        }
+
+        /**
+         * Summarises {@code frames} pitch values, the first at {@code offset} and each
+         * {@code stride} after the previous one, as {@link #track} or a {@link FeatureStream} row
+         * holds them. Values of 0 mark unvoiced frames.
+         */
+        public static Statistics of(double[] pitches, int offset, int stride, int frames) {
+            ArrayPool pool = ArrayPool.getInstance();
+            double[] voiced = pool.acquireDoubles(frames);
+            try {
+                int count = 0;
+                double periodSum = 0;
+                double periodChange = 0;
+                int pairs = 0;
+                double lastPeriod = 0;
+                for (int f = 0; f < frames; f++) {
+                    double pitch = pitches[offset + f * stride];
+                    if (!(pitch > 0)) {
+                        lastPeriod = 0;
+                        continue;
+                    }
+                    voiced[count++] = pitch;
+                    double period = 1 / pitch;
+                    periodSum += period;
+                    if (lastPeriod > 0) {
+                        periodChange += Math.abs(period - lastPeriod);
+                        pairs++;
+                    }
+                    lastPeriod = period;
+                }
+                if (count == 0) {
+                    return new Statistics(frames, 0, 0, 0, 0, 0);
+                }
+
+                Arrays.sort(voiced, 0, count);
+                double median = count % 2 == 1
+                    ? voiced[count / 2]
+                    : (voiced[count / 2 - 1] + voiced[count / 2]) / 2;
+                double jitter = pairs > 0 ? (periodChange / pairs) / (periodSum / count) : 0;
+                return new Statistics(frames, count, median, voiced[0], voiced[count - 1], jitter);
+            } finally {
+                pool.release(voiced);
+            }
+        }
+
+        public int getFrameCount() { return frameCount; }
+        public int getVoicedFrames() { return voicedFrames; }
+
+        /** Median pitch of the voiced frames in Hz, or 0 if none is voiced. */
+        public double getMedian() { return median; }
+        public double getMinimum() { return minimum; }
+        public double getMaximum() { return maximum; }
+
+        /** Difference between the highest and lowest voiced pitch in Hz. */
+        public double getRange() { return maximum - minimum; }
+
+        /**
+         * Mean absolute change of the period between consecutive voiced frames, relative to the
+         * mean period. This is jitter at frame rather than cycle resolution, so it reflects slow
+         * pitch wobble more than cycle-to-cycle irregularity.
+         */
+        public double getJitter() { return jitter; }
+
+        public double getVoicedFraction() {
+            return frameCount > 0 ? (double) voicedFrames / frameCount : 0;
+        }
+    }
+}
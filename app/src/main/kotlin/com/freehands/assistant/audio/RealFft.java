@@ -0,0 +1,165 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Forward FFT of real input of a fixed power-of-two size.
+ *
+ * The N real samples are packed into N/2 complex values, transformed with a radix-2 FFT of half
+ * the size and then split into the N/2 + 1 non-redundant bins. Bit-reversal indices and twiddles
+ * are computed once per instance, and the work arrays are reused, so transforms do not allocate.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class RealFft {
+
+    private final int size;
+    private final int half;
+
+    // Plan for the complex FFT of size half
+    private final int[] bitReverse;
+    private final float[] cos;
+    private final float[] sin;
+
+    // exp(-2 pi i k / size) for the final split
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    private final float[] re;
+    private final float[] im;
+
+    // Result of split(), kept in fields so the per-bin loop does not allocate
+    private float splitRe;
+    private float splitIm;
+
+    /**
+     * @param size Number of real input samples; a power of two, at least 4
+     */
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two of at least 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        this.bitReverse = new int[half];
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        this.cos = new float[Math.max(1, half / 2)];
+        this.sin = new float[Math.max(1, half / 2)];
+        for (int j = 0; j < half / 2; j++) {
+            double theta = 2 * Math.PI * j / half;
+            cos[j] = (float) Math.cos(theta);
+            sin[j] = (float) Math.sin(theta);
+        }
+
+        this.splitCos = new float[half];
+        this.splitSin = new float[half];
+        for (int k = 0; k < half; k++) {
+            double theta = 2 * Math.PI * k / size;
+            splitCos[k] = (float) Math.cos(theta);
+            splitSin[k] = (float) Math.sin(theta);
+        }
+
+        this.re = new float[half];
+        this.im = new float[half];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of output bins, {@code size / 2 + 1}.
+     */
+    public int binCount() {
+        return half + 1;
+    }
+
+    /**
+     * Transforms {@code size} samples starting at {@code offset}.
+     *
+     * @param outRe Real parts of the {@link #binCount()} bins
+     * @param outIm Imaginary parts of the {@link #binCount()} bins
+     */
+    public void forward(float[] input, int offset, float[] outRe, float[] outIm) {
+        transform(input, offset);
+
+        outRe[0] = re[0] + im[0];
+        outIm[0] = 0;
+        outRe[half] = re[0] - im[0];
+        outIm[half] = 0;
+        for (int k = 1; k < half; k++) {
+            split(k);
+            outRe[k] = splitRe;
+            outIm[k] = splitIm;
+        }
+    }
+
+    /**
+     * Squared magnitudes of the {@link #binCount()} bins of {@code size} samples at {@code offset}.
+     */
+    public void powerSpectrum(float[] input, int offset, float[] power) {
+        transform(input, offset);
+
+        float dc = re[0] + im[0];
+        float nyquist = re[0] - im[0];
+        power[0] = dc * dc;
+        power[half] = nyquist * nyquist;
+        for (int k = 1; k < half; k++) {
+            split(k);
+            power[k] = splitRe * splitRe + splitIm * splitIm;
+        }
+    }
+
+    /**
+     * Recovers bin {@code k} of the real transform from bins {@code k} and {@code half - k} of the
+     * packed complex transform.
+     */
+    private void split(int k) {
+        float a = re[k];
+        float b = im[k];
+        float c = re[half - k];
+        float d = im[half - k];
+
+        float evenRe = 0.5f * (a + c);
+        float evenIm = 0.5f * (b - d);
+        float oddRe = 0.5f * (b + d);
+        float oddIm = -0.5f * (a - c);
+
+        float wr = splitCos[k];
+        float wi = -splitSin[k];
+        splitRe = evenRe + wr * oddRe - wi * oddIm;
+        splitIm = evenIm + wr * oddIm + wi * oddRe;
+    }
+
+    private void transform(float[] input, int offset) {
+        // Even samples become the real parts and odd samples the imaginary parts, in bit-reversed order
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            re[j] = input[offset + 2 * i];
+            im[j] = input[offset + 2 * i + 1];
+        }
+
+        for (int length = 2; length <= half; length <<= 1) {
+            int span = length >> 1;
+            int step = half / length;
+            for (int start = 0; start < half; start += length) {
+                for (int j = 0; j < span; j++) {
+                    float wr = cos[j * step];
+                    float wi = -sin[j * step];
+                    int top = start + j;
+                    int bottom = top + span;
+
+                    float tr = wr * re[bottom] - wi * im[bottom];
+                    float ti = wr * im[bottom] + wi * re[bottom];
+                    re[bottom] = re[top] - tr;
+                    im[bottom] = im[top] - ti;
+                    re[top] += tr;
+                    im[top] += ti;
+                }
+            }
+        }
+    }
+}
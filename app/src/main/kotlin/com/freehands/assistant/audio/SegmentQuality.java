@@ -0,0 +1,53 @@
+package com.freehands.assistant.audio;
+
+import java.util.Arrays;
+
+/**
+ * Cheap signal-quality estimates for short buffered speech segments.
+ *
+ * The noise floor is taken from the quietest frames and the speech level from the loudest, which
+ * works on a few seconds of audio without a separate noise-only recording.
+ */
+public final class SegmentQuality {
+
+    private static final double NOISE_PERCENTILE = 0.1;
+    private static final double SPEECH_PERCENTILE = 0.9;
+    private static final double MIN_FRAME_ENERGY = 1e-3;
+
+    private SegmentQuality() {
+    }
+
+    /**
+     * Estimates the signal-to-noise ratio of {@code samples[0, length)} in decibels.
+     *
+     * @param frameSize Analysis frame length in samples (for example 320 for 20 ms at 16 kHz)
+     * @return Estimated SNR, or 0 if the segment holds fewer than two frames
+     */
+    public static double estimateSnrDb(short[] samples, int length, int frameSize) {
+        int frames = length / frameSize;
+        if (frames < 2) {
+            return 0;
+        }
+
+        ArrayPool pool = ArrayPool.getInstance();
+        double[] energies = pool.acquireDoubles(frames);
+        try {
+            for (int f = 0; f < frames; f++) {
+                double sum = 0;
+                int base = f * frameSize;
+                for (int i = 0; i < frameSize; i++) {
+                    double sample = samples[base + i];
+                    sum += sample * sample;
+                }
+                energies[f] = Math.max(sum / frameSize, MIN_FRAME_ENERGY);
+            }
+            Arrays.sort(energies, 0, frames);
+
+            double noise = energies[(int) (NOISE_PERCENTILE * (frames - 1))];
+            double speech = energies[(int) Math.ceil(SPEECH_PERCENTILE * (frames - 1))];
+            return 10 * Math.log10(speech / noise);
+        } finally {
+            pool.release(energies);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.freehands.assistant.audio;
+
+import java.util.List;
+
+/**
+ * Similarity of an utterance's {@link VoiceFeature} to a speaker's enrolled ones.
+ *
+ * Each enrolled utterance is compared with a weighted sum of MFCC, pitch, spectral and intensity
+ * similarities, each between 0 and 1; the score is the mean over the enrolled utterances.
+ */
+public final class SpeakerScorer {
+
+    private static final float MFCC_WEIGHT = 0.4f;
+    private static final float PITCH_WEIGHT = 0.3f;
+    private static final float SPECTRAL_WEIGHT = 0.2f;
+    private static final float INTENSITY_WEIGHT = 0.1f;
+
+    private SpeakerScorer() {
+    }
+
+    /**
+     * Mean similarity of {@code current} to the features of {@code profile}.
+     *
+     * @return Score between 0 and 1, or 0 for an empty profile
+     */
+    public static float score(List<VoiceFeature> profile, VoiceFeature current) {
+        float totalSimilarity = 0;
+        int comparisons = 0;
+
+        for (VoiceFeature stored : profile) {
+            totalSimilarity += compare(stored, current);
+            comparisons++;
+        }
+
+        return comparisons > 0 ? totalSimilarity / comparisons : 0;
+    }
+
+    /**
+     * Weighted similarity of two utterances, between 0 and 1.
+     */
+    public static float compare(VoiceFeature stored, VoiceFeature current) {
+        float mfccSimilarity = arraySimilarity(stored.getMfccFeatures(), current.getMfccFeatures());
+        float freqSimilarity = frequencySimilarity(stored.getFundamentalFreq(), current.getFundamentalFreq());
+        float spectralSimilarity = arraySimilarity(stored.getSpectralFeatures(), current.getSpectralFeatures());
+        float intensitySimilarity = intensitySimilarity(stored.getVoiceIntensity(), current.getVoiceIntensity());
+
+        return mfccSimilarity * MFCC_WEIGHT + freqSimilarity * PITCH_WEIGHT
+            + spectralSimilarity * SPECTRAL_WEIGHT + intensitySimilarity * INTENSITY_WEIGHT;
+    }
+
+    // Cosine similarity, with opposite vectors counting as unrelated
+    private static float arraySimilarity(double[] arr1, double[] arr2) {
+        if (arr1.length != arr2.length) {
+            return 0;
+        }
+
+        double sum1 = 0, sum2 = 0, sum12 = 0;
+        for (int i = 0; i < arr1.length; i++) {
+            sum1 += arr1[i] * arr1[i];
+            sum2 += arr2[i] * arr2[i];
+            sum12 += arr1[i] * arr2[i];
+        }
+
+        double denominator = Math.sqrt(sum1 * sum2);
+        if (denominator == 0) return 0;
+
+        return (float) Math.max(0, sum12 / denominator);
+    }
+
+    private static float frequencySimilarity(double freq1, double freq2) {
+        if (freq1 == 0 || freq2 == 0) return 0;
+
+        return (float) (Math.min(freq1, freq2) / Math.max(freq1, freq2));
+    }
+
+    private static float intensitySimilarity(double intensity1, double intensity2) {
+        if (intensity1 == 0 && intensity2 == 0) return 1;
+        if (intensity1 == 0 || intensity2 == 0) return 0;
+
+        return (float) (Math.min(intensity1, intensity2) / Math.max(intensity1, intensity2));
+    }
+}
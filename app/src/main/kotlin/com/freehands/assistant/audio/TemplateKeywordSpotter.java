@@ -0,0 +1,158 @@
+package com.freehands.assistant.audio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link KeywordSpotter} that matches the MFCCs of a {@link FeatureStream} against recorded or
+ * generated templates with a {@link KeywordBank}.
+ *
+ * Template frames are c1 to c12 of one stream frame, {@value FeatureStream#HOP_SIZE} samples apart;
+ * c0 is left out so that how loudly the keyword is said does not decide the match.
+ *
+ * A spotter created with a shared stream, such as the capture hub's, never computes features: the
+ * stream's owner pushes the audio, and {@link #accept(short[], int, int, long)} only takes the frames
+ * published for the accepted samples so far. Frames still being computed are taken by a later call.
+ * Otherwise the spotter pushes the accepted audio into a stream of its own.
+ */
+public final class TemplateKeywordSpotter implements KeywordSpotter {
+
+    /** Values per template frame. */
+    public static final int FEATURE_COUNT = FeatureStream.MFCC_COUNT - 1;
+
+    private static final long NO_POSITION = Long.MIN_VALUE;
+
+    private final KeywordBank bank;
+    private final FeatureStream stream;
+    private final boolean ownsStream;
+    private final FeatureRing ring;
+
+    // Stream rows taken per call, and where each of their frames ends
+    private final double[] rows;
+    private final long[] rowEnds;
+    // Frames starting before this position have been taken already
+    private long nextStart = NO_POSITION;
+
+    /**
+     * Creates a spotter that computes the features of the audio it accepts.
+     *
+     * @param historyFrames Frames of history kept, at least the longest template
+     */
+    public TemplateKeywordSpotter(KeywordBank bank, int historyFrames) {
+        this(bank, historyFrames, new FeatureStream(historyFrames), true);
+    }
+
+    /**
+     * Creates a spotter that reads the frames of {@code stream}, which someone else feeds with the
+     * same audio the spotter accepts.
+     *
+     * @param historyFrames Frames of history kept, at least the longest template
+     */
+    public TemplateKeywordSpotter(KeywordBank bank, int historyFrames, FeatureStream stream) {
+        this(bank, historyFrames, stream, false);
+    }
+
+    private TemplateKeywordSpotter(KeywordBank bank, int historyFrames, FeatureStream stream, boolean ownsStream) {
+        if (historyFrames < bank.getMaxTemplateLength()) {
+            throw new IllegalArgumentException("History of " + historyFrames
+                + " frames is shorter than the longest template (" + bank.getMaxTemplateLength() + ")");
+        }
+        this.bank = bank;
+        this.stream = stream;
+        this.ownsStream = ownsStream;
+        this.ring = new FeatureRing(historyFrames, FEATURE_COUNT);
+        this.rows = new double[historyFrames * FeatureStream.DIMENSION];
+        this.rowEnds = new long[historyFrames];
+    }
+
+    /**
+     * Copies the template features of the stream frame at {@code offset} of {@code row} to {@code dst}.
+     */
+    public static void copyFeatures(double[] row, int offset, double[] dst, int dstOffset) {
+        System.arraycopy(row, offset + FeatureStream.MFCC_OFFSET + 1, dst, dstOffset, FEATURE_COUNT);
+    }
+
+    public KeywordBank getBank() {
+        return bank;
+    }
+
+    /**
+     * Ring holding the template features of the most recent frames.
+     */
+    public FeatureRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Consumes samples that follow the previously accepted ones. A spotter on a shared stream takes
+     * the frames of all the audio pushed into the stream so far.
+     */
+    @Override
+    public int accept(short[] samples, int offset, int length) {
+        long end = ownsStream ? stream.getPosition() + length : stream.getPosition();
+        return accept(samples, offset, length, end);
+    }
+
+    @Override
+    public int accept(short[] samples, int offset, int length, long endPosition) {
+        if (ownsStream) {
+            stream.process(samples, offset, length, endPosition);
+        }
+        if (nextStart == NO_POSITION) {
+            nextStart = endPosition - length;
+        }
+
+        int count = stream.copyFrames(nextStart, endPosition, rows, 0, rowEnds, 0, TimeUnit.MILLISECONDS);
+        double[] data = ring.getData();
+        for (int f = 0; f < count; f++) {
+            copyFeatures(rows, f * FeatureStream.DIMENSION, data, ring.appendRow());
+        }
+        if (count > 0) {
+            nextStart = rowEnds[count - 1] - FeatureStream.FRAME_SIZE + FeatureStream.HOP_SIZE;
+        }
+        return count;
+    }
+
+    @Override
+    public int score() {
+        return bank.update(ring);
+    }
+
+    @Override
+    public void skip() {
+        bank.skip(ring);
+    }
+
+    @Override
+    public float getScore(int keyword) {
+        return bank.getScore(keyword);
+    }
+
+    @Override
+    public int getKeywordCount() {
+        return bank.getKeywordCount();
+    }
+
+    @Override
+    public String getKeywordName(int keyword) {
+        return bank.getKeywordName(keyword);
+    }
+
+    @Override
+    public int indexOf(String name) {
+        return bank.indexOf(name);
+    }
+
+    /**
+     * Drops feature history; a spotter on a shared stream continues with the frames of the next
+     * accepted audio.
+     */
+    @Override
+    public void reset() {
+        if (ownsStream) {
+            stream.reset();
+        }
+        nextStart = NO_POSITION;
+        ring.clear();
+        bank.reset();
+    }
+}
@@ -0,0 +1,207 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Streaming voice activity detector based on frame energy, zero-crossing rate and an adaptive
+ * noise floor.
+ *
+ * Audio is pushed in chunks of any size and classified in fixed frames. A frame counts as speech
+ * when its energy is well above the tracked noise floor and its zero-crossing rate is below that
+ * of broadband noise. Speech becomes active after {@link #ONSET_FRAMES} consecutive speech frames
+ * and stays active for {@link #HANGOVER_FRAMES} frames after the last one, so word endings and short
+ * pauses are not cut off.
+ *
+ * An instance must only be used from one thread.
+ */
+public final class VoiceActivityDetector {
+
+    public static final int DEFAULT_FRAME_SIZE = 320; // 20 ms at 16 kHz
+
+    static final int ONSET_FRAMES = 2;
+    static final int HANGOVER_FRAMES = 15; // 300 ms at the default frame size
+
+    private static final double SPEECH_MARGIN_DB = 9.0;
+    private static final double MIN_SPEECH_ENERGY_DB = 30.0; // Mean square of 16-bit samples
+    private static final double MAX_SPEECH_ZCR = 0.5;
+
+    // Floor follows drops quickly, rises slowly, and barely moves while someone is talking
+    private static final double FLOOR_FALL_RATE = 0.2;
+    private static final double FLOOR_RISE_RATE = 0.05;
+    private static final double FLOOR_RISE_RATE_SPEECH = 0.002;
+
+    /**
+     * Receives the statistics and decision for every classified frame.
+     */
+    public interface FrameListener {
+        void onFrame(long frameIndex, double energyDb, double zeroCrossingRate, double noiseFloorDb,
+                     boolean speechFrame, boolean speechActive);
+    }
+
+    private final int frameSize;
+    private final short[] frame;
+    private int framePosition = 0;
+
+    private FrameListener listener;
+
+    private long frameIndex = 0;
+    private long speechFrameCount = 0;
+    private double noiseFloorDb = Double.NaN;
+    private double lastEnergyDb = 0;
+    private double lastZeroCrossingRate = 0;
+    private boolean lastSpeechFrame = false;
+    private int consecutiveSpeechFrames = 0;
+    private int hangoverRemaining = 0;
+    private boolean speechActive = false;
+
+    public VoiceActivityDetector() {
+        this(DEFAULT_FRAME_SIZE);
+    }
+
+    public VoiceActivityDetector(int frameSize) {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException("Frame size must be positive");
+        }
+        this.frameSize = frameSize;
+        this.frame = new short[frameSize];
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds audio into the detector and classifies every frame it completes.
+     *
+     * @return Whether speech is active after the last completed frame
+     */
+    public boolean process(short[] samples, int offset, int length) {
+        int end = offset + length;
+        int index = offset;
+        while (index < end) {
+            int count = Math.min(frameSize - framePosition, end - index);
+            System.arraycopy(samples, index, frame, framePosition, count);
+            framePosition += count;
+            index += count;
+
+            if (framePosition == frameSize) {
+                classifyFrame();
+                framePosition = 0;
+            }
+        }
+        return speechActive;
+    }
+
+    private void classifyFrame() {
+        double sumSquares = 0;
+        int crossings = 0;
+        short previous = frame[0];
+        for (int i = 0; i < frameSize; i++) {
+            short sample = frame[i];
+            sumSquares += (double) sample * sample;
+            if ((sample >= 0) != (previous >= 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+
+        double energyDb = 10 * Math.log10(sumSquares / frameSize + 1.0);
+        double zeroCrossingRate = (double) crossings / frameSize;
+
+        if (Double.isNaN(noiseFloorDb)) {
+            noiseFloorDb = energyDb;
+        }
+
+        boolean speechFrame = energyDb >= MIN_SPEECH_ENERGY_DB
+            && energyDb - noiseFloorDb >= SPEECH_MARGIN_DB
+            && zeroCrossingRate <= MAX_SPEECH_ZCR;
+
+        updateNoiseFloor(energyDb, speechFrame);
+
+        if (speechFrame) {
+            consecutiveSpeechFrames++;
+            speechFrameCount++;
+            if (consecutiveSpeechFrames >= ONSET_FRAMES) {
+                speechActive = true;
+                hangoverRemaining = HANGOVER_FRAMES;
+            }
+        } else {
+            consecutiveSpeechFrames = 0;
+            if (hangoverRemaining > 0) {
+                hangoverRemaining--;
+            } else {
+                speechActive = false;
+            }
+        }
+
+        lastEnergyDb = energyDb;
+        lastZeroCrossingRate = zeroCrossingRate;
+        lastSpeechFrame = speechFrame;
+
+        FrameListener current = listener;
+        if (current != null) {
+            current.onFrame(frameIndex, energyDb, zeroCrossingRate, noiseFloorDb, speechFrame, speechActive);
+        }
+        frameIndex++;
+    }
+
+    private void updateNoiseFloor(double energyDb, boolean speechFrame) {
+        if (energyDb < noiseFloorDb) {
+            noiseFloorDb += (energyDb - noiseFloorDb) * FLOOR_FALL_RATE;
+        } else {
+            double rate = speechFrame ? FLOOR_RISE_RATE_SPEECH : FLOOR_RISE_RATE;
+            noiseFloorDb += (energyDb - noiseFloorDb) * rate;
+        }
+    }
+
+    /**
+     * Whether speech is present or ended less than the hangover period ago.
+     */
+    public boolean isSpeechActive() {
+        return speechActive;
+    }
+
+    /**
+     * Whether the most recent frame on its own was classified as speech.
+     */
+    public boolean isLastFrameSpeech() {
+        return lastSpeechFrame;
+    }
+
+    public double getLastEnergyDb() {
+        return lastEnergyDb;
+    }
+
+    public double getLastZeroCrossingRate() {
+        return lastZeroCrossingRate;
+    }
+
+    /**
+     * Current noise floor estimate in dB, or NaN before the first frame.
+     */
+    public double getNoiseFloorDb() {
+        return noiseFloorDb;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public long getFrameCount() {
+        return frameIndex;
+    }
+
+    public long getSpeechFrameCount() {
+        return speechFrameCount;
+    }
+
+    /**
+     * Forgets the noise floor and any speech in progress.
+     */
+    public void reset() {
+        framePosition = 0;
+        noiseFloorDb = Double.NaN;
+        consecutiveSpeechFrames = 0;
+        hangoverRemaining = 0;
+        speechActive = false;
+        lastSpeechFrame = false;
+    }
+}
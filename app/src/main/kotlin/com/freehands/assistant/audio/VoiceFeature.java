@@ -0,0 +1,31 @@
+package com.freehands.assistant.audio;
+
+/**
+ * Voice characteristics of one utterance, as stored in a voice profile and compared by
+ * {@link SpeakerScorer}.
+ */
+public final class VoiceFeature {
+    private final double[] mfccFeatures;
+    private final double fundamentalFreq;
+    private final double pitchRange;
+    private final double pitchJitter;
+    private final double[] spectralFeatures;
+    private final double voiceIntensity;
+
+    public VoiceFeature(double[] mfccFeatures, double fundamentalFreq, double pitchRange,
+                        double pitchJitter, double[] spectralFeatures, double voiceIntensity) {
+        this.mfccFeatures = mfccFeatures;
+        this.fundamentalFreq = fundamentalFreq;
+        this.pitchRange = pitchRange;
+        this.pitchJitter = pitchJitter;
+        this.spectralFeatures = spectralFeatures;
+        this.voiceIntensity = voiceIntensity;
+    }
+
+    public double[] getMfccFeatures() { return mfccFeatures; }
+    public double getFundamentalFreq() { return fundamentalFreq; }
+    public double getPitchRange() { return pitchRange; }
+    public double getPitchJitter() { return pitchJitter; }
+    public double[] getSpectralFeatures() { return spectralFeatures; }
+    public double getVoiceIntensity() { return voiceIntensity; }
+}
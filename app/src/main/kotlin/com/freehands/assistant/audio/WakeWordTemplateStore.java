@@ -0,0 +1,151 @@
+package com.freehands.assistant.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary storage for enrolled wake word templates.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   int   magic ('FHWT')
+ *   int   version
+ *   int   dimension
+ *   int   templateCount
+ *   repeated templateCount times:
+ *     int    frameCount
+ *     float  values[frameCount * dimension]
+ * </pre>
+ * Files are written to a temporary sibling and renamed into place, and are memory-mapped when read.
+ *
+ * Version 2 templates are {@link TemplateKeywordSpotter} frames, MFCCs of the shared feature stream.
+ * Version 1 held band energies of non-overlapping 1024-sample frames, which nothing computes any
+ * more, so those files are not loaded and their keywords have to be enrolled again.
+ */
+public final class WakeWordTemplateStore {
+
+    static final int MAGIC = 0x54574846; // "FHWT" when read as little-endian bytes
+    static final int VERSION = 2;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_FRAMES = 1024;
+
+    private WakeWordTemplateStore() {
+    }
+
+    /**
+     * Writes {@code templates} to {@code file}, replacing it atomically.
+     *
+     * @param templates Templates as [frame][feature], all with the same feature dimension
+     */
+    public static void save(File file, List<double[][]> templates) throws IOException {
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("No templates to save");
+        }
+        int dimension = templates.get(0)[0].length;
+
+        int size = HEADER_BYTES;
+        for (double[][] template : templates) {
+            size += 4 + template.length * dimension * 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(templates.size());
+        for (double[][] template : templates) {
+            buffer.putInt(template.length);
+            for (double[] frame : template) {
+                if (frame.length != dimension) {
+                    throw new IllegalArgumentException("Template frames differ in dimension");
+                }
+                for (double value : frame) {
+                    buffer.putFloat((float) value);
+                }
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Whether {@code file} is a template file that {@link #load} accepts; false for one recorded with
+     * an older version, which has to be enrolled again.
+     */
+    public static boolean isCurrent(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_BYTES) {
+                return false;
+            }
+            return Integer.reverseBytes(raf.readInt()) == MAGIC && Integer.reverseBytes(raf.readInt()) == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Memory-maps {@code file} and decodes its templates.
+     *
+     * @return Templates as [frame][feature]
+     * @throws IOException if the file is missing, truncated or not a template file
+     */
+    public static List<double[][]> load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException("Template file too short");
+            }
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt() != MAGIC) {
+                throw new IOException("Not a wake word template file");
+            }
+            int version = mapped.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported template version " + version);
+            }
+            int dimension = mapped.getInt();
+            int count = mapped.getInt();
+            if (dimension <= 0 || count <= 0) {
+                throw new IOException("Corrupt template header");
+            }
+
+            List<double[][]> templates = new ArrayList<>(count);
+            for (int t = 0; t < count; t++) {
+                if (mapped.remaining() < 4) {
+                    throw new IOException("Template file truncated");
+                }
+                int frames = mapped.getInt();
+                if (frames <= 0 || frames > MAX_FRAMES || mapped.remaining() < frames * dimension * 4) {
+                    throw new IOException("Template file truncated");
+                }
+
+                double[][] template = new double[frames][dimension];
+                for (int f = 0; f < frames; f++) {
+                    for (int d = 0; d < dimension; d++) {
+                        template[f][d] = mapped.getFloat();
+                    }
+                }
+                templates.add(template);
+            }
+            return templates;
+        }
+    }
+}
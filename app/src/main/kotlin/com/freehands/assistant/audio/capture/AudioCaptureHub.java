@@ -0,0 +1,568 @@
+package com.freehands.assistant.audio.capture;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+import com.freehands.assistant.BuildConfig;
+import com.freehands.assistant.audio.ArrayPool;
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.PcmRingBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single owner of the microphone for the whole process.
+ *
+ * The hub keeps one AudioRecord open while at least one component is subscribed and writes every
+ * captured chunk into a shared {@link PcmRingBuffer}. Subscribers read from the ring through their
+ * own cursor, optionally at a lower sample rate, so opening a new consumer costs no AudioRecord
+ * setup and nobody competes for the input.
+ *
+ * AudioRecord captures into a direct buffer. Consumers that can work on it in place, such as native
+ * feature extraction, subscribe with a {@link DirectChunkListener} and see each chunk before it is
+ * reused, without any copy on the Java heap.
+ *
+ * Features of the captured audio (log-mel, MFCCs, deltas, energy and pitch) are computed once per
+ * frame into a shared {@link FeatureStream} for all of its subscribers while anyone subscribes with
+ * {@link #subscribeFeatures}. The stream is one of those direct consumers: the capture thread pushes
+ * each chunk into it straight from the capture buffer.
+ */
+public final class AudioCaptureHub {
+    private static final String TAG = "AudioCaptureHub";
+
+    public static final int SAMPLE_RATE = 16000;
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int RING_CAPACITY_SAMPLES = SAMPLE_RATE * 5; // 5 seconds of history
+    private static final long DELIVERY_TIMEOUT_MS = 200;
+    private static final int FEATURE_HISTORY_FRAMES = RING_CAPACITY_SAMPLES / FeatureStream.HOP_SIZE;
+
+    private static final DirectChunkListener[] NO_DIRECT_LISTENERS = new DirectChunkListener[0];
+
+    private static volatile AudioCaptureHub instance;
+
+    private final PcmRingBuffer ring = new PcmRingBuffer(RING_CAPACITY_SAMPLES);
+    private final FeatureStream featureStream = new FeatureStream(FEATURE_HISTORY_FRAMES);
+
+    private int subscriberCount = 0;
+    private int audioSource = MediaRecorder.AudioSource.VOICE_RECOGNITION;
+    private volatile CaptureRun capture;
+
+    // Pushes capture chunks into the feature stream while features are subscribed
+    private int featureSubscriberCount = 0;
+    private Subscription featureFeed;
+
+    // Copy-on-write, so the capture thread iterates without locking or allocation
+    private volatile DirectChunkListener[] directListeners = NO_DIRECT_LISTENERS;
+
+    public static AudioCaptureHub getInstance() {
+        if (instance == null) {
+            synchronized (AudioCaptureHub.class) {
+                if (instance == null) {
+                    instance = new AudioCaptureHub();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private AudioCaptureHub() {
+    }
+
+    /**
+     * Audio format a subscriber wants to receive.
+     */
+    public static final class Format {
+        public static final Format DEFAULT = new Format(SAMPLE_RATE, 1024);
+
+        final int sampleRate;
+        final int frameSize;
+        final int audioSource;
+
+        public Format(int sampleRate, int frameSize) {
+            this(sampleRate, frameSize, MediaRecorder.AudioSource.VOICE_RECOGNITION);
+        }
+
+        /**
+         * @param sampleRate Must divide the capture rate of {@value AudioCaptureHub#SAMPLE_RATE} Hz
+         * @param frameSize Number of samples handed to a {@link FrameListener} per call
+         * @param audioSource Preferred {@link MediaRecorder.AudioSource}
+         */
+        public Format(int sampleRate, int frameSize, int audioSource) {
+            if (sampleRate <= 0 || SAMPLE_RATE % sampleRate != 0) {
+                throw new IllegalArgumentException("Sample rate must divide " + SAMPLE_RATE + ": " + sampleRate);
+            }
+            if (frameSize <= 0) {
+                throw new IllegalArgumentException("Frame size must be positive");
+            }
+            this.sampleRate = sampleRate;
+            this.frameSize = frameSize;
+            this.audioSource = audioSource;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+    }
+
+    /**
+     * Receives frames on the subscription's own delivery thread, never on the capture thread.
+     * {@code frame} is reused for the next frame and may be longer than {@code length}.
+     */
+    public interface FrameListener {
+        void onFrame(short[] frame, int length);
+    }
+
+    /**
+     * Sees every captured chunk in place, on the capture thread.
+     *
+     * {@code pcm} is a direct buffer of 16-bit samples in native byte order, starting at index 0. It
+     * is reused for the next chunk as soon as the call returns, so listeners must consume it right
+     * away and never block; slower consumers belong on a {@link FrameListener}.
+     */
+    public interface DirectChunkListener {
+        void onChunk(ByteBuffer pcm, int samples);
+    }
+
+    /**
+     * Ring every subscription reads from; exposed for components that look back at recent audio.
+     */
+    public PcmRingBuffer getRing() {
+        return ring;
+    }
+
+    /**
+     * Features of the captured audio. Its history can be read at any time, but only advances while
+     * someone holds a subscription from {@link #subscribeFeatures}.
+     */
+    public FeatureStream getFeatureStream() {
+        return featureStream;
+    }
+
+    public boolean isCapturing() {
+        CaptureRun run = capture;
+        return run != null && !run.stopped;
+    }
+
+    /**
+     * Subscribes for pull-style reads through {@link Subscription#read}.
+     *
+     * @throws IllegalStateException if the microphone could not be opened; the next subscription
+     *                               tries again
+     */
+    public Subscription subscribe(Format format) {
+        PcmRingBuffer.Cursor cursor = ring.newCursor();
+        try {
+            acquire(format);
+        } catch (IllegalStateException e) {
+            cursor.close();
+            throw e;
+        }
+        return new Subscription(format, cursor);
+    }
+
+    /**
+     * Subscribes and pushes frames of {@link Format#getFrameSize()} samples to {@code listener}.
+     */
+    public Subscription subscribe(Format format, FrameListener listener) {
+        Subscription subscription = subscribe(format);
+        subscription.startDelivery(listener);
+        return subscription;
+    }
+
+    /**
+     * Subscribes {@code listener} to the captured chunks at the capture rate.
+     */
+    public Subscription subscribeDirect(DirectChunkListener listener) {
+        Subscription subscription = subscribe(Format.DEFAULT);
+        subscription.directListener = listener;
+        synchronized (this) {
+            DirectChunkListener[] current = directListeners;
+            DirectChunkListener[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = listener;
+            directListeners = next;
+        }
+        return subscription;
+    }
+
+    /**
+     * Keeps features computed, for components that read the {@link FeatureStream} history.
+     */
+    public Subscription subscribeFeatures() {
+        return subscribeFeatures(null);
+    }
+
+    /**
+     * Subscribes {@code listener}, if not null, to the features of every frame, delivered on the
+     * capture thread; like a {@link DirectChunkListener} it must return quickly and never block.
+     */
+    public Subscription subscribeFeatures(FeatureStream.FrameListener listener) {
+        Subscription subscription = subscribe(Format.DEFAULT);
+        try {
+            acquireFeatures();
+        } catch (IllegalStateException e) {
+            subscription.close();
+            throw e;
+        }
+        subscription.featureSubscriber = true;
+        if (listener != null) {
+            FeatureStream.FrameListener guarded = (features, offset, endPosition) -> {
+                try {
+                    listener.onFrame(features, offset, endPosition);
+                } catch (RuntimeException e) {
+                    // One failing consumer must not stop features for the others
+                    Log.e(TAG, "Feature listener failed", e);
+                }
+            };
+            subscription.featureListener = guarded;
+            featureStream.addListener(guarded);
+        }
+        return subscription;
+    }
+
+    private synchronized void acquireFeatures() {
+        if (featureSubscriberCount == 0) {
+            // Only the capture thread writes the ring, so its write sequence is where the chunk ends
+            featureFeed = subscribeDirect((pcm, samples) -> featureStream.process(pcm, 0, samples,
+                FeatureStream.ENCODING_PCM_16BIT, ring.getWriteSequence()));
+        }
+        featureSubscriberCount++;
+    }
+
+    private synchronized void releaseFeatures() {
+        if (featureSubscriberCount == 0) {
+            return;
+        }
+        featureSubscriberCount--;
+        if (featureSubscriberCount == 0) {
+            featureFeed.close();
+            featureFeed = null;
+        }
+    }
+
+    private synchronized void removeDirectListener(DirectChunkListener listener) {
+        DirectChunkListener[] current = directListeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                DirectChunkListener[] next = new DirectChunkListener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                directListeners = next.length == 0 ? NO_DIRECT_LISTENERS : next;
+                return;
+            }
+        }
+    }
+
+    private synchronized void acquire(Format format) {
+        subscriberCount++;
+
+        // Voice recognition tuning wins over the raw mic if anyone asks for it
+        boolean sourceChanged = subscriberCount > 1
+            && format.audioSource == MediaRecorder.AudioSource.VOICE_RECOGNITION
+            && audioSource != MediaRecorder.AudioSource.VOICE_RECOGNITION;
+        if (subscriberCount == 1 || sourceChanged) {
+            audioSource = format.audioSource;
+        }
+        if (sourceChanged || !isCapturing()) {
+            // Also restarts a capture that failed to start or died on a read error
+            stopCapture();
+            if (!startCapture()) {
+                subscriberCount--;
+                throw new IllegalStateException("Could not open the microphone (source " + audioSource + ")");
+            }
+        }
+    }
+
+    private synchronized void release() {
+        if (subscriberCount == 0) {
+            return;
+        }
+        subscriberCount--;
+        if (subscriberCount == 0) {
+            stopCapture();
+        }
+    }
+
+    private boolean startCapture() {
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
+        AudioRecord record;
+        try {
+            record = new AudioRecord(audioSource, SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, minBufferSize * 2);
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating AudioRecord", e);
+            return false;
+        }
+
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "AudioRecord initialization failed");
+            record.release();
+            return false;
+        }
+
+        CaptureRun previous = capture;
+        CaptureRun run = new CaptureRun(record, minBufferSize / 2, previous != null ? previous.thread : null);
+        capture = run;
+        run.thread.start();
+
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Capture started (source " + audioSource + ")"); }
+
+        return true;
+    }
+
+    private void stopCapture() {
+        CaptureRun run = capture;
+        if (run == null || run.stopped && !run.thread.isAlive()) {
+            capture = null;
+            return;
+        }
+        run.stop();
+        try {
+            run.thread.join(DELIVERY_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // A thread that outlives the join stays in the field, so the next run waits for it to exit
+        if (!run.thread.isAlive()) {
+            capture = null;
+        }
+
+        if (BuildConfig.DEBUG) { Log.d(TAG, "Capture stopped"); }
+
+    }
+
+    /**
+     * One AudioRecord and the thread reading it. Each run has its own stop flag, and a run waits for
+     * the thread before it to exit, so the ring never has two writers even if a stopped thread is
+     * slow to notice.
+     */
+    private final class CaptureRun implements Runnable {
+        private final AudioRecord record;
+        private final int chunkSamples;
+        private final Thread previous;
+        final Thread thread;
+        volatile boolean stopped = false;
+        private boolean released = false;
+
+        CaptureRun(AudioRecord record, int chunkSamples, Thread previous) {
+            this.record = record;
+            this.chunkSamples = chunkSamples;
+            this.previous = previous;
+            this.thread = new Thread(this, "AudioCaptureHub");
+            thread.setPriority(Thread.MAX_PRIORITY);
+        }
+
+        /**
+         * Stops the thread; stopping the record also returns a read that is blocked on it.
+         */
+        void stop() {
+            stopped = true;
+            synchronized (this) {
+                if (!released) {
+                    try {
+                        record.stop();
+                    } catch (IllegalStateException e) {
+                        Log.e(TAG, "Error stopping AudioRecord", e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            // AudioRecord fills the direct buffer itself; the ring and direct listeners read it in place
+            ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSamples * 2).order(ByteOrder.nativeOrder());
+            ShortBuffer samples = chunk.asShortBuffer();
+            try {
+                if (previous != null) {
+                    previous.join();
+                }
+                if (!stopped) {
+                    record.startRecording();
+                }
+                while (!stopped) {
+                    int read = record.read(chunk, chunk.capacity());
+                    if (read > 0 && !stopped) {
+                        int count = read / 2;
+                        samples.clear();
+                        samples.limit(count);
+                        ring.write(samples);
+
+                        DirectChunkListener[] listeners = directListeners;
+                        for (int i = 0; i < listeners.length; i++) {
+                            try {
+                                listeners[i].onChunk(chunk, count);
+                            } catch (RuntimeException e) {
+                                // One failing consumer must not stop capture for the others
+                                Log.e(TAG, "Direct listener failed", e);
+                            }
+                        }
+                    } else if (read < 0) {
+                        Log.w(TAG, "AudioRecord read returned: " + read);
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error in capture loop", e);
+            } finally {
+                // The next subscription restarts capture if it ended on an error
+                stopped = true;
+                synchronized (this) {
+                    try {
+                        record.stop();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error stopping AudioRecord", e);
+                    }
+                    record.release();
+                    released = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A component's handle on the shared capture stream. Closing it releases its reference on the
+     * underlying AudioRecord.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Format format;
+        private final PcmRingBuffer.Cursor cursor;
+        private final int decimation;
+        private final short[] scratch;
+        private int scratchFill = 0; // Capture-rate samples left over from the last decimated read
+        private DirectChunkListener directListener;
+        private FeatureStream.FrameListener featureListener;
+        private boolean featureSubscriber;
+        private volatile boolean open = true;
+        private volatile Thread deliveryThread;
+
+        private Subscription(Format format, PcmRingBuffer.Cursor cursor) {
+            this.format = format;
+            this.cursor = cursor;
+            this.decimation = SAMPLE_RATE / format.sampleRate;
+            this.scratch = decimation > 1 ? new short[format.frameSize * decimation] : null;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        /**
+         * Sequence number (at the capture rate) of the next sample this subscription will return.
+         */
+        public long position() {
+            return cursor.position() - scratchFill;
+        }
+
+        /**
+         * Reads up to {@code length} samples in the subscription's format, blocking up to the timeout.
+         *
+         * @return Number of samples read, 0 on timeout
+         */
+        public int read(short[] dst, int offset, int length, long timeout, TimeUnit unit) {
+            if (decimation == 1) {
+                return cursor.read(dst, offset, length, timeout, unit);
+            }
+
+            int wanted = Math.min(length, scratch.length / decimation) * decimation;
+            if (wanted == 0) {
+                return 0;
+            }
+            int read = scratchFill + cursor.readFully(scratch, scratchFill, wanted - scratchFill, timeout, unit);
+            int produced = read / decimation;
+            for (int i = 0; i < produced; i++) {
+                // Box-filter decimation: average each group of input samples
+                int sum = 0;
+                int base = i * decimation;
+                for (int j = 0; j < decimation; j++) {
+                    sum += scratch[base + j];
+                }
+                dst[offset + i] = (short) (sum / decimation);
+            }
+            // A timeout can end the read mid-group; keep the partial group for the next read
+            scratchFill = read - produced * decimation;
+            System.arraycopy(scratch, produced * decimation, scratch, 0, scratchFill);
+            return produced;
+        }
+
+        /**
+         * Fills {@code dst} completely unless the timeout elapses first.
+         */
+        public int readFully(short[] dst, int offset, int length, long timeout, TimeUnit unit) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int total = 0;
+            while (total < length && open) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                total += read(dst, offset + total, length - total, remaining, TimeUnit.NANOSECONDS);
+            }
+            return total;
+        }
+
+        private void startDelivery(FrameListener listener) {
+            deliveryThread = new Thread(() -> {
+                // Pooled, so subscribing again after each utterance reuses the last frame buffer
+                short[] frame = ArrayPool.getInstance().acquireShorts(format.frameSize);
+                try {
+                    // A timeout can end a read part-way through a frame; the next read finishes it
+                    int filled = 0;
+                    while (open) {
+                        filled += readFully(frame, filled, format.frameSize - filled, DELIVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        if (filled == format.frameSize && open) {
+                            listener.onFrame(frame, filled);
+                            filled = 0;
+                        }
+                    }
+                } finally {
+                    // This thread is about to exit, so its own cache would lose the frame
+                    ArrayPool.getInstance().releaseShared(frame);
+                }
+            }, "AudioCaptureHub-delivery");
+            deliveryThread.start();
+        }
+
+        /**
+         * Stops delivery and releases the subscription. A listener call still in progress gets up to
+         * the delivery timeout to return; no new one starts after this.
+         */
+        @Override
+        public void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (directListener != null) {
+                removeDirectListener(directListener);
+            }
+            if (featureListener != null) {
+                featureStream.removeListener(featureListener);
+            }
+            if (featureSubscriber) {
+                releaseFeatures();
+            }
+            // Closing the cursor also wakes a delivery thread blocked on it
+            cursor.close();
+            Thread delivery = deliveryThread;
+            if (delivery != null && delivery != Thread.currentThread()) {
+                try {
+                    delivery.join(DELIVERY_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (delivery.isAlive()) {
+                    Log.w(TAG, "Delivery thread still running after close");
+                }
+            }
+            release();
+        }
+    }
+}
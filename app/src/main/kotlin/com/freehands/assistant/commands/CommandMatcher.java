@@ -0,0 +1,98 @@
+package com.freehands.assistant.commands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the handler of a recognised voice command.
+ *
+ * A command whose first word has a handler goes to it. Any other command goes to the first
+ * contextual rule it satisfies: a rule is a list of word groups, and the command must contain one
+ * of the words of every group, anywhere and even inside another word, as in "what's the time".
+ *
+ * @param <H> Handler type
+ */
+public final class CommandMatcher<H> {
+
+    private final Map<String, H> firstWords = new HashMap<>();
+    private final List<Rule<H>> rules = new ArrayList<>();
+
+    /**
+     * Sends commands starting with {@code word} to {@code handler}.
+     */
+    public void put(String word, H handler) {
+        firstWords.put(word, handler);
+    }
+
+    /**
+     * Adds a contextual rule, tried after the earlier ones.
+     *
+     * @param groups Words separated by '|', one of which the command must contain, for example
+     *               {@code "take", "photo|picture"}
+     */
+    public void addRule(H handler, String... groups) {
+        String[][] words = new String[groups.length][];
+        for (int g = 0; g < groups.length; g++) {
+            words[g] = groups[g].split("\\|");
+        }
+        rules.add(new Rule<>(words, handler));
+    }
+
+    /**
+     * Handler of a lower-case, trimmed command.
+     *
+     * @return The handler, or null if neither a first word nor a rule matches
+     */
+    public H match(String command) {
+        int end = 0;
+        while (end < command.length() && !isSpace(command.charAt(end))) {
+            end++;
+        }
+        H handler = firstWords.get(command.substring(0, end));
+        if (handler != null) {
+            return handler;
+        }
+
+        for (Rule<H> rule : rules) {
+            if (rule.matches(command)) {
+                return rule.handler;
+            }
+        }
+        return null;
+    }
+
+    // The characters of the regex \s, which splits the command into parameters
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static final class Rule<H> {
+        private final String[][] groups;
+        private final H handler;
+
+        Rule(String[][] groups, H handler) {
+            this.groups = groups;
+            this.handler = handler;
+        }
+
+        boolean matches(String command) {
+            for (String[] group : groups) {
+                if (!containsAny(command, group)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean containsAny(String command, String[] words) {
+            for (String word : words) {
+                if (command.contains(word)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -4,68 +4,168 @@ import android.media.AudioFormat
 import android.media.AudioRecord
 import android.media.MediaRecorder
 import android.util.Log
+import com.freehands.assistant.audio.ArrayPool
+import com.freehands.assistant.audio.MfccExtractor
+import com.freehands.assistant.audio.ParallelFrameExtractor
+import java.util.concurrent.ForkJoinPool
 import kotlin.math.*
 
 /**
  * Extracts audio features for voice recognition and analysis.
+ *
+ * MFCCs are computed by the native audio_processing library, one JNI call per buffer, or by the
+ * equivalent pure-Java [MfccExtractor], which agrees with it within [MfccExtractor.NATIVE_TOLERANCE].
+ * The Java engine is used when it is requested or when the native library is unavailable; [engine]
+ * tells which one is active. Long buffers can be split across [parallelPool] with
+ * [computeMfccFramesParallel], which [extractFeatures] does.
+ *
+ * @param requestedEngine Engine to use when both are available
+ * @param parallelPool Pool for [computeMfccFramesParallel]; by default one shared by all extractors
  */
-class AudioFeatureExtractor {
+class AudioFeatureExtractor @JvmOverloads constructor(
+    requestedEngine: MfccEngine = MfccEngine.NATIVE,
+    private val parallelPool: ForkJoinPool = sharedPool
+) {
     
     companion object {
         private const val TAG = "AudioFeatureExtractor"
+        private const val LIBRARY_NAME = "audio_processing"
         private const val SAMPLE_RATE = 16000 // 16kHz sample rate
         private const val WINDOW_SIZE = 1024 // FFT window size
         private const val HOP_SIZE = 512 // Hop size for FFT
-        private const val NUM_MFCC = 13 // Number of MFCC coefficients to extract
+        const val NUM_MFCC = 13 // Number of MFCC coefficients per frame
         private const val NUM_FILTERS = 26 // Number of Mel filters
-        private const val MIN_FREQ = 0.0f // Minimum frequency in Hz
-        private const val MAX_FREQ = SAMPLE_RATE / 2.0f // Maximum frequency (Nyquist)
+        
+        // The native library is optional; without it MFCCs are computed in Java
+        private val nativeLoaded: Boolean = try {
+            System.loadLibrary(LIBRARY_NAME)
+            true
+        } catch (e: UnsatisfiedLinkError) {
+            Log.w(TAG, "Native audio processing unavailable, using the Java implementation", e)
+            false
+        }
+        
+        @JvmStatic
+        private external fun nativeInit(
+            sampleRate: Int,
+            frameSize: Int,
+            hopSize: Int,
+            numFilters: Int,
+            numMfcc: Int
+        ): Long
+        
+        @JvmStatic
+        private external fun nativeRelease(handle: Long)
+        
+        @JvmStatic
+        private external fun nativeComputeMfccFrames(
+            handle: Long,
+            pcm: ShortArray,
+            offset: Int,
+            length: Int,
+            out: FloatArray
+        ): Int
+        
+        @JvmStatic
+        private external fun nativeGetStats(handle: Long, out: LongArray): Boolean
+        
+        // Length of the array filled by nativeGetStats
+        private const val NATIVE_STAT_COUNT = 5
+        
+        // About a second of frames; shorter buffers are not worth a task of their own
+        private const val PARALLEL_CHUNK_FRAMES = 32
+        
+        // Threads of the shared pool; more would mostly land on a phone's little cores
+        private const val MAX_PARALLELISM = 4
+        
+        private val sharedPool: ForkJoinPool by lazy {
+            ForkJoinPool(Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_PARALLELISM))
+        }
+        
+        /**
+         * Number of MFCC frames in [length] samples: every full window, one per hop.
+         */
+        @JvmStatic
+        fun frameCount(length: Int): Int {
+            return if (length < WINDOW_SIZE) 0 else (length - WINDOW_SIZE) / HOP_SIZE + 1
+        }
+    }
+    
+    // Native workspace (FFT plan, filter bank, DCT matrix and buffers), or 0 when the Java engine
+    // is requested or the library is not loaded
+    private val nativeHandle: Long = if (requestedEngine == MfccEngine.NATIVE && nativeLoaded) {
+        nativeInit(SAMPLE_RATE, WINDOW_SIZE, HOP_SIZE, NUM_FILTERS, NUM_MFCC)
+    } else {
+        0L
     }
     
-    // Pre-computed Mel filter banks
-    private val melFilterBank = createMelFilterBank()
+    /**
+     * Engine computing the MFCCs: [MfccEngine.NATIVE] only if it was requested and the native
+     * workspace could be created.
+     */
+    val engine: MfccEngine = if (nativeHandle != 0L) MfccEngine.NATIVE else MfccEngine.JAVA
     
-    // Pre-computed DCT matrix for MFCC
-    private val dctMatrix = createDctMatrix(NUM_MFCC, NUM_FILTERS)
+    // Java engine, also the fallback if a native call fails
+    private val javaExtractor = MfccExtractor(SAMPLE_RATE, WINDOW_SIZE, HOP_SIZE, NUM_FILTERS, NUM_MFCC, 0)
     
-    // Pre-computed Hamming window
-    private val hammingWindow = FloatArray(WINDOW_SIZE) {
-        0.54f - 0.46f * cos(2.0f * Math.PI.toFloat() * it / (WINDOW_SIZE - 1))
+    // One workspace per concurrently running chunk of computeMfccFramesParallel
+    private val parallelExtractor = lazy {
+        ParallelFrameExtractor(WINDOW_SIZE, HOP_SIZE, NUM_MFCC, PARALLEL_CHUNK_FRAMES, parallelPool) {
+            createWorkspace()
+        }
     }
     
+    /**
+     * Throughput of the last [computeMfccFrames] or [computeMfccFramesParallel] call
+     * in frames per second.
+     */
+    @Volatile
+    var framesPerSecond: Double = 0.0
+        private set
+    
     /**
      * Extracts audio features from the given audio data.
      * @param audioData The audio samples (16-bit PCM)
      * @param sampleRate The sample rate of the audio data
+     * @param parallel Whether buffers longer than about a second are split across the pool
      * @return A feature vector representing the audio
      */
-    fun extractFeatures(audioData: ShortArray, sampleRate: Int = SAMPLE_RATE): FloatArray {
-        // Convert to float and normalize to [-1, 1]
-        val floatSamples = audioData.map { it.toFloat() / 32768.0f }.toFloatArray()
-        
-        // Split into frames with 50% overlap
-        val frames = frameSignal(floatSamples, WINDOW_SIZE, HOP_SIZE)
-        
-        // Apply Hamming window to each frame
-        val windowedFrames = frames.map { frame ->
-            frame.mapIndexed { i, sample ->
-                sample * hammingWindow[i]
-            }.toFloatArray()
+    fun extractFeatures(audioData: ShortArray, sampleRate: Int = SAMPLE_RATE, parallel: Boolean = true): FloatArray {
+        // Compute MFCCs for every frame of the utterance at once
+        val frameCount = frameCount(audioData.size)
+        val pool = ArrayPool.getInstance()
+        val frames = pool.acquireFloats(frameCount * NUM_MFCC)
+        try {
+            if (parallel) {
+                computeMfccFramesParallel(audioData, 0, audioData.size, frames)
+            } else {
+                computeMfccFrames(audioData, 0, audioData.size, frames)
+            }
+            return featuresFromMfccs(frames, frameCount)
+        } finally {
+            pool.release(frames)
         }
-        
-        // Compute MFCCs for each frame
-        val mfccs = windowedFrames.map { frame ->
-            computeMfcc(frame, sampleRate)
+    }
+    
+    /**
+     * Builds the feature vector of [extractFeatures] from MFCCs computed elsewhere, such as by the
+     * capture hub's [com.freehands.assistant.audio.FeatureStream].
+     * @param mfccs [frameCount] frames of [NUM_MFCC] coefficients, frame after frame
+     * @return Each frame's coefficients followed by their deltas and delta-deltas
+     */
+    fun featuresFromMfccs(mfccs: FloatArray, frameCount: Int): FloatArray {
+        val frames = List(frameCount) { i ->
+            mfccs.copyOfRange(i * NUM_MFCC, (i + 1) * NUM_MFCC)
         }
         
         // Compute deltas and delta-deltas
-        val deltas = computeDeltas(mfccs)
+        val deltas = computeDeltas(frames)
         val deltaDeltas = computeDeltas(deltas)
         
         // Concatenate all features
         val features = mutableListOf<Float>()
-        for (i in mfccs.indices) {
-            features.addAll(mfccs[i].toList())
+        for (i in frames.indices) {
+            features.addAll(frames[i].toList())
             features.addAll(deltas[i].toList())
             features.addAll(deltaDeltas[i].toList())
         }
@@ -104,178 +204,135 @@ class AudioFeatureExtractor {
         }
     }
     
-    private fun frameSignal(
-        signal: FloatArray,
-        frameSize: Int,
-        hopSize: Int
-    ): List<FloatArray> {
-        val frames = mutableListOf<FloatArray>()
-        var position = 0
-        
-        while (position + frameSize <= signal.size) {
-            val frame = signal.copyOfRange(position, position + frameSize)
-            frames.add(frame)
-            position += hopSize
+    /**
+     * Computes the MFCCs of every full frame in [length] samples of 16-bit PCM starting at [offset],
+     * writing [NUM_MFCC] values per frame into [out], frame after frame.
+     *
+     * With the native library the whole buffer is processed in a single JNI call, without copying
+     * the samples or the result. The throughput is published in [framesPerSecond].
+     *
+     * @return Number of frames written, [frameCount] of [length]
+     * @throws IllegalArgumentException if the range is outside [pcm] or [out] is too small
+     */
+    @Synchronized
+    fun computeMfccFrames(pcm: ShortArray, offset: Int, length: Int, out: FloatArray): Int {
+        require(offset >= 0 && length >= 0 && offset + length <= pcm.size) {
+            "Range $offset+$length is outside the ${pcm.size} samples"
         }
-        
-        return frames
-    }
-    
-    private fun computeMfcc(frame: FloatArray, sampleRate: Int): FloatArray {
-        // Compute power spectrum
-        val fft = fft(frame)
-        val powerSpectrum = FloatArray(fft.size / 2) { i ->
-            val re = fft[2 * i]
-            val im = fft[2 * i + 1]
-            re * re + im * im
+        val frames = frameCount(length)
+        require(out.size >= frames * NUM_MFCC) {
+            "Output holds ${out.size / NUM_MFCC} frames, $frames needed"
         }
         
-        // Apply Mel filter bank
-        val melEnergies = FloatArray(NUM_FILTERS) { 0.0f }
-        
-        for (i in 0 until NUM_FILTERS) {
-            for (j in powerSpectrum.indices) {
-                melEnergies[i] += powerSpectrum[j] * melFilterBank[i][j]
-            }
-            // Log mel energies
-            melEnergies[i] = ln(max(1e-10f, melEnergies[i])).toFloat()
+        val start = System.nanoTime()
+        var written = if (nativeHandle != 0L) {
+            nativeComputeMfccFrames(nativeHandle, pcm, offset, length, out)
+        } else {
+            -1
         }
-        
-        // Apply DCT to get MFCCs
-        val mfcc = FloatArray(NUM_MFCC) { i ->
-            var sum = 0.0f
-            for (j in 0 until NUM_FILTERS) {
-                sum += dctMatrix[i][j] * melEnergies[j]
-            }
-            sum
+        if (written < 0) {
+            written = javaExtractor.computeFrames(pcm, offset, length, out, 0)
         }
-        
-        return mfcc
+        val elapsed = System.nanoTime() - start
+        if (written > 0 && elapsed > 0) {
+            framesPerSecond = written * 1e9 / elapsed
+        }
+        return written
     }
     
-    private fun fft(input: FloatArray): FloatArray {
-        val n = input.size
-        
-        // Check if input is a power of 2
-        if ((n and (n - 1)) != 0) {
-            throw IllegalArgumentException("Input size must be a power of 2")
+    /**
+     * Computes the same frames as [computeMfccFrames], bit for bit, with chunks of about a second
+     * running on [parallelPool]. Each chunk gets the samples of its own frames, overlapping the next
+     * chunk by a window less a hop, and a workspace of the same engine for its thread alone; the
+     * extra workspaces are created on first use. Buffers of a chunk or less run on the calling
+     * thread.
+     *
+     * Unlike [computeMfccFrames] this may run concurrently with other calls. Its frames are not
+     * counted in [getNativeStats], which covers the serial workspace.
+     *
+     * @return Number of frames written, [frameCount] of [length]
+     * @throws IllegalArgumentException if the range is outside [pcm] or [out] is too small
+     */
+    fun computeMfccFramesParallel(pcm: ShortArray, offset: Int, length: Int, out: FloatArray): Int {
+        require(offset >= 0 && length >= 0 && offset + length <= pcm.size) {
+            "Range $offset+$length is outside the ${pcm.size} samples"
         }
-        
-        // Bit-reversal permutation
-        val rev = IntArray(n)
-        var j = 0
-        
-        for (i in 0 until n) {
-            rev[i] = j
-            var k = n shr 1
-            while (j >= k) {
-                j -= k
-                k = k shr 1
-            }
-            j += k
+        val frames = frameCount(length)
+        require(out.size >= frames * NUM_MFCC) {
+            "Output holds ${out.size / NUM_MFCC} frames, $frames needed"
         }
         
-        // Copy with bit-reversed indices
-        val output = FloatArray(2 * n)
-        for (i in 0 until n) {
-            output[2 * i] = input[rev[i]]
-            output[2 * i + 1] = 0f
+        val start = System.nanoTime()
+        val written = parallelExtractor.value.computeFrames(pcm, offset, length, out, 0)
+        val elapsed = System.nanoTime() - start
+        if (written > 0 && elapsed > 0) {
+            framesPerSecond = written * 1e9 / elapsed
         }
-        
-        // Cooley-Tukey FFT
-        for (s in 1..log2(n)) {
-            val m = 1 shl s
-            val m2 = m / 2
-            
-            // Precompute twiddle factors
-            val wRe = cos(-2.0 * Math.PI / m).toFloat()
-            val wIm = sin(-2.0 * Math.PI / m).toFloat()
-            
-            for (k in 0 until n step m) {
-                var wReCurrent = 1.0f
-                var wImCurrent = 0.0f
-                
-                for (j in 0 until m2) {
-                    val tRe = wReCurrent * output[2 * (k + j + m2)] - 
-                             wImCurrent * output[2 * (k + j + m2) + 1]
-                    val tIm = wReCurrent * output[2 * (k + j + m2) + 1] + 
-                             wImCurrent * output[2 * (k + j + m2)]
-                    
-                    val uRe = output[2 * (k + j)]
-                    val uIm = output[2 * (k + j) + 1]
-                    
-                    // Butterfly operation
-                    output[2 * (k + j)] = uRe + tRe
-                    output[2 * (k + j) + 1] = uIm + tIm
-                    output[2 * (k + j + m2)] = uRe - tRe
-                    output[2 * (k + j + m2) + 1] = uIm - tIm
-                    
-                    // Update twiddle factors
-                    val newWRe = wReCurrent * wRe - wImCurrent * wIm
-                    val newWIm = wReCurrent * wIm + wImCurrent * wRe
-                    wReCurrent = newWRe
-                    wImCurrent = newWIm
-                }
+        return written
+    }
+    
+    private fun createWorkspace(): ParallelFrameExtractor.Workspace {
+        if (engine == MfccEngine.NATIVE) {
+            val handle = nativeInit(SAMPLE_RATE, WINDOW_SIZE, HOP_SIZE, NUM_FILTERS, NUM_MFCC)
+            if (handle != 0L) {
+                return NativeWorkspace(handle)
             }
         }
-        
-        return output
+        val extractor = MfccExtractor(SAMPLE_RATE, WINDOW_SIZE, HOP_SIZE, NUM_FILTERS, NUM_MFCC, 0)
+        return ParallelFrameExtractor.Workspace(extractor::computeFrames)
     }
     
-    private fun createMelFilterBank(): Array<FloatArray> {
-        val melMin = hzToMel(MIN_FREQ)
-        val melMax = hzToMel(MAX_FREQ)
-        
-        // Create Mel-spaced frequencies
-        val melPoints = FloatArray(NUM_FILTERS + 2) { i ->
-            melMin + i * (melMax - melMin) / (NUM_FILTERS + 1)
-        }
-        
-        // Convert Mel frequencies back to Hz
-        val binPoints = melPoints.map { melToHz(it) }
-        
-        // Create filter bank
-        val filterBank = Array(NUM_FILTERS) { FloatArray(WINDOW_SIZE / 2) }
-        val fftFreqs = FloatArray(WINDOW_SIZE / 2) { i ->
-            i * SAMPLE_RATE.toFloat() / WINDOW_SIZE
+    /**
+     * A native workspace for one thread of [computeMfccFramesParallel]. The native call writes from
+     * index 0 of the array it pins, so frames go through a scratch array of the workspace's own
+     * rather than several threads pinning the shared output at once.
+     */
+    private class NativeWorkspace(private val handle: Long) : ParallelFrameExtractor.Workspace {
+        private var scratch = FloatArray(PARALLEL_CHUNK_FRAMES * NUM_MFCC)
+        private val fallback by lazy {
+            MfccExtractor(SAMPLE_RATE, WINDOW_SIZE, HOP_SIZE, NUM_FILTERS, NUM_MFCC, 0)
         }
         
-        for (i in 0 until NUM_FILTERS) {
-            val left = binPoints[i]
-            val center = binPoints[i + 1]
-            val right = binPoints[i + 2]
-            
-            for (j in fftFreqs.indices) {
-                val freq = fftFreqs[j]
-                
-                if (freq <= left || freq >= right) {
-                    filterBank[i][j] = 0.0f
-                } else if (freq <= center) {
-                    filterBank[i][j] = (freq - left) / (center - left)
-                } else {
-                    filterBank[i][j] = (right - freq) / (right - center)
-                }
+        override fun computeFrames(pcm: ShortArray, offset: Int, length: Int, out: FloatArray, outOffset: Int): Int {
+            val values = frameCount(length) * NUM_MFCC
+            if (scratch.size < values) {
+                scratch = FloatArray(values)
+            }
+            val written = nativeComputeMfccFrames(handle, pcm, offset, length, scratch)
+            if (written < 0) {
+                return fallback.computeFrames(pcm, offset, length, out, outOffset)
             }
+            System.arraycopy(scratch, 0, out, outOffset, written * NUM_MFCC)
+            return written
         }
         
-        return filterBank
-    }
-    
-    private fun createDctMatrix(numFilters: Int, numCepstra: Int): Array<FloatArray> {
-        return Array(numCepstra) { i ->
-            FloatArray(numFilters) { j ->
-                sqrt(2.0f / numFilters) * 
-                cos(Math.PI * i * (2 * j + 1) / (2.0f * numFilters)).toFloat()
-            }
+        override fun close() {
+            nativeRelease(handle)
         }
     }
     
-    private fun hzToMel(hz: Float): Float {
-        return 2595.0f * log10(1.0f + hz / 700.0f)
+    /**
+     * Counters of the native workspace, or null when MFCCs are computed in Java.
+     */
+    @Synchronized
+    fun getNativeStats(): MfccNativeStats? {
+        if (nativeHandle == 0L) {
+            return null
+        }
+        val stats = LongArray(NATIVE_STAT_COUNT)
+        if (!nativeGetStats(nativeHandle, stats)) {
+            return null
+        }
+        return MfccNativeStats(stats[0], stats[1], stats[2], stats[3], stats[4])
     }
     
-    private fun melToHz(mel: Float): Float {
-        return 700.0f * (exp(mel / 1127.0f) - 1.0f)
+    protected fun finalize() {
+        if (nativeHandle != 0L) {
+            nativeRelease(nativeHandle)
+        }
+        if (parallelExtractor.isInitialized()) {
+            parallelExtractor.value.close()
+        }
     }
     
     private fun computeDeltas(features: List<FloatArray>): List<FloatArray> {
@@ -304,12 +361,31 @@ class AudioFeatureExtractor {
         
         return deltas
     }
+}
+
+/**
+ * MFCC implementations an [AudioFeatureExtractor] can use.
+ */
+enum class MfccEngine {
+    /** The native audio_processing library, with SIMD kernels for the device's CPU. */
+    NATIVE,
     
-    private fun log2(n: Int): Int {
-        return 31 - Integer.numberOfLeadingZeros(n)
-    }
-    
-    private fun log10(x: Float): Float {
-        return (ln(x.toDouble()) / ln(10.0)).toFloat()
-    }
+    /** [MfccExtractor], which needs no native code. */
+    JAVA
+}
+
+/**
+ * Counters of [AudioFeatureExtractor]'s native workspace. The workspace allocates all of its memory
+ * when the extractor is created, so computing frames adds no heap allocations.
+ */
+data class MfccNativeStats(
+    val calls: Long,
+    val frames: Long,
+    val computeNanos: Long,
+    val maxCallNanos: Long,
+    val allocatedBytes: Long
+) {
+    /** Average native throughput since the extractor was created. */
+    val framesPerSecond: Double
+        get() = if (computeNanos > 0) frames * 1e9 / computeNanos else 0.0
 }
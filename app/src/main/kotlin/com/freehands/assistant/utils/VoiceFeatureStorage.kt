@@ -1,8 +1,13 @@
 package com.freehands.assistant.utils
 
 import android.content.Context
+import android.util.Base64
 import android.util.Log
+import androidx.core.util.AtomicFile
+import com.freehands.assistant.SecurityManager
+import com.freehands.assistant.audio.FeatureFile
 import com.google.gson.Gson
+import com.google.gson.JsonObject
 import com.google.gson.reflect.TypeToken
 import java.io.*
 import javax.inject.Inject
@@ -39,20 +44,13 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun saveProfile(userId: String, features: FloatArray): Boolean {
         return try {
-            // Encrypt the features before saving
-            val featuresJson = gson.toJson(features.toList())
-            val encryptedData = securityManager.encrypt(featuresJson)
-            
-            // Save to a file with restricted permissions
-            val profileFile = File(profilesDir, "${userId}.json")
-            profileFile.writeText(encryptedData)
-            
-            // Set file permissions to private
-            profileFile.setReadable(false, false)
-            profileFile.setReadable(true, true)
-            profileFile.setWritable(false, false)
-            profileFile.setWritable(true, true)
+            // Encrypt the features as one binary matrix
+            val file = FeatureFile("features", System.currentTimeMillis())
+            file.put(FEATURES, FeatureFile.FLOAT32, 1, features.size, features)
+            writeAtomically(profileFile(userId), file.encrypt(securityManager.dataKey))
             
+            // A profile saved before the binary format is replaced
+            File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION").delete()
             true
         } catch (e: Exception) {
             Log.e("VoiceFeatureStorage", "Error saving voice profile", e)
@@ -67,17 +65,12 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun loadProfile(userId: String): FloatArray? {
         return try {
-            val profileFile = File(profilesDir, "${userId}.json")
-            if (!profileFile.exists()) return null
-            
-            // Read and decrypt the features
-            val encryptedData = profileFile.readText()
-            val featuresJson = securityManager.decrypt(encryptedData) ?: return null
+            val profileFile = profileFile(userId)
+            if (!profileFile.exists()) return migrateLegacyProfile(userId)
             
-            // Parse the JSON array back to FloatArray
-            val listType = object : TypeToken<List<Float>>() {}.type
-            val floatList: List<Float> = gson.fromJson(featuresJson, listType)
-            floatList.toFloatArray()
+            // One read and one decryption, straight into a float array
+            val file = FeatureFile.decrypt(AtomicFile(profileFile).readFully(), securityManager.dataKey)
+            file.get(FEATURES)?.values
             
         } catch (e: Exception) {
             Log.e("VoiceFeatureStorage", "Error loading voice profile", e)
@@ -85,6 +78,25 @@ class VoiceFeatureStorage @Inject constructor(
         }
     }
     
+    /**
+     * Rewrites a profile saved as encrypted JSON in the binary format.
+     * @return The profile's features, or null if it has no JSON profile either
+     */
+    private fun migrateLegacyProfile(userId: String): FloatArray? {
+        val legacyFile = File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION")
+        if (!legacyFile.exists()) return null
+        
+        val featuresJson = securityManager.decrypt(legacyFile.readText()) ?: return null
+        val listType = object : TypeToken<List<Float>>() {}.type
+        val features = gson.fromJson<List<Float>>(featuresJson, listType).toFloatArray()
+        
+        // saveProfile removes the JSON file once the binary one is written
+        if (saveProfile(userId, features)) {
+            Log.i("VoiceFeatureStorage", "Migrated voice profile of $userId to the binary format")
+        }
+        return features
+    }
+    
     /**
      * Deletes a voice profile.
      * @param userId The user ID of the profile to delete
@@ -92,7 +104,10 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun deleteProfile(userId: String): Boolean {
         return try {
-            val profileFile = File(profilesDir, "${userId}.json")
+            // Left behind by versions that kept a speaker embedding per profile
+            File(profilesDir, "${userId}.$EMBEDDING_EXTENSION").delete()
+            File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION").delete()
+            val profileFile = profileFile(userId)
             if (profileFile.exists()) {
                 profileFile.delete()
             } else {
@@ -108,7 +123,7 @@ class VoiceFeatureStorage @Inject constructor(
      * Checks if a profile exists for the given user ID.
      */
     fun profileExists(userId: String): Boolean {
-        return File(profilesDir, "${userId}.json").exists()
+        return profileFile(userId).exists() || File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION").exists()
     }
     
     /**
@@ -116,8 +131,9 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun listProfiles(): List<String> {
         return profilesDir.listFiles()
-            ?.filter { it.extension == "json" }
-            ?.map { it.nameWithoutExtension } ?: emptyList()
+            ?.filter { it.extension == PROFILE_EXTENSION || it.extension == LEGACY_PROFILE_EXTENSION }
+            ?.map { it.nameWithoutExtension }
+            ?.distinct() ?: emptyList()
     }
     
     /**
@@ -127,13 +143,19 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun backupProfiles(outputStream: OutputStream): Boolean {
         return try {
-            val profiles = profilesDir.listFiles()
-                ?.filter { it.extension == "json" }
-                ?.associate { file ->
-                    file.nameWithoutExtension to file.readText()
-                } ?: emptyMap()
+            val files = profilesDir.listFiles() ?: emptyArray()
+            // Binary profiles as Base64, JSON profiles not yet migrated as the text they hold
+            val profiles = files
+                .filter { it.extension == PROFILE_EXTENSION || it.extension == LEGACY_PROFILE_EXTENSION }
+                .associate { file ->
+                    file.nameWithoutExtension to if (file.extension == PROFILE_EXTENSION) {
+                        Base64.encodeToString(file.readBytes(), Base64.NO_WRAP)
+                    } else {
+                        file.readText()
+                    }
+                }
             
-            val backupData = gson.toJson(profiles)
+            val backupData = gson.toJson(Backup(BACKUP_VERSION, profiles))
             outputStream.bufferedWriter().use { writer ->
                 writer.write(backupData)
             }
@@ -145,29 +167,35 @@ class VoiceFeatureStorage @Inject constructor(
     }
     
     /**
-     * Restores voice profiles from a backup input stream.
+     * Restores voice profiles from a backup input stream, replacing every stored profile.
      * @param inputStream The input stream to read the backup from
      * @return true if successful, false otherwise
      */
     fun restoreProfiles(inputStream: InputStream): Boolean {
         return try {
             val backupData = inputStream.bufferedReader().use { it.readText() }
-            val type = object : TypeToken<Map<String, String>>() {}.type
-            val profiles = gson.fromJson<Map<String, String>>(backupData, type)
+            val json = gson.fromJson(backupData, JsonObject::class.java)
+            // Version 1 backups are a plain map of profiles, all strings; the speaker embeddings some
+            // version 2 backups hold are no longer used and are left out
+            val version = json.get("version")
+            val backup = if (version != null && version.isJsonPrimitive && version.asJsonPrimitive.isNumber) {
+                gson.fromJson(json, Backup::class.java)
+            } else {
+                val type = object : TypeToken<Map<String, String>>() {}.type
+                Backup(1, gson.fromJson<Map<String, String>>(json, type))
+            }
             
             // Clear existing profiles
             profilesDir.listFiles()?.forEach { it.delete() }
             
-            // Restore profiles
-            profiles.forEach { (userId, encryptedData) ->
-                val profileFile = File(profilesDir, "${userId}.json")
-                profileFile.writeText(encryptedData)
-                
-                // Set file permissions to private
-                profileFile.setReadable(false, false)
-                profileFile.setReadable(true, true)
-                profileFile.setWritable(false, false)
-                profileFile.setWritable(true, true)
+            // Restore profiles; JSON ones from older backups are migrated when first loaded
+            backup.profiles.forEach { (userId, data) ->
+                val bytes = Base64.decode(data, Base64.NO_WRAP)
+                if (FeatureFile.isFeatureFile(bytes)) {
+                    writeAtomically(profileFile(userId), bytes)
+                } else {
+                    writeAtomically(File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION"), data.toByteArray())
+                }
             }
             
             true
@@ -184,7 +212,9 @@ class VoiceFeatureStorage @Inject constructor(
      */
     fun exportProfile(userId: String): File? {
         return try {
-            val profileFile = File(profilesDir, "${userId}.json")
+            // Exports are always in the binary format
+            if (!profileFile(userId).exists()) migrateLegacyProfile(userId)
+            val profileFile = profileFile(userId)
             if (!profileFile.exists()) return null
             
             // Create a temporary file for export
@@ -208,20 +238,19 @@ class VoiceFeatureStorage @Inject constructor(
             if (!importFile.exists()) return false
             
             // Read the imported data
-            val importedData = importFile.readText()
+            val importedData = importFile.readBytes()
             
             // Verify the data is valid by trying to decrypt it
-            val decrypted = securityManager.decrypt(importedData) ?: return false
-            
-            // Save the profile
-            val profileFile = File(profilesDir, "${userId}.json")
-            profileFile.writeText(importedData)
-            
-            // Set file permissions to private
-            profileFile.setReadable(false, false)
-            profileFile.setReadable(true, true)
-            profileFile.setWritable(false, false)
-            profileFile.setWritable(true, true)
+            if (FeatureFile.isFeatureFile(importedData)) {
+                FeatureFile.decrypt(importedData, securityManager.dataKey)
+                writeAtomically(profileFile(userId), importedData)
+                File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION").delete()
+            } else {
+                // An export from before the binary format, migrated when first loaded
+                securityManager.decrypt(String(importedData)) ?: return false
+                profileFile(userId).delete()
+                writeAtomically(File(profilesDir, "${userId}.$LEGACY_PROFILE_EXTENSION"), importedData)
+            }
             
             true
         } catch (e: Exception) {
@@ -229,4 +258,49 @@ class VoiceFeatureStorage @Inject constructor(
             false
         }
     }
+    
+    private fun profileFile(userId: String) = File(profilesDir, "${userId}.$PROFILE_EXTENSION")
+    
+    /**
+     * Replaces [file] with [data], so a crash mid-write leaves the previous contents, and makes it
+     * private to the app.
+     */
+    private fun writeAtomically(file: File, data: ByteArray) {
+        val atomicFile = AtomicFile(file)
+        val out = atomicFile.startWrite()
+        try {
+            out.write(data)
+            atomicFile.finishWrite(out)
+        } catch (e: IOException) {
+            atomicFile.failWrite(out)
+            throw e
+        }
+        
+        // Set file permissions to private
+        file.setReadable(false, false)
+        file.setReadable(true, true)
+        file.setWritable(false, false)
+        file.setWritable(true, true)
+    }
+    
+    /**
+     * Contents of a backup; each file as Base64, by user ID.
+     */
+    private data class Backup(
+        val version: Int,
+        val profiles: Map<String, String>
+    )
+    
+    companion object {
+        // 1 was a plain map of profiles
+        private const val BACKUP_VERSION = 2
+        private const val PROFILE_EXTENSION = "vp"
+        // Encrypted JSON, the format before FeatureFile
+        private const val LEGACY_PROFILE_EXTENSION = "json"
+        // Speaker embeddings, no longer kept
+        private const val EMBEDDING_EXTENSION = "emb"
+        
+        // Matrix name within a profile's file
+        private const val FEATURES = "features"
+    }
 }
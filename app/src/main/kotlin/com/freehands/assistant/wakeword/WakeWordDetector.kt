@@ -1,29 +1,43 @@
 package com.freehands.assistant.wakeword
 
 import android.content.Context
-import android.media.AudioFormat
-import android.media.AudioRecord
-import android.media.MediaRecorder
+import android.os.Debug
 import android.util.Log
 import com.freehands.assistant.asr.VoskConfig
 import com.freehands.assistant.asr.VoskManager
+import com.freehands.assistant.audio.capture.AudioCaptureHub
 import kotlinx.coroutines.*
 import org.json.JSONObject
 import org.vosk.Recognizer
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import com.freehands.assistant.WakeWordDetector as TemplateWakeWordDetector
 
 /**
  * WakeWordDetector uses Vosk for offline wake word detection
  * Listens for trigger phrases like "привет брат" to activate the assistant
+ *
+ * In [Mode.CONTINUOUS] every buffer goes through the Vosk grammar recognizer. In [Mode.CASCADE]
+ * the template matcher of [TemplateWakeWordDetector] screens the audio at a low threshold, and only
+ * its candidates are replayed from the capture ring into the same recognizer for confirmation.
  */
 class WakeWordDetector(
     private val context: Context,
-    private val voskManager: VoskManager
+    private val voskManager: VoskManager,
+    private val mode: Mode = Mode.CONTINUOUS
 ) {
+    enum class Mode { CONTINUOUS, CASCADE }
+    
     companion object {
         private const val TAG = "WakeWordDetector"
-        private const val SAMPLE_RATE = 16000
-        private const val CHANNEL = AudioFormat.CHANNEL_IN_MONO
-        private const val ENCODING = AudioFormat.ENCODING_PCM_16BIT
+        private const val READ_TIMEOUT_MS = 100L
+        
+        // Cascade mode
+        const val DEFAULT_SCREENING_THRESHOLD = 0.55f
+        private const val CANDIDATE_LOOKBACK_MS = 2000 // Audio before the candidate's end
+        private const val CANDIDATE_TAIL_MS = 300 // Audio after it, in case the matcher fired early
+        private const val UNKNOWN_WORD = "[unk]"
         
         // Wake words (can be configured)
         val WAKE_WORDS = listOf(
@@ -34,20 +48,44 @@ class WakeWordDetector(
         )
     }
     
-    private var audioRecord: AudioRecord? = null
+    private val captureHub = AudioCaptureHub.getInstance()
     private var recognizer: Recognizer? = null
     private var isListening = false
     private var detectionJob: Job? = null
     
     private var onWakeWordDetected: ((String) -> Unit)? = null
     
+    // Cascade state; the recognizer is only used by one confirmation at a time
+    private var screener: TemplateWakeWordDetector? = null
+    private val confirming = AtomicBoolean(false)
+    private val candidateBuffer =
+        ShortArray(AudioCaptureHub.SAMPLE_RATE * (CANDIDATE_LOOKBACK_MS + CANDIDATE_TAIL_MS) / 1000)
+    
+    @Volatile
+    var screeningThreshold = DEFAULT_SCREENING_THRESHOLD
+        set(value) {
+            field = value
+            screener?.setDetectionThreshold(value)
+        }
+    
+    /** How the cascade's first stage scores keywords; applied when listening starts. */
+    @Volatile
+    var screeningSpotter = TemplateWakeWordDetector.SpotterType.TEMPLATES
+    
+    // Statistics
+    private val decodedSamples = AtomicLong()
+    private val decoderCpuNanos = AtomicLong()
+    private val candidates = AtomicLong()
+    private val droppedCandidates = AtomicLong()
+    private val confirmedCandidates = AtomicLong()
+    
     /**
      * Initialize wake word detector
      */
     suspend fun initialize(): Boolean = withContext(Dispatchers.IO) {
         try {
             // Create recognizer with wake word grammar
-            val grammar = buildWakeWordGrammar()
+            val grammar = buildWakeWordGrammar(allowUnknown = mode == Mode.CASCADE)
             recognizer = voskManager.createRecognizerWithGrammar(grammar)
             
             if (recognizer == null) {
@@ -55,21 +93,7 @@ class WakeWordDetector(
                 return@withContext false
             }
             
-            // Initialize AudioRecord
-            val bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL, ENCODING)
-            audioRecord = AudioRecord(
-                MediaRecorder.AudioSource.VOICE_RECOGNITION,
-                SAMPLE_RATE,
-                CHANNEL,
-                ENCODING,
-                bufferSize * 2
-            )
-            
-            if (audioRecord?.state != AudioRecord.STATE_INITIALIZED) {
-                Log.e(TAG, "Failed to initialize AudioRecord")
-                return@withContext false
-            }
-            
+            // Audio comes from the shared capture hub once listening starts
             Log.i(TAG, "✓ Wake word detector initialized")
             return@withContext true
         } catch (e: Exception) {
@@ -80,9 +104,13 @@ class WakeWordDetector(
     
     /**
      * Build grammar JSON for wake words
+     *
+     * With [allowUnknown] the grammar also accepts "[unk]", so a candidate that is not a wake word
+     * decodes to that instead of being forced onto the closest phrase.
      */
-    private fun buildWakeWordGrammar(): String {
-        val wordsArray = WAKE_WORDS.joinToString("\", \"", "[\"", "\"]")
+    private fun buildWakeWordGrammar(allowUnknown: Boolean): String {
+        val words = if (allowUnknown) WAKE_WORDS + UNKNOWN_WORD else WAKE_WORDS
+        val wordsArray = words.joinToString("\", \"", "[\"", "\"]")
         return wordsArray
     }
     
@@ -98,50 +126,160 @@ class WakeWordDetector(
         onWakeWordDetected = onDetected
         isListening = true
         
-        detectionJob = CoroutineScope(Dispatchers.IO).launch {
+        detectionJob = when (mode) {
+            Mode.CONTINUOUS -> startContinuous()
+            Mode.CASCADE -> startCascade()
+        }
+    }
+    
+    /**
+     * Feeds every capture buffer to the grammar recognizer.
+     */
+    private fun startContinuous(): Job {
+        return CoroutineScope(Dispatchers.IO).launch {
+            val format = AudioCaptureHub.Format(AudioCaptureHub.SAMPLE_RATE, VoskConfig.BUFFER_SIZE)
+            val subscription = subscribeOrStop(format) ?: return@launch
             try {
-                audioRecord?.startRecording()
                 Log.d(TAG, "Started listening for wake word")
                 
                 val buffer = ShortArray(VoskConfig.BUFFER_SIZE)
                 
                 while (isActive && isListening) {
-                    val read = audioRecord?.read(buffer, 0, buffer.size) ?: 0
+                    val read = subscription.read(buffer, 0, buffer.size, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
                     
                     if (read > 0) {
-                        // Convert short array to byte array for Vosk
-                        val byteBuffer = ByteArray(read * 2)
-                        for (i in 0 until read) {
-                            byteBuffer[i * 2] = (buffer[i].toInt() and 0xFF).toByte()
-                            byteBuffer[i * 2 + 1] = ((buffer[i].toInt() shr 8) and 0xFF).toByte()
-                        }
-                        
                         // Feed audio to recognizer
-                        val isFinal = recognizer?.acceptWaveForm(byteBuffer, byteBuffer.size) ?: false
+                        val cpuStart = Debug.threadCpuTimeNanos()
+                        val isFinal = recognizer?.acceptWaveForm(buffer, read) ?: false
+                        val result = if (isFinal) recognizer?.result ?: "" else recognizer?.partialResult ?: ""
+                        decoderCpuNanos.addAndGet(Debug.threadCpuTimeNanos() - cpuStart)
+                        decodedSamples.addAndGet(read.toLong())
                         
                         if (isFinal) {
                             // Get recognition result
-                            val result = recognizer?.result ?: ""
                             processResult(result)
                         } else {
                             // Check partial result for early detection
-                            val partial = recognizer?.partialResult ?: ""
-                            processPartialResult(partial)
+                            processPartialResult(result)
                         }
                     }
-                    
-                    // Small delay to prevent CPU overuse
-                    delay(10)
                 }
             } catch (e: Exception) {
                 Log.e(TAG, "Error in wake word detection loop", e)
             } finally {
-                audioRecord?.stop()
+                subscription.close()
                 Log.d(TAG, "Stopped listening for wake word")
             }
         }
     }
     
+    /**
+     * Subscribes to the capture hub, or stops listening if the microphone cannot be opened.
+     */
+    private fun subscribeOrStop(format: AudioCaptureHub.Format): AudioCaptureHub.Subscription? {
+        return try {
+            captureHub.subscribe(format)
+        } catch (e: IllegalStateException) {
+            Log.e(TAG, "Cannot listen for wake word", e)
+            isListening = false
+            null
+        }
+    }
+    
+    /**
+     * Screens audio with the template matcher and confirms its candidates with the recognizer.
+     */
+    private fun startCascade(): Job {
+        return CoroutineScope(Dispatchers.IO).launch {
+            // The screener reads the capture ring and the shared feature stream directly; the
+            // subscription keeps the microphone open
+            val subscription = subscribeOrStop(AudioCaptureHub.Format.DEFAULT) ?: return@launch
+            val detector = TemplateWakeWordDetector.createScreener(context, WAKE_WORDS, captureHub)
+            detector.setSpotterType(screeningSpotter)
+            detector.setDetectionThreshold(screeningThreshold)
+            screener = detector
+            try {
+                Log.d(TAG, "Started cascade wake word screening")
+                
+                detector.start(object : TemplateWakeWordDetector.WakeWordCallback {
+                    override fun onWakeWordDetected(confidence: Float) {
+                    }
+                    
+                    override fun onWakeWordDetected(phrase: String, confidence: Float) {
+                        onCandidate(this@launch, phrase, confidence, detector.lastDetectionSequence)
+                    }
+                    
+                    override fun onError(error: String) {
+                        Log.e(TAG, "Wake word screening error: $error")
+                    }
+                })
+                awaitCancellation()
+            } finally {
+                detector.shutdown()
+                screener = null
+                subscription.close()
+                Log.d(TAG, "Stopped cascade wake word screening")
+            }
+        }
+    }
+    
+    /**
+     * Called on the screener's thread. Candidates that arrive while one is being confirmed are
+     * dropped, since the screener's refractory period makes them the same utterance.
+     */
+    private fun onCandidate(scope: CoroutineScope, phrase: String, confidence: Float, endSequence: Long) {
+        candidates.incrementAndGet()
+        if (!confirming.compareAndSet(false, true)) {
+            droppedCandidates.incrementAndGet()
+            return
+        }
+        Log.d(TAG, "Wake word candidate: $phrase ($confidence)")
+        
+        scope.launch {
+            try {
+                val text = replayCandidate(endSequence) ?: return@launch
+                val wakeWord = WAKE_WORDS.firstOrNull { text.contains(it.lowercase()) } ?: return@launch
+                confirmedCandidates.incrementAndGet()
+                withContext(Dispatchers.Main) {
+                    Log.i(TAG, "🎙️ Wake word confirmed: $wakeWord")
+                    onWakeWordDetected?.invoke(wakeWord)
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Error confirming wake word candidate", e)
+            } finally {
+                confirming.set(false)
+            }
+        }
+    }
+    
+    /**
+     * Decodes the audio around a candidate with the grammar recognizer and returns the recognized
+     * text, or null if nothing could be replayed. Blocks until the tail has been captured.
+     */
+    private fun replayCandidate(endSequence: Long): String? {
+        val recognizer = recognizer ?: return null
+        val ring = captureHub.ring
+        val lookback = AudioCaptureHub.SAMPLE_RATE.toLong() * CANDIDATE_LOOKBACK_MS / 1000
+        
+        ring.newCursor(endSequence - lookback).use { cursor ->
+            val read = cursor.readFully(
+                candidateBuffer, 0, candidateBuffer.size, CANDIDATE_TAIL_MS * 2L, TimeUnit.MILLISECONDS
+            )
+            if (read <= 0) {
+                return null
+            }
+            
+            val cpuStart = Debug.threadCpuTimeNanos()
+            recognizer.reset()
+            recognizer.acceptWaveForm(candidateBuffer, read)
+            val result = recognizer.finalResult
+            decoderCpuNanos.addAndGet(Debug.threadCpuTimeNanos() - cpuStart)
+            decodedSamples.addAndGet(read.toLong())
+            
+            return JSONObject(result).optString("text", "").lowercase().trim()
+        }
+    }
+    
     /**
      * Process final recognition result
      */
@@ -195,7 +333,6 @@ class WakeWordDetector(
     fun stopListening() {
         isListening = false
         detectionJob?.cancel()
-        audioRecord?.stop()
         Log.d(TAG, "Wake word detection stopped")
     }
     
@@ -204,6 +341,24 @@ class WakeWordDetector(
      */
     fun isListening(): Boolean = isListening
     
+    /**
+     * Snapshot of how much audio each stage let through and what it cost, for tuning
+     * [screeningThreshold]. In [Mode.CONTINUOUS] only the decoder figures are filled in.
+     */
+    fun getStats(): WakeWordCascadeStats {
+        val detector = screener
+        return WakeWordCascadeStats(
+            screenedFrames = detector?.processedFrameCount ?: 0,
+            speechFrames = detector?.scoredFrameCount ?: 0,
+            candidates = candidates.get(),
+            droppedCandidates = droppedCandidates.get(),
+            confirmedCandidates = confirmedCandidates.get(),
+            screeningCpuNanos = detector?.cpuTimeNanos ?: 0,
+            decodedSamples = decodedSamples.get(),
+            decoderCpuNanos = decoderCpuNanos.get()
+        )
+    }
+    
     /**
      * Add custom wake word
      */
@@ -224,13 +379,38 @@ class WakeWordDetector(
      */
     fun release() {
         stopListening()
-        audioRecord?.release()
-        audioRecord = null
         recognizer = null
         Log.d(TAG, "Resources released")
     }
 }
 
+/**
+ * Per-stage counters of the wake word cascade. Screening counts feature frames of the template
+ * matcher, and a frame only reaches the matcher when voice activity detection passes it.
+ */
+data class WakeWordCascadeStats(
+    val screenedFrames: Long,
+    val speechFrames: Long,
+    val candidates: Long,
+    val droppedCandidates: Long,
+    val confirmedCandidates: Long,
+    val screeningCpuNanos: Long,
+    val decodedSamples: Long,
+    val decoderCpuNanos: Long
+) {
+    /** Fraction of frames that passed voice activity detection. */
+    val vadPassRate: Float
+        get() = if (screenedFrames > 0) speechFrames.toFloat() / screenedFrames else 0f
+    
+    /** Candidates per scored speech frame. */
+    val screeningPassRate: Float
+        get() = if (speechFrames > 0) candidates.toFloat() / speechFrames else 0f
+    
+    /** Fraction of candidates the recognizer confirmed. */
+    val confirmationPassRate: Float
+        get() = if (candidates > 0) confirmedCandidates.toFloat() / candidates else 0f
+}
+
 /**
  * Wake word detection settings
  */
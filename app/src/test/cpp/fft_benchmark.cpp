@@ -0,0 +1,123 @@
+// Host benchmark for the planned real-input FFT against the legacy fft().
+//
+// Build and run from app/src/main/cpp without the NDK:
+//   cmake -S . -B build-host && cmake --build build-host && ./build-host/fft_benchmark
+//
+// For each size it checks both transforms against a direct DFT of the same real frame, then
+// reports the time per frame of fft(), FftPlan::forward_real and FftPlan::power_spectrum.
+
+#include "audio_processing.h"
+
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <random>
+#include <vector>
+
+namespace {
+
+double max_error_against_dft(const std::vector<float>& frame, const std::vector<float>& re,
+                             const std::vector<float>& im) {
+    int n = (int) frame.size();
+    double worst = 0.0;
+    for (int k = 0; k <= n / 2; k++) {
+        double sum_re = 0.0;
+        double sum_im = 0.0;
+        for (int t = 0; t < n; t++) {
+            double theta = -2.0 * M_PI * (double) k * t / n;
+            sum_re += frame[t] * cos(theta);
+            sum_im += frame[t] * sin(theta);
+        }
+        worst = std::max(worst, std::max(fabs(sum_re - re[k]), fabs(sum_im - im[k])));
+    }
+    return worst;
+}
+
+template <typename F>
+double nanos_per_call(F&& body, int iterations) {
+    for (int i = 0; i < iterations / 10; i++) {
+        body();
+    }
+    auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) {
+        body();
+    }
+    auto elapsed = std::chrono::steady_clock::now() - start;
+    return std::chrono::duration<double, std::nano>(elapsed).count() / iterations;
+}
+
+volatile float sink;
+
+}  // namespace
+
+int main() {
+    std::mt19937 random(7);
+    std::uniform_real_distribution<float> sample(-1.0f, 1.0f);
+    FftPlanCache plans;
+    int failures = 0;
+
+    printf("%6s %12s %12s %12s %12s %10s %10s\n", "n", "fft() ns", "real ns", "power ns", "speed-up",
+           "fft() err", "real err");
+
+    for (int n = 256; n <= 4096; n <<= 1) {
+        std::vector<float> frame(n);
+        for (float& x : frame) {
+            x = sample(random);
+        }
+
+        // fft() takes interleaved complex input and only reads the real parts
+        std::vector<float> interleaved(2 * n, 0.0f);
+        for (int i = 0; i < n; i++) {
+            interleaved[2 * i] = frame[i];
+        }
+        std::vector<float> legacy(2 * n);
+        fft(interleaved.data(), legacy.data(), n);
+
+        std::vector<float> legacy_re(n / 2 + 1);
+        std::vector<float> legacy_im(n / 2 + 1);
+        for (int k = 0; k <= n / 2; k++) {
+            legacy_re[k] = legacy[2 * k];
+            legacy_im[k] = legacy[2 * k + 1];
+        }
+
+        FftPlan& plan = plans.get(n);
+        std::vector<float> re(plan.bin_count());
+        std::vector<float> im(plan.bin_count());
+        std::vector<float> power(plan.bin_count());
+        plan.forward_real(frame.data(), re.data(), im.data());
+        plan.power_spectrum(frame.data(), power.data());
+
+        double legacy_error = max_error_against_dft(frame, legacy_re, legacy_im);
+        double plan_error = max_error_against_dft(frame, re, im);
+        double power_error = 0.0;
+        for (int k = 0; k <= n / 2; k++) {
+            double expected = (double) re[k] * re[k] + (double) im[k] * im[k];
+            power_error = std::max(power_error, fabs(expected - power[k]) / std::max(1.0, expected));
+        }
+        // Tolerance relative to the spectrum's scale, which grows as sqrt(n) for noise
+        double tolerance = 1e-4 * sqrt((double) n);
+        if (plan_error > tolerance || power_error > 1e-4) {
+            printf("n=%d: planned FFT differs from the DFT by %g (power %g)\n", n, plan_error, power_error);
+            failures++;
+        }
+
+        int iterations = (int) (4000000 / n);
+        double legacy_ns = nanos_per_call([&] {
+            fft(interleaved.data(), legacy.data(), n);
+            sink = legacy[2];
+        }, iterations);
+        double real_ns = nanos_per_call([&] {
+            plan.forward_real(frame.data(), re.data(), im.data());
+            sink = re[1];
+        }, iterations);
+        double power_ns = nanos_per_call([&] {
+            plan.power_spectrum(frame.data(), power.data());
+            sink = power[1];
+        }, iterations);
+
+        printf("%6d %12.0f %12.0f %12.0f %11.1fx %10.2g %10.2g\n", n, legacy_ns, real_ns, power_ns,
+               legacy_ns / real_ns, legacy_error, plan_error);
+    }
+
+    return failures == 0 ? 0 : 1;
+}
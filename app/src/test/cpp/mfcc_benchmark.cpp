@@ -0,0 +1,86 @@
+// Host benchmark for MfccWorkspace, the native MFCC path behind AudioFeatureExtractor.
+//
+// Build and run from app/src/main/cpp without the NDK:
+//   cmake -S . -B build-host && cmake --build build-host && ./build-host/mfcc_benchmark
+//
+// Counts heap allocations while frames are computed, which must stay at zero, and reports the
+// throughput in frames per second for a ten second utterance.
+
+#include "audio_processing.h"
+
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <new>
+#include <random>
+#include <vector>
+
+namespace {
+
+long allocation_count = 0;
+
+}  // namespace
+
+void* operator new(size_t size) {
+    allocation_count++;
+    void* p = malloc(size == 0 ? 1 : size);
+    if (p == nullptr) {
+        throw std::bad_alloc();
+    }
+    return p;
+}
+
+void operator delete(void* p) noexcept {
+    free(p);
+}
+
+void operator delete(void* p, size_t) noexcept {
+    free(p);
+}
+
+int main() {
+    const MfccConfig config;
+    const int length = 10 * config.sample_rate;
+
+    std::mt19937 random(3);
+    std::normal_distribution<float> noise(0.0f, 300.0f);
+    std::vector<int16_t> pcm(length);
+    for (int i = 0; i < length; i++) {
+        double t = (double) i / config.sample_rate;
+        double voiced = 8000.0 * sin(2 * M_PI * 220 * t) * (0.5 + 0.5 * sin(2 * M_PI * 3 * t));
+        pcm[i] = (int16_t) (voiced + 2000.0 * sin(2 * M_PI * 1800 * t) + noise(random));
+    }
+
+    FftPlanCache plans;
+    MfccWorkspace workspace(config, plans.get(config.frame_size));
+    std::vector<float> mfcc((size_t) workspace.frame_count(length) * config.num_mfcc);
+
+    long before = allocation_count;
+    int frames = workspace.compute_frames(pcm.data(), length, mfcc.data());
+    long allocations = allocation_count - before;
+
+    bool finite = true;
+    for (float value : mfcc) {
+        finite = finite && std::isfinite(value);
+    }
+
+    const int iterations = 50;
+    auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) {
+        workspace.compute_frames(pcm.data(), length, mfcc.data());
+    }
+    double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+
+    printf("workspace: %zu bytes\n", workspace.allocated_bytes());
+    printf("frames per 10 s utterance: %d\n", frames);
+    printf("heap allocations while computing: %ld\n", allocations);
+    printf("time per utterance: %.2f ms, %.0f frames/s\n", seconds * 1e3 / iterations,
+           frames * iterations / seconds);
+
+    if (allocations != 0 || !finite || frames != (length - config.frame_size) / config.hop_size + 1) {
+        printf("FAILED\n");
+        return 1;
+    }
+    return 0;
+}
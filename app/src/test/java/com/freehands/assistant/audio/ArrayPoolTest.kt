@@ -0,0 +1,175 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.concurrent.thread
+
+/**
+ * Size classes, thread-local and shared reuse, and the leak metrics of ArrayPool.
+ */
+class ArrayPoolTest {
+
+    @Test
+    fun testAcquire_RoundsUpToPowerOfTwoClass() {
+        val pool = ArrayPool(4, 2)
+
+        assertEquals(ArrayPool.MIN_LENGTH, pool.acquireShorts(0).size)
+        assertEquals(ArrayPool.MIN_LENGTH, pool.acquireFloats(1).size)
+        assertEquals(512, pool.acquireDoubles(512).size)
+        assertEquals(1024, pool.acquireShorts(513).size)
+        assertEquals(65536, pool.acquireShorts(48000).size)
+    }
+
+    @Test
+    fun testRelease_ReusesArrayOnSameThread() {
+        val pool = ArrayPool(4, 2)
+        val first = pool.acquireFloats(300)
+        pool.release(first)
+
+        assertSame(first, pool.acquireFloats(400))
+        assertEquals(1L, pool.getAllocations())
+    }
+
+    @Test
+    fun testSteadyState_AllocatesNothing() {
+        val pool = ArrayPool(4, 2)
+        repeat(3) {
+            val frame = pool.acquireShorts(512)
+            val samples = pool.acquireDoubles(48000)
+            val mfccs = pool.acquireFloats(93 * 13)
+            pool.release(mfccs)
+            pool.release(samples)
+            pool.release(frame)
+        }
+        val allocations = pool.getAllocations()
+
+        repeat(1000) {
+            val frame = pool.acquireShorts(512)
+            val samples = pool.acquireDoubles(48000)
+            pool.release(samples)
+            pool.release(frame)
+        }
+
+        assertEquals(allocations, pool.getAllocations())
+        assertEquals(0L, pool.getOutstanding())
+    }
+
+    @Test
+    fun testKinds_AreKeptApart() {
+        val pool = ArrayPool(4, 2)
+        pool.release(pool.acquireShorts(256))
+
+        pool.acquireFloats(256)
+        pool.acquireDoubles(256)
+
+        assertEquals(3L, pool.getAllocations())
+    }
+
+    @Test
+    fun testSharedStage_PassesArraysBetweenThreads() {
+        // No thread-local cache, so every released array goes to the shared stage
+        val pool = ArrayPool(0, 2)
+        var array: DoubleArray? = null
+
+        thread {
+            array = pool.acquireDoubles(2000)
+            pool.release(array!!)
+        }.join()
+
+        assertSame(array, pool.acquireDoubles(1500))
+        assertEquals(1L, pool.getAllocations())
+    }
+
+    @Test
+    fun testReleaseShared_OutlivesTheReleasingThread() {
+        // Thread-local caches are deep enough that a plain release would stay with the thread
+        val pool = ArrayPool(4, 2)
+        var frame: ShortArray? = null
+
+        repeat(3) {
+            thread {
+                val acquired = pool.acquireShorts(1024)
+                frame?.let { assertSame(it, acquired) }
+                frame = acquired
+                pool.releaseShared(acquired)
+            }.join()
+        }
+
+        assertEquals(1L, pool.getAllocations())
+        assertEquals(0L, pool.getOutstanding())
+    }
+
+    @Test
+    fun testSharedStage_DropsArraysBeyondItsDepth() {
+        val pool = ArrayPool(0, 2)
+        val arrays = List(3) { pool.acquireShorts(100) }
+        arrays.forEach { pool.release(it) }
+
+        List(3) { pool.acquireShorts(100) }
+
+        assertEquals(4L, pool.getAllocations())
+    }
+
+    @Test
+    fun testMetrics_TrackOutstandingAndHighWaterMark() {
+        val pool = ArrayPool(4, 2)
+        val shorts = pool.acquireShorts(1000)
+        val doubles = pool.acquireDoubles(100)
+
+        assertEquals(2L, pool.getOutstanding())
+        assertEquals(1024L * 2 + 128L * 8, pool.getOutstandingBytes())
+
+        pool.release(shorts)
+        pool.release(doubles)
+        pool.acquireFloats(64).also { pool.release(it) }
+
+        assertEquals(0L, pool.getOutstanding())
+        assertEquals(0L, pool.getOutstandingBytes())
+        assertEquals(1024L * 2 + 128L * 8, pool.getHighWaterBytes())
+    }
+
+    @Test
+    fun testMetrics_ShowUnreleasedArrays() {
+        val pool = ArrayPool(4, 2)
+        repeat(5) {
+            pool.acquireFloats(128)
+            pool.release(pool.acquireFloats(128))
+        }
+
+        assertEquals(5L, pool.getOutstanding())
+    }
+
+    @Test
+    fun testOversizedArrays_AreExactAndNotKept() {
+        val pool = ArrayPool(4, 2)
+        val length = ArrayPool.MAX_LENGTH + 1
+        val array = pool.acquireShorts(length)
+        assertEquals(length, array.size)
+
+        pool.release(array)
+
+        assertEquals(0L, pool.getOutstanding())
+        assertNotSame(array, pool.acquireShorts(length))
+    }
+
+    @Test
+    fun testTrim_DropsCachedArrays() {
+        val pool = ArrayPool(4, 2)
+        val array = pool.acquireFloats(4096)
+        pool.release(array)
+
+        pool.trim()
+
+        assertNotSame(array, pool.acquireFloats(4096))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testRelease_RejectsForeignArray() {
+        ArrayPool(4, 2).release(FloatArray(300))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testAcquire_RejectsNegativeLength() {
+        ArrayPool(4, 2).acquireDoubles(-1)
+    }
+}
@@ -0,0 +1,99 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * ConvKeywordSpotter on a tiny hand-built model that tells two tones apart, and the
+ * KeywordSpotterModel file format.
+ */
+class ConvKeywordSpotterTest {
+
+    private val bands = LogMelExtractor.BAND_COUNT
+    private val windowFrames = 10
+
+    /**
+     * Two channels that respond to low and high bands, and a dense layer mapping them to "low" and
+     * "high", with "_unknown_" winning when neither responds.
+     */
+    private fun toneModel(): KeywordSpotterModel {
+        val convWeights = ByteArray(2 * bands)
+        for (b in 2 until 8) convWeights[b] = 1
+        for (b in 32 until 36) convWeights[bands + b] = 1
+        val conv = KeywordSpotterModel.Layer(
+            KeywordSpotterModel.LAYER_CONV, 2, 1, 1, 0.02f,
+            floatArrayOf(0.05f, 0.05f), FloatArray(2), convWeights
+        )
+        val dense = KeywordSpotterModel.Layer(
+            KeywordSpotterModel.LAYER_DENSE, 3, 1, 1, 1f,
+            floatArrayOf(0f, 0.05f, 0.05f), floatArrayOf(1f, 0f, 0f),
+            byteArrayOf(0, 0, 100, 0, 0, 100)
+        )
+        return KeywordSpotterModel(
+            bands, windowFrames, 0.1f, FloatArray(bands) { -5f },
+            arrayOf("_unknown_", "low", "high"), listOf(conv, dense)
+        )
+    }
+
+    private fun tone(hz: Double) = ShortArray(4000) { i -> (10000 * sin(2 * PI * hz * i / 16000)).toInt().toShort() }
+
+    private fun spot(spotter: ConvKeywordSpotter, samples: ShortArray): String? {
+        spotter.reset()
+        spotter.accept(samples, 0, samples.size)
+        val best = spotter.score()
+        return if (best < 0) null else spotter.getKeywordName(best)
+    }
+
+    @Test
+    fun testScore_PicksLabelOfTone() {
+        val spotter = ConvKeywordSpotter(toneModel())
+
+        assertEquals("low", spot(spotter, tone(300.0)))
+        assertTrue(spotter.getScore(spotter.indexOf("low")) > 0.9f)
+        assertEquals("high", spot(spotter, tone(5000.0)))
+        assertEquals("_unknown_", spot(spotter, ShortArray(4000)))
+        assertEquals(3L, spotter.inferenceCount)
+    }
+
+    @Test
+    fun testScore_WaitsForFullWindow() {
+        val spotter = ConvKeywordSpotter(toneModel())
+
+        // 400 + 8 * 160 samples make nine frames, one short of the window
+        spotter.accept(tone(300.0), 0, 400 + 8 * 160)
+        assertEquals(-1, spotter.score())
+        assertEquals(0L, spotter.inferenceCount)
+    }
+
+    @Test
+    fun testModel_RoundTripsThroughFileFormat() {
+        val model = toneModel()
+        val bytes = ByteArrayOutputStream().also { model.write(it) }.toByteArray()
+
+        val loaded = KeywordSpotterModel.read(ByteArrayInputStream(bytes))
+
+        assertEquals(listOf("_unknown_", "low", "high"), loaded.getLabels())
+        assertEquals(windowFrames, loaded.windowFrames)
+        assertEquals(model.multiplyAccumulateCount, loaded.multiplyAccumulateCount)
+        assertEquals("high", spot(ConvKeywordSpotter(loaded), tone(5000.0)))
+    }
+
+    @Test(expected = IOException::class)
+    fun testRead_RejectsTruncatedModel() {
+        val bytes = ByteArrayOutputStream().also { toneModel().write(it) }.toByteArray()
+        KeywordSpotterModel.read(ByteArrayInputStream(bytes.copyOf(bytes.size - 3)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testModel_RejectsWeightsOfWrongShape() {
+        val dense = KeywordSpotterModel.Layer(
+            KeywordSpotterModel.LAYER_DENSE, 2, 1, 1, 1f, FloatArray(2), FloatArray(2), ByteArray(2 * bands - 1)
+        )
+        KeywordSpotterModel(bands, windowFrames, 0.1f, FloatArray(bands), arrayOf("a", "b"), listOf(dense))
+    }
+}
@@ -0,0 +1,179 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Base64
+import javax.crypto.Cipher
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import kotlin.math.abs
+import kotlin.random.Random
+
+/**
+ * Round trips, per-column int8 precision, version 1 files and tamper detection of the encrypted
+ * FeatureFile format.
+ */
+class FeatureFileTest {
+
+    private val key = newKey()
+
+    private fun newKey(): SecretKey = KeyGenerator.getInstance("AES").apply { init(256) }.generateKey()
+
+    private fun values(count: Int, seed: Int, scale: Float = 1f): FloatArray {
+        val random = Random(seed)
+        return FloatArray(count) { (random.nextFloat() - 0.5f) * scale }
+    }
+
+    private fun profile(): FeatureFile {
+        val file = FeatureFile("xvector-3", 1234567890123L)
+        file.put("mfcc", FeatureFile.INT8, 3, 13, values(39, 1, 40f))
+        file.put("prosody", FeatureFile.FLOAT32, 3, 4, values(12, 2, 200f))
+        file.put("embedding", FeatureFile.FLOAT32, 1, 128, values(128, 3))
+        return file
+    }
+
+    @Test
+    fun testRoundTrip_KeepsLabelTimestampAndLayout() {
+        val loaded = FeatureFile.decrypt(profile().encrypt(key), key)
+
+        assertEquals("xvector-3", loaded.label)
+        assertEquals(1234567890123L, loaded.createdMillis)
+        assertEquals(listOf("mfcc", "prosody", "embedding"), loaded.matrices.map { it.name })
+        assertEquals(3, loaded.get("mfcc").rows)
+        assertEquals(13, loaded.get("mfcc").columns)
+        assertEquals(FeatureFile.INT8, loaded.get("mfcc").encoding)
+        assertNull(loaded.get("spectral"))
+    }
+
+    @Test
+    fun testRoundTrip_Float32IsExact() {
+        val original = profile()
+        val loaded = FeatureFile.decrypt(original.encrypt(key), key)
+
+        assertArrayEquals(original.get("prosody").values, loaded.get("prosody").values, 0f)
+        assertArrayEquals(original.get("embedding").values, loaded.get("embedding").values, 0f)
+    }
+
+    @Test
+    fun testRoundTrip_Int8IsWithinHalfAStepOfEachColumn() {
+        // The second column is on a much smaller scale and keeps its own precision
+        val original = FloatArray(26) { i -> if (i % 2 == 0) values(1, i, 40f)[0] else values(1, i, 0.1f)[0] }
+        val file = FeatureFile("", 0)
+        file.put("m", FeatureFile.INT8, 13, 2, original)
+
+        val loaded = FeatureFile.decrypt(file.encrypt(key), key).get("m").values
+
+        for (column in 0 until 2) {
+            val peak = (0 until 13).maxOf { abs(original[it * 2 + column]) }
+            for (r in 0 until 13) {
+                assertEquals(original[r * 2 + column], loaded[r * 2 + column], peak / 127 / 2 * 1.001f)
+            }
+        }
+    }
+
+    @Test
+    fun testRoundTrip_Int8KeepsMfccCoefficientsNextToC0() {
+        // c0 is the log energy, hundreds of times larger than the coefficients that carry the speaker
+        val random = Random(7)
+        val mfcc = FloatArray(5 * 13) { i -> if (i % 13 == 0) -300f + random.nextFloat() * 40f else (random.nextFloat() - 0.5f) * 8f }
+        val file = FeatureFile("", 0)
+        file.put("mfcc", FeatureFile.INT8, 5, 13, mfcc)
+
+        val loaded = FeatureFile.decrypt(file.encrypt(key), key).get("mfcc").values
+
+        for (r in 0 until 5) {
+            for (c in 1 until 13) {
+                assertEquals(mfcc[r * 13 + c], loaded[r * 13 + c], 4f / 127 / 2 * 1.001f)
+            }
+        }
+    }
+
+    @Test
+    fun testDecrypt_ReadsVersion1RowScaledInt8() {
+        // Written by hand in the version 1 layout: one int8 matrix of 2 x 3 with a scale per row
+        val payload = ByteBuffer.allocate(8 + 2 + 4 + 2 + 1 + 1 + 8 + 4 * 2 + 6).order(ByteOrder.LITTLE_ENDIAN)
+        payload.putLong(42L).putShort(0).putInt(1)
+        payload.putShort(1).put('m'.code.toByte()).put(FeatureFile.INT8.toByte()).putInt(2).putInt(3)
+        payload.putFloat(0.5f).putFloat(0.01f)
+        payload.put(byteArrayOf(2, -4, 127, 100, 0, -127))
+        val header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(FeatureFile.MAGIC).putInt(1).array()
+        val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+        cipher.init(Cipher.ENCRYPT_MODE, key)
+        cipher.updateAAD(header)
+        val data = header + byteArrayOf(cipher.iv.size.toByte()) + cipher.iv + cipher.doFinal(payload.array())
+
+        val loaded = FeatureFile.decrypt(data, key)
+
+        assertEquals(42L, loaded.createdMillis)
+        assertArrayEquals(floatArrayOf(1f, -2f, 63.5f, 1f, 0f, -1.27f), loaded.get("m").values, 1e-6f)
+    }
+
+    @Test
+    fun testInt8_IsAQuarterOfFloat32() {
+        val float32 = FeatureFile("", 0).apply { put("m", FeatureFile.FLOAT32, 100, 10, values(1000, 6)) }
+        val int8 = FeatureFile("", 0).apply { put("m", FeatureFile.INT8, 100, 10, values(1000, 6)) }
+
+        val float32Size = float32.encrypt(key).size
+        val int8Size = int8.encrypt(key).size
+
+        assertTrue(float32Size > 4000)
+        assertTrue(int8Size < float32Size / 3)
+    }
+
+    @Test
+    fun testInt8_ZeroRowStaysZero() {
+        val file = FeatureFile("", 0)
+        file.put("m", FeatureFile.INT8, 1, 4, FloatArray(4))
+
+        assertArrayEquals(FloatArray(4), FeatureFile.decrypt(file.encrypt(key), key).get("m").values, 0f)
+    }
+
+    @Test
+    fun testIsFeatureFile_TellsBinaryFromBase64Text() {
+        val data = profile().encrypt(key)
+
+        assertTrue(FeatureFile.isFeatureFile(data))
+        assertFalse(FeatureFile.isFeatureFile(Base64.getEncoder().encode(data)))
+        assertFalse(FeatureFile.isFeatureFile(ByteArray(3)))
+    }
+
+    @Test(expected = IOException::class)
+    fun testDecrypt_RejectsTamperedPayload() {
+        val data = profile().encrypt(key)
+        data[data.size / 2] = (data[data.size / 2].toInt() xor 1).toByte()
+        FeatureFile.decrypt(data, key)
+    }
+
+    @Test(expected = IOException::class)
+    fun testDecrypt_RejectsTamperedHeader() {
+        val data = profile().encrypt(key)
+        // First byte of the IV, which follows the magic, version and IV length
+        data[9] = (data[9].toInt() xor 1).toByte()
+        FeatureFile.decrypt(data, key)
+    }
+
+    @Test(expected = IOException::class)
+    fun testDecrypt_RejectsOtherKey() {
+        FeatureFile.decrypt(profile().encrypt(key), newKey())
+    }
+
+    @Test(expected = IOException::class)
+    fun testDecrypt_RejectsTruncatedFile() {
+        val data = profile().encrypt(key)
+        FeatureFile.decrypt(data.copyOf(data.size - 20), key)
+    }
+
+    @Test
+    fun testEncrypt_UsesFreshIvEachTime() {
+        val file = profile()
+        assertFalse(file.encrypt(key).contentEquals(file.encrypt(key)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testPut_RejectsValuesOfWrongShape() {
+        FeatureFile("", 0).put("m", FeatureFile.FLOAT32, 2, 3, FloatArray(5))
+    }
+}
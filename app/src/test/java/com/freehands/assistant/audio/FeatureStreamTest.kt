@@ -0,0 +1,300 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Checks FeatureStream frame by frame against MfccExtractor and PitchTracker, including chunking,
+ * gaps in the audio, direct buffer input and waiting readers.
+ */
+class FeatureStreamTest {
+
+    private val dimension = FeatureStream.DIMENSION
+    private val coefficients = FeatureStream.MFCC_COUNT
+
+    private fun harmonicTone(length: Int, pitchHz: Double): ShortArray {
+        val random = Random(3)
+        return ShortArray(length) { i ->
+            val t = i.toDouble() / FeatureStream.SAMPLE_RATE
+            var value = 0.0
+            for (h in 1..10) {
+                value += sin(2 * PI * pitchHz * h * t + h) / h
+            }
+            (4000 * value + 200 * (random.nextDouble() - 0.5)).toInt().toShort()
+        }
+    }
+
+    private fun allFrames(stream: FeatureStream, endPosition: Long): Pair<Int, DoubleArray> {
+        val rows = DoubleArray(64 * dimension)
+        val frames = stream.copyFrames(0, endPosition, rows, 0, 0, TimeUnit.MILLISECONDS)
+        return Pair(frames, rows)
+    }
+
+    @Test
+    fun testMfcc_MatchesMfccExtractorForAnyChunking() {
+        val pcm = TestSignals.speechLike(FeatureStream.SAMPLE_RATE / 2)
+        val extractor = MfccExtractor(FeatureStream.SAMPLE_RATE, FeatureStream.FRAME_SIZE, FeatureStream.HOP_SIZE,
+            FeatureStream.MEL_BANDS, coefficients, 0)
+        val expected = FloatArray(extractor.frameCount(pcm.size) * coefficients)
+        extractor.computeFrames(pcm, 0, pcm.size, expected, 0)
+
+        val stream = FeatureStream(64)
+        var offset = 0
+        while (offset < pcm.size) {
+            val length = minOf(700, pcm.size - offset)
+            stream.process(pcm, offset, length)
+            offset += length
+        }
+        stream.flush()
+        val (frames, rows) = allFrames(stream, pcm.size.toLong())
+
+        assertEquals(FeatureStream.frameCount(pcm.size), frames)
+        for (f in 0 until frames) {
+            for (k in 0 until coefficients) {
+                assertEquals(expected[f * coefficients + k], rows[f * dimension + FeatureStream.MFCC_OFFSET + k].toFloat(), 0f)
+            }
+        }
+    }
+
+    private fun directPcm16(pcm: ShortArray, byteOffset: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(byteOffset + pcm.size * 2).order(ByteOrder.nativeOrder())
+        for (i in pcm.indices) {
+            buffer.putShort(byteOffset + i * 2, pcm[i])
+        }
+        return buffer
+    }
+
+    private fun assertSameFrames(expected: FeatureStream, actual: FeatureStream, endPosition: Long) {
+        val (expectedFrames, expectedRows) = allFrames(expected, endPosition)
+        val (frames, rows) = allFrames(actual, endPosition)
+        assertEquals(expectedFrames, frames)
+        assertArrayEquals(expectedRows.copyOf(frames * dimension), rows.copyOf(frames * dimension), 0.0)
+    }
+
+    @Test
+    fun testDirectPcm16_MatchesArrayInputAtAByteOffset() {
+        val pcm = TestSignals.speechLike(FeatureStream.SAMPLE_RATE / 2)
+        val expected = FeatureStream(64)
+        expected.process(pcm, 0, pcm.size)
+
+        // The samples start 6 bytes into the buffer and arrive in chunks that straddle frames
+        val buffer = directPcm16(pcm, 6)
+        val stream = FeatureStream(64)
+        var offset = 0
+        while (offset < pcm.size) {
+            val length = minOf(700, pcm.size - offset)
+            stream.process(buffer, 6 + offset * 2, length, FeatureStream.ENCODING_PCM_16BIT, (offset + length).toLong())
+            offset += length
+        }
+
+        assertEquals(0, buffer.position())
+        assertSameFrames(expected, stream, pcm.size.toLong())
+    }
+
+    @Test
+    fun testDirectFloat_MatchesPcm16() {
+        val pcm = TestSignals.speechLike(FeatureStream.SAMPLE_RATE / 2)
+        val buffer = ByteBuffer.allocateDirect(pcm.size * 4).order(ByteOrder.nativeOrder())
+        for (i in pcm.indices) {
+            buffer.putFloat(i * 4, pcm[i] / 32768f)
+        }
+        val expected = FeatureStream(64)
+        expected.process(directPcm16(pcm, 0), 0, pcm.size, FeatureStream.ENCODING_PCM_16BIT, pcm.size.toLong())
+
+        val stream = FeatureStream(64)
+        stream.process(buffer, 0, pcm.size, FeatureStream.ENCODING_PCM_FLOAT, pcm.size.toLong())
+
+        assertSameFrames(expected, stream, pcm.size.toLong())
+    }
+
+    @Test
+    fun testDirectChunkShorterThanAFrame_IsKeptForTheNextOne() {
+        val pcm = TestSignals.speechLike(4000)
+        val expected = FeatureStream(64)
+        expected.process(pcm, 0, pcm.size)
+
+        val buffer = directPcm16(pcm, 0)
+        val stream = FeatureStream(64)
+        assertEquals(0, stream.process(buffer, 0, 300, FeatureStream.ENCODING_PCM_16BIT, 300))
+        assertEquals(300L, stream.position)
+        stream.process(buffer, 600, pcm.size - 300, FeatureStream.ENCODING_PCM_16BIT, pcm.size.toLong())
+
+        assertSameFrames(expected, stream, pcm.size.toLong())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testDirect_RejectsSamplesPastTheLimit() {
+        FeatureStream(16).process(ByteBuffer.allocateDirect(100), 2, 50, FeatureStream.ENCODING_PCM_16BIT, 50)
+    }
+
+    @Test
+    fun testDeltas_AreCentredAndZeroAtSegmentEnds() {
+        val pcm = TestSignals.speechLike(FeatureStream.SAMPLE_RATE / 2)
+        val stream = FeatureStream(64)
+        stream.process(pcm, 0, pcm.size)
+        stream.flush()
+        val (frames, rows) = allFrames(stream, pcm.size.toLong())
+
+        for (k in 0 until coefficients) {
+            assertEquals(0.0, rows[FeatureStream.DELTA_OFFSET + k], 0.0)
+            assertEquals(0.0, rows[(frames - 1) * dimension + FeatureStream.DELTA_OFFSET + k], 0.0)
+        }
+        for (f in 1 until frames - 1) {
+            for (k in 0 until coefficients) {
+                val next = rows[(f + 1) * dimension + FeatureStream.MFCC_OFFSET + k]
+                val previous = rows[(f - 1) * dimension + FeatureStream.MFCC_OFFSET + k]
+                assertEquals((next - previous) / 2, rows[f * dimension + FeatureStream.DELTA_OFFSET + k], 1e-12)
+            }
+        }
+    }
+
+    @Test
+    fun testFrame_IsPublishedOnceTheNextFrameIsKnown() {
+        val stream = FeatureStream(64)
+        val pcm = TestSignals.speechLike(FeatureStream.FRAME_SIZE + FeatureStream.HOP_SIZE)
+
+        assertEquals(0, stream.process(pcm, 0, FeatureStream.FRAME_SIZE))
+        assertEquals(1, stream.process(pcm, FeatureStream.FRAME_SIZE, FeatureStream.HOP_SIZE))
+        assertEquals(1L, stream.frameCount)
+        stream.flush()
+        assertEquals(2L, stream.frameCount)
+    }
+
+    @Test
+    fun testPitch_TracksHarmonicTones() {
+        for (pitch in listOf(85.0, 150.0, 220.0, 390.0)) {
+            val pcm = harmonicTone(FeatureStream.SAMPLE_RATE / 2, pitch)
+            val stream = FeatureStream(64)
+            stream.process(pcm, 0, pcm.size)
+            stream.flush()
+            val (frames, rows) = allFrames(stream, pcm.size.toLong())
+
+            for (f in 0 until frames) {
+                val estimate = rows[f * dimension + FeatureStream.PITCH_OFFSET]
+                assertEquals("$pitch Hz, frame $f", pitch, estimate, pitch * 0.01)
+            }
+        }
+    }
+
+    @Test
+    fun testPitch_NoiseIsUnvoiced() {
+        val random = Random(5)
+        val noise = ShortArray(FeatureStream.SAMPLE_RATE / 2) { (6000 * (random.nextDouble() - 0.5)).toInt().toShort() }
+        val stream = FeatureStream(64)
+        stream.process(noise, 0, noise.size)
+        stream.flush()
+        val (frames, rows) = allFrames(stream, noise.size.toLong())
+
+        for (f in 0 until frames) {
+            assertEquals(0.0, rows[f * dimension + FeatureStream.PITCH_OFFSET], 0.0)
+        }
+    }
+
+    @Test
+    fun testEnergy_UsesVoiceActivityDetectorScale() {
+        val pcm = ShortArray(FeatureStream.FRAME_SIZE) { 1000 }
+        val stream = FeatureStream(4)
+        stream.process(pcm, 0, pcm.size)
+        stream.flush()
+        val (_, rows) = allFrames(stream, pcm.size.toLong())
+
+        assertEquals(10 * log10(1000.0 * 1000.0 + 1.0), rows[FeatureStream.ENERGY_OFFSET], 1e-9)
+    }
+
+    @Test
+    fun testGap_EndsSegmentInsteadOfFramingAcrossIt() {
+        val pcm = TestSignals.speechLike(3000)
+        val ends = mutableListOf<Long>()
+        val stream = FeatureStream(64)
+        stream.addListener { _, _, endPosition -> ends.add(endPosition) }
+
+        stream.process(pcm, 0, pcm.size, 3000)
+        stream.process(pcm, 0, pcm.size, 10000)
+        stream.flush()
+
+        assertEquals(listOf(1024L, 1536L, 2048L, 2560L, 8024L, 8536L, 9048L, 9560L), ends)
+        val (frames, rows) = allFrames(stream, 10000)
+        assertEquals(8, frames)
+        for (f in listOf(0, 3, 4, 7)) {
+            for (k in 0 until coefficients) {
+                assertEquals(0.0, rows[f * dimension + FeatureStream.DELTA_OFFSET + k], 0.0)
+            }
+        }
+    }
+
+    @Test
+    fun testCopyFrames_KeepsToRangeAndPrefersRecentFrames() {
+        val pcm = TestSignals.speechLike(3000)
+        val stream = FeatureStream(64)
+        stream.process(pcm, 0, pcm.size, 3000)
+        stream.process(pcm, 0, pcm.size, 10000)
+        stream.flush()
+        val (_, all) = allFrames(stream, 10000)
+
+        // Only the frames of the second segment lie within it
+        val rows = DoubleArray(8 * dimension)
+        assertEquals(4, stream.copyFrames(7000, 10000, rows, 0, 0, TimeUnit.MILLISECONDS))
+        assertArrayEquals(all.copyOfRange(4 * dimension, 8 * dimension), rows, 0.0)
+
+        // The range end excludes frames that end after it
+        assertEquals(3, stream.copyFrames(7000, 9559, rows, 0, 0, TimeUnit.MILLISECONDS))
+
+        // With room for two frames, the two most recent are copied after the offset
+        val small = DoubleArray(3 + 2 * dimension)
+        assertEquals(2, stream.copyFrames(0, 10000, small, 3, 0, TimeUnit.MILLISECONDS))
+        assertArrayEquals(all.copyOfRange(6 * dimension, 8 * dimension), small.copyOfRange(3, small.size), 0.0)
+    }
+
+    @Test
+    fun testCopyFrames_DoesNotWaitForAudioTheStreamNeverSaw() {
+        val stream = FeatureStream(4)
+        val start = System.nanoTime()
+
+        assertEquals(0, stream.copyFrames(50000, 60000, DoubleArray(dimension), 0, 5, TimeUnit.SECONDS))
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1))
+    }
+
+    @Test
+    fun testCopyFrames_WaitsForFramesStillBeingComputed() {
+        val pcm = TestSignals.speechLike(4200)
+        val stream = FeatureStream(16)
+        stream.process(pcm, 0, 2000)
+
+        val pusher = Thread {
+            Thread.sleep(50)
+            stream.process(pcm, 2000, 2200)
+        }
+        pusher.start()
+        val rows = DoubleArray(16 * dimension)
+        val frames = stream.copyFrames(0, 3600, rows, 0, 5, TimeUnit.SECONDS)
+        pusher.join()
+
+        // Frames ending at 1024 .. 3584 are published once the one ending at 4096 exists
+        assertEquals(6, frames)
+    }
+
+    @Test
+    fun testRemovedListener_GetsNoMoreFrames() {
+        val pcm = TestSignals.speechLike(4000)
+        var count = 0
+        val listener = FeatureStream.FrameListener { _, _, _ -> count++ }
+        val stream = FeatureStream(16)
+        stream.addListener(listener)
+
+        stream.process(pcm, 0, 2000)
+        val seen = count
+        stream.removeListener(listener)
+        stream.process(pcm, 2000, 2000)
+
+        assertTrue(seen > 0)
+        assertEquals(seen, count)
+        assertTrue(stream.frameCount > seen)
+    }
+}
@@ -0,0 +1,136 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.sin
+
+/**
+ * Template voting, single-pass scoring of several keywords, and banded DTW matching of exact,
+ * time-warped and unrelated audio in a KeywordBank.
+ */
+class KeywordBankTest {
+
+    private val dimension = TemplateKeywordSpotter.FEATURE_COUNT
+
+    private fun template(seed: Int, frames: Int) =
+        Array(frames) { f -> DoubleArray(dimension) { d -> sin(seed * 2.9 + f * 1.7 + d * (0.5 + 0.21 * seed)) * 3 - 10 } }
+
+    private fun ringOf(frames: List<DoubleArray>): FeatureRing {
+        val ring = FeatureRing(64, dimension)
+        for (values in frames) {
+            System.arraycopy(values, 0, ring.data, ring.appendRow(), dimension)
+        }
+        return ring
+    }
+
+    private fun noise(count: Int) = List(count) { template(900 + it * 17, 1)[0] }
+
+    @Test
+    fun testVoting_NeedsAgreementFromSeveralTemplates() {
+        val spoken = template(1, 8)
+        val templates = listOf(spoken, spoken.copyOf(), template(40, 8))
+
+        // Two of three templates match the utterance
+        val twoVotes = KeywordBank(listOf(KeywordBank.Keyword("hey", templates, 2)), 0.25, 0.7)
+        assertEquals(0, twoVotes.update(ringOf(spoken.toList())))
+        assertTrue(twoVotes.getScore(0) > 0.99f)
+
+        // Requiring all three rejects it
+        val threeVotes = KeywordBank(listOf(KeywordBank.Keyword("hey", templates, 3)), 0.25, 0.7)
+        assertEquals(-1, threeVotes.update(ringOf(spoken.toList())))
+        assertEquals(0.0f, threeVotes.getScore(0), 0.0f)
+    }
+
+    @Test
+    fun testSinglePass_IdentifiesWhichKeywordWasSpoken() {
+        val keywords = listOf(
+            KeywordBank.Keyword("wake", listOf(template(1, 10)), 1),
+            KeywordBank.Keyword("stop", listOf(template(2, 5)), 1),
+            KeywordBank.Keyword("cancel", listOf(template(3, 7)), 1)
+        )
+        val bank = KeywordBank(keywords, 0.25, 0.7)
+        assertEquals(10, bank.getMaxTemplateLength())
+
+        val ring = ringOf(noise(12) + template(3, 7).toList() + noise(2))
+        assertEquals(bank.indexOf("cancel"), bank.update(ring))
+        assertEquals(0.0f, bank.getScore(bank.indexOf("stop")), 0.0f)
+    }
+
+    @Test
+    fun testScores_DoNotDependOnOtherKeywords() {
+        val first = template(5, 9)
+        val second = template(6, 6)
+        val bank = KeywordBank(
+            listOf(KeywordBank.Keyword("a", listOf(first), 1), KeywordBank.Keyword("b", listOf(second), 1)),
+            0.25, 0.3
+        )
+        val frames = noise(4) + first.toList() + second.toList()
+
+        bank.update(ringOf(frames))
+
+        val alone = KeywordBank(listOf(KeywordBank.Keyword("b", listOf(second), 1)), 0.25, 0.3)
+        alone.update(ringOf(frames))
+        assertEquals(alone.getScore(0), bank.getScore(1), 1e-6f)
+    }
+
+    @Test
+    fun testExactOccurrence_ScoresOne() {
+        val spoken = template(1, 8)
+        val bank = KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(spoken), 1)), 0.25, 0.7)
+
+        assertEquals(0, bank.update(ringOf(noise(10) + spoken.toList())))
+        assertEquals(1.0f, bank.getScore(0), 1e-4f)
+    }
+
+    @Test
+    fun testTimeWarpedOccurrence_StillMatches() {
+        val spoken = template(1, 8)
+        val bank = KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(spoken), 1)), 0.25, 0.7)
+
+        // Hold the third frame twice and drop the sixth, as a speaker slowing down then catching up
+        val warped = spoken.toMutableList()
+        warped.removeAt(5)
+        warped.add(2, warped[2])
+
+        assertEquals(0, bank.update(ringOf(warped)))
+        assertTrue(bank.getScore(0) > 0.8f)
+    }
+
+    @Test
+    fun testUnrelatedAudio_IsRejected() {
+        val bank = KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(template(1, 8)), 1)), 0.25, 0.7)
+
+        assertEquals(-1, bank.update(ringOf(noise(40))))
+        assertEquals(0.0f, bank.getScore(0), 0.0f)
+        assertEquals(33L, bank.alignmentCount)
+    }
+
+    @Test
+    fun testIncrementalUpdates_MatchBatchResult() {
+        val spoken = template(1, 8)
+        val frames = noise(6) + spoken.toList() + noise(3)
+
+        val batch = KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(spoken), 1)), 0.25, 0.5)
+        batch.update(ringOf(frames))
+
+        val incremental = KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(spoken), 1)), 0.25, 0.5)
+        val ring = FeatureRing(64, dimension)
+        var best = 0f
+        for (values in frames) {
+            System.arraycopy(values, 0, ring.data, ring.appendRow(), dimension)
+            incremental.update(ring)
+            best = maxOf(best, incremental.getScore(0))
+        }
+        assertEquals(batch.getScore(0), best, 1e-6f)
+    }
+
+    @Test
+    fun testSkip_ClearsScores() {
+        val bank = KeywordBank(listOf(KeywordBank.Keyword("stop", listOf(template(2, 5)), 1)), 0.25, 0.7)
+        val ring = ringOf(template(2, 5).toList())
+
+        bank.skip(ring)
+        assertEquals(-1, bank.update(ring))
+        assertEquals(0L, bank.alignmentCount)
+    }
+}
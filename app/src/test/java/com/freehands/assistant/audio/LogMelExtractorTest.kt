@@ -0,0 +1,72 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * Framing, chunking and band placement of LogMelExtractor and its MelFilterBank.
+ */
+class LogMelExtractorTest {
+
+    private fun tone(hz: Double, samples: Int) =
+        ShortArray(samples) { i -> (10000 * sin(2 * PI * hz * i / 16000)).toInt().toShort() }
+
+    private fun peakBand(ring: FeatureRing, frame: Long): Int {
+        val row = ring.rowOffset(frame)
+        return (0 until ring.dimension()).maxByOrNull { ring.data[row + it] }!!
+    }
+
+    @Test
+    fun testOverlappingFrames_OnePerHop() {
+        val extractor = LogMelExtractor(200)
+
+        assertEquals(0, extractor.process(ShortArray(399), 0, 399))
+        assertEquals(1, extractor.process(ShortArray(1), 0, 1))
+        assertEquals(10, extractor.process(ShortArray(1600), 0, 1600))
+    }
+
+    @Test
+    fun testChunkedInput_MatchesSingleCall() {
+        val samples = tone(440.0, 16000)
+        val whole = LogMelExtractor(100)
+        val chunked = LogMelExtractor(100)
+
+        whole.process(samples, 0, samples.size)
+        var offset = 0
+        while (offset < samples.size) {
+            val length = minOf(333, samples.size - offset)
+            chunked.process(samples, offset, length)
+            offset += length
+        }
+
+        assertEquals(whole.ring.frameCount, chunked.ring.frameCount)
+        assertArrayEquals(whole.ring.data, chunked.ring.data, 0.0)
+    }
+
+    @Test
+    fun testTones_LandInAscendingBands() {
+        val low = LogMelExtractor(10)
+        val high = LogMelExtractor(10)
+        low.process(tone(300.0, 4000), 0, 4000)
+        high.process(tone(5000.0, 4000), 0, 4000)
+
+        val lowBand = peakBand(low.ring, low.ring.frameCount - 1)
+        val highBand = peakBand(high.ring, high.ring.frameCount - 1)
+        assertTrue(lowBand < 8)
+        assertTrue(highBand > 28)
+    }
+
+    @Test
+    fun testFilterBank_FlatSpectrumGrowsWithBandwidth() {
+        val bank = MelFilterBank(16000, 512, 40, 20f, 7600f)
+        val out = FloatArray(40)
+
+        bank.apply(FloatArray(bank.binCount) { 1f }, out, 0)
+
+        // Mel filters widen with frequency, so a flat spectrum gives them more energy
+        assertTrue(out[39] > out[10])
+        assertTrue(out.all { it > 0f })
+    }
+}
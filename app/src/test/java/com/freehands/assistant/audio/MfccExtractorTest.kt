@@ -0,0 +1,165 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * MfccExtractor against a double-precision reference built from a direct DFT.
+ */
+class MfccExtractorTest {
+
+    private val sampleRate = 16000
+    private val frameSize = 1024
+    private val hopSize = 512
+    private val filters = 26
+    private val coefficients = 13
+
+    /**
+     * The same chain in double precision with a direct DFT, as a reference.
+     */
+    private fun referenceFrame(pcm: ShortArray, start: Int): DoubleArray {
+        val frame = DoubleArray(frameSize) { i ->
+            pcm[start + i] / 32768.0 * (0.54 - 0.46 * cos(2 * PI * i / (frameSize - 1)))
+        }
+        val power = DoubleArray(frameSize / 2 + 1) { k ->
+            var re = 0.0
+            var im = 0.0
+            for (t in 0 until frameSize) {
+                re += frame[t] * cos(2 * PI * k * t / frameSize)
+                im -= frame[t] * sin(2 * PI * k * t / frameSize)
+            }
+            re * re + im * im
+        }
+
+        val melMax = 2595 * kotlin.math.log10(1 + sampleRate / 2 / 700.0)
+        val edges = DoubleArray(filters + 2) { i ->
+            700 * (10.0.pow(melMax * i / (filters + 1) / 2595) - 1) * frameSize / sampleRate
+        }
+        val logMel = DoubleArray(filters) { m ->
+            var energy = 0.0
+            for (bin in power.indices) {
+                val w = if (bin <= edges[m + 1]) {
+                    (bin - edges[m]) / (edges[m + 1] - edges[m])
+                } else {
+                    (edges[m + 2] - bin) / (edges[m + 2] - edges[m + 1])
+                }
+                energy += max(0.0, w) * power[bin]
+            }
+            ln(max(energy, 1e-10))
+        }
+        return DoubleArray(coefficients) { k ->
+            var sum = 0.0
+            for (m in 0 until filters) {
+                sum += sqrt(2.0 / filters) * cos(PI * k * (2 * m + 1) / (2.0 * filters)) * logMel[m]
+            }
+            sum
+        }
+    }
+
+    @Test
+    fun testComputeFrames_MatchesDoublePrecisionReference() {
+        val pcm = TestSignals.speechLike(sampleRate / 2)
+        val extractor = MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0)
+        val frames = extractor.frameCount(pcm.size)
+        val out = FloatArray(frames * coefficients)
+
+        assertEquals(frames, extractor.computeFrames(pcm, 0, pcm.size, out, 0))
+
+        for (f in 0 until frames) {
+            val expected = referenceFrame(pcm, f * hopSize)
+            for (k in 0 until coefficients) {
+                assertEquals("frame $f coefficient $k", expected[k], out[f * coefficients + k].toDouble(),
+                    MfccExtractor.NATIVE_TOLERANCE.toDouble())
+            }
+        }
+    }
+
+    @Test
+    fun testComputeFrames_HonoursOffsets() {
+        val pcm = TestSignals.speechLike(4000)
+        val extractor = MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0)
+        val whole = FloatArray(extractor.frameCount(pcm.size) * coefficients)
+        extractor.computeFrames(pcm, 0, pcm.size, whole, 0)
+
+        // Starting one hop in and writing after a gap gives the same frames shifted by one
+        val shifted = FloatArray(5 + whole.size)
+        val frames = extractor.computeFrames(pcm, hopSize, pcm.size - hopSize, shifted, 5)
+
+        assertEquals(extractor.frameCount(pcm.size) - 1, frames)
+        for (i in 0 until frames * coefficients) {
+            assertEquals(whole[coefficients + i], shifted[5 + i], 0f)
+        }
+    }
+
+    @Test
+    fun testComputeFrame_FloatWindowMatchesPcm() {
+        val pcm = TestSignals.speechLike(frameSize)
+        val extractor = MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0)
+        val fromPcm = FloatArray(coefficients)
+        val fromFloat = FloatArray(coefficients + 2)
+        extractor.computeFrames(pcm, 0, pcm.size, fromPcm, 0)
+
+        val window = FloatArray(frameSize + 3) { i -> if (i < 3) 0f else pcm[i - 3].toFloat() }
+        extractor.computeFrame(window, 3, fromFloat, 2)
+
+        for (k in 0 until coefficients) {
+            assertEquals(fromPcm[k], fromFloat[2 + k], 0f)
+        }
+    }
+
+    @Test
+    fun testLifter_ScalesEachCoefficient() {
+        val pcm = TestSignals.speechLike(frameSize)
+        val plain = FloatArray(coefficients)
+        val liftered = FloatArray(coefficients)
+        MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0).computeFrames(pcm, 0, pcm.size, plain, 0)
+        MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 22).computeFrames(pcm, 0, pcm.size, liftered, 0)
+
+        for (k in 0 until coefficients) {
+            val lift = 1 + 11 * sin(PI * k / 22)
+            assertEquals(plain[k] * lift, liftered[k].toDouble(), 1e-4 * max(1.0, abs(plain[k] * lift)))
+        }
+    }
+
+    @Test
+    fun testSilence_GivesFlooredLogEnergies() {
+        val extractor = MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0)
+        val out = FloatArray(coefficients)
+
+        extractor.computeFrames(ShortArray(frameSize), 0, frameSize, out, 0)
+
+        // Every band sits at the 1e-10 floor, so only the DC coefficient is non-zero
+        assertEquals(filters * sqrt(2.0 / filters) * ln(1e-10f.toDouble()), out[0].toDouble(), 1e-3)
+        for (k in 1 until coefficients) {
+            assertEquals(0.0, out[k].toDouble(), 1e-3)
+        }
+    }
+
+    @Test
+    fun testFrameCount_CountsFullFramesOnly() {
+        val extractor = MfccExtractor(sampleRate, frameSize, hopSize, filters, coefficients, 0)
+
+        assertEquals(0, extractor.frameCount(frameSize - 1))
+        assertEquals(1, extractor.frameCount(frameSize))
+        assertEquals(2, extractor.frameCount(frameSize + hopSize))
+        assertEquals(30, extractor.frameCount(sampleRate))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testConstructor_RejectsMoreCoefficientsThanFilters() {
+        MfccExtractor(sampleRate, frameSize, hopSize, 12, 13, 0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testConstructor_RejectsHopLongerThanFrame() {
+        MfccExtractor(sampleRate, frameSize, frameSize + 1, filters, coefficients, 0)
+    }
+}
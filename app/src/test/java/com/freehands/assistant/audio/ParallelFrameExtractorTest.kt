@@ -0,0 +1,168 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * ParallelFrameExtractor must give exactly the serial frames however the work is split.
+ */
+class ParallelFrameExtractorTest {
+
+    private val sampleRate = 16000
+    private val frameSize = 1024
+    private val hopSize = 512
+    private val coefficients = 13
+
+    private fun mfcc() = MfccExtractor(sampleRate, frameSize, hopSize, 26, coefficients, 0)
+
+    private fun serial(pcm: ShortArray, offset: Int, length: Int): FloatArray {
+        val extractor = mfcc()
+        val out = FloatArray(extractor.frameCount(length) * coefficients)
+        extractor.computeFrames(pcm, offset, length, out, 0)
+        return out
+    }
+
+    private fun <T> withPool(parallelism: Int, block: (ForkJoinPool) -> T): T {
+        val pool = ForkJoinPool(parallelism)
+        try {
+            return block(pool)
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    fun testComputeFrames_IsIdenticalToSerialForAnySplit() {
+        val pcm = TestSignals.speechLike(10 * sampleRate + 333)
+        for (parallelism in listOf(1, 2, 3, 8)) {
+            for (minChunk in listOf(1, 5, 32)) {
+                withPool(parallelism) { pool ->
+                    val parallel = ParallelFrameExtractor(frameSize, hopSize, coefficients, minChunk, pool) {
+                        ParallelFrameExtractor.Workspace(mfcc()::computeFrames)
+                    }
+                    for ((offset, length) in listOf(0 to pcm.size, 77 to pcm.size - 77, 1000 to 3 * sampleRate)) {
+                        val expected = serial(pcm, offset, length)
+                        val out = FloatArray(expected.size)
+
+                        assertEquals(expected.size / coefficients, parallel.computeFrames(pcm, offset, length, out, 0))
+                        assertArrayEquals("parallelism $parallelism, chunk $minChunk, offset $offset",
+                            expected, out, 0f)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testComputeFrames_WritesAfterOutputOffsetOnly() {
+        val pcm = TestSignals.speechLike(4 * sampleRate)
+        val expected = serial(pcm, 0, pcm.size)
+        val out = FloatArray(7 + expected.size + 5) { -1f }
+
+        withPool(4) { pool ->
+            ParallelFrameExtractor(frameSize, hopSize, coefficients, 4, pool) {
+                ParallelFrameExtractor.Workspace(mfcc()::computeFrames)
+            }.computeFrames(pcm, 0, pcm.size, out, 7)
+        }
+
+        for (i in 0 until 7) assertEquals(-1f, out[i], 0f)
+        assertArrayEquals(expected, out.copyOfRange(7, 7 + expected.size), 0f)
+        for (i in 7 + expected.size until out.size) assertEquals(-1f, out[i], 0f)
+    }
+
+    @Test
+    fun testComputeFrames_GivesEachChunkOnlyItsOwnFrames() {
+        val pcm = TestSignals.speechLike(6 * sampleRate)
+        val lengths = Collections.synchronizedList(mutableListOf<Int>())
+        val frames = AtomicInteger()
+
+        withPool(4) { pool ->
+            ParallelFrameExtractor(frameSize, hopSize, coefficients, 8, pool) {
+                val extractor = mfcc()
+                ParallelFrameExtractor.Workspace { samples, offset, length, out, outOffset ->
+                    lengths.add(length)
+                    extractor.computeFrames(samples, offset, length, out, outOffset).also { frames.addAndGet(it) }
+                }
+            }.computeFrames(pcm, 0, pcm.size, FloatArray(200 * coefficients), 0)
+        }
+
+        assertTrue(lengths.size > 1)
+        // Every chunk holds whole frames and no sample beyond its last one
+        for (length in lengths) {
+            assertEquals(0, (length - frameSize) % hopSize)
+        }
+        assertEquals(mfcc().frameCount(pcm.size), frames.get())
+    }
+
+    @Test
+    fun testComputeFrames_ShortBufferRunsOnCallingThread() {
+        val caller = Thread.currentThread()
+        var workspaceThread: Thread? = null
+        val pcm = TestSignals.speechLike(sampleRate)
+
+        withPool(4) { pool ->
+            ParallelFrameExtractor(frameSize, hopSize, coefficients, 32, pool) {
+                val extractor = mfcc()
+                ParallelFrameExtractor.Workspace { samples, offset, length, out, outOffset ->
+                    workspaceThread = Thread.currentThread()
+                    extractor.computeFrames(samples, offset, length, out, outOffset)
+                }
+            }.computeFrames(pcm, 0, pcm.size, FloatArray(30 * coefficients), 0)
+        }
+
+        assertSame(caller, workspaceThread)
+    }
+
+    @Test
+    fun testWorkspaces_AreReusedAndClosed() {
+        val created = AtomicInteger()
+        val closed = AtomicInteger()
+        val pcm = TestSignals.speechLike(8 * sampleRate)
+
+        withPool(2) { pool ->
+            val parallel = ParallelFrameExtractor(frameSize, hopSize, coefficients, 4, pool) {
+                created.incrementAndGet()
+                val extractor = mfcc()
+                object : ParallelFrameExtractor.Workspace {
+                    override fun computeFrames(pcm: ShortArray, offset: Int, length: Int, out: FloatArray,
+                                               outOffset: Int) = extractor.computeFrames(pcm, offset, length, out, outOffset)
+
+                    override fun close() {
+                        closed.incrementAndGet()
+                    }
+                }
+            }
+            val out = FloatArray(parallel.frameCount(pcm.size) * coefficients)
+            repeat(5) { parallel.computeFrames(pcm, 0, pcm.size, out, 0) }
+            parallel.close()
+        }
+
+        // Five calls of eight chunks each, but only one workspace per thread that ran a chunk
+        assertTrue(created.get() in 1 until 8)
+        assertEquals(created.get(), closed.get())
+    }
+
+    @Test
+    fun testComputeFrames_NoFramesWritesNothing() {
+        val out = FloatArray(4) { -1f }
+
+        val frames = withPool(2) { pool ->
+            ParallelFrameExtractor(frameSize, hopSize, coefficients, 4, pool) {
+                ParallelFrameExtractor.Workspace(mfcc()::computeFrames)
+            }.computeFrames(ShortArray(frameSize - 1), 0, frameSize - 1, out, 0)
+        }
+
+        assertEquals(0, frames)
+        assertArrayEquals(FloatArray(4) { -1f }, out, 0f)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testConstructor_RejectsHopLongerThanFrame() {
+        ParallelFrameExtractor(frameSize, frameSize + 1, coefficients, 4, ForkJoinPool.commonPool()) {
+            ParallelFrameExtractor.Workspace(mfcc()::computeFrames)
+        }
+    }
+}
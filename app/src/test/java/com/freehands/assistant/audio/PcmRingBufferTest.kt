@@ -0,0 +1,212 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cursors, wrap-around, overrun handling and blocking reads of PcmRingBuffer, with a real
+ * producer thread where timing matters.
+ */
+class PcmRingBufferTest {
+
+    @Test
+    fun testCapacity_IsRoundedUpToPowerOfTwo() {
+        assertEquals(8, PcmRingBuffer(5).capacity())
+        assertEquals(131072, PcmRingBuffer(16000 * 5).capacity())
+    }
+
+    @Test
+    fun testCursors_ReadIndependently() {
+        val ring = PcmRingBuffer(16)
+        val first = ring.newCursor()
+        val second = ring.newCursor()
+
+        ring.write(shortArrayOf(1, 2, 3, 4), 0, 4)
+
+        val out = ShortArray(4)
+        assertEquals(2, first.read(out, 0, 2))
+        assertArrayEquals(shortArrayOf(1, 2), out.copyOf(2))
+        assertEquals(4, second.read(out, 0, 4))
+        assertArrayEquals(shortArrayOf(1, 2, 3, 4), out)
+        assertEquals(2, first.available())
+        assertEquals(0, second.available())
+    }
+
+    @Test
+    fun testWritePcm16_DecodesLittleEndian() {
+        val ring = PcmRingBuffer(8)
+        val cursor = ring.newCursor()
+
+        ring.writePcm16(byteArrayOf(0x34, 0x12, 0xFF.toByte(), 0xFF.toByte()), 0, 4)
+
+        val out = ShortArray(2)
+        assertEquals(2, cursor.read(out, 0, 2))
+        assertEquals(0x1234.toShort(), out[0])
+        assertEquals((-1).toShort(), out[1])
+    }
+
+    @Test
+    fun testWriteShortBuffer_WrapsAroundFromDirectBuffer() {
+        val ring = PcmRingBuffer(4)
+        val cursor = ring.newCursor()
+        val chunk = ByteBuffer.allocateDirect(6).order(ByteOrder.nativeOrder())
+        val samples = chunk.asShortBuffer()
+
+        samples.put(shortArrayOf(1, 2, 3)).flip()
+        ring.write(samples)
+        assertEquals(0, samples.remaining())
+        samples.clear()
+        samples.put(shortArrayOf(4, 5, 6)).flip()
+        ring.write(samples)
+
+        val out = ShortArray(4)
+        assertEquals(4, cursor.read(out, 0, 4))
+        assertArrayEquals(shortArrayOf(3, 4, 5, 6), out)
+        assertEquals(6L, ring.getWriteSequence())
+    }
+
+    @Test
+    fun testSlowReader_SkipsToOldestSampleAndCountsDrops() {
+        val ring = PcmRingBuffer(4)
+        val cursor = ring.newCursor()
+
+        ring.write(shortArrayOf(1, 2, 3), 0, 3)
+        ring.write(shortArrayOf(4, 5, 6), 0, 3)
+
+        val out = ShortArray(4)
+        assertEquals(4, cursor.read(out, 0, 4))
+        assertArrayEquals(shortArrayOf(3, 4, 5, 6), out)
+        assertEquals(2L, cursor.getDroppedSamples())
+    }
+
+    @Test
+    fun testCopy_ReturnsSamplesEndingAtSequence() {
+        val ring = PcmRingBuffer(8)
+        ring.write(shortArrayOf(1, 2, 3, 4, 5), 0, 5)
+        ring.write(shortArrayOf(6, 7, 8, 9, 10), 0, 5)
+
+        val out = ShortArray(3)
+        assertEquals(3, ring.copy(9, out, 0, 3))
+        assertArrayEquals(shortArrayOf(7, 8, 9), out)
+
+        // Samples 1 and 2 have been overwritten
+        val old = ShortArray(4)
+        assertEquals(2, ring.copy(4, old, 0, 4))
+        assertArrayEquals(shortArrayOf(3, 4), old.copyOf(2))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testWrite_RejectsChunkLargerThanCapacity() {
+        PcmRingBuffer(4).write(ShortArray(5), 0, 5)
+    }
+
+    @Test
+    fun testConcurrentReads_NeverReturnTornSamples() {
+        // Every sample holds its own sequence number, so a sample the writer overwrote while a
+        // reader was copying it shows up as the wrong value
+        val ring = PcmRingBuffer(64)
+        val cursor = ring.newCursor()
+        val producer = Thread {
+            val chunk = ShortArray(48)
+            var sequence = 0
+            while (sequence < 2_000_000) {
+                for (i in chunk.indices) {
+                    chunk[i] = (sequence + i).toShort()
+                }
+                ring.write(chunk, 0, chunk.size)
+                sequence += chunk.size
+            }
+        }
+        producer.start()
+
+        val out = ShortArray(64)
+        val copied = ShortArray(64)
+        while (producer.isAlive) {
+            val count = cursor.read(out, 0, out.size)
+            val start = cursor.position() - count
+            for (i in 0 until count) {
+                assertEquals((start + i).toShort(), out[i])
+            }
+
+            val end = ring.writeSequence
+            val copiedCount = ring.copy(end, copied, 0, copied.size)
+            for (i in 0 until copiedCount) {
+                assertEquals((end - copiedCount + i).toShort(), copied[i])
+            }
+        }
+        producer.join()
+    }
+
+    @Test
+    fun testOverrunSlowReader_DropsLappedSamplesAndNeverReturnsTornOnes() {
+        // The reader asks for the whole ring while a fast producer keeps lapping it, so most copies
+        // race with the writer; whatever it returns must still hold the right sequence numbers
+        val ring = PcmRingBuffer(256)
+        val cursor = ring.newCursor()
+        val producer = Thread {
+            val chunk = ShortArray(200)
+            var sequence = 0
+            while (sequence < 4_000_000) {
+                for (i in chunk.indices) {
+                    chunk[i] = (sequence + i).toShort()
+                }
+                ring.write(chunk, 0, chunk.size)
+                sequence += chunk.size
+            }
+        }
+        producer.start()
+
+        val out = ShortArray(256)
+        var returned = 0L
+        while (producer.isAlive) {
+            val count = cursor.read(out, 0, out.size)
+            val start = cursor.position() - count
+            for (i in 0 until count) {
+                assertEquals((start + i).toShort(), out[i])
+            }
+            returned += count
+            // Fall behind on purpose before the next read
+            var spin = 0
+            while (spin < 20_000) {
+                spin++
+                Thread.onSpinWait()
+            }
+        }
+        producer.join()
+        returned += cursor.read(out, 0, out.size)
+
+        assertTrue(cursor.getDroppedSamples() > 0)
+        assertEquals(cursor.position(), returned + cursor.getDroppedSamples())
+    }
+
+    @Test
+    fun testBlockingRead_WakesWhenProducerWrites() {
+        val ring = PcmRingBuffer(1024)
+        val cursor = ring.newCursor()
+
+        val producer = Thread {
+            Thread.sleep(20)
+            ring.write(ShortArray(100) { it.toShort() }, 0, 100)
+        }
+        producer.start()
+
+        val out = ShortArray(100)
+        val read = cursor.readFully(out, 0, 100, 2, TimeUnit.SECONDS)
+        producer.join()
+
+        assertEquals(100, read)
+        assertEquals(99.toShort(), out[99])
+    }
+
+    @Test
+    fun testBlockingRead_TimesOutWithoutAudio() {
+        val ring = PcmRingBuffer(16)
+        val cursor = ring.newCursor()
+
+        assertEquals(0, cursor.read(ShortArray(4), 0, 4, 10, TimeUnit.MILLISECONDS))
+        cursor.close()
+    }
+}
@@ -0,0 +1,131 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * PitchTracker on harmonic tones, glides, noise and silence.
+ */
+class PitchTrackerTest {
+
+    private val sampleRate = 16000
+    private val frameSize = 1024
+    private val hopSize = 512
+
+    /** Harmonic tone whose pitch moves linearly from [startHz] to [endHz]. */
+    private fun harmonicTone(length: Int, startHz: Double, endHz: Double = startHz): ShortArray {
+        val random = Random(3)
+        var phase = 0.0
+        return ShortArray(length) { i ->
+            var value = 0.0
+            for (h in 1..10) {
+                value += sin(phase * h + h) / h
+            }
+            phase += 2 * PI * (startHz + (endHz - startHz) * i / length) / sampleRate
+            (4000 * value + 200 * (random.nextDouble() - 0.5)).toInt().toShort()
+        }
+    }
+
+    @Test
+    fun testTrack_FollowsHarmonicTones() {
+        val tracker = PitchTracker(sampleRate, frameSize, hopSize)
+        for (pitch in listOf(75.0, 120.0, 210.0, 380.0)) {
+            val pcm = harmonicTone(sampleRate / 2, pitch)
+            val out = DoubleArray(tracker.frameCount(pcm.size))
+
+            assertEquals(out.size, tracker.track(pcm, 0, pcm.size, out, 0))
+            for (f in out.indices) {
+                assertEquals("$pitch Hz, frame $f", pitch, out[f], pitch * 0.01)
+            }
+        }
+    }
+
+    @Test
+    fun testTrack_NoiseAndSilenceAreUnvoiced() {
+        val random = Random(5)
+        val noise = ShortArray(sampleRate / 2) { (6000 * (random.nextDouble() - 0.5)).toInt().toShort() }
+        val tracker = PitchTracker(sampleRate, frameSize, hopSize)
+        val out = DoubleArray(tracker.frameCount(noise.size) + 1) { -1.0 }
+
+        tracker.track(noise, 0, noise.size, out, 1)
+        assertEquals(-1.0, out[0], 0.0)
+        for (f in 1 until out.size) {
+            assertEquals(0.0, out[f], 0.0)
+        }
+
+        tracker.track(ShortArray(frameSize), 0, frameSize, out, 0)
+        assertEquals(0.0, out[0], 0.0)
+    }
+
+    @Test
+    fun testTrack_AgreesWithFeatureStream() {
+        val pcm = harmonicTone(sampleRate, 110.0, 220.0)
+        val tracker = PitchTracker(sampleRate, frameSize, hopSize)
+        val tracked = DoubleArray(tracker.frameCount(pcm.size))
+        tracker.track(pcm, 0, pcm.size, tracked, 0)
+
+        val stream = FeatureStream(64)
+        stream.process(pcm, 0, pcm.size)
+        stream.flush()
+        val rows = DoubleArray(64 * FeatureStream.DIMENSION)
+        val frames = stream.copyFrames(0, pcm.size.toLong(), rows, 0, 0, TimeUnit.MILLISECONDS)
+
+        // The stream's power spectrum carries the 1/32768 sample scale, which only changes rounding
+        assertEquals(tracked.size, frames)
+        for (f in 0 until frames) {
+            assertEquals(tracked[f], rows[f * FeatureStream.DIMENSION + FeatureStream.PITCH_OFFSET], 1e-2)
+        }
+    }
+
+    @Test
+    fun testStatistics_SummariseVoicedFrames() {
+        // Stride 2 with a value to skip in between; 0 marks unvoiced frames
+        val pitches = doubleArrayOf(100.0, -1.0, 0.0, -1.0, 125.0, -1.0, 200.0, -1.0, 0.0, -1.0, 100.0, -1.0)
+        val stats = PitchTracker.Statistics.of(pitches, 0, 2, 6)
+
+        assertEquals(6, stats.frameCount)
+        assertEquals(4, stats.voicedFrames)
+        assertEquals(2.0 / 3, stats.voicedFraction, 1e-12)
+        assertEquals(112.5, stats.median, 1e-12)
+        assertEquals(100.0, stats.minimum, 0.0)
+        assertEquals(200.0, stats.maximum, 0.0)
+        assertEquals(100.0, stats.range, 0.0)
+
+        // Only 125 -> 200 Hz are consecutive voiced frames: |8 ms - 5 ms| over a mean period of 8.25 ms
+        assertEquals(0.003 / 0.00825, stats.jitter, 1e-12)
+    }
+
+    @Test
+    fun testStatistics_GlideHasRangeAndSmallJitter() {
+        val pcm = harmonicTone(sampleRate, 110.0, 220.0)
+        val tracker = PitchTracker(sampleRate, frameSize, hopSize)
+        val tracked = DoubleArray(tracker.frameCount(pcm.size))
+        tracker.track(pcm, 0, pcm.size, tracked, 0)
+        val stats = PitchTracker.Statistics.of(tracked, 0, 1, tracked.size)
+
+        assertEquals(tracked.size, stats.voicedFrames)
+        assertTrue(stats.minimum > 110.0 && stats.maximum < 220.0)
+        assertTrue(stats.range > 80.0)
+        assertEquals(165.0, stats.median, 5.0)
+        assertTrue(stats.jitter > 0.0 && stats.jitter < 0.05)
+    }
+
+    @Test
+    fun testStatistics_NothingVoiced() {
+        val stats = PitchTracker.Statistics.of(DoubleArray(5), 0, 1, 5)
+
+        assertEquals(0, stats.voicedFrames)
+        assertEquals(0.0, stats.median, 0.0)
+        assertEquals(0.0, stats.range, 0.0)
+        assertEquals(0.0, stats.jitter, 0.0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testConstructor_RejectsFramesTooShortForLowestPitch() {
+        PitchTracker(sampleRate, 256, 128)
+    }
+}
@@ -0,0 +1,55 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * RealFft against a direct DFT.
+ */
+class RealFftTest {
+
+    @Test
+    fun testForward_MatchesDirectDft() {
+        val size = 256
+        val random = Random(3)
+        val input = FloatArray(size) { random.nextFloat() * 2 - 1 }
+        val fft = RealFft(size)
+        val re = FloatArray(fft.binCount())
+        val im = FloatArray(fft.binCount())
+
+        fft.forward(input, 0, re, im)
+
+        for (k in 0..size / 2) {
+            var expectedRe = 0.0
+            var expectedIm = 0.0
+            for (t in 0 until size) {
+                val theta = -2 * PI * k * t / size
+                expectedRe += input[t] * cos(theta)
+                expectedIm += input[t] * sin(theta)
+            }
+            assertEquals(expectedRe, re[k].toDouble(), 1e-4)
+            assertEquals(expectedIm, im[k].toDouble(), 1e-4)
+        }
+    }
+
+    @Test
+    fun testPowerSpectrum_PeaksAtToneBin() {
+        val size = 512
+        val input = FloatArray(size + 10) { i -> if (i < 10) 0f else sin(2 * PI * 40 * (i - 10) / size).toFloat() }
+        val power = FloatArray(size / 2 + 1)
+
+        RealFft(size).powerSpectrum(input, 10, power)
+
+        assertEquals(40, power.indices.maxByOrNull { power[it] })
+        assertEquals((size / 2.0) * (size / 2.0), power[40].toDouble(), 1.0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testConstructor_RejectsNonPowerOfTwo() {
+        RealFft(400)
+    }
+}
@@ -0,0 +1,37 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * SNR estimates of SegmentQuality for speech, steady tones and short segments.
+ */
+class SegmentQualityTest {
+
+    private val frameSize = 320
+
+    @Test
+    fun testSnr_SpeechOverQuietBackgroundIsHigh() {
+        // 0.5 s of low noise followed by 0.5 s of a loud tone
+        val samples = ShortArray(16000) { i ->
+            if (i < 8000) ((i * 7919) % 41 - 20).toShort()
+            else (8000 * sin(2 * PI * 200 * i / 16000)).toInt().toShort()
+        }
+
+        assertTrue(SegmentQuality.estimateSnrDb(samples, samples.size, frameSize) > 30)
+    }
+
+    @Test
+    fun testSnr_SteadyToneIsNearZero() {
+        val samples = ShortArray(16000) { i -> (8000 * sin(2 * PI * 200 * i / 16000)).toInt().toShort() }
+
+        assertEquals(0.0, SegmentQuality.estimateSnrDb(samples, samples.size, frameSize), 1.0)
+    }
+
+    @Test
+    fun testSnr_TooShortSegmentReturnsZero() {
+        assertEquals(0.0, SegmentQuality.estimateSnrDb(ShortArray(400), 400, frameSize), 0.0)
+    }
+}
@@ -0,0 +1,121 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * TemplateKeywordSpotter takes c1..c12 of FeatureStream frames, whether it computes them itself or
+ * reads a stream fed by someone else, and matches a phrase however loudly it is said.
+ */
+class TemplateKeywordSpotterTest {
+
+    private val history = 93
+    private val dimension = TemplateKeywordSpotter.FEATURE_COUNT
+
+    private fun bank(template: Array<DoubleArray> = Array(10) { DoubleArray(dimension) { d -> d.toDouble() } }) =
+        KeywordBank(listOf(KeywordBank.Keyword("hey", listOf(template), 1)), 0.25, 0.7)
+
+    private fun rowsOf(ring: FeatureRing) =
+        (ring.oldestFrame until ring.frameCount).map { f -> ring.data.copyOfRange(ring.rowOffset(f), ring.rowOffset(f) + dimension) }
+
+    @Test
+    fun testChunkedInput_TakesStreamMfccsAfterC0() {
+        val audio = TestSignals.speechLike(2 * TestSignals.SAMPLE_RATE)
+        val spotter = TemplateKeywordSpotter(bank(), history)
+
+        // Chunks that straddle frame and hop boundaries
+        var frames = 0
+        for (offset in audio.indices step 700) {
+            frames += spotter.accept(audio, offset, minOf(700, audio.size - offset))
+        }
+
+        val stream = FeatureStream(history)
+        stream.process(audio, 0, audio.size)
+        val rows = DoubleArray(history * FeatureStream.DIMENSION)
+        val expected = stream.copyFrames(0, audio.size.toLong(), rows, 0, 0, TimeUnit.MILLISECONDS)
+
+        // The last frame waits for its successor, as in the stream
+        assertEquals(FeatureStream.frameCount(audio.size) - 1, frames)
+        assertEquals(expected, frames)
+        val taken = rowsOf(spotter.ring)
+        for (f in 0 until expected) {
+            for (d in 0 until dimension) {
+                assertEquals(rows[f * FeatureStream.DIMENSION + FeatureStream.MFCC_OFFSET + 1 + d], taken[f][d], 0.0)
+            }
+        }
+    }
+
+    @Test
+    fun testSharedStream_TakesTheSameFramesWhenItsFeedLags() {
+        val audio = TestSignals.speechLike(32 * 1024)
+        val shared = FeatureStream(2 * history)
+        val reader = TemplateKeywordSpotter(bank(), history, shared)
+        val own = TemplateKeywordSpotter(bank(), history)
+
+        // The stream's feed is a hop behind the reader, so some frames are taken one call late
+        for (offset in audio.indices step 1024) {
+            val end = (offset + 1024).toLong()
+            shared.process(audio, offset, FeatureStream.HOP_SIZE, offset + FeatureStream.HOP_SIZE.toLong())
+            reader.accept(audio, offset, 1024, end)
+            own.accept(audio, offset, 1024, end)
+            shared.process(audio, offset + FeatureStream.HOP_SIZE, 1024 - FeatureStream.HOP_SIZE, end)
+        }
+        reader.accept(audio, 0, 0, audio.size.toLong())
+
+        assertEquals(own.ring.frameCount, reader.ring.frameCount)
+        val expected = rowsOf(own.ring)
+        val taken = rowsOf(reader.ring)
+        for (f in expected.indices) {
+            assertArrayEquals(expected[f], taken[f], 0.0)
+        }
+
+        // Every frame is taken once
+        assertEquals(0, reader.accept(audio, 0, 0, audio.size.toLong()))
+    }
+
+    @Test
+    fun testQuieterAudio_GivesTheSameFeatures() {
+        val audio = TestSignals.speechLike(2 * TestSignals.SAMPLE_RATE)
+        val quiet = ShortArray(audio.size) { (audio[it] / 4).toShort() }
+        val loud = TemplateKeywordSpotter(bank(), history)
+        val soft = TemplateKeywordSpotter(bank(), history)
+
+        loud.accept(audio, 0, audio.size)
+        soft.accept(quiet, 0, quiet.size)
+
+        // 12 dB changes c0 by about 20; the coefficients after it hardly move
+        val expected = rowsOf(loud.ring)
+        val taken = rowsOf(soft.ring)
+        for (f in expected.indices) {
+            assertArrayEquals(expected[f], taken[f], 0.05)
+        }
+    }
+
+    @Test
+    fun testPhraseSaidQuieter_IsDetectedAndNoiseIsNot() {
+        val audio = TestSignals.speechLike(2 * TestSignals.SAMPLE_RATE)
+        val enrolled = TemplateKeywordSpotter(bank(), history)
+        enrolled.accept(audio, 0, audio.size)
+        val template = rowsOf(enrolled.ring).subList(10, 30).toTypedArray()
+
+        val quiet = ShortArray(audio.size) { (audio[it] / 4).toShort() }
+        val random = Random(3)
+        val noise = ShortArray(audio.size) { (10000 * (random.nextDouble() - 0.5)).toInt().toShort() }
+
+        assertTrue(bestScore(TemplateKeywordSpotter(bank(template), history), quiet) > 0.99f)
+        assertEquals(0.0f, bestScore(TemplateKeywordSpotter(bank(template), history), noise), 0.0f)
+    }
+
+    private fun bestScore(spotter: TemplateKeywordSpotter, audio: ShortArray): Float {
+        var best = 0f
+        for (offset in audio.indices step 1024) {
+            if (spotter.accept(audio, offset, minOf(1024, audio.size - offset)) > 0) {
+                spotter.score()
+                best = maxOf(best, spotter.getScore(0))
+            }
+        }
+        return best
+    }
+}
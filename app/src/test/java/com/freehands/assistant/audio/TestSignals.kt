@@ -0,0 +1,26 @@
+package com.freehands.assistant.audio
+
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Synthetic audio shared by the host tests, at the capture rate of 16 kHz.
+ */
+object TestSignals {
+
+    const val SAMPLE_RATE = 16000
+
+    /**
+     * A 140 Hz voice swelling at 4 Hz over a steady 1300 Hz partial and a little noise. Every call
+     * returns the same samples, so tests can compare two passes over it.
+     */
+    fun speechLike(length: Int): ShortArray {
+        val random = Random(9)
+        return ShortArray(length) { i ->
+            val t = i.toDouble() / SAMPLE_RATE
+            val voiced = 8000 * sin(2 * PI * 140 * t) * (0.5 + 0.5 * sin(2 * PI * 4 * t))
+            (voiced + 2500 * sin(2 * PI * 1300 * t) + 400 * (random.nextDouble() - 0.5)).toInt().toShort()
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * Onset, hangover and framing behaviour of VoiceActivityDetector.
+ */
+class VoiceActivityDetectorTest {
+
+    private val frameSize = VoiceActivityDetector.DEFAULT_FRAME_SIZE
+
+    private fun quietNoise(samples: Int) = ShortArray(samples) { i -> ((i * 7919) % 41 - 20).toShort() }
+
+    private fun voiced(samples: Int) =
+        ShortArray(samples) { i -> (6000 * sin(2 * PI * 180 * i / 16000)).toInt().toShort() }
+
+    @Test
+    fun testSilence_IsNeverSpeech() {
+        val vad = VoiceActivityDetector()
+        val noise = quietNoise(16000)
+
+        assertFalse(vad.process(noise, 0, noise.size))
+        assertEquals(50L, vad.getFrameCount())
+        assertEquals(0L, vad.getSpeechFrameCount())
+    }
+
+    @Test
+    fun testVoicedBurst_ActivatesAfterOnset() {
+        val vad = VoiceActivityDetector()
+        vad.process(quietNoise(8000), 0, 8000)
+
+        val speech = voiced(frameSize * VoiceActivityDetector.ONSET_FRAMES)
+        assertTrue(vad.process(speech, 0, speech.size))
+        assertTrue(vad.isLastFrameSpeech())
+        assertTrue(vad.getLastEnergyDb() - vad.getNoiseFloorDb() > 9)
+    }
+
+    @Test
+    fun testHangover_KeepsSpeechActiveThenReleases() {
+        val vad = VoiceActivityDetector()
+        vad.process(quietNoise(8000), 0, 8000)
+        vad.process(voiced(8000), 0, 8000)
+
+        val hangover = quietNoise(frameSize * VoiceActivityDetector.HANGOVER_FRAMES)
+        assertTrue(vad.process(hangover, 0, hangover.size))
+        assertFalse(vad.process(quietNoise(frameSize), 0, frameSize))
+    }
+
+    @Test
+    fun testPartialChunks_AreAssembledIntoFrames() {
+        val vad = VoiceActivityDetector()
+        val noise = quietNoise(1000)
+
+        for (i in 0 until 10) {
+            vad.process(noise, i * 100, 100)
+        }
+        assertEquals(3L, vad.getFrameCount())
+    }
+
+    @Test
+    fun testListener_ReceivesEveryFrame() {
+        val vad = VoiceActivityDetector()
+        val indices = mutableListOf<Long>()
+        vad.setFrameListener { index, _, _, _, _, _ -> indices.add(index) }
+
+        vad.process(quietNoise(frameSize * 4), 0, frameSize * 4)
+        assertEquals(listOf(0L, 1L, 2L, 3L), indices)
+    }
+}
@@ -0,0 +1,76 @@
+package com.freehands.assistant.audio
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import kotlin.math.sin
+
+/**
+ * Saving and loading wake word templates, and rejecting files that are not ours or were recorded
+ * with older features.
+ */
+class WakeWordTemplateStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val dimension = TemplateKeywordSpotter.FEATURE_COUNT
+
+    private fun template(seed: Int, frames: Int) =
+        Array(frames) { f -> DoubleArray(dimension) { d -> sin(seed * 0.3 + f * 1.7 + d * 0.9) * 3 - 10 } }
+
+    @Test
+    fun testSaveAndLoad_RoundTripsAsFloat() {
+        val file = folder.newFile("templates.bin")
+        val templates = listOf(template(1, 8), template(2, 11))
+
+        WakeWordTemplateStore.save(file, templates)
+        val loaded = WakeWordTemplateStore.load(file)
+
+        assertEquals(2, loaded.size)
+        assertEquals(11, loaded[1].size)
+        assertEquals(16 + (4 + 8 * dimension * 4) + (4 + 11 * dimension * 4), file.length().toInt())
+        for (t in templates.indices) {
+            for (f in templates[t].indices) {
+                for (d in 0 until dimension) {
+                    assertEquals(templates[t][f][d], loaded[t][f][d], 1e-5)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testIsCurrent_RejectsTemplatesOfOlderFeatures() {
+        val file = folder.newFile("templates.bin")
+        WakeWordTemplateStore.save(file, listOf(template(1, 8)))
+        assertTrue(WakeWordTemplateStore.isCurrent(file))
+
+        // Version 1 held band energies, which the detector no longer computes
+        val bytes = file.readBytes()
+        bytes[4] = 1
+        file.writeBytes(bytes)
+        assertFalse(WakeWordTemplateStore.isCurrent(file))
+        try {
+            WakeWordTemplateStore.load(file)
+            fail("Version 1 templates were loaded")
+        } catch (expected: IOException) {
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun testLoad_RejectsForeignFile() {
+        val file = folder.newFile("other.bin")
+        file.writeBytes(ByteArray(64) { 7 })
+        WakeWordTemplateStore.load(file)
+    }
+
+    @Test(expected = IOException::class)
+    fun testLoad_RejectsTruncatedFile() {
+        val file = folder.newFile("truncated.bin")
+        WakeWordTemplateStore.save(file, listOf(template(1, 8)))
+        file.writeBytes(file.readBytes().copyOf(100))
+        WakeWordTemplateStore.load(file)
+    }
+}
@@ -0,0 +1,49 @@
+package com.freehands.assistant.commands
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * CommandMatcher picks handlers as CommandProcessor always has: by first word, then by the first
+ * contextual rule whose word groups the command contains.
+ */
+class CommandMatcherTest {
+
+    private val matcher = CommandMatcher<String>().apply {
+        put("call", "call")
+        put("camera", "camera")
+        addRule("call", "call|phone")
+        addRule("camera", "take", "photo|picture")
+        addRule("time", "what", "time")
+    }
+
+    @Test
+    fun testFirstWord_WinsOverRules() {
+        assertEquals("camera", matcher.match("camera then call mom"))
+        assertEquals("call", matcher.match("call"))
+        // Any \s character ends the first word
+        assertEquals("call", matcher.match("call\tmom"))
+    }
+
+    @Test
+    fun testRules_NeedAWordOfEveryGroupInOrderOfAdding() {
+        assertEquals("call", matcher.match("please phone mom"))
+        assertEquals("camera", matcher.match("please take a picture"))
+        assertEquals("time", matcher.match("so what's the time"))
+        // "picture" alone is not enough for the camera rule
+        assertNull(matcher.match("show me a picture"))
+        // The earlier rule wins
+        assertEquals("call", matcher.match("take a photo and call"))
+    }
+
+    @Test
+    fun testRuleWords_MatchInsideOtherWords() {
+        assertEquals("call", matcher.match("recall the headphones"))
+    }
+
+    @Test
+    fun testUnknownCommand_HasNoHandler() {
+        assertNull(matcher.match("sing a song"))
+        assertNull(matcher.match(""))
+    }
+}
@@ -0,0 +1,93 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.commands.CommandMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command matching with the first words and contextual rules of CommandProcessor: normalising,
+ * picking the handler and splitting the parameters, everything processCommand does before the
+ * handler runs. Each benchmark matches four utterances, found by their first word, by a contextual
+ * rule, or not at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandMatchingBenchmark {
+
+    private static final String[] FIRST_WORD = {
+        "Call Mom", "open spotify", "navigate to the nearest gas station", "battery"
+    };
+    private static final String[] CONTEXTUAL = {
+        "please take a picture", "what's the time", "could you turn the volume up", "can you phone dad"
+    };
+    private static final String[] UNRECOGNISED = {
+        "sing me a song", "how tall is mount everest", "tell me a joke", "good morning"
+    };
+
+    private CommandMatcher<String> matcher;
+
+    @Setup
+    public void setUp() {
+        matcher = new CommandMatcher<>();
+        String[][] handlers = {
+            {"call", "call", "phone", "dial"},
+            {"text", "text", "message", "sms", "send"},
+            {"camera", "camera", "photo", "picture", "selfie"},
+            {"openApp", "open", "launch", "start"},
+            {"closeApp", "close"},
+            {"volume", "volume"}, {"brightness", "brightness"}, {"wifi", "wifi"},
+            {"bluetooth", "bluetooth"}, {"airplane", "airplane"},
+            {"navigate", "navigate", "directions", "map"},
+            {"time", "time"}, {"date", "date"}, {"battery", "battery"}, {"weather", "weather"},
+            {"lock", "lock"}, {"unlock", "unlock"}, {"home", "home"}, {"back", "back"}, {"recent", "recent"},
+            {"notifications", "notifications"}, {"readNotifications", "read"},
+            {"emergency", "emergency"}, {"help", "help"}
+        };
+        for (String[] handler : handlers) {
+            for (int w = 1; w < handler.length; w++) {
+                matcher.put(handler[w], handler[0]);
+            }
+        }
+        matcher.addRule("call", "call|phone");
+        matcher.addRule("text", "text|message");
+        matcher.addRule("camera", "take", "photo|picture");
+        matcher.addRule("openApp", "open|launch");
+        matcher.addRule("time", "what", "time");
+        matcher.addRule("volume", "turn", "volume");
+    }
+
+    @Benchmark
+    public void firstWord(Blackhole blackhole) {
+        matchAll(FIRST_WORD, blackhole);
+    }
+
+    @Benchmark
+    public void contextual(Blackhole blackhole) {
+        matchAll(CONTEXTUAL, blackhole);
+    }
+
+    @Benchmark
+    public void unrecognised(Blackhole blackhole) {
+        matchAll(UNRECOGNISED, blackhole);
+    }
+
+    private void matchAll(String[] commands, Blackhole blackhole) {
+        for (String command : commands) {
+            String normalized = command.toLowerCase().trim();
+            String handler = matcher.match(normalized);
+            blackhole.consume(handler);
+            if (handler != null) {
+                blackhole.consume(normalized.split("\\s+"));
+            }
+        }
+    }
+}
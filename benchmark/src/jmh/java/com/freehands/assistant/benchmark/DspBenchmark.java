@@ -0,0 +1,119 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.LogMelExtractor;
+import com.freehands.assistant.audio.MelFilterBank;
+import com.freehands.assistant.audio.MfccExtractor;
+import com.freehands.assistant.audio.PitchTracker;
+import com.freehands.assistant.audio.RealFft;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front-end kernels on 1024-sample frames at 16 kHz, the configuration of the MFCC and feature
+ * stream path: one FFT, one mel filter bank pass, and whole seconds of MFCCs, pitch and streaming
+ * features. Every kernel reuses its buffers, so the GC profiler should report close to 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DspBenchmark {
+
+    private static final int FRAME_SIZE = 1024;
+    private static final int HOP_SIZE = 512;
+
+    @Param({Signals.SILENCE, Signals.SINE, Signals.SPEECH, Signals.NOISE})
+    public String signal;
+
+    private short[] oneSecond;
+    private short[] threeSeconds;
+    private float[] frame;
+    private float[] power;
+    private float[] mel;
+    private float[] mfccs;
+    private double[] pitches;
+
+    private RealFft fft;
+    private MelFilterBank filterBank;
+    private MfccExtractor mfcc;
+    private PitchTracker pitch;
+    private FeatureStream featureStream;
+    private LogMelExtractor logMel;
+
+    @Setup
+    public void setUp() {
+        oneSecond = Signals.generate(signal, Signals.SAMPLE_RATE);
+        threeSeconds = Signals.generate(signal, 3 * Signals.SAMPLE_RATE);
+
+        fft = new RealFft(FRAME_SIZE);
+        filterBank = new MelFilterBank(Signals.SAMPLE_RATE, FRAME_SIZE, FeatureStream.MEL_BANDS, 0f,
+            Signals.SAMPLE_RATE / 2f);
+        mfcc = new MfccExtractor(Signals.SAMPLE_RATE, FRAME_SIZE, HOP_SIZE, FeatureStream.MEL_BANDS,
+            FeatureStream.MFCC_COUNT, 0);
+        pitch = new PitchTracker(Signals.SAMPLE_RATE, FRAME_SIZE, HOP_SIZE);
+        featureStream = new FeatureStream(64);
+        logMel = new LogMelExtractor(98);
+
+        frame = new float[FRAME_SIZE];
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            frame[i] = oneSecond[i] / 32768f;
+        }
+        power = new float[fft.binCount()];
+        fft.powerSpectrum(frame, 0, power);
+        mel = new float[FeatureStream.MEL_BANDS];
+        mfccs = new float[mfcc.frameCount(oneSecond.length) * FeatureStream.MFCC_COUNT];
+        pitches = new double[pitch.frameCount(threeSeconds.length)];
+    }
+
+    @Benchmark
+    public float[] fftPowerSpectrum() {
+        fft.powerSpectrum(frame, 0, power);
+        return power;
+    }
+
+    @Benchmark
+    public float[] melFilterBank() {
+        filterBank.apply(power, mel, 0);
+        return mel;
+    }
+
+    /** 30 frames of 13 MFCCs. */
+    @Benchmark
+    public float[] mfccOneSecond() {
+        mfcc.computeFrames(oneSecond, 0, oneSecond.length, mfccs, 0);
+        return mfccs;
+    }
+
+    /** 92 frames of pitch with voicing, the length of an authentication sample. */
+    @Benchmark
+    public double[] pitchThreeSeconds() {
+        pitch.track(threeSeconds, 0, threeSeconds.length, pitches, 0);
+        return pitches;
+    }
+
+    /**
+     * Log-mel, MFCCs, deltas, energy and pitch of every hop, as the capture hub feeds them; the
+     * template spotter's front-end as well.
+     */
+    @Benchmark
+    public int featureStreamOneSecond() {
+        return featureStream.process(oneSecond, 0, oneSecond.length);
+    }
+
+    /** The convolutional spotter's 40-band front-end, in 1024-sample capture chunks. */
+    @Benchmark
+    public void logMelOneSecond(Blackhole blackhole) {
+        for (int offset = 0; offset + FRAME_SIZE <= oneSecond.length; offset += FRAME_SIZE) {
+            blackhole.consume(logMel.process(oneSecond, offset, FRAME_SIZE));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.audio.ConvKeywordSpotter;
+import com.freehands.assistant.audio.KeywordSpotterModel;
+import com.freehands.assistant.audio.LogMelExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The int8 convolutional keyword spotter with a random model of the shape intended for
+ * assets/models/keyword_spotter.bin: 40-band log-mel input over one second, four 64-channel
+ * convolutions and a dense layer over six labels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeywordSpotterBenchmark {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Param({Signals.SILENCE, Signals.SINE, Signals.SPEECH, Signals.NOISE})
+    public String signal;
+
+    private short[] oneSecond;
+    private ConvKeywordSpotter spotter;
+    private ConvKeywordSpotter streamingSpotter;
+
+    @Setup
+    public void setUp() {
+        oneSecond = Signals.generate(signal, Signals.SAMPLE_RATE);
+        spotter = new ConvKeywordSpotter(randomModel());
+        spotter.accept(oneSecond, 0, oneSecond.length);
+        streamingSpotter = new ConvKeywordSpotter(randomModel());
+    }
+
+    /** One evaluation of the network over its window. */
+    @Benchmark
+    public int inference() {
+        return spotter.score();
+    }
+
+    /** One second through the front-end, scoring once per capture chunk as during speech. */
+    @Benchmark
+    public int oneSecondOfAudio() {
+        int best = -1;
+        for (int offset = 0; offset + CHUNK_SIZE <= oneSecond.length; offset += CHUNK_SIZE) {
+            if (streamingSpotter.accept(oneSecond, offset, CHUNK_SIZE) > 0) {
+                best = streamingSpotter.score();
+            }
+        }
+        return best;
+    }
+
+    private static KeywordSpotterModel randomModel() {
+        Random random = new Random(7);
+        int bands = LogMelExtractor.BAND_COUNT;
+        List<KeywordSpotterModel.Layer> layers = new ArrayList<>();
+        int channels = bands;
+        for (int stride : new int[] {2, 2, 1, 1}) {
+            byte[] weights = new byte[64 * 3 * channels];
+            random.nextBytes(weights);
+            float[] scales = new float[64];
+            Arrays.fill(scales, 0.01f);
+            layers.add(new KeywordSpotterModel.Layer(KeywordSpotterModel.LAYER_CONV, 64, 3, stride, 0.05f,
+                scales, new float[64], weights));
+            channels = 64;
+        }
+        String[] labels = {"_silence_", "_unknown_", "привет брат", "stop", "cancel", "emergency"};
+        byte[] weights = new byte[labels.length * channels];
+        random.nextBytes(weights);
+        float[] scales = new float[labels.length];
+        Arrays.fill(scales, 0.01f);
+        layers.add(new KeywordSpotterModel.Layer(KeywordSpotterModel.LAYER_DENSE, labels.length, 1, 1, 1f,
+            scales, new float[labels.length], weights));
+
+        float[] mean = new float[bands];
+        Arrays.fill(mean, -8f);
+        return new KeywordSpotterModel(bands, 98, 0.05f, mean, labels, layers);
+    }
+}
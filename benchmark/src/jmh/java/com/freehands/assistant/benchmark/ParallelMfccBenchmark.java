@@ -0,0 +1,76 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.audio.MfccExtractor;
+import com.freehands.assistant.audio.ParallelFrameExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MFCCs of a 30 s recording, the longest buffer feature extraction accepts, split across a
+ * fork-join pool of 1 to 8 threads, against one serial pass; results are identical for every pool
+ * size. Whether more threads are faster is unverified: so far this has only run on a single-core
+ * machine, where every pool size took about as long as the serial pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelMfccBenchmark {
+
+    private static final int FRAME_SIZE = 1024;
+    private static final int HOP_SIZE = 512;
+    private static final int COEFFICIENTS = 13;
+    private static final int CHUNK_FRAMES = 32;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private short[] recording;
+    private float[] out;
+    private MfccExtractor serial;
+    private ForkJoinPool pool;
+    private ParallelFrameExtractor parallel;
+
+    @Setup
+    public void setUp() {
+        recording = Signals.speechLike(30 * Signals.SAMPLE_RATE);
+        serial = newExtractor();
+        out = new float[serial.frameCount(recording.length) * COEFFICIENTS];
+        pool = new ForkJoinPool(parallelism);
+        parallel = new ParallelFrameExtractor(FRAME_SIZE, HOP_SIZE, COEFFICIENTS, CHUNK_FRAMES, pool, () -> {
+            MfccExtractor extractor = newExtractor();
+            return extractor::computeFrames;
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public float[] parallel() {
+        parallel.computeFrames(recording, 0, recording.length, out, 0);
+        return out;
+    }
+
+    /** The same frames on the benchmark thread alone; independent of {@link #parallelism}. */
+    @Benchmark
+    public float[] serial() {
+        serial.computeFrames(recording, 0, recording.length, out, 0);
+        return out;
+    }
+
+    private static MfccExtractor newExtractor() {
+        return new MfccExtractor(Signals.SAMPLE_RATE, FRAME_SIZE, HOP_SIZE, 26, COEFFICIENTS, 0);
+    }
+}
@@ -0,0 +1,73 @@
+package com.freehands.assistant.benchmark;
+
+import java.util.Random;
+
+/**
+ * Synthetic 16 kHz test signals: silence, a sine, a speech-like voice and noise. Random parts are
+ * seeded so every run measures the same input.
+ */
+final class Signals {
+
+    static final int SAMPLE_RATE = 16000;
+
+    /** Values for a {@code @Param} choosing the signal. */
+    static final String SILENCE = "silence";
+    static final String SINE = "sine";
+    static final String SPEECH = "speech";
+    static final String NOISE = "noise";
+
+    private Signals() {
+    }
+
+    static short[] generate(String kind, int length) {
+        switch (kind) {
+            case SILENCE:
+                return new short[length];
+            case SINE:
+                return sine(1000, length);
+            case SPEECH:
+                return speechLike(length);
+            case NOISE:
+                return noise(length);
+            default:
+                throw new IllegalArgumentException("Unknown signal " + kind);
+        }
+    }
+
+    /** Sine at 80% of full scale. */
+    static short[] sine(double frequency, int length) {
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = (short) (Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * 0.8 * Short.MAX_VALUE);
+        }
+        return signal;
+    }
+
+    /** A 120 Hz voice with five formants, 5 Hz amplitude modulation and a little noise. */
+    static short[] speechLike(int length) {
+        double[][] formants = {{800, 1.0}, {1200, 0.8}, {2500, 0.6}, {3500, 0.4}, {4500, 0.2}};
+        Random random = new Random(11);
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double sample = 0.5 * Math.sin(2 * Math.PI * 120 * t);
+            for (double[] formant : formants) {
+                sample += formant[1] * Math.sin(2 * Math.PI * formant[0] * t);
+            }
+            sample *= 0.5 * (1 + Math.sin(2 * Math.PI * 5 * t));
+            sample += (random.nextDouble() - 0.5) * 0.1;
+            signal[i] = (short) (Math.max(-1, Math.min(1, sample)) * Short.MAX_VALUE);
+        }
+        return signal;
+    }
+
+    /** Uniform white noise over the full 16-bit range. */
+    static short[] noise(int length) {
+        Random random = new Random(13);
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = (short) ((random.nextDouble() * 2 - 1) * Short.MAX_VALUE);
+        }
+        return signal;
+    }
+}
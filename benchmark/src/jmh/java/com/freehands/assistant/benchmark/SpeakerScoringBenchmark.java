@@ -0,0 +1,95 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.PitchTracker;
+import com.freehands.assistant.audio.SpeakerScorer;
+import com.freehands.assistant.audio.VoiceFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speaker verification scoring: a 2 s authentication utterance against a profile of three 3 s
+ * enrollment utterances, as the voice authenticator records them. Features come from the feature
+ * stream in setup, so only the comparison is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpeakerScoringBenchmark {
+
+    private static final int PROFILE_UTTERANCES = 3;
+    private static final int PROFILE_SAMPLES = 3 * Signals.SAMPLE_RATE;
+    private static final int AUTH_SAMPLES = 2 * Signals.SAMPLE_RATE;
+
+    @Param({Signals.SILENCE, Signals.SINE, Signals.SPEECH, Signals.NOISE})
+    public String signal;
+
+    private List<VoiceFeature> profile;
+    private VoiceFeature current;
+
+    @Setup
+    public void setUp() {
+        short[] audio = Signals.generate(signal, PROFILE_UTTERANCES * PROFILE_SAMPLES + AUTH_SAMPLES);
+        profile = new ArrayList<>();
+        for (int u = 0; u < PROFILE_UTTERANCES; u++) {
+            profile.add(features(audio, u * PROFILE_SAMPLES, PROFILE_SAMPLES));
+        }
+        current = features(audio, PROFILE_UTTERANCES * PROFILE_SAMPLES, AUTH_SAMPLES);
+    }
+
+    /** One authentication decision's score. */
+    @Benchmark
+    public float scoreAgainstProfile() {
+        return SpeakerScorer.score(profile, current);
+    }
+
+    // Mean MFCCs and pitch statistics of the stream frames, and the four spectral values the
+    // authenticator stores
+    private static VoiceFeature features(short[] audio, int offset, int length) {
+        FeatureStream stream = new FeatureStream(FeatureStream.frameCount(length));
+        stream.process(audio, offset, length);
+        stream.flush();
+        double[] rows = new double[FeatureStream.frameCount(length) * FeatureStream.DIMENSION];
+        int frames = stream.copyFrames(0, length, rows, 0, 0, TimeUnit.MILLISECONDS);
+
+        double[] mfcc = new double[FeatureStream.MFCC_COUNT];
+        for (int f = 0; f < frames; f++) {
+            for (int k = 0; k < mfcc.length; k++) {
+                mfcc[k] += rows[f * FeatureStream.DIMENSION + FeatureStream.MFCC_OFFSET + k] / frames;
+            }
+        }
+        PitchTracker.Statistics pitch = PitchTracker.Statistics.of(rows, FeatureStream.PITCH_OFFSET,
+            FeatureStream.DIMENSION, frames);
+
+        double energy = 0;
+        int crossings = 0;
+        for (int i = offset; i < offset + length; i++) {
+            double sample = audio[i] / 32768.0;
+            energy += sample * sample;
+            if (i > offset && (audio[i] >= 0) != (audio[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        double rms = Math.sqrt(energy / length);
+        // The authenticator's centroid weights the first 512 samples' squares by their index
+        double weighted = 0, power = 0;
+        for (int i = 0; i < Math.min(1024, length) / 2; i++) {
+            double sample = audio[offset + i] / 32768.0;
+            weighted += i * sample * sample;
+            power += sample * sample;
+        }
+        double[] spectral = {power > 0 ? weighted / power : 0, rms, (double) crossings / length, power};
+
+        return new VoiceFeature(mfcc, pitch.getMedian(), pitch.getRange(), pitch.getJitter(), spectral, rms);
+    }
+}
@@ -0,0 +1,82 @@
+package com.freehands.assistant.benchmark;
+
+import com.freehands.assistant.audio.FeatureStream;
+import com.freehands.assistant.audio.KeywordBank;
+import com.freehands.assistant.audio.TemplateKeywordSpotter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wake word template matching: the DTW keyword bank against a growing number of keywords, each with
+ * three synthetic templates of 8 to 14 frames.
+ *
+ * The spotter takes one capture chunk, two stream frames, into an already filled feature history
+ * and scores the bank once, as the detector does while speech is present.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WakeWordMatchingBenchmark {
+
+    private static final int FRAME_SIZE = 1024;
+
+    @Param({Signals.SILENCE, Signals.SINE, Signals.SPEECH, Signals.NOISE})
+    public String signal;
+
+    @Param({"1", "4", "16"})
+    public int keywords;
+
+    private short[] oneSecond;
+    private TemplateKeywordSpotter spotter;
+    private int offset;
+
+    @Setup
+    public void setUp() {
+        oneSecond = Signals.generate(signal, Signals.SAMPLE_RATE);
+
+        List<KeywordBank.Keyword> list = new ArrayList<>();
+        for (int k = 0; k < keywords; k++) {
+            List<double[][]> templates = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                double[][] template = new double[8 + (k + t) % 7][TemplateKeywordSpotter.FEATURE_COUNT];
+                for (int f = 0; f < template.length; f++) {
+                    for (int d = 0; d < template[f].length; d++) {
+                        template[f][d] = Math.sin(k * 2.9 + t * 0.4 + f * 1.7 + d * (0.5 + 0.21 * k));
+                    }
+                }
+                templates.add(template);
+            }
+            list.add(new KeywordBank.Keyword("keyword" + k, templates, 2));
+        }
+        KeywordBank bank = new KeywordBank(list, 0.25, 0.7);
+
+        // Three seconds of history, so the bank sees a wrapped ring as in steady state
+        spotter = new TemplateKeywordSpotter(bank, 3 * Signals.SAMPLE_RATE / FeatureStream.HOP_SIZE);
+        for (int i = 0; i < 4; i++) {
+            for (int o = 0; o + FRAME_SIZE <= oneSecond.length; o += FRAME_SIZE) {
+                spotter.accept(oneSecond, o, FRAME_SIZE);
+            }
+        }
+    }
+
+    /** One capture chunk: its feature frames and one score of every keyword. */
+    @Benchmark
+    public int templateBankPerChunk() {
+        if (offset + FRAME_SIZE > oneSecond.length) {
+            offset = 0;
+        }
+        spotter.accept(oneSecond, offset, FRAME_SIZE);
+        offset += FRAME_SIZE;
+        return spotter.score();
+    }
+}